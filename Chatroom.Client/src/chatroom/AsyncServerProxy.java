@@ -0,0 +1,709 @@
+package chatroom;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * AsyncServerProxy class
+ * Asynchronous view of ServerInterface, every operation returns a CompletableFuture.
+ * Sends issued while another send is in flight are queued and go out together in
+ * one sendMsgBatch call. Only one sendMsgBatch call is in flight at a time, so
+ * messages keep their order; the queue coalesces instead of pipelining. A send
+ * timing out after its call was made completes with a SendTimeoutException,
+ * its outcome is unknown and it must not be resent. Identical chatroom and
+ * participant list refreshes share the call already in flight, and every
+ * call completes with a TimeoutException after the default timeout unless it
+ * finishes earlier or is cancelled; the remote call itself is not stopped.
+ * Calls shed by the busy server are retried after the delay it suggests
+ * until they succeed or time out.
+ * @author Zhao Zhengyang
+ */
+public class AsyncServerProxy {
+
+    /**
+     * A call of a ServerInterface method
+     * @param <T> result type
+     */
+    public interface ServerCall<T> {
+
+        /**
+         * Invoke the remote method
+         * @param serverInterface
+         * @return result
+         * @throws RemoteException 
+         */
+        T call(ServerInterface serverInterface) throws RemoteException;
+    }
+
+    /**
+     * A send waiting for the next sendMsgBatch call
+     */
+    private static class PendingSend {
+
+        private String chatroomName;
+        private String sender;
+        private String receiver;
+        private String msg;
+        private CompletableFuture<Void> future = new CompletableFuture<>();
+        /**Whether the send was taken into a sendMsgBatch call, guarded by sendQueue*/
+        private boolean submitted;
+
+        /**Constructor, create PendingSend object*/
+        public PendingSend(String chatroomName, String sender, String receiver, String msg) {
+
+            super();
+            this.chatroomName = chatroomName;
+            this.sender = sender;
+            this.receiver = receiver;
+            this.msg = msg;
+        }
+    }
+
+    /**Default timeout of a call in milliseconds*/
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+
+    /**Reference of remote object, replaced after reconnect*/
+    private volatile ServerInterface serverInterface;
+    /**Timeout applied to every call, 0 for none*/
+    private volatile long defaultTimeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    /**Threads performing the remote calls*/
+    private ExecutorService executorService;
+    /**Timer of the call timeouts*/
+    private ScheduledExecutorService timer;
+    /**
+     * Refreshes in flight
+     * key: operation and argument, value: shared result
+     */
+    private Hashtable<String, CompletableFuture<?>> inFlightTable = new Hashtable<>();
+    /**Sends waiting for the send in flight*/
+    private ArrayList<PendingSend> sendQueue = new ArrayList<>();
+    /**Whether a sendMsgBatch call is in flight*/
+    private boolean sending;
+
+    /**Constructor, create AsyncServerProxy object*/
+    public AsyncServerProxy(ServerInterface serverInterface, int threads) {
+
+        super();
+        this.serverInterface = serverInterface;
+        final AtomicInteger count = new AtomicInteger();
+        ThreadFactory threadFactory = new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "server-call-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        this.executorService = Executors.newFixedThreadPool(threads, threadFactory);
+        this.timer = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    /**
+     * Get the remote object calls are made on
+     * @return serverInterface
+     */
+    public ServerInterface getServerInterface() {
+        return serverInterface;
+    }
+
+    /**
+     * Replace the remote object, e.g. after reconnect
+     * @param serverInterface 
+     */
+    public void setServerInterface(ServerInterface serverInterface) {
+        this.serverInterface = serverInterface;
+    }
+
+    /**
+     * Set the timeout applied to every call
+     * @param defaultTimeoutMillis 0 for none
+     */
+    public void setDefaultTimeout(long defaultTimeoutMillis) {
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+    }
+
+    /**
+     * Perform a remote call asynchronously with the default timeout
+     * Cancelling the returned future drops the call if it has not started.
+     * @param <T>
+     * @param serverCall
+     * @return future
+     */
+    public <T> CompletableFuture<T> call(final ServerCall<T> serverCall) {
+        return call(serverCall, defaultTimeoutMillis);
+    }
+
+    /**
+     * Perform a remote call asynchronously
+     * @param <T>
+     * @param serverCall
+     * @param timeoutMillis 0 for none
+     * @return future
+     */
+    public <T> CompletableFuture<T> call(final ServerCall<T> serverCall, long timeoutMillis) {
+
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        submit(serverCall, future);
+        return withTimeout(future, timeoutMillis);
+    }
+
+    /**
+     * Perform a remote call on the call threads, completing future
+     * A call shed by the busy server is submitted again after the suggested delay.
+     * @param <T>
+     * @param serverCall
+     * @param future 
+     */
+    private <T> void submit(final ServerCall<T> serverCall, final CompletableFuture<T> future) {
+
+        final Future<?> task = executorService.submit(new Runnable() {
+
+            @Override
+            public void run() {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    future.complete(serverCall.call(serverInterface));
+                } catch (RemoteException ex) {
+                    ServerBusyException busy = ServerBusyException.from(ex);
+                    if (busy == null) {
+                        future.completeExceptionally(ex);
+                        return;
+                    }
+                    timer.schedule(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            if (!future.isDone()) {
+                                submit(serverCall, future);
+                            }
+                        }
+                    }, busy.getRetryAfterMillis(), TimeUnit.MILLISECONDS);
+                } catch (RuntimeException ex) {
+                    future.completeExceptionally(ex);
+                }
+            }
+        });
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+
+            @Override
+            public void accept(T result, Throwable ex) {
+                if (future.isCancelled()) {
+                    task.cancel(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Complete future with a TimeoutException unless it completes within timeoutMillis
+     * @param <T>
+     * @param future
+     * @param timeoutMillis 0 for none
+     * @return future
+     */
+    public <T> CompletableFuture<T> withTimeout(final CompletableFuture<T> future, long timeoutMillis) {
+
+        if (timeoutMillis <= 0 || future.isDone()) {
+            return future;
+        }
+        final Future<?> timeout = timer.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                future.completeExceptionally(new TimeoutException("Server call timed out"));
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+
+            @Override
+            public void accept(T result, Throwable ex) {
+                timeout.cancel(false);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Perform a refresh, sharing the call already in flight with the same key
+     * Every caller gets its own dependent future, so a caller cancelling it
+     * or timing it out does not cancel the call for the others.
+     * @param <T>
+     * @param key
+     * @param serverCall
+     * @return future
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> shared(final String key, ServerCall<T> serverCall) {
+
+        synchronized (inFlightTable) {
+            CompletableFuture<T> future = (CompletableFuture<T>) inFlightTable.get(key);
+            if (future != null) {
+                return future.thenApply(Function.<T>identity());
+            }
+            future = call(serverCall);
+            inFlightTable.put(key, future);
+            future.whenComplete(new BiConsumer<T, Throwable>() {
+
+                @Override
+                public void accept(T result, Throwable ex) {
+                    synchronized (inFlightTable) {
+                        inFlightTable.remove(key);
+                    }
+                }
+            });
+            return future.thenApply(Function.<T>identity());
+        }
+    }
+
+    /**
+     * Asynchronous ServerInterface.clientStart
+     */
+    public CompletableFuture<String> clientStart(final String clientName) {
+        return call(new ServerCall<String>() {
+
+            @Override
+            public String call(ServerInterface server) throws RemoteException {
+                return server.clientStart(clientName);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous ServerInterface.resumeSession
+     */
+    public CompletableFuture<SessionState> resumeSession(final String token, final ClientInterface clientInterface, final long seq) {
+        return call(new ServerCall<SessionState>() {
+
+            @Override
+            public SessionState call(ServerInterface server) throws RemoteException {
+                return server.resumeSession(token, clientInterface, seq);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous ServerInterface.clientQuit
+     */
+    public CompletableFuture<Void> clientQuit(final String clientName, final ClientInterface clientInterface) {
+        return call(new ServerCall<Void>() {
+
+            @Override
+            public Void call(ServerInterface server) throws RemoteException {
+                server.clientQuit(clientName, clientInterface);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Get current chatrooms, concurrent refreshes share one call
+     * @return future chatroom names and creators
+     */
+    public CompletableFuture<ArrayList<String[]>> getChatroomList() {
+        return shared("getChatroomList", new ServerCall<ArrayList<String[]>>() {
+
+            @Override
+            public ArrayList<String[]> call(ServerInterface server) throws RemoteException {
+                return server.getChatroomList();
+            }
+        });
+    }
+
+    /**
+     * Asynchronous ServerInterface.getTopChatrooms
+     */
+    public CompletableFuture<ArrayList<String[]>> getTopChatrooms(final int n) {
+        return call(new ServerCall<ArrayList<String[]>>() {
+
+            @Override
+            public ArrayList<String[]> call(ServerInterface server) throws RemoteException {
+                return server.getTopChatrooms(n);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous ServerInterface.getChatroomPage
+     */
+    public CompletableFuture<ArrayList<String[]>> getChatroomPage(final String order, final String[] after, final int limit) {
+        return call(new ServerCall<ArrayList<String[]>>() {
+
+            @Override
+            public ArrayList<String[]> call(ServerInterface server) throws RemoteException {
+                return server.getChatroomPage(order, after, limit);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous ServerInterface.subscribe
+     */
+    public CompletableFuture<Void> subscribe(final ClientInterface clientInterface) {
+        return call(new ServerCall<Void>() {
+
+            @Override
+            public Void call(ServerInterface server) throws RemoteException {
+                server.subscribe(clientInterface);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronous ServerInterface.unsubscribe
+     */
+    public CompletableFuture<Void> unsubscribe(final ClientInterface clientInterface) {
+        return call(new ServerCall<Void>() {
+
+            @Override
+            public Void call(ServerInterface server) throws RemoteException {
+                server.unsubscribe(clientInterface);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronous ServerInterface.createChatroom
+     */
+    public CompletableFuture<Void> createChatroom(final String chatroomName, final String clientName) {
+        return call(new ServerCall<Void>() {
+
+            @Override
+            public Void call(ServerInterface server) throws RemoteException {
+                server.createChatroom(chatroomName, clientName);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronous ServerInterface.destroyChatroom
+     */
+    public CompletableFuture<Void> destroyChatroom(final String chatroomName) {
+        return call(new ServerCall<Void>() {
+
+            @Override
+            public Void call(ServerInterface server) throws RemoteException {
+                server.destroyChatroom(chatroomName);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronous ServerInterface.enterChatroom
+     */
+    public CompletableFuture<ArrayList<String>> enterChatroom(final String chatroomName, final String clientName, final ClientInterface clientInterface) {
+        return call(new ServerCall<ArrayList<String>>() {
+
+            @Override
+            public ArrayList<String> call(ServerInterface server) throws RemoteException {
+                return server.enterChatroom(chatroomName, clientName, clientInterface);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous ServerInterface.exitChatroom
+     */
+    public CompletableFuture<Void> exitChatroom(final String chatroomName, final String clientName) {
+        return call(new ServerCall<Void>() {
+
+            @Override
+            public Void call(ServerInterface server) throws RemoteException {
+                server.exitChatroom(chatroomName, clientName);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Refresh the participant list, concurrent refreshes of a chatroom share one call
+     * @param chatroomName
+     * @return future participant list
+     */
+    public CompletableFuture<ArrayList<String>> refreshParticipantsList(final String chatroomName) {
+        return shared("refreshParticipantsList/" + chatroomName, new ServerCall<ArrayList<String>>() {
+
+            @Override
+            public ArrayList<String> call(ServerInterface server) throws RemoteException {
+                return server.refreshParticipantsList(chatroomName);
+            }
+        });
+    }
+
+    /**
+     * Send a message. Sends keep their order; sends issued while one is in
+     * flight are queued and sent together in one call.
+     * @param chatroomName
+     * @param sender
+     * @param receiver
+     * @param msg
+     * @return future completed when the server accepted the message, with a
+     * TimeoutException if it timed out unsent, with a SendTimeoutException
+     * if it timed out while its call was in flight and may still be posted
+     */
+    public CompletableFuture<Void> sendMsg(String chatroomName, String sender, String receiver, String msg) {
+
+        final PendingSend pendingSend = new PendingSend(chatroomName, sender, receiver, msg);
+        synchronized (sendQueue) {
+            sendQueue.add(pendingSend);
+            if (!sending) {
+                sending = true;
+                executorService.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        drainSendQueue();
+                    }
+                });
+            }
+        }
+        long timeoutMillis = defaultTimeoutMillis;
+        if (timeoutMillis > 0) {
+            final Future<?> timeout = timer.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    synchronized (sendQueue) {
+                        //a send not taken yet is skipped by drainSendQueue and never posted
+                        pendingSend.future.completeExceptionally(pendingSend.submitted
+                                ? new SendTimeoutException("Send timed out, outcome unknown")
+                                : new TimeoutException("Send timed out unsent"));
+                    }
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+            pendingSend.future.whenComplete(new BiConsumer<Void, Throwable>() {
+
+                @Override
+                public void accept(Void result, Throwable ex) {
+                    timeout.cancel(false);
+                }
+            });
+        }
+        return pendingSend.future;
+    }
+
+    /**
+     * Send queued messages until the queue is empty,
+     * one sendMsgBatch call per run of messages of the same chatroom and sender
+     */
+    private void drainSendQueue() {
+
+        while (true) {
+            ArrayList<PendingSend> batch = new ArrayList<>();
+            synchronized (sendQueue) {
+                if (sendQueue.isEmpty()) {
+                    sending = false;
+                    return;
+                }
+                PendingSend first = sendQueue.get(0);
+                while (!sendQueue.isEmpty()
+                        && sendQueue.get(0).chatroomName.equals(first.chatroomName)
+                        && sendQueue.get(0).sender.equals(first.sender)) {
+                    PendingSend pendingSend = sendQueue.remove(0);
+                    if (!pendingSend.future.isDone()) {
+                        pendingSend.submitted = true;
+                        batch.add(pendingSend);
+                    }
+                }
+            }
+            if (batch.isEmpty()) {
+                continue;
+            }
+            ArrayList<String[]> msgList = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                msgList.add(new String[]{batch.get(i).receiver, batch.get(i).msg});
+            }
+            try {
+                sendBatch(batch, msgList);
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).future.complete(null);
+                }
+            } catch (RemoteException | RuntimeException ex) {
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).future.completeExceptionally(ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Call sendMsgBatch, retrying while the server is busy and a send still waits
+     * @param batch
+     * @param msgList
+     * @throws RemoteException 
+     */
+    private void sendBatch(ArrayList<PendingSend> batch, ArrayList<String[]> msgList) throws RemoteException {
+
+        while (true) {
+            try {
+                serverInterface.sendMsgBatch(batch.get(0).chatroomName, batch.get(0).sender, msgList);
+                return;
+            } catch (RemoteException ex) {
+                ServerBusyException busy = ServerBusyException.from(ex);
+                if (busy == null) {
+                    throw ex;
+                }
+                boolean waiting = false;
+                for (int i = 0; i < batch.size(); i++) {
+                    waiting |= !batch.get(i).future.isDone();
+                }
+                if (!waiting) {
+                    throw ex;
+                }
+                try {
+                    //the send queue backs up meanwhile and goes out in bigger batches
+                    Thread.sleep(busy.getRetryAfterMillis());
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    /**
+     * Asynchronous ServerInterface.ackMsg
+     */
+    public CompletableFuture<MessageBatch> ackMsg(final String chatroomName, final String clientName, final long seq) {
+        return call(new ServerCall<MessageBatch>() {
+
+            @Override
+            public MessageBatch call(ServerInterface server) throws RemoteException {
+                return server.ackMsg(chatroomName, clientName, seq);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous ServerInterface.joinMulticast
+     */
+    public CompletableFuture<MulticastGroup> joinMulticast(final String chatroomName, final String clientName) {
+        return call(new ServerCall<MulticastGroup>() {
+
+            @Override
+            public MulticastGroup call(ServerInterface server) throws RemoteException {
+                return server.joinMulticast(chatroomName, clientName);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous ServerInterface.leaveMulticast
+     */
+    public CompletableFuture<Void> leaveMulticast(final String chatroomName, final String clientName) {
+        return call(new ServerCall<Void>() {
+
+            @Override
+            public Void call(ServerInterface server) throws RemoteException {
+                server.leaveMulticast(chatroomName, clientName);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronous ServerInterface.pollMsgs
+     * The call thread is held while the poll waits, the call times out
+     * only after the poll timeout has passed.
+     */
+    public CompletableFuture<MessageBatch> pollMsgs(final String chatroomName, final String clientName, final long afterSeq, final int maxMsgs, final long timeoutMillis) {
+        return call(new ServerCall<MessageBatch>() {
+
+            @Override
+            public MessageBatch call(ServerInterface server) throws RemoteException {
+                return server.pollMsgs(chatroomName, clientName, afterSeq, maxMsgs, timeoutMillis);
+            }
+        }, defaultTimeoutMillis <= 0 ? 0 : defaultTimeoutMillis + timeoutMillis);
+    }
+
+    /**
+     * Asynchronous ServerInterface.getNames
+     */
+    public CompletableFuture<String[]> getNames(final int[] ids) {
+        return call(new ServerCall<String[]>() {
+
+            @Override
+            public String[] call(ServerInterface server) throws RemoteException {
+                return server.getNames(ids);
+            }
+        });
+    }
+
+    /**
+     * Refresh participant ids, concurrent refreshes of a chatroom share one call
+     * @param chatroomName
+     * @return future participant ids, null if the chatroom does not exist
+     */
+    public CompletableFuture<int[]> refreshParticipantIds(final String chatroomName) {
+        return shared("refreshParticipantIds/" + chatroomName, new ServerCall<int[]>() {
+
+            @Override
+            public int[] call(ServerInterface server) throws RemoteException {
+                return server.refreshParticipantIds(chatroomName);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous ServerInterface.updatePresence
+     */
+    public CompletableFuture<Void> updatePresence(final String chatroomName, final String clientName, final byte state) {
+        return call(new ServerCall<Void>() {
+
+            @Override
+            public Void call(ServerInterface server) throws RemoteException {
+                server.updatePresence(chatroomName, clientName, state);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronous ServerInterface.SearchPerson
+     */
+    public CompletableFuture<String> searchPerson(final String name) {
+        return call(new ServerCall<String>() {
+
+            @Override
+            public String call(ServerInterface server) throws RemoteException {
+                return server.SearchPerson(name);
+            }
+        });
+    }
+
+    /**
+     * Run task on the timer of the calls after delayMillis
+     * @param task
+     * @param delayMillis
+     */
+    public void schedule(Runnable task, long delayMillis) {
+        timer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the call threads, calls in flight are abandoned
+     */
+    public void shutdown() {
+        executorService.shutdownNow();
+        timer.shutdownNow();
+    }
+
+}
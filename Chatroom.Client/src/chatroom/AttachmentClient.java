@@ -0,0 +1,189 @@
+package chatroom;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * AttachmentClient class
+ * Moves attachment chunks between local files and the server's attachment
+ * endpoint. Uploads go from the file to the socket with transferTo and
+ * downloads from the socket to the file with transferFrom, so the content
+ * is not copied through the heap. A download is checked against its hash.
+ * @author Zhao Zhengyang
+ */
+public class AttachmentClient {
+
+    /**Size of the chunks requested and sent*/
+    public static final int CHUNK_SIZE = 256 * 1024;
+
+    /**Address of the attachment endpoint*/
+    private InetSocketAddress address;
+
+    /**
+     * Constructor, create AttachmentClient object
+     * @param host server host
+     * @param port attachment port
+     */
+    public AttachmentClient(String host, int port) {
+
+        super();
+        this.address = new InetSocketAddress(host, port);
+    }
+
+    /**
+     * Upload a file and share it in a chatroom
+     * @param server
+     * @param chatroomName chatroom the client is participating
+     * @param clientName
+     * @param file
+     * @return reference broadcast to the chatroom
+     * @throws IOException if the server refuses or the transfer fails
+     */
+    public AttachmentRef upload(ServerInterface server, String chatroomName, String clientName, File file) throws IOException {
+
+        try (FileChannel fileChannel = new RandomAccessFile(file, "r").getChannel();
+                SocketChannel socket = SocketChannel.open(address)) {
+            long size = fileChannel.size();
+            long uploadId = server.beginUpload(chatroomName, clientName, file.getName(), size);
+            if (uploadId < 0) {
+                throw new IOException("Upload of " + file + " refused");
+            }
+            ByteBuffer header = ByteBuffer.allocate(1 + 8 + 8 + 4);
+            ByteBuffer reply = ByteBuffer.allocate(8);
+            for (long offset = 0; offset < size; offset += CHUNK_SIZE) {
+                int length = (int) Math.min(CHUNK_SIZE, size - offset);
+                header.clear();
+                header.put(AttachmentRef.OP_PUT).putLong(uploadId).putLong(offset).putInt(length);
+                header.flip();
+                writeFully(socket, header);
+                long sent = 0;
+                while (sent < length) {
+                    sent += fileChannel.transferTo(offset + sent, length - sent, socket);
+                }
+                if (readLong(socket, reply) != length) {
+                    throw new IOException("Upload of " + file + " failed at " + offset);
+                }
+            }
+            AttachmentRef ref = server.finishUpload(uploadId);
+            if (ref == null) {
+                throw new IOException("Upload of " + file + " incomplete");
+            }
+            return ref;
+        }
+    }
+
+    /**
+     * Download an attachment shared in a chatroom into a file
+     * @param server
+     * @param chatroomName chatroom the reference was received in
+     * @param clientName participant of the chatroom
+     * @param ref
+     * @param target overwritten
+     * @throws IOException if the download is refused, the transfer fails or the hash differs
+     */
+    public void download(ServerInterface server, String chatroomName, String clientName, AttachmentRef ref, File target) throws IOException {
+
+        long ticket = server.requestDownload(chatroomName, clientName, ref.getHash());
+        if (ticket < 0) {
+            throw new IOException("Download of " + ref.getFileName() + " refused");
+        }
+        try (FileChannel fileChannel = new RandomAccessFile(target, "rw").getChannel();
+                SocketChannel socket = SocketChannel.open(address)) {
+            fileChannel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(1 + 8 + 8 + 4);
+            ByteBuffer reply = ByteBuffer.allocate(8);
+            long offset = 0;
+            while (offset < ref.getSize()) {
+                int length = (int) Math.min(CHUNK_SIZE, ref.getSize() - offset);
+                header.clear();
+                header.put(AttachmentRef.OP_GET).putLong(ticket).putLong(offset).putInt(length);
+                header.flip();
+                writeFully(socket, header);
+                long count = readLong(socket, reply);
+                if (count <= 0) {
+                    throw new IOException("Attachment " + ref.getHash() + " unavailable at " + offset);
+                }
+                long received = 0;
+                while (received < count) {
+                    long n = fileChannel.transferFrom(socket, offset + received, count - received);
+                    if (n <= 0) {
+                        throw new EOFException();
+                    }
+                    received += n;
+                }
+                offset += count;
+            }
+            if (!ref.getHash().equals(hash(fileChannel))) {
+                throw new IOException("Attachment " + ref.getHash() + " corrupted");
+            }
+        }
+    }
+
+    /**
+     * Read an 8-byte reply
+     * @param socket
+     * @param reply
+     * @return value
+     * @throws IOException
+     */
+    private static long readLong(SocketChannel socket, ByteBuffer reply) throws IOException {
+
+        reply.clear();
+        while (reply.hasRemaining()) {
+            if (socket.read(reply) < 0) {
+                throw new EOFException();
+            }
+        }
+        return reply.getLong(0);
+    }
+
+    /**
+     * Write all of buffer
+     * @param socket
+     * @param buffer
+     * @throws IOException
+     */
+    private static void writeFully(SocketChannel socket, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            socket.write(buffer);
+        }
+    }
+
+    /**
+     * Get SHA-256 of the content of channel
+     * @param channel
+     * @return hash lowercase hex
+     * @throws IOException
+     */
+    private static String hash(FileChannel channel) throws IOException {
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        long position = 0;
+        while (true) {
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                break;
+            }
+            position += n;
+            buffer.flip();
+            digest.update(buffer);
+        }
+        return AttachmentRef.toHex(digest.digest());
+    }
+
+}
@@ -0,0 +1,973 @@
+package chatroom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.rmi.Naming;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless chatroom client
+ * Holds the client protocol state (session, current chatroom, sequence numbers,
+ * presence) and implements ClientInterface. Events are reported to a
+ * ChatClientListener, so the same core serves the Swing client, bots and load tests.
+ * @author Zhao Zhengyang
+ */
+public class ChatClientCore extends UnicastRemoteObject implements ClientInterface {
+
+    private static final long serialVersionUID = 1L;
+
+    /**Number of received messages after which an acknowledgement is sent*/
+    public static final int ACK_INTERVAL = 32;
+    /**Minimum interval between two typing reports in milliseconds*/
+    public static final long TYPING_REPORT_MILLIS = 2000;
+    /**Default number of threads performing server calls*/
+    public static final int DEFAULT_CALL_THREADS = 4;
+    /**Maximum waiting time of a long poll in milliseconds*/
+    public static final long POLL_TIMEOUT_MILLIS = 30000;
+    /**Maximum number of messages returned by a poll*/
+    public static final int POLL_MAX_MSGS = 256;
+    /**Pause before polling again after a failed poll in milliseconds*/
+    public static final long POLL_RETRY_MILLIS = 1000;
+    /**Time without packets or heartbeats after which the multicast group is left in milliseconds*/
+    public static final int MULTICAST_SILENCE_MILLIS = 5000;
+    /**Maximum number of batches held back behind a gap*/
+    public static final int REORDER_BATCHES = 16;
+    /**Time a gap may stay open before it is repaired in milliseconds, reordered batches close it meanwhile*/
+    public static final long REORDER_MILLIS = 50;
+    /**Time after which an unanswered repair is sent again in milliseconds*/
+    public static final long REPAIR_TIMEOUT_MILLIS = 2000;
+    /**Bound of the random wait before the first reconnect attempt in milliseconds, doubled per attempt*/
+    public static final long RECONNECT_BASE_MILLIS = 500;
+    /**Largest bound of the random wait before a reconnect attempt in milliseconds*/
+    public static final long RECONNECT_MAX_MILLIS = 30000;
+
+    /**Unique name of the client*/
+    private String clientName;
+    /**rmi address of the server*/
+    private String serverUrl;
+    /**Listener of client events*/
+    private ChatClientListener listener;
+    /**Asynchronous calls on the server*/
+    private AsyncServerProxy asyncServer;
+    /**Session token issued by the server at client start*/
+    private volatile String sessionToken;
+    /**
+     * Names of the ids given by the server, ids are never reused
+     * key: id, value: client name
+     */
+    private Hashtable<Integer, String> nameCache = new Hashtable<>();
+    /**Whether chatrooms are entered in pull mode, messages are long polled instead of called back*/
+    private volatile boolean pullMode;
+    /**Whether chatroom messages are received on the chatroom's multicast group if the server offers one*/
+    private volatile boolean multicastMode;
+    /**Receiver of the current chatroom's multicast group, null if called back*/
+    private MulticastReceiver multicastReceiver;
+    /**Whether the client subscribed to the registration center, restored on a fresh session*/
+    private volatile boolean subscribed;
+    /**Number of reconnections so far, calls failing on an older connection do not reconnect again*/
+    private volatile int connectGeneration;
+    /**Whether a reconnect is running*/
+    private final AtomicBoolean reconnecting = new AtomicBoolean();
+    /**Whether quit was called, no more reconnects*/
+    private volatile boolean quitting;
+    /**The chatroom visiting, empty if in no room*/
+    private volatile String currentChatroom = "";
+    /**
+     * Highest sequence number of currentChatroom received without gap
+     * -1 before the first message of the chatroom arrives
+     */
+    private long lastSeq = -1;
+    /**Sequence number last acknowledged to the server*/
+    private long lastAckedSeq = -1;
+    /**Highest sequence number of currentChatroom known to exist, from batches and heartbeats*/
+    private long knownSeq = -1;
+    /**
+     * Batches received behind a gap, delivered once the gap is closed
+     * key: first sequence number, value: batch
+     */
+    private TreeMap<Long, MessageBatch> pendingBatches = new TreeMap<>();
+    /**Sequence number acknowledged by the repair in flight, -1 if none*/
+    private long repairSeq = -1;
+    /**Time the repair in flight was sent*/
+    private long repairStarted;
+    /**Whether a repair check is scheduled*/
+    private boolean repairScheduled;
+    /**Time of the last typing report*/
+    private volatile long lastTypingReport;
+    /**
+     * Presence of the currentChatroom participants, replaced by every presence update
+     * key: participant name, value: presence state
+     */
+    private volatile Hashtable<String, Byte> presenceTable = new Hashtable<>();
+
+    /**
+     * Constructor, create a ChatClientCore and export it for server callbacks
+     * @param clientName
+     * @param serverUrl
+     * @param listener
+     * @throws RemoteException 
+     */
+    public ChatClientCore(String clientName, String serverUrl, ChatClientListener listener) throws RemoteException {
+
+        super(Integer.getInteger("chatroom.callback.port", 0), createSocketFactory(), createSocketFactory());
+        this.clientName = clientName;
+        this.serverUrl = serverUrl;
+        this.listener = listener;
+    }
+
+    /**
+     * Create the socket factory of the callbacks from system properties,
+     * TCP_NODELAY is on and both buffers are 64 KiB unless configured
+     * @return factory
+     */
+    private static TunedSocketFactory createSocketFactory() {
+        return new TunedSocketFactory(Boolean.parseBoolean(System.getProperty("chatroom.socket.nodelay", "true")),
+                Integer.getInteger("chatroom.socket.sndbuf", 64 * 1024), Integer.getInteger("chatroom.socket.rcvbuf", 64 * 1024),
+                Integer.getInteger("chatroom.socket.backlog", 16), null);
+    }
+
+    /**
+     * Look up the server and start a session
+     * @param callThreads number of threads performing server calls
+     * @throws RemoteException
+     * @throws NotBoundException
+     * @throws MalformedURLException 
+     */
+    public void start(int callThreads) throws RemoteException, NotBoundException, MalformedURLException {
+
+        ServerInterface serverInterface = (ServerInterface) Naming.lookup(serverUrl);
+        asyncServer = new AsyncServerProxy(serverInterface, callThreads);
+        sessionToken = serverInterface.clientStart(clientName);
+    }
+
+    /**
+     * Enter chatrooms in pull mode, for clients the server cannot call back,
+     * e.g. behind a firewall or NAT. Private messages are not received in pull mode.
+     * Takes effect at the next enterChatroom.
+     * @param pullMode 
+     */
+    public void setPullMode(boolean pullMode) {
+        this.pullMode = pullMode;
+    }
+
+    /**
+     * Receive chatroom messages on the chatroom's multicast group, for clients
+     * on the server's LAN. Lost packets are repaired with an acknowledgement;
+     * the client falls back to callbacks if the server has multicast off or
+     * the group stays silent. Not used in pull mode, takes effect at the next
+     * enterChatroom. The interface the group is joined on is read from the
+     * chatroom.multicast.interface property, e.g. lo for tests on one host.
+     * @param multicastMode 
+     */
+    public void setMulticastMode(boolean multicastMode) {
+        this.multicastMode = multicastMode;
+    }
+
+    /**
+     * Get client name
+     * @return clientName
+     */
+    public String getClientName() {
+        return clientName;
+    }
+
+    /**
+     * Get the chatroom visiting
+     * @return currentChatroom, empty if in no room
+     */
+    public String getCurrentChatroom() {
+        return currentChatroom;
+    }
+
+    /**
+     * Get presence state of a participant of the current chatroom
+     * @param participantName
+     * @return state, PresenceUpdate.IDLE if unknown
+     */
+    public byte getPresence(String participantName) {
+        Byte state = presenceTable.get(participantName);
+        return state == null ? PresenceUpdate.IDLE : state;
+    }
+
+    /**
+     * Get the asynchronous server proxy
+     * @return asyncServer
+     */
+    public AsyncServerProxy getAsyncServer() {
+        return asyncServer;
+    }
+
+    /**
+     * Quit the system and stop receiving callbacks
+     * @return future
+     */
+    public CompletableFuture<Void> quit() {
+
+        quitting = true;
+        final ChatClientCore core = this;
+        return asyncServer.clientQuit(clientName, this).whenComplete(new BiConsumer<Void, Throwable>() {
+
+            @Override
+            public void accept(Void result, Throwable ex) {
+                try {
+                    UnicastRemoteObject.unexportObject(core, true);
+                } catch (NoSuchObjectException e) {
+                    //already unexported
+                }
+                asyncServer.shutdown();
+            }
+        });
+    }
+
+    /**
+     * Subscribe to the registration center
+     * @return future
+     */
+    public CompletableFuture<Void> subscribe() {
+        subscribed = true;
+        return watch(asyncServer.subscribe(this));
+    }
+
+    /**
+     * Unsubscribe from the registration center
+     * @return future
+     */
+    public CompletableFuture<Void> unsubscribe() {
+        subscribed = false;
+        return watch(asyncServer.unsubscribe(this));
+    }
+
+    /**
+     * Get current chatrooms
+     * @return future chatroom names and creators
+     */
+    public CompletableFuture<ArrayList<String[]>> getChatroomList() {
+        return watch(asyncServer.getChatroomList());
+    }
+
+    /**
+     * Get the chatrooms with the most participants
+     * @param n
+     * @return future chatroom names, creators and participant counts
+     */
+    public CompletableFuture<ArrayList<String[]>> getTopChatrooms(int n) {
+        return watch(asyncServer.getTopChatrooms(n));
+    }
+
+    /**
+     * Get a sorted page of chatrooms
+     * @param order "size", "name" or "creator"
+     * @param after last row of the previous page, null for the first page
+     * @param limit maximum number of rows
+     * @return future chatroom names, creators and participant counts
+     */
+    public CompletableFuture<ArrayList<String[]>> getChatroomPage(String order, String[] after, int limit) {
+        return watch(asyncServer.getChatroomPage(order, after, limit));
+    }
+
+    /**
+     * Create a new chatroom
+     * @param chatroomName
+     * @return future
+     */
+    public CompletableFuture<Void> createChatroom(String chatroomName) {
+        return watch(asyncServer.createChatroom(chatroomName, clientName));
+    }
+
+    /**
+     * Destroy a chatroom
+     * @param chatroomName
+     * @return future
+     */
+    public CompletableFuture<Void> destroyChatroom(String chatroomName) {
+        return watch(asyncServer.destroyChatroom(chatroomName));
+    }
+
+    /**
+     * Enter a chatroom, it becomes the current chatroom on success
+     * @param chatroomName
+     * @return future participant list, a single "not exist" if the chatroom does not exist or "full" if it is full
+     */
+    public CompletableFuture<ArrayList<String>> enterChatroom(final String chatroomName) {
+
+        final boolean pull = pullMode;
+        return watch(asyncServer.enterChatroom(chatroomName, clientName, pull ? null : this).thenApply(new Function<ArrayList<String>, ArrayList<String>>() {
+
+            @Override
+            public ArrayList<String> apply(ArrayList<String> participantList) {
+                if (!participantList.get(0).equals("not exist") && !participantList.get(0).equals("full")) {
+                    resetSeq();
+                    currentChatroom = chatroomName;
+                    if (pull) {
+                        startPolling(chatroomName);
+                    } else if (multicastMode) {
+                        joinMulticast(chatroomName);
+                    }
+                }
+                return participantList;
+            }
+        }));
+    }
+
+    /**
+     * Exit the current chatroom
+     * @return future
+     */
+    public CompletableFuture<Void> exitChatroom() {
+
+        String chatroomName = currentChatroom;
+        currentChatroom = "";
+        resetSeq();
+        closeMulticast();
+        return watch(asyncServer.exitChatroom(chatroomName, clientName));
+    }
+
+    /**
+     * Refresh the participant list of the current chatroom
+     * @return future participant list
+     */
+    public CompletableFuture<ArrayList<String>> refreshParticipantsList() {
+        return watch(asyncServer.refreshParticipantsList(currentChatroom));
+    }
+
+    /**
+     * Refresh the participant list of the current chatroom as ids,
+     * only names not seen before are fetched
+     * @return future participant list, empty if the chatroom does not exist
+     */
+    public CompletableFuture<ArrayList<String>> refreshParticipantsById() {
+
+        return watch(asyncServer.refreshParticipantIds(currentChatroom).thenCompose(new Function<int[], CompletableFuture<ArrayList<String>>>() {
+
+            @Override
+            public CompletableFuture<ArrayList<String>> apply(final int[] ids) {
+                if (ids == null) {
+                    return CompletableFuture.completedFuture(new ArrayList<String>());
+                }
+                ArrayList<Integer> unknown = new ArrayList<>();
+                for (int i = 0; i < ids.length; i++) {
+                    if (!nameCache.containsKey(ids[i])) {
+                        unknown.add(ids[i]);
+                    }
+                }
+                if (unknown.isEmpty()) {
+                    return CompletableFuture.completedFuture(resolveNames(ids));
+                }
+                final int[] missing = new int[unknown.size()];
+                for (int i = 0; i < missing.length; i++) {
+                    missing[i] = unknown.get(i);
+                }
+                return asyncServer.getNames(missing).thenApply(new Function<String[], ArrayList<String>>() {
+
+                    @Override
+                    public ArrayList<String> apply(String[] names) {
+                        for (int i = 0; i < missing.length; i++) {
+                            if (names[i] != null) {
+                                nameCache.put(missing[i], names[i]);
+                            }
+                        }
+                        return resolveNames(ids);
+                    }
+                });
+            }
+        }));
+    }
+
+    /**
+     * Get the cached names of ids
+     * @param ids
+     * @return names, ids not resolved are left out
+     */
+    private ArrayList<String> resolveNames(int[] ids) {
+
+        ArrayList<String> list = new ArrayList<>(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            String name = nameCache.get(ids[i]);
+            if (name != null) {
+                list.add(name);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Send a message in the current chatroom
+     * @param receiver participant name, empty for all
+     * @param msg
+     * @return future completed when the server accepted the message
+     */
+    public CompletableFuture<Void> sendMsg(String receiver, String msg) {
+
+        lastTypingReport = 0;
+        return watch(asyncServer.sendMsg(currentChatroom, clientName, receiver, msg));
+    }
+
+    /**
+     * Share a file in the current chatroom
+     * The file is uploaded in chunks to the attachment endpoint and only its
+     * reference is sent to the chatroom, it arrives like a message.
+     * @param file
+     * @return future reference, failed with an UncheckedIOException if the transfer fails
+     */
+    public CompletableFuture<AttachmentRef> shareFile(final File file) {
+
+        final String chatroomName = currentChatroom;
+        return watch(asyncServer.call(new AsyncServerProxy.ServerCall<AttachmentRef>() {
+
+            @Override
+            public AttachmentRef call(ServerInterface server) throws RemoteException {
+                try {
+                    return getAttachmentClient(server).upload(server, chatroomName, clientName, file);
+                } catch (RemoteException ex) {
+                    throw ex;
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        }, 0));
+    }
+
+    /**
+     * Download a file shared in the current chatroom
+     * @param ref reference found in a message by AttachmentRef.parse
+     * @param target
+     * @return future target, failed with an UncheckedIOException if the transfer fails
+     */
+    public CompletableFuture<File> fetchFile(final AttachmentRef ref, final File target) {
+
+        final String chatroomName = currentChatroom;
+        return watch(asyncServer.call(new AsyncServerProxy.ServerCall<File>() {
+
+            @Override
+            public File call(ServerInterface server) throws RemoteException {
+                try {
+                    getAttachmentClient(server).download(server, chatroomName, clientName, ref, target);
+                    return target;
+                } catch (RemoteException ex) {
+                    throw ex;
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        }, 0));
+    }
+
+    /**
+     * Get a client of the server's attachment endpoint
+     * @param server
+     * @return attachmentClient
+     * @throws IOException if attachments are off
+     */
+    private AttachmentClient getAttachmentClient(ServerInterface server) throws IOException {
+
+        int port = server.getAttachmentPort();
+        if (port < 0) {
+            throw new IOException("Attachments are off on the server");
+        }
+        try {
+            return new AttachmentClient(new URI(serverUrl).getHost(), port);
+        } catch (URISyntaxException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Search a user's current position
+     * @param name
+     * @return future chatroom of the user, empty if in no room, "not exist" if unknown
+     */
+    public CompletableFuture<String> searchPerson(String name) {
+        return watch(asyncServer.searchPerson(name));
+    }
+
+    /**
+     * Report typing in the current chatroom, at most once per TYPING_REPORT_MILLIS
+     */
+    public void reportTyping() {
+
+        String chatroomName = currentChatroom;
+        long now = System.currentTimeMillis();
+        if (chatroomName.length() == 0 || now - lastTypingReport < TYPING_REPORT_MILLIS) {
+            return;
+        }
+        lastTypingReport = now;
+        //presence is best effort, failures are ignored
+        asyncServer.updatePresence(chatroomName, clientName, PresenceUpdate.TYPING);
+    }
+
+    /**
+     * Server calls this method of client to show notification
+     * @param msg notification
+     */
+    public void showMsg(String msg) {
+        listener.notificationReceived(msg);
+    }
+
+    /**
+     * When currentChatroom disappears with its creator,
+     * server invokes this method to update the states of 
+     * corresponding participants.
+     */
+    public void handleChatroomElimination() {
+
+        currentChatroom = "";
+        resetSeq();
+        closeMulticast();
+        listener.chatroomEliminated();
+    }
+
+    /**
+     * Display an unsequenced message, e.g. a private message
+     * @param msg
+     */
+    public void displayMsg(String msg) {
+        listener.messageReceived(msg);
+    }
+
+    /**
+     * Display a batch of sequenced chatroom messages
+     * @param batch
+     */
+    public void deliverMsg(MessageBatch batch) {
+        processBatch(batch, true);
+    }
+
+    /**
+     * Show the presence of the currentChatroom participants
+     * @param update 
+     */
+    public void updatePresence(PresenceUpdate update) {
+
+        if (!update.getChatroomName().equals(currentChatroom)) {
+            return;
+        }
+        Hashtable<String, Byte> table = new Hashtable<>();
+        for (int i = 0; i < update.getClientNames().length; i++) {
+            table.put(update.getClientNames()[i], update.getStates()[i]);
+        }
+        presenceTable = table;
+        listener.presenceChanged(update);
+    }
+
+    /**
+     * Report the new messages of batch, repair a gap before it and acknowledge periodically
+     * A batch behind a gap is held back for REORDER_MILLIS, so a reordered
+     * callback or packet closes the gap without a round trip. Then one
+     * repair is sent for the gap and further batches wait for its answer
+     * instead of repairing again, unless it times out.
+     * @param batch
+     * @param repair whether a gap before batch should be repaired
+     */
+    private synchronized void processBatch(MessageBatch batch, boolean repair) {
+
+        if (!batch.getChatroomName().equals(currentChatroom)) {
+            return;
+        }
+        knownSeq = Math.max(knownSeq, batch.getLastSeq());
+        if (lastSeq >= 0 && batch.getFirstSeq() > lastSeq + 1 && repair) {
+            //gap detected, hold the batch back until the gap is closed
+            if (!batch.isEmpty() && pendingBatches.size() < REORDER_BATCHES) {
+                pendingBatches.put(batch.getFirstSeq(), batch);
+            }
+            if (pendingBatches.size() >= REORDER_BATCHES) {
+                requestRepair();
+            } else {
+                scheduleRepair();
+            }
+            return;
+        }
+        receive(batch);
+        //batches held back that follow on now
+        while (!pendingBatches.isEmpty() && pendingBatches.firstKey() <= lastSeq + 1) {
+            receive(pendingBatches.pollFirstEntry().getValue());
+        }
+        //in pull mode every poll acknowledges
+        if (!pullMode && lastSeq - lastAckedSeq >= ACK_INTERVAL) {
+            acknowledge(lastSeq);
+        }
+    }
+
+    /**
+     * Report the messages of batch after lastSeq
+     * @param batch
+     */
+    private void receive(MessageBatch batch) {
+
+        ArrayList<String> msgList = batch.getMsgList();
+        for (int i = 0; i < msgList.size(); i++) {
+            long seq = batch.getFirstSeq() + i;
+            if (seq > lastSeq) {
+                listener.messageReceived(msgList.get(i));
+                lastSeq = seq;
+            }
+        }
+    }
+
+    /**
+     * Repair the open gap after REORDER_MILLIS unless a check or a repair is pending
+     */
+    private synchronized void scheduleRepair() {
+
+        if (repairScheduled || repairSeq >= 0) {
+            return;
+        }
+        repairScheduled = true;
+        final String chatroomName = currentChatroom;
+        asyncServer.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                synchronized (ChatClientCore.this) {
+                    repairScheduled = false;
+                    if (chatroomName.equals(currentChatroom) && knownSeq > lastSeq) {
+                        requestRepair();
+                    }
+                }
+            }
+        }, REORDER_MILLIS);
+    }
+
+    /**
+     * Acknowledge lastSeq to receive the missed messages, at most one repair in flight
+     */
+    private synchronized void requestRepair() {
+
+        long now = System.currentTimeMillis();
+        if (repairSeq >= 0 && now - repairStarted < REPAIR_TIMEOUT_MILLIS) {
+            return;
+        }
+        final long seq = lastSeq;
+        repairSeq = seq;
+        repairStarted = now;
+        lastAckedSeq = seq;
+        watch(asyncServer.ackMsg(currentChatroom, clientName, seq)).whenComplete(new BiConsumer<MessageBatch, Throwable>() {
+
+            @Override
+            public void accept(MessageBatch missed, Throwable ex) {
+                synchronized (ChatClientCore.this) {
+                    if (repairSeq == seq) {
+                        repairSeq = -1;
+                    }
+                    if (missed != null && !missed.isEmpty()) {
+                        processBatch(missed, false);
+                    }
+                    //messages after the answer were lost as well
+                    if (knownSeq > lastSeq) {
+                        scheduleRepair();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Start a thread long polling the messages of chatroomName while it is the current chatroom
+     * @param chatroomName 
+     */
+    private void startPolling(final String chatroomName) {
+
+        Thread pollThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                while (chatroomName.equals(currentChatroom)) {
+                    long afterSeq;
+                    synchronized (ChatClientCore.this) {
+                        afterSeq = lastSeq;
+                    }
+                    int generation = connectGeneration;
+                    try {
+                        MessageBatch batch = asyncServer.getServerInterface().pollMsgs(chatroomName, clientName, afterSeq, POLL_MAX_MSGS, POLL_TIMEOUT_MILLIS);
+                        if (batch == null) {
+                            //no longer a participant, the chatroom disappeared unless we left it
+                            if (chatroomName.equals(currentChatroom)) {
+                                handleChatroomElimination();
+                            }
+                            return;
+                        }
+                        processBatch(batch, false);
+                    } catch (RemoteException ex) {
+                        ServerBusyException busy = ServerBusyException.from(ex);
+                        //shed by the overloaded server, the connection is fine
+                        if (busy == null) {
+                            Logger.getLogger(ChatClientCore.class.getName()).log(Level.WARNING, null, ex);
+                            reconnect(generation);
+                        }
+                        try {
+                            Thread.sleep(busy == null ? POLL_RETRY_MILLIS : busy.getRetryAfterMillis());
+                        } catch (InterruptedException ie) {
+                            return;
+                        }
+                    }
+                }
+            }
+        }, "chatroom-poll-" + chatroomName);
+        pollThread.setDaemon(true);
+        pollThread.start();
+    }
+
+    /**
+     * Move the messages of chatroomName to its multicast group
+     * The server stops the callbacks of chatroom messages when it answers;
+     * messages between the last callback and the first packet are repaired
+     * as a gap.
+     * @param chatroomName 
+     */
+    private void joinMulticast(final String chatroomName) {
+
+        watch(asyncServer.joinMulticast(chatroomName, clientName)).thenAccept(new Consumer<MulticastGroup>() {
+
+            @Override
+            public void accept(MulticastGroup group) {
+                //null if the server has multicast off, callbacks go on
+                if (group != null) {
+                    openMulticast(group);
+                }
+            }
+        });
+    }
+
+    /**
+     * Start receiving on a joined group, falling back to callbacks if it cannot be received
+     * @param group 
+     */
+    private synchronized void openMulticast(final MulticastGroup group) {
+
+        if (!group.getChatroomName().equals(currentChatroom)) {
+            //left meanwhile, the server forgot the participant
+            return;
+        }
+        closeMulticast();
+        try {
+            String interfaceName = System.getProperty("chatroom.multicast.interface");
+            NetworkInterface networkInterface = interfaceName == null ? null : NetworkInterface.getByName(interfaceName);
+            if (interfaceName != null && networkInterface == null) {
+                throw new SocketException("Unknown interface " + interfaceName);
+            }
+            multicastReceiver = new MulticastReceiver(group, networkInterface);
+        } catch (IOException ex) {
+            Logger.getLogger(ChatClientCore.class.getName()).log(Level.WARNING, "Cannot join " + group.getAddress(), ex);
+            watch(asyncServer.leaveMulticast(group.getChatroomName(), clientName));
+            return;
+        }
+        //gaps after the last message called back are repaired
+        if (lastSeq < 0) {
+            lastSeq = group.getSeq();
+            lastAckedSeq = group.getSeq();
+        }
+        final MulticastReceiver receiver = multicastReceiver;
+        receiver.start(new Consumer<MessageBatch>() {
+
+            @Override
+            public void accept(MessageBatch batch) {
+                processBatch(batch, true);
+            }
+        }, MULTICAST_SILENCE_MILLIS, new Runnable() {
+
+            @Override
+            public void run() {
+                synchronized (ChatClientCore.this) {
+                    if (multicastReceiver != receiver) {
+                        return;
+                    }
+                    multicastReceiver = null;
+                }
+                watch(asyncServer.leaveMulticast(group.getChatroomName(), clientName));
+            }
+        });
+    }
+
+    /**
+     * Stop receiving on the current multicast group
+     */
+    private synchronized void closeMulticast() {
+
+        if (multicastReceiver != null) {
+            multicastReceiver.close();
+            multicastReceiver = null;
+        }
+    }
+
+    /**
+     * Acknowledge seq and process the messages returned after it
+     * @param seq 
+     */
+    private void acknowledge(long seq) {
+
+        lastAckedSeq = seq;
+        watch(asyncServer.ackMsg(currentChatroom, clientName, seq)).thenAccept(new Consumer<MessageBatch>() {
+
+            @Override
+            public void accept(MessageBatch missed) {
+                if (!missed.isEmpty()) {
+                    processBatch(missed, false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Forget the sequence numbers and presence of the previous chatroom
+     */
+    private synchronized void resetSeq() {
+        lastSeq = -1;
+        lastAckedSeq = -1;
+        knownSeq = -1;
+        pendingBatches.clear();
+        repairSeq = -1;
+        presenceTable = new Hashtable<>();
+    }
+
+    /**
+     * Reconnect when future fails with a RemoteException
+     * other than ServerBusyException or CapacityExceededException, the server is still connected.
+     * Calls failing together reconnect once, the later ones find the connection renewed.
+     * @param <T>
+     * @param future
+     * @return future
+     */
+    private <T> CompletableFuture<T> watch(CompletableFuture<T> future) {
+
+        final int generation = connectGeneration;
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+
+            @Override
+            public void accept(T result, Throwable ex) {
+                Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                if (cause instanceof RemoteException && ServerBusyException.from(cause) == null
+                        && CapacityExceededException.from(cause) == null) {
+                    Logger.getLogger(ChatClientCore.class.getName()).log(Level.SEVERE, null, cause);
+                    reconnect(generation);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Look up the server again and resume the session.
+     * The chatroom being visited is kept and only missed messages are received;
+     * a fresh session is started if the server does not know the token.
+     * Runs in the background, see reconnect(int).
+     */
+    public void reconnect() {
+        reconnect(connectGeneration);
+    }
+
+    /**
+     * Reconnect in the background unless the connection was renewed since
+     * generation or a reconnect is running. Attempts wait a random time up
+     * to an exponentially growing bound, so the clients of a restarted
+     * server do not all call it at once.
+     * @param generation connectGeneration when the failed call was made
+     */
+    private void reconnect(final int generation) {
+
+        if (generation != connectGeneration || quitting || !reconnecting.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    for (int attempt = 0; generation == connectGeneration && !quitting; attempt++) {
+                        long bound = Math.min(RECONNECT_MAX_MILLIS, RECONNECT_BASE_MILLIS << Math.min(attempt, 16));
+                        Thread.sleep(ThreadLocalRandom.current().nextLong(bound + 1));
+                        if (resume()) {
+                            return;
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    //given up
+                } finally {
+                    reconnecting.set(false);
+                }
+            }
+        }, "chatroom-reconnect-" + clientName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Look up the server and resume the session or start a fresh one.
+     * The remote calls are made without the client lock, so callbacks
+     * go on meanwhile.
+     * @return true if connected
+     */
+    private boolean resume() {
+
+        SessionState state = null;
+        String freshToken = null;
+        ServerInterface serverInterface;
+        try {
+            serverInterface = (ServerInterface) Naming.lookup(serverUrl);
+            long seq;
+            synchronized (this) {
+                seq = lastSeq;
+            }
+            if (sessionToken != null) {
+                state = serverInterface.resumeSession(sessionToken, pullMode ? null : this, seq);
+            }
+            if (state == null) {
+                freshToken = serverInterface.clientStart(clientName);
+                if (subscribed) {
+                    serverInterface.subscribe(this);
+                }
+            }
+        } catch (RemoteException | NotBoundException | MalformedURLException ex) {
+            Logger.getLogger(ChatClientCore.class.getName()).log(Level.WARNING, "Reconnect to " + serverUrl + " failed", ex);
+            return false;
+        }
+        synchronized (this) {
+            asyncServer.setServerInterface(serverInterface);
+            connectGeneration++;
+            if (state == null) {
+                //a restarted server gives new ids
+                nameCache.clear();
+                sessionToken = freshToken;
+                if (currentChatroom.length() > 0) {
+                    handleChatroomElimination();
+                }
+                return true;
+            }
+            if (!state.getChatroomName().equals(currentChatroom)) {
+                //the chatroom disappeared while disconnected
+                handleChatroomElimination();
+                return true;
+            }
+            if (state.getChatroomName().length() > 0) {
+                listener.sessionResumed(state);
+                processBatch(state.getMissedBatch(), false);
+                //the resumed session is called back until it joins again
+                closeMulticast();
+                if (multicastMode && !pullMode) {
+                    joinMulticast(state.getChatroomName());
+                }
+            }
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+package chatroom;
+
+/**
+ * Listener of the events of a ChatClientCore.
+ * Methods are called on RMI or call threads, a GUI has to move
+ * the work to its own event thread.
+ * @author Zhao Zhengyang
+ */
+public interface ChatClientListener {
+
+    /**
+     * A notification from the server arrived
+     * @param msg notification
+     */
+    void notificationReceived(String msg);
+    /**
+     * A chat message of the current chatroom arrived, in order
+     * @param msg message
+     */
+    void messageReceived(String msg);
+    /**
+     * The current chatroom disappeared with its creator or was destroyed
+     */
+    void chatroomEliminated();
+    /**
+     * The presence of the current chatroom participants changed
+     * @param update snapshot of the non-idle participants
+     */
+    void presenceChanged(PresenceUpdate update);
+    /**
+     * The session was resumed after reconnect in the same chatroom
+     * @param state resumed session state
+     */
+    void sessionResumed(SessionState state);
+}
@@ -1,54 +1,53 @@
 package chatroom;
 
+import java.awt.Component;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.net.MalformedURLException;
-import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
-import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.swing.DefaultListCellRenderer;
 import javax.swing.DefaultListModel;
+import javax.swing.JList;
 import javax.swing.JOptionPane;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 /**
- * The chatroom client class 
- * Implements the actions of client GUI and Client Interface.
+ * The chatroom client class
+ * Implements the actions of client GUI on top of the headless ChatClientCore.
  * @author Zhao Zhengyang
  */
-public class ChatroomClient extends UnicastRemoteObject implements ClientInterface {
-    
+public class ChatroomClient implements ChatClientListener {
+
     /**
      * Unique name for each client
      */
     private String clientName;
     /**
-     * Instance of ClientInterface 
-     * For server to invoke callback method
+     * rmi address of the server, -Dchatroom.server.url overrides it
      */
-    private static ClientInterface client;
+    private static final String SERVER_URL = System.getProperty("chatroom.server.url", "rmi://localhost:1099/chatroom");
     /**
-     * Main GUI of client
+     * Headless client performing the client protocol
+     * Also the ClientInterface object for server callbacks
      */
-    private ClientFrame clientFrame;
+    private ChatClientCore core;
     /**
-     * Reference of remote object
-     * For client to invoke remote method
+     * Main GUI of client
      */
-    private ServerInterface serverInterface;
+    private ClientFrame clientFrame;
 
     /**
-     * A list consists of current existing chatrooms' names and creators
+     * Model of the chatroom table, updated with the changes of each refresh
      */
-    private ArrayList<String[]> chatroomList = new ArrayList<>();
-    /**
-     * The chatroom visiting
-     * Showed on client GUI
-     */
-    private String currentChatroom;
+    private ChatroomTableModel chatroomTableModel = new ChatroomTableModel();
 
     /**
      * Constructor, construct a ChatroomClient instance
@@ -57,6 +56,7 @@ public class ChatroomClient extends UnicastRemoteObject implements ClientInterfa
 
         super();
         clientFrame = new ClientFrame();
+        clientFrame.tbChatroomTable.setModel(chatroomTableModel);
         clientFrame.setVisible(true);
 
         clientFrame.btnUnsubscribe.setEnabled(false);
@@ -73,100 +73,209 @@ public class ChatroomClient extends UnicastRemoteObject implements ClientInterfa
         //set client name here
         //each client should has a unique name
         clientName = "client3"; //**********************************************
-        
+
         clientFrame.lblClientName.setText(clientName);
 
-        //set rmi address ******************************************************
-        serverInterface = (ServerInterface) Naming.lookup("rmi://localhost:1099/chatroom");
+        core = new ChatClientCore(clientName, SERVER_URL, this);
+        //-Dchatroom.multicast=true on the server's LAN
+        core.setMulticastMode(Boolean.getBoolean("chatroom.multicast"));
 
         //initialization process
-        serverInterface.clientStart(clientName);
-        chatroomList = serverInterface.getChatroomList();
-        DefaultTableModel dtm = (DefaultTableModel) clientFrame.tbChatroomTable.getModel();
-        for (int i = 0; i < chatroomList.size(); i++) {
-
-            String chatroomName = chatroomList.get(i)[0];
-            String creator = chatroomList.get(i)[1];
-            dtm.addRow(new Object[]{
-                chatroomName, creator
-            });
-        }
+        core.start(ChatClientCore.DEFAULT_CALL_THREADS);
+        refreshChatroomTable();
 
-        currentChatroom = "";
         clientFrame.lblCurrentChatroom.setText("");
         clientFrame.lblSearchResult.setText("");
 
+        //show presence next to participant names
+        clientFrame.listPaticipants.setCellRenderer(new DefaultListCellRenderer() {
+
+            @Override
+            public Component getListCellRendererComponent(JList list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                byte state = core.getPresence(String.valueOf(value));
+                String text = String.valueOf(value);
+                if (state == PresenceUpdate.TYPING) {
+                    text = text + " (typing...)";
+                } else if (state == PresenceUpdate.AWAY) {
+                    text = text + " (away)";
+                }
+                return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            }
+        });
+
         handleEvent();
     }
 
     /**
-     * Server calls this method of client to show notification
+     * Show notification from the server
      * @param msg notification
      */
-    public void showMsg(String msg) {
+    public void notificationReceived(final String msg) {
 
-        //msg1 used in thread should be final variable
-        final String msg1 = msg;
-        new Thread(new Runnable() {
+        SwingUtilities.invokeLater(new Runnable() {
 
             @Override
             public void run() {
-                JOptionPane.showMessageDialog(clientFrame, msg1);
+                JOptionPane.showMessageDialog(clientFrame, msg);
             }
-        }).start();
+        });
     }
 
     /**
      * When currentChatroom disappears with its creator,
-     * server invokes this method to update the states of 
-     * corresponding participants.
+     * update the states of the GUI.
      */
-    public void handleChatroomElimination() {
+    public void chatroomEliminated() {
 
-        new Thread(new Runnable() {
+        SwingUtilities.invokeLater(new Runnable() {
 
             @Override
             public void run() {
+                resetChatroomView();
+            }
+        });
+    }
 
-                DefaultListModel dlm = new DefaultListModel();
-                clientFrame.listPaticipants.setModel(dlm);
-                dlm.removeAllElements();
+    /**
+     * Display msg on message display area
+     * @param msg
+     */
+    public void messageReceived(final String msg) {
 
-                currentChatroom = "";
-                clientFrame.lblCurrentChatroom.setText("");
+        SwingUtilities.invokeLater(new Runnable() {
 
-                clientFrame.btnEnter.setEnabled(true);
-                clientFrame.btnExit.setEnabled(false);
-                clientFrame.btnRefreshParticipantsList.setEnabled(false);
-                clientFrame.txtDisplayMsg.setText("");
+            @Override
+            public void run() {
+                clientFrame.txtDisplayMsg.append(msg + "\n");
+                clientFrame.txtDisplayMsg.setCaretPosition(clientFrame.txtDisplayMsg.getDocument().getLength());
             }
-        }).start();
+        });
     }
 
     /**
-     * Display msg on message display area
-     * @param msg
+     * Show the presence next to the participant names
+     * @param update
      */
-    public void displayMsg(String msg) {
+    public void presenceChanged(PresenceUpdate update) {
+        clientFrame.listPaticipants.repaint();
+    }
 
-        final String str = msg;
-        new Thread(new Runnable() {
+    /**
+     * Show the participant list of the resumed chatroom
+     * @param state
+     */
+    public void sessionResumed(final SessionState state) {
+
+        SwingUtilities.invokeLater(new Runnable() {
 
             @Override
             public void run() {
-                clientFrame.txtDisplayMsg.append(str + "\n");
-                clientFrame.txtDisplayMsg.paintImmediately(clientFrame.txtDisplayMsg.getBounds());
-                clientFrame.txtDisplayMsg.setCaretPosition(clientFrame.txtDisplayMsg.getText().length());
+                showParticipants(state.getParticipantList());
+            }
+        });
+    }
+
+    /**
+     * Clear the chatroom part of the GUI after leaving a chatroom
+     */
+    private void resetChatroomView() {
+
+        clientFrame.listPaticipants.setModel(new DefaultListModel());
+        clientFrame.lblCurrentChatroom.setText("");
+        clientFrame.btnEnter.setEnabled(true);
+        clientFrame.btnExit.setEnabled(false);
+        clientFrame.btnRefreshParticipantsList.setEnabled(false);
+        clientFrame.txtDisplayMsg.setText("");
+    }
+
+    /**
+     * Show participant names in the participant list
+     * @param participantList
+     */
+    private void showParticipants(ArrayList<String> participantList) {
+
+        DefaultListModel dlm = new DefaultListModel();
+        for (int i = 0; i < participantList.size(); i++) {
+            dlm.addElement(participantList.get(i));
+        }
+        clientFrame.listPaticipants.setModel(dlm);
+    }
+
+    /**
+     * Get the chatroom list and show its changes in the chatroom table
+     */
+    private void refreshChatroomTable() {
+
+        core.getChatroomList().whenComplete(new BiConsumer<ArrayList<String[]>, Throwable>() {
+
+            @Override
+            public void accept(final ArrayList<String[]> list, Throwable ex) {
+                if (ex != null) {
+                    logFailure(ex);
+                    return;
+                }
+                SwingUtilities.invokeLater(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        chatroomTableModel.update(list);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Log a failed server call, the core reconnects on its own
+     * @param ex
+     */
+    private void logFailure(Throwable ex) {
+
+        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        Logger.getLogger(ChatroomClient.class.getName()).log(Level.SEVERE, null, cause);
+    }
+
+    /**
+     * Log a failed server call
+     * @param <T> result type
+     * @return callback logging failures
+     */
+    private <T> BiConsumer<T, Throwable> failureLogger() {
+
+        return new BiConsumer<T, Throwable>() {
+
+            @Override
+            public void accept(T result, Throwable ex) {
+                if (ex != null) {
+                    logFailure(ex);
+                }
             }
-        }).start();
+        };
     }
-    
-    
+
+
     /**
      * Add action to each button on the client GUI to this method.
      */
     public void handleEvent() {
 
+        //Message typing
+        clientFrame.txtWriteMsg.getDocument().addDocumentListener(new DocumentListener() {
+
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                core.reportTyping();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+
         //Quit Button
         clientFrame.btnQuit.addActionListener(new ActionListener() {
 
@@ -174,9 +283,9 @@ public class ChatroomClient extends UnicastRemoteObject implements ClientInterfa
             public void actionPerformed(ActionEvent e) {
 
                 try {
-                    serverInterface.clientQuit(clientName, client);
-                } catch (RemoteException ex) {
-                    Logger.getLogger(ChatroomClient.class.getName()).log(Level.SEVERE, null, ex);
+                    core.quit().join();
+                } catch (CompletionException ex) {
+                    logFailure(ex);
                 }
                 System.exit(0);
             }
@@ -188,11 +297,7 @@ public class ChatroomClient extends UnicastRemoteObject implements ClientInterfa
             @Override
             public void actionPerformed(ActionEvent e) {
 
-                try {
-                    serverInterface.subscribe(client);
-                } catch (RemoteException ex) {
-                    Logger.getLogger(ChatroomClient.class.getName()).log(Level.SEVERE, null, ex);
-                }
+                core.subscribe().whenComplete(ChatroomClient.this.<Void>failureLogger());
                 clientFrame.btnSubscribe.setEnabled(false);
                 clientFrame.btnUnsubscribe.setEnabled(true);
             }
@@ -204,11 +309,7 @@ public class ChatroomClient extends UnicastRemoteObject implements ClientInterfa
             @Override
             public void actionPerformed(ActionEvent e) {
 
-                try {
-                    serverInterface.unsubscribe(client);
-                } catch (RemoteException ex) {
-                    Logger.getLogger(ChatroomClient.class.getName()).log(Level.SEVERE, null, ex);
-                }
+                core.unsubscribe().whenComplete(ChatroomClient.this.<Void>failureLogger());
                 clientFrame.btnSubscribe.setEnabled(true);
                 clientFrame.btnUnsubscribe.setEnabled(false);
             }
@@ -219,21 +320,7 @@ public class ChatroomClient extends UnicastRemoteObject implements ClientInterfa
 
             @Override
             public void actionPerformed(ActionEvent e) {
-                try {
-                    chatroomList = serverInterface.getChatroomList();
-                } catch (RemoteException ex) {
-                    Logger.getLogger(ChatroomClient.class.getName()).log(Level.SEVERE, null, ex);
-                }
-                DefaultTableModel dtm = (DefaultTableModel) clientFrame.tbChatroomTable.getModel();
-                dtm.setRowCount(0);
-                for (int i = 0; i < chatroomList.size(); i++) {
-
-                    String chatroomName = chatroomList.get(i)[0];
-                    String creator = chatroomList.get(i)[1];
-                    dtm.addRow(new Object[]{
-                        chatroomName, creator
-                    });
-                }
+                refreshChatroomTable();
             }
         });
 
@@ -243,22 +330,25 @@ public class ChatroomClient extends UnicastRemoteObject implements ClientInterfa
             @Override
             public void actionPerformed(ActionEvent e) {
 
-                new Thread(new Runnable() {
+                String chatroomName = clientFrame.txtCreateChatroomName.getText();
+                core.createChatroom(chatroomName).whenComplete(new BiConsumer<Void, Throwable>() {
 
                     @Override
-                    public void run() {
-
-                        String chatroomName = clientFrame.txtCreateChatroomName.getText();
-                        try {
-                            serverInterface.createChatroom(chatroomName, clientName);
-                        } catch (RemoteException ex) {
-                            Logger.getLogger(ChatroomClient.class.getName()).log(Level.SEVERE, null, ex);
+                    public void accept(Void result, Throwable ex) {
+                        CapacityExceededException capacityException = CapacityExceededException.from(
+                                ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+                        if (capacityException != null) {
+                            notificationReceived("Chatroom not created, " + capacityException.getMessage());
+                            return;
+                        }
+                        if (ex != null) {
+                            logFailure(ex);
+                            return;
                         }
-                        String msg = "Chatroom created! Please refresh chatroom table.";
-                        JOptionPane.showMessageDialog(clientFrame, msg);
-                        clientFrame.txtCreateChatroomName.setText("");
+                        notificationReceived("Chatroom created! Please refresh chatroom table.");
                     }
-                }).start();
+                });
+                clientFrame.txtCreateChatroomName.setText("");
             }
         });
 
@@ -268,33 +358,29 @@ public class ChatroomClient extends UnicastRemoteObject implements ClientInterfa
             @Override
             public void actionPerformed(ActionEvent e) {
 
-                new Thread(new Runnable() {
-
-                    @Override
-                    public void run() {
-
-                        int index = clientFrame.tbChatroomTable.getSelectedRow();
-                        if (index == -1) {
-                            JOptionPane.showMessageDialog(clientFrame, "No record selected!!");
-                            return;
-                        } else {
-                            String chatroomName = (String) clientFrame.tbChatroomTable.getValueAt(index, 0);
-                            String creator = (String) clientFrame.tbChatroomTable.getValueAt(index, 1);
-                            if (creator.equalsIgnoreCase(clientName)) {
-                                try {
-                                    serverInterface.destroyChatroom(chatroomName);
-                                } catch (RemoteException ex) {
-                                    Logger.getLogger(ChatroomClient.class.getName()).log(Level.SEVERE, null, ex);
-                                }
-                                String msg = "Chatroom destroyed! Please refresh chatroom table.";
-                                JOptionPane.showMessageDialog(clientFrame, msg);
-                            } else {
-                                String msg = "Destroy unsuccessful, you are not chatroom creator!";
-                                JOptionPane.showMessageDialog(clientFrame, msg);
+                int index = clientFrame.tbChatroomTable.getSelectedRow();
+                if (index == -1) {
+                    JOptionPane.showMessageDialog(clientFrame, "No record selected!!");
+                    return;
+                }
+                String chatroomName = (String) clientFrame.tbChatroomTable.getValueAt(index, 0);
+                String creator = (String) clientFrame.tbChatroomTable.getValueAt(index, 1);
+                if (creator.equalsIgnoreCase(clientName)) {
+                    core.destroyChatroom(chatroomName).whenComplete(new BiConsumer<Void, Throwable>() {
+
+                        @Override
+                        public void accept(Void result, Throwable ex) {
+                            if (ex != null) {
+                                logFailure(ex);
+                                return;
                             }
+                            notificationReceived("Chatroom destroyed! Please refresh chatroom table.");
                         }
-                    }
-                }).start();
+                    });
+                } else {
+                    String msg = "Destroy unsuccessful, you are not chatroom creator!";
+                    JOptionPane.showMessageDialog(clientFrame, msg);
+                }
             }
         });
 
@@ -304,42 +390,42 @@ public class ChatroomClient extends UnicastRemoteObject implements ClientInterfa
             @Override
             public void actionPerformed(ActionEvent e) {
 
-                new Thread(new Runnable() {
+                int index = clientFrame.tbChatroomTable.getSelectedRow();
+                if (index == -1) {
+                    JOptionPane.showMessageDialog(clientFrame, "No record selected!!");
+                    return;
+                }
+                final String chatroomName = (String) clientFrame.tbChatroomTable.getValueAt(index, 0);
+                clientFrame.btnEnter.setEnabled(false);
+                core.enterChatroom(chatroomName).whenComplete(new BiConsumer<ArrayList<String>, Throwable>() {
 
                     @Override
-                    public void run() {
-
-                        ArrayList<String> participantList = new ArrayList<>();
-
-                        int index = clientFrame.tbChatroomTable.getSelectedRow();
-                        if (index == -1) {
-                            JOptionPane.showMessageDialog(clientFrame, "No record selected!!");
-                            return;
-                        } else {
-                            String chatroomName = (String) clientFrame.tbChatroomTable.getValueAt(index, 0);
-                            try {
-                                participantList = serverInterface.enterChatroom(chatroomName, clientName, client);
-                            } catch (RemoteException ex) {
-                                Logger.getLogger(ChatroomClient.class.getName()).log(Level.SEVERE, null, ex);
-                            }
-                            if (participantList.get(0).equals("not exist")) {
-                                JOptionPane.showMessageDialog(clientFrame, "Chatroom not exist! Please refresh chatroom table.");
-                            } else {
-                                DefaultListModel dlm = new DefaultListModel();
-                                clientFrame.listPaticipants.setModel(dlm);
-                                dlm.removeAllElements();
-                                for (int i = 0; i < participantList.size(); i++) {
-                                    dlm.addElement(participantList.get(i));
+                    public void accept(final ArrayList<String> participantList, Throwable ex) {
+                        if (ex != null) {
+                            logFailure(ex);
+                        }
+                        SwingUtilities.invokeLater(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                if (participantList == null) {
+                                    clientFrame.btnEnter.setEnabled(true);
+                                } else if (participantList.get(0).equals("not exist")) {
+                                    clientFrame.btnEnter.setEnabled(true);
+                                    JOptionPane.showMessageDialog(clientFrame, "Chatroom not exist! Please refresh chatroom table.");
+                                } else if (participantList.get(0).equals("full")) {
+                                    clientFrame.btnEnter.setEnabled(true);
+                                    JOptionPane.showMessageDialog(clientFrame, "Chatroom is full! Please try again later.");
+                                } else {
+                                    showParticipants(participantList);
+                                    clientFrame.lblCurrentChatroom.setText(chatroomName);
+                                    clientFrame.btnExit.setEnabled(true);
+                                    clientFrame.btnRefreshParticipantsList.setEnabled(true);
                                 }
-                                currentChatroom = chatroomName;
-                                clientFrame.lblCurrentChatroom.setText(currentChatroom);
-                                clientFrame.btnEnter.setEnabled(false);
-                                clientFrame.btnExit.setEnabled(true);
-                                clientFrame.btnRefreshParticipantsList.setEnabled(true);
                             }
-                        }
+                        });
                     }
-                }).start();
+                });
             }
         });
 
@@ -349,28 +435,8 @@ public class ChatroomClient extends UnicastRemoteObject implements ClientInterfa
             @Override
             public void actionPerformed(ActionEvent e) {
 
-                new Thread(new Runnable() {
-
-                    @Override
-                    public void run() {
-
-                        String chatroomName = currentChatroom;
-                        try {
-                            DefaultListModel dlm = new DefaultListModel();
-                            clientFrame.listPaticipants.setModel(dlm);
-                            dlm.removeAllElements();
-                            serverInterface.exitChatroom(chatroomName, clientName);
-                        } catch (RemoteException ex) {
-                            Logger.getLogger(ChatroomClient.class.getName()).log(Level.SEVERE, null, ex);
-                        }
-                        currentChatroom = "";
-                        clientFrame.lblCurrentChatroom.setText(currentChatroom);
-                        clientFrame.btnEnter.setEnabled(true);
-                        clientFrame.btnExit.setEnabled(false);
-                        clientFrame.btnRefreshParticipantsList.setEnabled(false);
-                        clientFrame.txtDisplayMsg.setText("");
-                    }
-                }).start();
+                core.exitChatroom().whenComplete(ChatroomClient.this.<Void>failureLogger());
+                resetChatroomView();
             }
         });
 
@@ -380,25 +446,23 @@ public class ChatroomClient extends UnicastRemoteObject implements ClientInterfa
             @Override
             public void actionPerformed(ActionEvent e) {
 
-                new Thread(new Runnable() {
+                core.refreshParticipantsList().whenComplete(new BiConsumer<ArrayList<String>, Throwable>() {
 
                     @Override
-                    public void run() {
+                    public void accept(final ArrayList<String> participantList, Throwable ex) {
+                        if (ex != null) {
+                            logFailure(ex);
+                            return;
+                        }
+                        SwingUtilities.invokeLater(new Runnable() {
 
-                        String chatroomName = currentChatroom;
-                        try {
-                            DefaultListModel dlm = new DefaultListModel();
-                            clientFrame.listPaticipants.setModel(dlm);
-                            dlm.removeAllElements();
-                            ArrayList<String> participantList = serverInterface.refreshParticipantsList(chatroomName);
-                            for (int i = 0; i < participantList.size(); i++) {
-                                dlm.addElement(participantList.get(i));
+                            @Override
+                            public void run() {
+                                showParticipants(participantList);
                             }
-                        } catch (RemoteException ex) {
-                            Logger.getLogger(ChatroomClient.class.getName()).log(Level.SEVERE, null, ex);
-                        }
+                        });
                     }
-                }).start();
+                });
             }
         });
 
@@ -408,58 +472,51 @@ public class ChatroomClient extends UnicastRemoteObject implements ClientInterfa
             @Override
             public void actionPerformed(ActionEvent e) {
 
-                new Thread(new Runnable() {
-
-                    @Override
-                    public void run() {
-
-                        String receiver = clientFrame.txtMsgReceiver.getText();
-                        String msg = clientFrame.txtWriteMsg.getText();
-                        try {
-                            serverInterface.sendMsg(currentChatroom, clientName, receiver, msg);
-                        } catch (RemoteException ex) {
-                            Logger.getLogger(ChatroomClient.class.getName()).log(Level.SEVERE, null, ex);
-                        }
-                        clientFrame.txtMsgReceiver.setText("");
-                        clientFrame.txtWriteMsg.setText("");
-                    }
-                }).start();
+                String receiver = clientFrame.txtMsgReceiver.getText();
+                String msg = clientFrame.txtWriteMsg.getText();
+                //sends are queued in order, the text box is free for the next message at once
+                core.sendMsg(receiver, msg).whenComplete(ChatroomClient.this.<Void>failureLogger());
+                clientFrame.txtMsgReceiver.setText("");
+                clientFrame.txtWriteMsg.setText("");
             }
         });
-        
+
         //Search Button
         clientFrame.btnSearch.addActionListener(new ActionListener() {
 
             @Override
             public void actionPerformed(ActionEvent e) {
 
-                new Thread(new Runnable() {
+                final String name = clientFrame.txtSearchPerson.getText();
+                clientFrame.txtSearchPerson.setText("");
+                core.searchPerson(name).whenComplete(new BiConsumer<String, Throwable>() {
 
                     @Override
-                    public void run() {
-
-                        String result = null;
-                        String name = clientFrame.txtSearchPerson.getText();
-                        try {
-                            result = serverInterface.SearchPerson(name);
-                        } catch (RemoteException ex) {
-                            Logger.getLogger(ChatroomClient.class.getName()).log(Level.SEVERE, null, ex);
-                        }
-                        if (result.equals("not exist")) {
-                            JOptionPane.showMessageDialog(clientFrame, "User not exist!");
-                        }
-                        else if (result.equals("")) {
-                            clientFrame.lblSearchResult.setText(name + " in no room");
-                        }
-                        else
-                        {
-                            clientFrame.lblSearchResult.setText(name +" in " + result);
+                    public void accept(final String result, Throwable ex) {
+                        if (ex != null) {
+                            logFailure(ex);
+                            return;
                         }
-                        clientFrame.txtSearchPerson.setText("");
+                        SwingUtilities.invokeLater(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                if (result.equals("not exist")) {
+                                    JOptionPane.showMessageDialog(clientFrame, "User not exist!");
+                                }
+                                else if (result.equals("")) {
+                                    clientFrame.lblSearchResult.setText(name + " in no room");
+                                }
+                                else
+                                {
+                                    clientFrame.lblSearchResult.setText(name +" in " + result);
+                                }
+                            }
+                        });
                     }
-                }).start();
+                });
             }
-        });        
+        });
 
     }//handleEvent()
 
@@ -468,8 +525,8 @@ public class ChatroomClient extends UnicastRemoteObject implements ClientInterfa
      * @param args the command line arguments
      */
     public static void main(String[] args) throws RemoteException, NotBoundException, MalformedURLException {
-        
-        client = new ChatroomClient();
+
+        new ChatroomClient();
     }
 
 }
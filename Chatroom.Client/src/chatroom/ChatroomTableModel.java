@@ -0,0 +1,182 @@
+package chatroom;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * ChatroomTableModel class
+ * Table model of the chatroom table, rows kept in chatroom name order.
+ * A new chatroom list is merged into the rows: only inserted, removed and
+ * changed rows are touched and each run of adjacent rows fires one ranged
+ * event, so the table keeps its selection and only repaints what changed.
+ * Cells are read on demand, the table renders only the visible rows.
+ * Must be used on the event dispatch thread.
+ * @author Zhao Zhengyang
+ */
+public class ChatroomTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    /**Column names*/
+    private static final String[] COLUMN_NAMES = {"Chatroom", "Creator", "Participants"};
+
+    /**Chatroom name order*/
+    private static final Comparator<String[]> NAME_ORDER = new Comparator<String[]>() {
+
+        @Override
+        public int compare(String[] a, String[] b) {
+            return a[0].compareTo(b[0]);
+        }
+    };
+
+    /**Rows of chatroom name, creator and participant count, in name order*/
+    private ArrayList<String[]> rows = new ArrayList<>();
+
+    /**Constructor, create ChatroomTableModel object*/
+    public ChatroomTableModel() {
+
+        super();
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int columnIndex) {
+        return String.class;
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        String[] row = rows.get(rowIndex);
+        return columnIndex < row.length ? row[columnIndex] : "";
+    }
+
+    /**
+     * Merge a new chatroom list into the rows, firing one event per run of
+     * inserted, removed or changed rows
+     * @param list chatroom names, creators and participant counts
+     */
+    public void update(ArrayList<String[]> list) {
+
+        if (!isSorted(list)) {
+            list = new ArrayList<>(list);
+            Collections.sort(list, NAME_ORDER);
+        }
+        int i = 0;
+        int j = 0;
+        //first row of the run of changed rows ending at i - 1, -1 if none
+        int changedFrom = -1;
+        while (i < rows.size() || j < list.size()) {
+            int order = i == rows.size() ? 1 : j == list.size() ? -1 : rows.get(i)[0].compareTo(list.get(j)[0]);
+            if (order == 0) {
+                if (!equalRows(rows.get(i), list.get(j))) {
+                    rows.set(i, list.get(j));
+                    changedFrom = changedFrom < 0 ? i : changedFrom;
+                } else {
+                    changedFrom = fireChanged(changedFrom, i);
+                }
+                i++;
+                j++;
+                continue;
+            }
+            changedFrom = fireChanged(changedFrom, i);
+            if (order < 0) {
+                //run of rows no longer listed
+                int end = i + 1;
+                while (end < rows.size() && (j == list.size() || rows.get(end)[0].compareTo(list.get(j)[0]) < 0)) {
+                    end++;
+                }
+                rows.subList(i, end).clear();
+                fireTableRowsDeleted(i, end - 1);
+            } else {
+                //run of new rows before row i
+                int end = j + 1;
+                while (end < list.size() && (i == rows.size() || list.get(end)[0].compareTo(rows.get(i)[0]) < 0)) {
+                    end++;
+                }
+                rows.addAll(i, list.subList(j, end));
+                fireTableRowsInserted(i, i + end - j - 1);
+                i += end - j;
+                j = end;
+            }
+        }
+        fireChanged(changedFrom, i);
+    }
+
+    /**
+     * Remove all rows
+     */
+    public void clear() {
+
+        if (rows.isEmpty()) {
+            return;
+        }
+        int last = rows.size() - 1;
+        rows.clear();
+        fireTableRowsDeleted(0, last);
+    }
+
+    /**
+     * Fire the event of a run of changed rows
+     * @param from first changed row, -1 if none
+     * @param to row after the last changed row
+     * @return -1, no run pending
+     */
+    private int fireChanged(int from, int to) {
+
+        if (from >= 0) {
+            fireTableRowsUpdated(from, to - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Whether list is in name order
+     * @param list
+     * @return true if sorted
+     */
+    private static boolean isSorted(ArrayList<String[]> list) {
+
+        for (int i = 1; i < list.size(); i++) {
+            if (NAME_ORDER.compare(list.get(i - 1), list.get(i)) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether two rows show the same
+     * @param a
+     * @param b
+     * @return true if equal
+     */
+    private static boolean equalRows(String[] a, String[] b) {
+
+        if (a.length != b.length) {
+            return false;
+        }
+        for (int k = 0; k < a.length; k++) {
+            if (a[k] == null ? b[k] != null : !a[k].equals(b[k])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
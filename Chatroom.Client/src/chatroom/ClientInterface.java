@@ -28,4 +28,19 @@ public interface ClientInterface extends Remote{
      * @throws RemoteException 
      */
     void displayMsg(String msg) throws RemoteException;
+    /**
+     * Display a batch of sequenced chatroom messages.
+     * The batch may start before messages already received (retransmission)
+     * or after a gap, which the client repairs by acknowledging its last sequence number.
+     * @param batch sequenced messages
+     * @throws RemoteException 
+     */
+    void deliverMsg(MessageBatch batch) throws RemoteException;
+    /**
+     * Show the presence of the chatroom participants.
+     * Each update replaces the previous one and updates may be dropped.
+     * @param update snapshot of the non-idle participants
+     * @throws RemoteException 
+     */
+    void updatePresence(PresenceUpdate update) throws RemoteException;
 }
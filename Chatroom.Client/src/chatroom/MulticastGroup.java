@@ -0,0 +1,67 @@
+package chatroom;
+
+import java.io.Serializable;
+
+/**
+ * MulticastGroup class
+ * Group a participant receives the messages of its chatroom on, see
+ * ServerInterface.joinMulticast
+ * @author Zhao Zhengyang
+ */
+public class MulticastGroup implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**Chatroom name*/
+    private String chatroomName;
+    /**IPv4 group address*/
+    private String address;
+    /**Port the packets are sent to*/
+    private int port;
+    /**Sequence number up to which the participant was served by callbacks*/
+    private long seq;
+
+    /**Constructor, create MulticastGroup object*/
+    public MulticastGroup(String chatroomName, String address, int port, long seq) {
+
+        super();
+        this.chatroomName = chatroomName;
+        this.address = address;
+        this.port = port;
+        this.seq = seq;
+    }
+
+    /**
+     * Get chatroom name
+     * @return chatroomName
+     */
+    public String getChatroomName() {
+        return chatroomName;
+    }
+
+    /**
+     * Get group address
+     * @return address
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Get port the packets are sent to
+     * @return port
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Get sequence number up to which the participant was served by callbacks,
+     * later messages arrive on the group
+     * @return seq
+     */
+    public long getSeq() {
+        return seq;
+    }
+
+}
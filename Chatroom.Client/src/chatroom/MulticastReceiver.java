@@ -0,0 +1,154 @@
+package chatroom;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * MulticastReceiver class
+ * Receives the messages of one chatroom on its multicast group, see
+ * MulticastPublisher on the server for the packet layout. Packets of other
+ * chatrooms sharing the group are ignored. Every packet is handed on as a
+ * MessageBatch, a heartbeat as an empty batch starting after the latest
+ * message, so the receiver of the batches detects gaps the same way for both.
+ * @author Zhao Zhengyang
+ */
+public class MulticastReceiver {
+
+    /**Magic number starting a packet, "CRM1"*/
+    public static final int MAGIC = 0x43524d31;
+    /**Largest UDP payload over IPv4*/
+    public static final int MAX_DATAGRAM = 65507;
+
+    /**Group joined*/
+    private MulticastGroup group;
+    /**Socket joined to the group*/
+    private MulticastSocket socket;
+    /**Interface the group is joined on*/
+    private NetworkInterface networkInterface;
+    /**Whether close was called*/
+    private volatile boolean closed;
+
+    /**
+     * Constructor, join the group
+     * @param group
+     * @param networkInterface interface to join on, null for the system default
+     * @throws IOException
+     */
+    public MulticastReceiver(MulticastGroup group, NetworkInterface networkInterface) throws IOException {
+
+        super();
+        this.group = group;
+        this.networkInterface = networkInterface;
+        this.socket = new MulticastSocket(group.getPort());
+        try {
+            socket.joinGroup(new InetSocketAddress(InetAddress.getByName(group.getAddress()), group.getPort()), networkInterface);
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Start a thread receiving the packets of the chatroom
+     * @param sink receives the batches
+     * @param silenceMillis time without any packet after which the group is given up
+     * @param onSilence called once the group fell silent, not after close
+     */
+    public void start(final Consumer<MessageBatch> sink, final int silenceMillis, final Runnable onSilence) {
+
+        Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                byte[] data = new byte[MAX_DATAGRAM];
+                DatagramPacket packet = new DatagramPacket(data, data.length);
+                try {
+                    socket.setSoTimeout(silenceMillis);
+                    while (!closed) {
+                        packet.setLength(data.length);
+                        socket.receive(packet);
+                        MessageBatch batch = decode(ByteBuffer.wrap(data, 0, packet.getLength()));
+                        if (batch != null) {
+                            sink.accept(batch);
+                        }
+                    }
+                } catch (SocketTimeoutException ex) {
+                    if (!closed) {
+                        Logger.getLogger(MulticastReceiver.class.getName()).log(Level.WARNING, "No packet on " + group.getAddress()
+                                + " for " + silenceMillis + " ms");
+                        close();
+                        onSilence.run();
+                    }
+                } catch (IOException ex) {
+                    if (!closed) {
+                        Logger.getLogger(MulticastReceiver.class.getName()).log(Level.WARNING, null, ex);
+                        close();
+                        onSilence.run();
+                    }
+                }
+            }
+        }, "chatroom-multicast-" + group.getChatroomName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Leave the group and close the socket
+     */
+    public void close() {
+
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            socket.leaveGroup(new InetSocketAddress(InetAddress.getByName(group.getAddress()), group.getPort()), networkInterface);
+        } catch (IOException ex) {
+            //closed anyway
+        }
+        socket.close();
+    }
+
+    /**
+     * Decode a packet of the chatroom
+     * @param buffer
+     * @return batch, null if the packet is malformed or of another chatroom
+     */
+    private MessageBatch decode(ByteBuffer buffer) {
+
+        try {
+            if (buffer.getInt() != MAGIC) {
+                return null;
+            }
+            byte[] name = new byte[buffer.getShort() & 0xffff];
+            buffer.get(name);
+            if (!new String(name, StandardCharsets.UTF_8).equals(group.getChatroomName())) {
+                return null;
+            }
+            long firstSeq = buffer.getLong();
+            int count = buffer.getInt();
+            ArrayList<String> msgList = new ArrayList<>(Math.max(0, Math.min(count, 1024)));
+            for (int i = 0; i < count; i++) {
+                byte[] msg = new byte[buffer.getInt()];
+                buffer.get(msg);
+                msgList.add(new String(msg, StandardCharsets.UTF_8));
+            }
+            return new MessageBatch(group.getChatroomName(), firstSeq, msgList);
+        } catch (RuntimeException ex) {
+            //truncated or foreign packet on the port
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,25 @@
+package chatroom;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * SendTimeoutException class
+ * A send timed out after its sendMsgBatch call was made. The call is not
+ * stopped by the timeout, so the outcome is unknown: the message may still
+ * be posted and must not be sent again. A send timing out before its call
+ * was made fails with a plain TimeoutException and is never posted.
+ * @author Zhao Zhengyang
+ */
+public class SendTimeoutException extends TimeoutException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor, create SendTimeoutException object
+     * @param msg
+     */
+    public SendTimeoutException(String msg) {
+        super(msg);
+    }
+
+}
@@ -0,0 +1,62 @@
+package chatroom;
+
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+
+/**
+ * ServerBusyException class
+ * Thrown by the server when a call is shed by admission control.
+ * The call was not performed and can be retried after the suggested delay;
+ * the connection to the server is fine, so clients must not reconnect.
+ * RMI delivers it to the client wrapped in a ServerException, see from.
+ * @author Zhao Zhengyang
+ */
+public class ServerBusyException extends RemoteException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**Suggested delay before retrying*/
+    private long retryAfterMillis;
+
+    /**
+     * Constructor, create ServerBusyException object
+     * @param msg
+     * @param retryAfterMillis suggested delay before retrying
+     */
+    public ServerBusyException(String msg, long retryAfterMillis) {
+
+        super(msg);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * Get the suggested delay before retrying
+     * @return milliseconds
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * Get the ServerBusyException a remote call failed with
+     * @param ex failure of the call, as thrown locally or by RMI
+     * @return the ServerBusyException, null if the call failed otherwise
+     */
+    public static ServerBusyException from(Throwable ex) {
+
+        if (ex instanceof ServerException) {
+            ex = ((ServerException) ex).detail;
+        }
+        return ex instanceof ServerBusyException ? (ServerBusyException) ex : null;
+    }
+
+    /**
+     * Rejections must be cheap, no stack trace is taken
+     * @return this
+     */
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+
+}
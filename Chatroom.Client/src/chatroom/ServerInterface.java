@@ -12,9 +12,21 @@ public interface ServerInterface extends Remote{
     /**
      * Add clientName to clientPositionTable
      * @param clientName
+     * @return token session token for resuming after reconnect
      * @throws RemoteException 
      */
-    void clientStart(String clientName) throws RemoteException;
+    String clientStart(String clientName) throws RemoteException;
+    /**
+     * Resume the session of a reconnecting client
+     * Re-attaches chatroom membership and callback to clientInterface
+     * and returns only the messages the client missed.
+     * @param token session token returned by clientStart
+     * @param clientInterface null to resume in pull mode
+     * @param seq last sequence number the client received, -1 if unknown
+     * @return state resumed session state, null if token unknown
+     * @throws RemoteException 
+     */
+    SessionState resumeSession(String token, ClientInterface clientInterface, long seq) throws RemoteException;
     /**
      * Remove client from clientPositionTable
      * Inform relevant clients about the disappearance of chatrooms created by the client
@@ -25,10 +37,26 @@ public interface ServerInterface extends Remote{
     void clientQuit(String clientName, ClientInterface clientInterface) throws RemoteException;
     /**
      * Client invokes this method to get current chatrooms
-     * @return chatroomList chatroom names and creators
+     * @return chatroomList chatroom names, creators and participant counts
      * @throws RemoteException 
      */
     ArrayList<String[]> getChatroomList() throws RemoteException;
+    /**
+     * Get the chatrooms with the most participants
+     * @param n
+     * @return chatroomList chatroom names, creators and participant counts
+     * @throws RemoteException 
+     */
+    ArrayList<String[]> getTopChatrooms(int n) throws RemoteException;
+    /**
+     * Get a sorted page of chatrooms
+     * @param order "size", "name" or "creator"
+     * @param after last row of the previous page, null for the first page
+     * @param limit maximum number of rows
+     * @return chatroomList chatroom names, creators and participant counts
+     * @throws RemoteException 
+     */
+    ArrayList<String[]> getChatroomPage(String order, String[] after, int limit) throws RemoteException;
     /**
      * Client subscribes to the registration center
      * @param clientInterface
@@ -58,7 +86,7 @@ public interface ServerInterface extends Remote{
      * Enter a chatroom
      * @param chatroomName
      * @param clientName
-     * @param clientInterface
+     * @param clientInterface null to enter in pull mode and poll with pollMsgs
      * @return list participant list of the chatroom
      * @throws RemoteException 
      */
@@ -86,6 +114,122 @@ public interface ServerInterface extends Remote{
      * @throws RemoteException 
      */
     void sendMsg(String chatroomName, String sender, String receiver, String msg) throws RemoteException;
+    /**
+     * Client invokes this method to send several messages in one call, in order
+     * @param chatroomName name of the chatroom client is participating
+     * @param sender
+     * @param msgList messages, each an array of receiver and message
+     * @throws RemoteException 
+     */
+    void sendMsgBatch(String chatroomName, String sender, ArrayList<String[]> msgList) throws RemoteException;
+    /**
+     * Client acknowledges the chatroom messages it has received without gap
+     * @param chatroomName
+     * @param clientName
+     * @param seq highest sequence number received without gap
+     * @return batch messages after seq, empty if the client is up to date
+     * @throws RemoteException 
+     */
+    MessageBatch ackMsg(String chatroomName, String clientName, long seq) throws RemoteException;
+    /**
+     * Long poll for chatroom messages, used by clients entered in pull mode
+     * Returns at once if there are messages after afterSeq, otherwise waits
+     * until one arrives or the timeout expires. The poll acknowledges afterSeq.
+     * A waiting poll holds a server thread; when too many are waiting, a poll
+     * with nothing to return is rejected with a ServerBusyException.
+     * @param chatroomName
+     * @param clientName
+     * @param afterSeq last sequence number received without gap, -1 for the messages since entering
+     * @param maxMsgs maximum number of messages returned
+     * @param timeoutMillis maximum waiting time, capped by the server
+     * @return batch messages after afterSeq, empty on timeout, null if not a participant
+     * @throws RemoteException 
+     */
+    MessageBatch pollMsgs(String chatroomName, String clientName, long afterSeq, int maxMsgs, long timeoutMillis) throws RemoteException;
+    /**
+     * Receive the chatroom messages on the chatroom's multicast group instead of callbacks
+     * Packets lost on the way are repaired by acknowledging the last message
+     * received without gap with ackMsg. Private messages and notices are
+     * still called back. A resumed session is served by callbacks again,
+     * as is a participant calling leaveMulticast.
+     * @param chatroomName
+     * @param clientName participant of the chatroom
+     * @return group to join, null if multicast is off or not a participant
+     * @throws RemoteException 
+     */
+    MulticastGroup joinMulticast(String chatroomName, String clientName) throws RemoteException;
+    /**
+     * Receive the chatroom messages by callbacks again, from the last acknowledged one
+     * @param chatroomName
+     * @param clientName
+     * @throws RemoteException 
+     */
+    void leaveMulticast(String chatroomName, String clientName) throws RemoteException;
+    /**
+     * Get the ids the server gives client names
+     * @param names
+     * @return ids, -1 for unknown names
+     * @throws RemoteException 
+     */
+    int[] getSymbols(String[] names) throws RemoteException;
+    /**
+     * Get the client names of ids
+     * @param ids
+     * @return names, null for unknown ids
+     * @throws RemoteException 
+     */
+    String[] getNames(int[] ids) throws RemoteException;
+    /**
+     * Refresh participant list as ids instead of names
+     * @param chatroomName
+     * @return ids, null if the chatroom does not exist
+     * @throws RemoteException 
+     */
+    int[] refreshParticipantIds(String chatroomName) throws RemoteException;
+    /**
+     * Client reports its presence state in a chatroom, e.g. typing
+     * Latest state wins and changes reach the participants with the next presence tick.
+     * @param chatroomName
+     * @param clientName
+     * @param state one of PresenceUpdate.IDLE, TYPING, AWAY
+     * @throws RemoteException 
+     */
+    void updatePresence(String chatroomName, String clientName, byte state) throws RemoteException;
+    /**
+     * Start uploading a file to share in a chatroom
+     * The chunks are written to the attachment endpoint with the returned id.
+     * @param chatroomName chatroom the client is participating
+     * @param clientName
+     * @param fileName
+     * @param size bytes
+     * @return upload id, -1 if refused
+     * @throws RemoteException 
+     */
+    long beginUpload(String chatroomName, String clientName, String fileName, long size) throws RemoteException;
+    /**
+     * Finish an upload and share its reference in the chatroom
+     * @param uploadId
+     * @return reference, null if the upload is unknown or incomplete
+     * @throws RemoteException 
+     */
+    AttachmentRef finishUpload(long uploadId) throws RemoteException;
+    /**
+     * Get a ticket for downloading a file shared in a chatroom
+     * The ticket is sent with every chunk request to the attachment endpoint
+     * and expires when unused for a while or when the chatroom is destroyed.
+     * @param chatroomName chatroom the file was shared in
+     * @param clientName participant of the chatroom
+     * @param hash content hash of the reference
+     * @return ticket, -1 if refused
+     * @throws RemoteException 
+     */
+    long requestDownload(String chatroomName, String clientName, String hash) throws RemoteException;
+    /**
+     * Get the port of the attachment endpoint on the server host
+     * @return port, -1 if attachments are off
+     * @throws RemoteException 
+     */
+    int getAttachmentPort() throws RemoteException;
     /**
      * 
      * @param name
@@ -0,0 +1,185 @@
+package chatroom;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TunedSocketFactory class
+ * RMI socket factory with TCP_NODELAY and sized socket buffers on both ends,
+ * a bounded accept backlog and an optional bind address on the server end.
+ * The client end travels inside the stubs, so it is equal for equal settings
+ * and RMI keeps reusing its pooled connections across stubs. Sockets created
+ * and accepted are counted, calls per socket show the connection reuse.
+ * @author Zhao Zhengyang
+ */
+public class TunedSocketFactory implements RMIClientSocketFactory, RMIServerSocketFactory, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**Number of client sockets ever created in this JVM*/
+    private static final AtomicLong createdSockets = new AtomicLong();
+    /**Number of server sockets ever accepted in this JVM*/
+    private static final AtomicLong acceptedSockets = new AtomicLong();
+    /**Number of sockets created or accepted and not closed yet*/
+    private static final AtomicLong openSockets = new AtomicLong();
+
+    /**Whether Nagle's algorithm is off*/
+    private boolean tcpNoDelay;
+    /**Socket send buffer size, 0 for the system default*/
+    private int sendBufferSize;
+    /**Socket receive buffer size, 0 for the system default*/
+    private int receiveBufferSize;
+    /**Accept backlog of server sockets, 0 for the system default*/
+    private transient int backlog;
+    /**Local address server sockets bind to, null for all addresses*/
+    private transient InetAddress bindAddress;
+
+    /**
+     * Constructor, create TunedSocketFactory object
+     * @param tcpNoDelay
+     * @param sendBufferSize 0 for the system default
+     * @param receiveBufferSize 0 for the system default
+     * @param backlog 0 for the system default
+     * @param bindAddress null for all addresses
+     */
+    public TunedSocketFactory(boolean tcpNoDelay, int sendBufferSize, int receiveBufferSize, int backlog, InetAddress bindAddress) {
+
+        super();
+        this.tcpNoDelay = tcpNoDelay;
+        this.sendBufferSize = sendBufferSize;
+        this.receiveBufferSize = receiveBufferSize;
+        this.backlog = backlog;
+        this.bindAddress = bindAddress;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+
+        CountedSocket socket = new CountedSocket();
+        try {
+            //receive buffer must be set before connecting to affect the TCP window
+            configure(socket);
+            socket.connect(new InetSocketAddress(host, port));
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+        createdSockets.incrementAndGet();
+        socket.open();
+        return socket;
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+
+        ServerSocket serverSocket = new ServerSocket() {
+
+            @Override
+            public Socket accept() throws IOException {
+                CountedSocket socket = new CountedSocket();
+                implAccept(socket);
+                acceptedSockets.incrementAndGet();
+                socket.open();
+                configure(socket);
+                return socket;
+            }
+        };
+        if (receiveBufferSize > 0) {
+            //inherited by the accepted sockets before the handshake
+            serverSocket.setReceiveBufferSize(receiveBufferSize);
+        }
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(bindAddress, port), backlog);
+        return serverSocket;
+    }
+
+    /**
+     * Apply the socket options
+     * @param socket
+     * @throws IOException
+     */
+    private void configure(Socket socket) throws IOException {
+
+        socket.setTcpNoDelay(tcpNoDelay);
+        socket.setKeepAlive(true);
+        if (sendBufferSize > 0) {
+            socket.setSendBufferSize(sendBufferSize);
+        }
+        if (receiveBufferSize > 0) {
+            socket.setReceiveBufferSize(receiveBufferSize);
+        }
+    }
+
+    /**
+     * Get number of client sockets created in this JVM
+     * @return count
+     */
+    public static long getCreatedSockets() {
+        return createdSockets.get();
+    }
+
+    /**
+     * Get number of server sockets accepted in this JVM
+     * @return count
+     */
+    public static long getAcceptedSockets() {
+        return acceptedSockets.get();
+    }
+
+    /**
+     * Get number of sockets not closed yet
+     * @return count
+     */
+    public static long getOpenSockets() {
+        return openSockets.get();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+
+        if (!(obj instanceof TunedSocketFactory)) {
+            return false;
+        }
+        TunedSocketFactory other = (TunedSocketFactory) obj;
+        return tcpNoDelay == other.tcpNoDelay && sendBufferSize == other.sendBufferSize
+                && receiveBufferSize == other.receiveBufferSize;
+    }
+
+    @Override
+    public int hashCode() {
+        return (tcpNoDelay ? 1 : 0) + 31 * sendBufferSize + 961 * receiveBufferSize;
+    }
+
+    /**
+     * Socket counted in openSockets from connection until close
+     */
+    private static class CountedSocket extends Socket {
+
+        /**Whether the socket is counted as open*/
+        private boolean counted;
+
+        /**Count the connected socket as open*/
+        private synchronized void open() {
+            counted = true;
+            openSockets.incrementAndGet();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+
+            if (counted) {
+                counted = false;
+                openSockets.decrementAndGet();
+            }
+            super.close();
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+package chatroom;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * AsyncServerProxyTest class
+ * Sends queued behind a send in flight go out together, and a timed out
+ * send tells whether it may still be posted.
+ * @author Zhao Zhengyang
+ */
+public class AsyncServerProxyTest {
+
+    /**Messages posted by sendMsgBatch calls, one list per call*/
+    private List<List<String>> posted = Collections.synchronizedList(new ArrayList<List<String>>());
+    /**Released to let sendMsgBatch return*/
+    private volatile CountDownLatch sendGate = new CountDownLatch(0);
+    /**Counted down when a sendMsgBatch call starts*/
+    private volatile CountDownLatch sendStarted = new CountDownLatch(1);
+    /**Proxy under test*/
+    private AsyncServerProxy proxy;
+
+    @Before
+    public void setUp() {
+
+        ServerInterface server = (ServerInterface) Proxy.newProxyInstance(ServerInterface.class.getClassLoader(),
+                new Class<?>[]{ServerInterface.class}, new InvocationHandler() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("sendMsgBatch")) {
+                    sendStarted.countDown();
+                    sendGate.await(10, TimeUnit.SECONDS);
+                    List<String> msgs = new ArrayList<>();
+                    for (String[] receiverAndMsg : (ArrayList<String[]>) args[2]) {
+                        msgs.add(receiverAndMsg[1]);
+                    }
+                    posted.add(msgs);
+                }
+                return null;
+            }
+        });
+        proxy = new AsyncServerProxy(server, 2);
+    }
+
+    @After
+    public void tearDown() {
+
+        sendGate.countDown();
+        proxy.shutdown();
+    }
+
+    /**
+     * Get the exception future failed with
+     * @param future
+     * @return cause
+     * @throws InterruptedException
+     */
+    private static Throwable failure(CompletableFuture<Void> future) throws InterruptedException {
+
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("completed normally");
+            return null;
+        } catch (ExecutionException ex) {
+            return ex.getCause();
+        } catch (TimeoutException ex) {
+            fail("not completed");
+            return null;
+        }
+    }
+
+    /**Sends issued during a send in flight are posted in order in one call*/
+    @Test
+    public void testCoalescing() throws Exception {
+
+        sendGate = new CountDownLatch(1);
+        CompletableFuture<Void> first = proxy.sendMsg("r", "a", "", "m1");
+        assertTrue(sendStarted.await(10, TimeUnit.SECONDS));
+        ArrayList<CompletableFuture<Void>> rest = new ArrayList<>();
+        for (int i = 2; i <= 5; i++) {
+            rest.add(proxy.sendMsg("r", "a", "", "m" + i));
+        }
+        sendGate.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        for (CompletableFuture<Void> future : rest) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(2, posted.size());
+        assertEquals(Arrays.asList("m2", "m3", "m4", "m5"), posted.get(1));
+    }
+
+    /**A send timing out in flight has an unknown outcome, one timing out in the queue is never posted*/
+    @Test
+    public void testTimeouts() throws Exception {
+
+        proxy.setDefaultTimeout(100);
+        sendGate = new CountDownLatch(1);
+        CompletableFuture<Void> inFlight = proxy.sendMsg("r", "a", "", "m1");
+        assertTrue(sendStarted.await(10, TimeUnit.SECONDS));
+        CompletableFuture<Void> queued = proxy.sendMsg("r", "a", "", "m2");
+        assertTrue(failure(inFlight) instanceof SendTimeoutException);
+        Throwable unsent = failure(queued);
+        assertTrue(unsent instanceof TimeoutException);
+        assertFalse(unsent instanceof SendTimeoutException);
+
+        //the call in flight still posts, the queued send is dropped
+        sendGate.countDown();
+        proxy.sendMsg("r", "a", "", "m3").get(10, TimeUnit.SECONDS);
+        assertEquals(2, posted.size());
+        assertEquals(Arrays.asList("m1"), posted.get(0));
+        assertEquals(Arrays.asList("m3"), posted.get(1));
+    }
+
+}
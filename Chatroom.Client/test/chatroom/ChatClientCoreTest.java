@@ -0,0 +1,383 @@
+package chatroom;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * ChatClientCoreTest class
+ * Gap handling and reconnects of the client against a scripted server:
+ * reordered batches are delivered without a repair, a lost batch is
+ * repaired once, concurrent reconnects resume the session once. The
+ * multicast tests send packets to a group on lo.
+ * @author Zhao Zhengyang
+ */
+public class ChatClientCoreTest {
+
+    /**Chatroom of the tests*/
+    private static final String CHATROOM = "lobby";
+    /**Multicast group of the tests*/
+    private static final String GROUP = "239.255.77.201";
+
+    /**Registry the scripted server is bound in*/
+    private Registry registry;
+    /**Scripted server*/
+    private ScriptedServer server;
+    /**Exported proxy of server*/
+    private ServerInterface serverProxy;
+    /**Client under test*/
+    private ChatClientCore core;
+    /**Messages reported by core*/
+    private List<String> received = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Server answering the calls of one client in one chatroom,
+     * ackMsg returns the messages of log after the acknowledged seq
+     */
+    static class ScriptedServer implements InvocationHandler {
+
+        /**Messages of the chatroom, seq i + 1 at index i*/
+        final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+        /**Sequence numbers acknowledged*/
+        final List<Long> acks = Collections.synchronizedList(new ArrayList<Long>());
+        /**Released to let ackMsg answer*/
+        volatile CountDownLatch ackGate = new CountDownLatch(0);
+        /**Group returned by joinMulticast, null for multicast off*/
+        volatile MulticastGroup group;
+        /**Number of leaveMulticast calls*/
+        final AtomicInteger leaves = new AtomicInteger();
+        /**Number of resumeSession calls*/
+        final AtomicInteger resumes = new AtomicInteger();
+        /**Released to let resumeSession answer*/
+        volatile CountDownLatch resumeGate = new CountDownLatch(0);
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            switch (method.getName()) {
+                case "clientStart":
+                    return "token";
+                case "resumeSession":
+                    resumes.incrementAndGet();
+                    resumeGate.await(10, TimeUnit.SECONDS);
+                    synchronized (log) {
+                        long seq = (Long) args[2];
+                        return new SessionState("me", CHATROOM, new ArrayList<>(Arrays.asList("me")),
+                                new MessageBatch(CHATROOM, seq + 1, new ArrayList<>(log.subList((int) seq, log.size()))));
+                    }
+                case "enterChatroom":
+                    return new ArrayList<>(Arrays.asList((String) args[1]));
+                case "ackMsg":
+                    acks.add((Long) args[2]);
+                    ackGate.await(10, TimeUnit.SECONDS);
+                    synchronized (log) {
+                        long seq = (Long) args[2];
+                        return new MessageBatch(CHATROOM, seq + 1, new ArrayList<>(log.subList((int) seq, log.size())));
+                    }
+                case "joinMulticast":
+                    return group;
+                case "leaveMulticast":
+                    leaves.incrementAndGet();
+                    return null;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        registry = LocateRegistry.createRegistry(port);
+        server = new ScriptedServer();
+        serverProxy = (ServerInterface) Proxy.newProxyInstance(ServerInterface.class.getClassLoader(),
+                new Class<?>[]{ServerInterface.class}, server);
+        registry.rebind("Chatroom", UnicastRemoteObject.exportObject(serverProxy, 0));
+        core = new ChatClientCore("me", "rmi://localhost:" + port + "/Chatroom", new ChatClientListener() {
+
+            @Override
+            public void notificationReceived(String msg) {
+            }
+
+            @Override
+            public void messageReceived(String msg) {
+                received.add(msg);
+            }
+
+            @Override
+            public void chatroomEliminated() {
+            }
+
+            @Override
+            public void presenceChanged(PresenceUpdate update) {
+            }
+
+            @Override
+            public void sessionResumed(SessionState state) {
+            }
+        });
+        core.start(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+
+        server.ackGate.countDown();
+        server.resumeGate.countDown();
+        core.quit().get(10, TimeUnit.SECONDS);
+        System.clearProperty("chatroom.multicast.interface");
+        UnicastRemoteObject.unexportObject(serverProxy, true);
+        UnicastRemoteObject.unexportObject(registry, true);
+    }
+
+    /**
+     * Enter CHATROOM, whose log holds m1 to m + count
+     * @param count
+     * @throws Exception
+     */
+    private void enter(int count) throws Exception {
+
+        for (int i = 1; i <= count; i++) {
+            server.log.add("m" + i);
+        }
+        core.enterChatroom(CHATROOM).get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Deliver messages firstSeq to lastSeq of the log as one batch
+     * @param firstSeq
+     * @param lastSeq
+     */
+    private void deliver(long firstSeq, long lastSeq) {
+        core.deliverMsg(new MessageBatch(CHATROOM, firstSeq, new ArrayList<>(server.log.subList((int) firstSeq - 1, (int) lastSeq))));
+    }
+
+    /**
+     * Enter CHATROOM, whose log holds m1 to m + count, receiving on a group on lo
+     * Returns once m1 has arrived on the group.
+     * @param count
+     * @return socket sending to the group
+     * @throws Exception
+     */
+    private MulticastSocket enterMulticast(int count) throws Exception {
+
+        int port;
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        System.setProperty("chatroom.multicast.interface", "lo");
+        server.group = new MulticastGroup(CHATROOM, GROUP, port, 0);
+        core.setMulticastMode(true);
+        MulticastSocket sender = new MulticastSocket();
+        sender.setNetworkInterface(NetworkInterface.getByName("lo"));
+        enter(count);
+        //packets sent before the group is joined are lost, send m1 until it arrives
+        while (received.isEmpty()) {
+            multicast(sender, port, 1, 1);
+            Thread.sleep(20);
+        }
+        return sender;
+    }
+
+    /**
+     * Send messages firstSeq to lastSeq of the log in one packet, a heartbeat if lastSeq is firstSeq - 1
+     * @param sender
+     * @param port
+     * @param firstSeq
+     * @param lastSeq
+     * @throws Exception
+     */
+    private void multicast(MulticastSocket sender, int port, long firstSeq, long lastSeq) throws Exception {
+
+        byte[] name = CHATROOM.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(MulticastReceiver.MAX_DATAGRAM);
+        buffer.putInt(MulticastReceiver.MAGIC);
+        buffer.putShort((short) name.length);
+        buffer.put(name);
+        buffer.putLong(firstSeq);
+        buffer.putInt((int) (lastSeq - firstSeq + 1));
+        for (long seq = firstSeq; seq <= lastSeq; seq++) {
+            byte[] msg = server.log.get((int) seq - 1).getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(msg.length);
+            buffer.put(msg);
+        }
+        sender.send(new DatagramPacket(buffer.array(), buffer.position(), InetAddress.getByName(GROUP), port));
+    }
+
+    /**
+     * Wait until condition holds
+     * @param condition
+     * @throws InterruptedException
+     */
+    static void await(BooleanSupplier condition) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Check that m1 to m + count were received once each, in order
+     * @param count
+     */
+    private void assertReceived(int count) {
+
+        synchronized (received) {
+            assertEquals(count, received.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals("m" + (i + 1), received.get(i));
+            }
+        }
+    }
+
+    /**Batches in order are delivered without any acknowledgement*/
+    @Test
+    public void testInOrder() throws Exception {
+
+        enter(5);
+        deliver(1, 3);
+        deliver(4, 5);
+        assertReceived(5);
+        assertEquals(0, server.acks.size());
+    }
+
+    /**A batch overtaken by the next one closes the gap itself, nothing is repaired*/
+    @Test
+    public void testReordered() throws Exception {
+
+        enter(5);
+        deliver(1, 2);
+        deliver(4, 5);
+        deliver(3, 3);
+        assertReceived(5);
+        Thread.sleep(ChatClientCore.REORDER_MILLIS * 4);
+        assertEquals(0, server.acks.size());
+    }
+
+    /**A lost batch is repaired by one acknowledgement, the batches behind it are not repaired again*/
+    @Test
+    public void testLost() throws Exception {
+
+        enter(10);
+        deliver(1, 2);
+        for (int seq = 4; seq <= 8; seq++) {
+            deliver(seq, seq);
+        }
+        await(() -> received.size() == 10);
+        assertReceived(10);
+        assertEquals(Arrays.asList(2L), server.acks);
+    }
+
+    /**While the repair is in flight, more batches behind the gap do not repair again*/
+    @Test
+    public void testOneRepairInFlight() throws Exception {
+
+        enter(40);
+        server.ackGate = new CountDownLatch(1);
+        deliver(1, 1);
+        for (int seq = 3; seq <= 30; seq++) {
+            deliver(seq, seq);
+        }
+        await(() -> server.acks.size() == 1);
+        Thread.sleep(ChatClientCore.REORDER_MILLIS * 4);
+        assertEquals(1, server.acks.size());
+        server.ackGate.countDown();
+        await(() -> received.size() == 40);
+        assertReceived(40);
+        assertEquals(1L, (long) server.acks.get(0));
+    }
+
+    /**Reconnects coalesce and callbacks are delivered while the session is being resumed*/
+    @Test
+    public void testReconnect() throws Exception {
+
+        enter(6);
+        deliver(1, 2);
+        server.resumeGate = new CountDownLatch(1);
+        core.reconnect();
+        core.reconnect();
+        await(() -> server.resumes.get() == 1);
+        //the client lock is free during the remote calls
+        deliver(3, 4);
+        assertReceived(4);
+        core.reconnect();
+        server.resumeGate.countDown();
+        //the resumed session returns the messages after the seq it was resumed from
+        await(() -> received.size() == 6);
+        assertReceived(6);
+        Thread.sleep(ChatClientCore.RECONNECT_BASE_MILLIS * 2);
+        assertEquals(1, server.resumes.get());
+    }
+
+    /**A packet lost on the group is detected by the packets behind it and repaired once*/
+    @Test
+    public void testMulticastGap() throws Exception {
+
+        try (MulticastSocket sender = enterMulticast(10)) {
+            int port = server.group.getPort();
+            multicast(sender, port, 2, 3);
+            //4 and 5 are lost
+            multicast(sender, port, 6, 7);
+            multicast(sender, port, 8, 10);
+            await(() -> received.size() == 10);
+            assertReceived(10);
+            assertEquals(Arrays.asList(3L), server.acks);
+            assertEquals(0, server.leaves.get());
+        }
+    }
+
+    /**A lost tail is detected by the heartbeats, which do not repair again while the repair is in flight*/
+    @Test
+    public void testMulticastHeartbeat() throws Exception {
+
+        try (MulticastSocket sender = enterMulticast(5)) {
+            int port = server.group.getPort();
+            server.ackGate = new CountDownLatch(1);
+            multicast(sender, port, 2, 3);
+            //4 and 5 are lost and nothing follows but heartbeats
+            for (int i = 0; i < 5; i++) {
+                multicast(sender, port, 6, 5);
+                Thread.sleep(ChatClientCore.REORDER_MILLIS);
+            }
+            await(() -> server.acks.size() == 1);
+            assertReceived(3);
+            server.ackGate.countDown();
+            await(() -> received.size() == 5);
+            assertReceived(5);
+            multicast(sender, port, 6, 5);
+            Thread.sleep(ChatClientCore.REORDER_MILLIS * 4);
+            assertEquals(Arrays.asList(3L), server.acks);
+        }
+    }
+
+}
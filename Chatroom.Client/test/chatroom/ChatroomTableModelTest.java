@@ -0,0 +1,162 @@
+package chatroom;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeMap;
+import javax.swing.event.TableModelEvent;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * ChatroomTableModelTest class
+ * Merged rows equal the sorted chatroom list and the fired events replay
+ * the merge on a copy of the rows.
+ * @author Zhao Zhengyang
+ */
+public class ChatroomTableModelTest {
+
+    /**Model under test*/
+    private ChatroomTableModel model;
+    /**Events fired by model*/
+    private ArrayList<TableModelEvent> events;
+
+    @Before
+    public void setUp() {
+
+        model = new ChatroomTableModel();
+        events = new ArrayList<>();
+        model.addTableModelListener(e -> events.add(e));
+    }
+
+    /**
+     * Get the rows of model
+     * @return rows
+     */
+    private ArrayList<String[]> rows() {
+
+        ArrayList<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < model.getRowCount(); i++) {
+            String[] row = new String[model.getColumnCount()];
+            for (int k = 0; k < row.length; k++) {
+                row[k] = (String) model.getValueAt(i, k);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Apply the fired events to a copy of the old rows, taking inserted and
+     * updated rows from the new ones
+     * @param old rows before the update
+     * @param rows rows after the update
+     * @return old rows with the events applied
+     */
+    private ArrayList<String[]> replay(ArrayList<String[]> old, ArrayList<String[]> rows) {
+
+        ArrayList<String[]> replayed = new ArrayList<>(old);
+        for (TableModelEvent e : events) {
+            assertTrue(e.getFirstRow() <= e.getLastRow());
+            switch (e.getType()) {
+                case TableModelEvent.INSERT:
+                    replayed.addAll(e.getFirstRow(), rows.subList(e.getFirstRow(), e.getLastRow() + 1));
+                    break;
+                case TableModelEvent.DELETE:
+                    replayed.subList(e.getFirstRow(), e.getLastRow() + 1).clear();
+                    break;
+                default:
+                    for (int i = e.getFirstRow(); i <= e.getLastRow(); i++) {
+                        replayed.set(i, rows.get(i));
+                    }
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * Check that both lists hold the same rows
+     * @param expected
+     * @param actual
+     */
+    private static void assertRows(ArrayList<String[]> expected, ArrayList<String[]> actual) {
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), actual.get(i));
+        }
+    }
+
+    /**Random lists merge into the sorted list and the events describe exactly the merge*/
+    @Test
+    public void testRandomUpdates() {
+
+        Random random = new Random(3);
+        for (int round = 0; round < 2000; round++) {
+            TreeMap<String, String[]> sorted = new TreeMap<>();
+            ArrayList<String[]> list = new ArrayList<>();
+            for (int i = 0; i < random.nextInt(30); i++) {
+                String name = "room" + random.nextInt(40);
+                if (!sorted.containsKey(name)) {
+                    String[] row = {name, "creator", String.valueOf(random.nextInt(3))};
+                    sorted.put(name, row);
+                    list.add(row);
+                }
+            }
+            ArrayList<String[]> old = rows();
+            events.clear();
+            model.update(list);
+            ArrayList<String[]> rows = rows();
+            assertRows(new ArrayList<>(sorted.values()), rows);
+            assertRows(rows, replay(old, rows));
+        }
+    }
+
+    /**Only the changed row fires, unchanged lists fire nothing*/
+    @Test
+    public void testSingleChange() {
+
+        ArrayList<String[]> list = new ArrayList<>();
+        list.add(new String[]{"a", "x", "1"});
+        list.add(new String[]{"b", "x", "1"});
+        list.add(new String[]{"c", "x", "1"});
+        model.update(list);
+        assertEquals(1, events.size());
+        assertEquals(TableModelEvent.INSERT, events.get(0).getType());
+
+        events.clear();
+        model.update(new ArrayList<>(list));
+        assertEquals(0, events.size());
+
+        list.set(1, new String[]{"b", "x", "2"});
+        model.update(list);
+        assertEquals(1, events.size());
+        assertEquals(TableModelEvent.UPDATE, events.get(0).getType());
+        assertEquals(1, events.get(0).getFirstRow());
+        assertEquals(1, events.get(0).getLastRow());
+        assertEquals("2", model.getValueAt(1, 2));
+    }
+
+    /**Clearing fires one deletion of all rows*/
+    @Test
+    public void testClear() {
+
+        ArrayList<String[]> list = new ArrayList<>();
+        list.add(new String[]{"b", "x", "1"});
+        list.add(new String[]{"a", "x", "1"});
+        model.update(list);
+        assertEquals("a", model.getValueAt(0, 0));
+        events.clear();
+        model.clear();
+        assertEquals(0, model.getRowCount());
+        assertEquals(1, events.size());
+        assertEquals(TableModelEvent.DELETE, events.get(0).getType());
+        assertEquals(1, events.get(0).getLastRow());
+        events.clear();
+        model.clear();
+        assertEquals(0, events.size());
+    }
+
+}
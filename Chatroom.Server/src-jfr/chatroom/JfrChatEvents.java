@@ -0,0 +1,175 @@
+package chatroom;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event types of the chat server.
+ * Built on JDK 11 or later by the -post-compile target of the build and
+ * only loaded through ChatEvents when the JVM has JFR.
+ * @author Zhao Zhengyang
+ */
+public final class JfrChatEvents implements ChatEventRecorder {
+
+    /**Constructor, create JfrChatEvents object*/
+    public JfrChatEvents() {
+
+        super();
+    }
+
+    @Name("chatroom.RoomOperation")
+    @Label("Room Operation")
+    @Category("Chatroom")
+    @Description("createChatroom, destroyChatroom, enterChatroom or exitChatroom")
+    @StackTrace(false)
+    static class RoomOperationEvent extends Event {
+
+        @Label("Operation")
+        String operation;
+
+        @Label("Chatroom")
+        String chatroom;
+
+        @Label("Client")
+        String client;
+
+        @Label("Participant Count")
+        int participantCount;
+
+    }
+
+    @Name("chatroom.Fanout")
+    @Label("Message Fan-out")
+    @Category("Chatroom")
+    @Description("Delivery workers of all participants of a chatroom started and new messages multicast")
+    @StackTrace(false)
+    static class FanoutEvent extends Event {
+
+        @Label("Chatroom")
+        String chatroom;
+
+        @Label("Sequence Number")
+        long seq;
+
+        @Label("Participant Count")
+        int participantCount;
+
+    }
+
+    @Name("chatroom.CallbackFailure")
+    @Label("Callback Failure")
+    @Category("Chatroom")
+    @Description("A ClientInterface callback threw an exception")
+    @StackTrace(false)
+    static class CallbackFailureEvent extends Event {
+
+        @Label("Chatroom")
+        String chatroom;
+
+        @Label("Client")
+        String client;
+
+        @Label("Callback")
+        String callback;
+
+        @Label("Exception")
+        String exception;
+
+    }
+
+    /**Type of RoomOperationEvent, checked before an event is created*/
+    private static final EventType ROOM_OPERATION = EventType.getEventType(RoomOperationEvent.class);
+    /**Type of FanoutEvent*/
+    private static final EventType FANOUT = EventType.getEventType(FanoutEvent.class);
+    /**Type of CallbackFailureEvent*/
+    private static final EventType CALLBACK_FAILURE = EventType.getEventType(CallbackFailureEvent.class);
+
+    @Override
+    public Object beginRoomOperation() {
+
+        if (!ROOM_OPERATION.isEnabled()) {
+            return null;
+        }
+        RoomOperationEvent event = new RoomOperationEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void roomOperation(Object begun, String operation, String chatroom, String client, int participantCount) {
+
+        if (!(begun instanceof RoomOperationEvent)) {
+            return;
+        }
+        RoomOperationEvent event = (RoomOperationEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.chatroom = chatroom;
+            event.client = client;
+            event.participantCount = participantCount;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginFanout() {
+
+        if (!FANOUT.isEnabled()) {
+            return null;
+        }
+        FanoutEvent event = new FanoutEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void fanout(Object begun, String chatroom, long seq, int participantCount) {
+
+        if (!(begun instanceof FanoutEvent)) {
+            return;
+        }
+        FanoutEvent event = (FanoutEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.chatroom = chatroom;
+            event.seq = seq;
+            event.participantCount = participantCount;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginCallback() {
+
+        if (!CALLBACK_FAILURE.isEnabled()) {
+            return null;
+        }
+        CallbackFailureEvent event = new CallbackFailureEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void callbackFailure(Object begun, String chatroom, String client, String callback, Throwable ex) {
+
+        if (!(begun instanceof CallbackFailureEvent)) {
+            return;
+        }
+        CallbackFailureEvent event = (CallbackFailureEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.chatroom = chatroom;
+            event.client = client;
+            event.callback = callback;
+            event.exception = String.valueOf(ex);
+            event.commit();
+        }
+    }
+
+}
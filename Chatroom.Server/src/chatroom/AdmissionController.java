@@ -0,0 +1,232 @@
+package chatroom;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AdmissionController class
+ * Server-wide admission control of the remote calls by priority.
+ * Every admitted call counts as in flight until released. Control calls are
+ * always admitted; directory and chat calls are rejected at once with a
+ * ServerBusyException when the calls in flight fill their share of the limit,
+ * so chat floods are shed first and control calls never queue behind them.
+ * The limit adapts to the measured latency of the admitted calls: it shrinks
+ * when the average latency of a window rises above the baseline and grows
+ * while latency stays near it and the limit is being used.
+ * @author Zhao Zhengyang
+ */
+public class AdmissionController implements AdmissionControllerMBean {
+
+    /**Priority of session and chatroom membership calls, never rejected*/
+    public static final int CONTROL = 0;
+    /**Priority of chatroom and participant lookups*/
+    public static final int DIRECTORY = 1;
+    /**Priority of messages, presence and polls*/
+    public static final int CHAT = 2;
+
+    /**Names of the priorities*/
+    private static final String[] PRIORITY_NAMES = {"control", "directory", "chat"};
+    /**Share of the limit the calls in flight may fill for a priority to be admitted*/
+    private static final double[] SHARES = {Double.MAX_VALUE, 0.9, 0.7};
+
+    /**Number of latency samples in a window*/
+    public static final int WINDOW_SAMPLES = 100;
+    /**Latency up to this many times the baseline does not shrink the limit*/
+    public static final double TOLERANCE = 2.0;
+    /**Weight of a window's new limit in the smoothed limit*/
+    public static final double SMOOTHING = 0.2;
+    /**Windows after which the baseline is re-measured*/
+    public static final int BASELINE_WINDOWS = 100;
+    /**Shortest suggested delay before retrying a rejected call*/
+    public static final long MIN_RETRY_MILLIS = 20;
+    /**Longest suggested delay before retrying a rejected call*/
+    public static final long MAX_RETRY_MILLIS = 2000;
+
+    /**Whether calls can be rejected*/
+    private boolean enabled;
+    /**Lowest limit*/
+    private int minLimit;
+    /**Highest limit*/
+    private int maxLimit;
+    /**Current limit, smoothed*/
+    private volatile double limit;
+    /**Admitted calls not released yet*/
+    private AtomicInteger inFlight = new AtomicInteger();
+    /**Number of calls admitted*/
+    private AtomicLong admitted = new AtomicLong();
+    /**Number of calls rejected per priority*/
+    private AtomicLong[] rejected = {new AtomicLong(), new AtomicLong(), new AtomicLong()};
+
+    /**Sum of the latencies of the current window in nanoseconds*/
+    private AtomicLong windowSum = new AtomicLong();
+    /**Number of samples in the current window*/
+    private AtomicInteger windowCount = new AtomicInteger();
+    /**Most calls in flight during the current window*/
+    private AtomicInteger windowMaxInFlight = new AtomicInteger();
+    /**Windows since the baseline was last re-measured, guarded by this*/
+    private int baselineAge;
+    /**Lowest window average latency in nanoseconds, 0 before the first window*/
+    private volatile long baseline;
+    /**Latest window average latency in nanoseconds*/
+    private volatile long lastAverage;
+
+    /**
+     * Constructor, create AdmissionController object
+     * @param enabled false to admit every call and only measure
+     * @param initialLimit
+     * @param minLimit
+     * @param maxLimit
+     */
+    public AdmissionController(boolean enabled, int initialLimit, int minLimit, int maxLimit) {
+
+        super();
+        this.enabled = enabled;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+    }
+
+    /**
+     * Admit a call of priority or reject it
+     * The call must be released once it is finished.
+     * @param priority CONTROL, DIRECTORY or CHAT
+     * @return admission time, to be passed to release
+     * @throws ServerBusyException if the call is shed
+     */
+    public long acquire(int priority) throws ServerBusyException {
+
+        double cap = limit * SHARES[priority];
+        while (true) {
+            int current = inFlight.get();
+            if (enabled && current >= cap) {
+                rejected[priority].incrementAndGet();
+                throw new ServerBusyException("Server busy, " + PRIORITY_NAMES[priority] + " call rejected", getRetryAfterMillis());
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                break;
+            }
+        }
+        admitted.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Admit a control call, control calls are never rejected
+     * @return admission time, to be passed to release
+     */
+    public long acquireControl() {
+
+        inFlight.incrementAndGet();
+        admitted.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Release a finished call and sample its latency
+     * @param admissionTime returned by acquire
+     */
+    public void release(long admissionTime) {
+
+        int current = inFlight.getAndDecrement();
+        sample(System.nanoTime() - admissionTime, current);
+    }
+
+    /**
+     * Release a call without sampling its latency, e.g. a long poll
+     */
+    public void releaseUnsampled() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Admit a call of priority and release it at once, for calls that wait
+     * for a long time without using the server
+     * @param priority
+     * @throws ServerBusyException if the call is shed
+     */
+    public void check(int priority) throws ServerBusyException {
+        acquire(priority);
+        releaseUnsampled();
+    }
+
+    /**
+     * Add a latency sample, the call adding the last sample of a window closes it
+     * Lock-free, only the closing call adapts the limit. A sample racing the
+     * close may be counted in one window and summed in the next.
+     * @param latency nanoseconds
+     * @param current calls in flight when the call finished, itself included
+     */
+    private void sample(long latency, int current) {
+
+        windowSum.addAndGet(latency);
+        int max = windowMaxInFlight.get();
+        while (current > max && !windowMaxInFlight.compareAndSet(max, current)) {
+            max = windowMaxInFlight.get();
+        }
+        if (windowCount.incrementAndGet() != WINDOW_SAMPLES) {
+            return;
+        }
+        int count = windowCount.getAndSet(0);
+        long sum = windowSum.getAndSet(0);
+        int maxInFlight = windowMaxInFlight.getAndSet(0);
+        closeWindow(Math.max(1, sum / count), maxInFlight);
+    }
+
+    /**
+     * Adapt the limit to a closed window
+     * Serialized in case the next window closes before this one is done.
+     * @param average average latency of the window in nanoseconds
+     * @param maxInFlight most calls in flight during the window
+     */
+    private synchronized void closeWindow(long average, int maxInFlight) {
+
+        lastAverage = average;
+
+        //the baseline drifts with the load mix, re-measure it now and then
+        if (baseline == 0 || average < baseline || ++baselineAge >= BASELINE_WINDOWS) {
+            baseline = average;
+            baselineAge = 0;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * baseline / average));
+        double newLimit = limit * gradient;
+        if (gradient == 1.0 && maxInFlight * 2 >= limit) {
+            //latency is fine and the limit is in use, probe for more
+            newLimit += Math.sqrt(limit);
+        }
+        double smoothed = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, smoothed));
+    }
+
+    /**
+     * Get the delay suggested to rejected callers
+     * @return milliseconds, a few average latencies
+     */
+    public long getRetryAfterMillis() {
+        return Math.max(MIN_RETRY_MILLIS, Math.min(MAX_RETRY_MILLIS, lastAverage * 4 / 1000000));
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getBaselineLatencyMicros() {
+        return baseline / 1000;
+    }
+
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    public long getDirectoryRejected() {
+        return rejected[DIRECTORY].get();
+    }
+
+    public long getChatRejected() {
+        return rejected[CHAT].get();
+    }
+
+}
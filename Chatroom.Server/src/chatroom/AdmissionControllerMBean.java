@@ -0,0 +1,44 @@
+package chatroom;
+
+/**
+ * Management interface of AdmissionController, registered as chatroom:type=AdmissionController
+ * @author Zhao Zhengyang
+ */
+public interface AdmissionControllerMBean {
+
+    /**
+     * Get current concurrency limit
+     * @return limit
+     */
+    int getLimit();
+
+    /**
+     * Get number of admitted calls not finished yet
+     * @return count
+     */
+    int getInFlight();
+
+    /**
+     * Get lowest average latency seen, the baseline of the limit
+     * @return microseconds
+     */
+    long getBaselineLatencyMicros();
+
+    /**
+     * Get number of calls admitted
+     * @return count
+     */
+    long getAdmitted();
+
+    /**
+     * Get number of directory calls rejected
+     * @return count
+     */
+    long getDirectoryRejected();
+
+    /**
+     * Get number of chat calls rejected
+     * @return count
+     */
+    long getChatRejected();
+}
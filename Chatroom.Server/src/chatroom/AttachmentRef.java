@@ -0,0 +1,124 @@
+package chatroom;
+
+import java.io.Serializable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * AttachmentRef class
+ * Reference to a file in the server's attachment store, the only part of an
+ * attachment that is broadcast to the chatroom. The content is addressed by
+ * its SHA-256 hash and fetched in chunks from the attachment endpoint.
+ * Also defines the wire protocol of the endpoint: a request is an op byte,
+ * the 8-byte download ticket (get) or upload id (put), an 8-byte offset and
+ * a 4-byte length; put bytes follow the request. Tickets are issued by
+ * ServerInterface.requestDownload to participants of a chatroom the file
+ * was shared in. The reply is an 8-byte count,
+ * -1 on failure, followed by count bytes for a get.
+ * @author Zhao Zhengyang
+ */
+public class AttachmentRef implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**Op of reading a chunk of stored content*/
+    public static final byte OP_GET = 'G';
+    /**Op of writing a chunk of an upload*/
+    public static final byte OP_PUT = 'P';
+    /**Largest chunk of one request*/
+    public static final int MAX_CHUNK = 1024 * 1024;
+
+    /**Reference inside a chatroom message: [file] name (size bytes) #hash*/
+    private static final Pattern REF_PATTERN = Pattern.compile("\\[file\\] (.*) \\((\\d+) bytes\\) #([0-9a-f]{64})");
+
+    /**SHA-256 of the content, lowercase hex*/
+    private String hash;
+    /**Original file name*/
+    private String fileName;
+    /**Size in bytes*/
+    private long size;
+
+    /**Constructor, create AttachmentRef object*/
+    public AttachmentRef(String hash, String fileName, long size) {
+
+        super();
+        this.hash = hash;
+        this.fileName = fileName;
+        this.size = size;
+    }
+
+    /**
+     * Get SHA-256 of the content
+     * @return hash lowercase hex
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * Get original file name
+     * @return fileName
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Get size
+     * @return bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Get the reference as sent in a chatroom message
+     * @return message text
+     */
+    public String toMessage() {
+        return "[file] " + fileName + " (" + size + " bytes) #" + hash;
+    }
+
+    /**
+     * Find a reference in a chatroom message
+     * @param msg displayed message
+     * @return reference, null if msg has none
+     */
+    public static AttachmentRef parse(String msg) {
+
+        Matcher matcher = REF_PATTERN.matcher(msg);
+        if (!matcher.find()) {
+            return null;
+        }
+        return new AttachmentRef(matcher.group(3), matcher.group(1), Long.parseLong(matcher.group(2)));
+    }
+
+    /**
+     * Convert a hex hash to its 32 bytes
+     * @param hash lowercase hex
+     * @return bytes
+     */
+    public static byte[] toBytes(String hash) {
+
+        byte[] bytes = new byte[hash.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hash.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * Convert hash bytes to lowercase hex
+     * @param bytes
+     * @return hash
+     */
+    public static String toHex(byte[] bytes) {
+
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (int i = 0; i < bytes.length; i++) {
+            sb.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16)).append(Character.forDigit(bytes[i] & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,238 @@
+package chatroom;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * AttachmentServer class
+ * Socket endpoint moving attachment chunks between clients and the
+ * AttachmentStore, outside RMI and the chatroom message path. Chunks go
+ * from the socket to the file with transferFrom and from the file to the
+ * socket with transferTo. The wire protocol is described in AttachmentRef;
+ * a connection serves requests until the client closes it. At most
+ * maxConnections connections are served at a time, more are closed at once.
+ * @author Zhao Zhengyang
+ */
+public class AttachmentServer {
+
+    /**Size of a request after the op byte: ticket or upload id, offset and length*/
+    private static final int REQUEST_SIZE = 8 + 8 + 4;
+
+    /**Store the chunks are read from and written to*/
+    private AttachmentStore attachmentStore;
+    /**Listening channel*/
+    private ServerSocketChannel serverChannel;
+    /**Threads serving the connections, one per connection*/
+    private ExecutorService executorService;
+    /**Number of connections refused because all threads were busy*/
+    private AtomicLong refused = new AtomicLong();
+
+    /**
+     * Constructor, create AttachmentServer object and start accepting
+     * @param attachmentStore
+     * @param bindAddress null for all addresses
+     * @param port 0 for an anonymous port
+     * @param maxConnections most connections served at a time
+     * @throws IOException
+     */
+    public AttachmentServer(AttachmentStore attachmentStore, InetAddress bindAddress, int port, int maxConnections) throws IOException {
+
+        super();
+        this.attachmentStore = attachmentStore;
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.bind(new InetSocketAddress(bindAddress, port));
+        final AtomicInteger count = new AtomicInteger();
+        //no queue, a connection is served at once or refused
+        this.executorService = new ThreadPoolExecutor(0, Math.max(1, maxConnections), 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "attachment-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        Thread acceptor = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "attachment-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Get number of connections refused because all threads were busy
+     * @return count
+     */
+    public long getRefused() {
+        return refused.get();
+    }
+
+    /**
+     * Get the port clients connect to
+     * @return port
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Stop accepting, open connections end with their current request
+     */
+    public void close() {
+
+        try {
+            serverChannel.close();
+        } catch (IOException ex) {
+            Logger.getLogger(AttachmentServer.class.getName()).log(Level.WARNING, null, ex);
+        }
+        executorService.shutdown();
+    }
+
+    /**
+     * Accept connections until closed
+     */
+    private void accept() {
+
+        while (serverChannel.isOpen()) {
+            try {
+                final SocketChannel channel = serverChannel.accept();
+                channel.socket().setTcpNoDelay(true);
+                try {
+                    executorService.execute(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            serve(channel);
+                        }
+                    });
+                } catch (RejectedExecutionException ex) {
+                    refused.incrementAndGet();
+                    channel.close();
+                }
+            } catch (IOException ex) {
+                if (serverChannel.isOpen()) {
+                    Logger.getLogger(AttachmentServer.class.getName()).log(Level.WARNING, null, ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Serve the requests of a connection
+     * @param channel
+     */
+    private void serve(SocketChannel channel) {
+
+        ByteBuffer request = ByteBuffer.allocate(1 + REQUEST_SIZE);
+        ByteBuffer reply = ByteBuffer.allocate(8);
+        try {
+            while (true) {
+                request.clear();
+                request.limit(1);
+                if (!readFully(channel, request, true)) {
+                    break;
+                }
+                byte op = request.get(0);
+                if (op == AttachmentRef.OP_GET) {
+                    request.limit(1 + REQUEST_SIZE);
+                    readFully(channel, request, false);
+                    request.position(1);
+                    String hash = attachmentStore.getTicketHash(request.getLong());
+                    long offset = request.getLong();
+                    int length = Math.min(request.getInt(), AttachmentRef.MAX_CHUNK);
+                    long count = hash == null || offset < 0 || length < 0 ? -1 : attachmentStore.getChunkLength(hash, offset, length);
+                    reply.clear();
+                    reply.putLong(count);
+                    reply.flip();
+                    writeFully(channel, reply);
+                    if (count > 0) {
+                        attachmentStore.transferChunk(hash, offset, count, channel);
+                    }
+                } else if (op == AttachmentRef.OP_PUT) {
+                    request.limit(1 + REQUEST_SIZE);
+                    readFully(channel, request, false);
+                    request.position(1);
+                    long uploadId = request.getLong();
+                    long offset = request.getLong();
+                    int length = request.getInt();
+                    long written = length > AttachmentRef.MAX_CHUNK ? -1 : attachmentStore.writeChunk(uploadId, offset, length, channel);
+                    reply.clear();
+                    reply.putLong(written);
+                    reply.flip();
+                    writeFully(channel, reply);
+                    if (written < 0) {
+                        //the chunk bytes were not consumed
+                        break;
+                    }
+                } else {
+                    break;
+                }
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(AttachmentServer.class.getName()).log(Level.FINE, "Attachment connection failed", ex);
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                Logger.getLogger(AttachmentServer.class.getName()).log(Level.FINE, null, ex);
+            }
+        }
+    }
+
+    /**
+     * Read until buffer is full
+     * @param channel
+     * @param buffer
+     * @param eofAllowed whether the connection may end before the first byte
+     * @return false if the connection ended before the first byte
+     * @throws IOException
+     */
+    private static boolean readFully(SocketChannel channel, ByteBuffer buffer, boolean eofAllowed) throws IOException {
+
+        boolean first = true;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (first && eofAllowed) {
+                    return false;
+                }
+                throw new EOFException();
+            }
+            first = false;
+        }
+        return true;
+    }
+
+    /**
+     * Write all of buffer
+     * @param channel
+     * @param buffer
+     * @throws IOException
+     */
+    private static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+}
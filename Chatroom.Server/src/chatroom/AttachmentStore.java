@@ -0,0 +1,511 @@
+package chatroom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * AttachmentStore class
+ * Content-addressed store of the files shared in chatrooms.
+ * An upload is written chunk by chunk into a temporary file straight from
+ * the socket; when it is finished the file is hashed and renamed to its
+ * SHA-256, so equal files are stored once. Chunks are served from the file
+ * to the socket with FileChannel.transferTo, the content never passes
+ * through the heap. Content is only served against a download ticket,
+ * issued to a participant of a chatroom the file was shared in. The store
+ * is capped in total size, the oldest files are deleted to make room, and
+ * files not shared again within the expiry time are deleted.
+ * @author Zhao Zhengyang
+ */
+public class AttachmentStore {
+
+    /**Uploads idle this long are dropped*/
+    public static final long UPLOAD_TIMEOUT_MILLIS = 10 * 60 * 1000;
+    /**Download tickets unused this long are dropped*/
+    public static final long TICKET_TIMEOUT_MILLIS = 5 * 60 * 1000;
+    /**Suffix of the files being uploaded*/
+    private static final String PART_SUFFIX = ".part";
+
+    /**
+     * A file being uploaded
+     */
+    private static class Upload {
+
+        private String chatroomName;
+        private String clientName;
+        private String fileName;
+        private long size;
+        private File file;
+        private FileChannel channel;
+        private volatile long lastActive = System.currentTimeMillis();
+
+        /**Constructor, create Upload object*/
+        public Upload(String chatroomName, String clientName, String fileName, long size, File file, FileChannel channel) {
+
+            super();
+            this.chatroomName = chatroomName;
+            this.clientName = clientName;
+            this.fileName = fileName;
+            this.size = size;
+            this.file = file;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * A download ticket, bound to one content and the chatroom it was requested for
+     */
+    private static class Ticket {
+
+        private String hash;
+        private String chatroomName;
+        private volatile long lastActive = System.currentTimeMillis();
+
+        /**Constructor, create Ticket object*/
+        public Ticket(String hash, String chatroomName) {
+
+            super();
+            this.hash = hash;
+            this.chatroomName = chatroomName;
+        }
+    }
+
+    /**Directory of the stored files*/
+    private File dir;
+    /**Largest file accepted*/
+    private long maxSize;
+    /**Most bytes of stored content*/
+    private long maxTotalSize;
+    /**Time after its last share a file is deleted, 0 for never*/
+    private long expiryMillis;
+    /**Bytes of stored content, guarded by sharedTable*/
+    private long totalSize;
+    /**
+     * Chatrooms each stored content was shared in
+     * key: hash, value: chatroom names
+     */
+    private Hashtable<String, ArrayList<String>> sharedTable = new Hashtable<>();
+    /**
+     * Download tickets issued
+     * key: ticket, value: ticket
+     */
+    private Hashtable<Long, Ticket> ticketTable = new Hashtable<>();
+    /**
+     * Uploads in progress
+     * key: upload id, value: upload
+     */
+    private Hashtable<Long, Upload> uploadTable = new Hashtable<>();
+    /**Source of upload ids, which are the uploaders' credentials*/
+    private SecureRandom random = new SecureRandom();
+
+    /**
+     * Constructor, create AttachmentStore object
+     * Files of an earlier run are deleted, their references are gone with the chatrooms.
+     * @param dir directory of the stored files, created if missing
+     * @param maxSize largest file accepted in bytes
+     * @param maxTotalSize most bytes of stored content
+     * @param expiryMillis time after its last share a file is deleted, 0 for never
+     * @throws IOException
+     */
+    public AttachmentStore(File dir, long maxSize, long maxTotalSize, long expiryMillis) throws IOException {
+
+        super();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        this.dir = dir;
+        this.maxSize = Math.min(maxSize, maxTotalSize);
+        this.maxTotalSize = maxTotalSize;
+        this.expiryMillis = expiryMillis;
+        File[] files = dir.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            if (files[i].getName().endsWith(PART_SUFFIX) || files[i].getName().matches("[0-9a-f]{64}")) {
+                Files.deleteIfExists(files[i].toPath());
+            }
+        }
+    }
+
+    /**
+     * Start an upload
+     * @param chatroomName chatroom the file is shared in
+     * @param clientName uploader
+     * @param fileName
+     * @param size bytes
+     * @return upload id, -1 if the file is too large
+     * @throws IOException
+     */
+    public long beginUpload(String chatroomName, String clientName, String fileName, long size) throws IOException {
+
+        expireUploads();
+        expireContent();
+        if (size < 0 || size > maxSize) {
+            return -1;
+        }
+        File file = File.createTempFile("upload", PART_SUFFIX, dir);
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        long uploadId;
+        synchronized (uploadTable) {
+            do {
+                uploadId = random.nextLong() & Long.MAX_VALUE;
+            } while (uploadTable.containsKey(uploadId));
+            uploadTable.put(uploadId, new Upload(chatroomName, clientName, fileName, size, file, channel));
+        }
+        return uploadId;
+    }
+
+    /**
+     * Write a chunk of an upload from source without copying it through the heap
+     * Chunks are written in order, a chunk may be written again.
+     * @param uploadId
+     * @param offset
+     * @param length
+     * @param source channel the chunk is read from
+     * @return bytes written, -1 if the upload is unknown or the chunk out of order or bounds
+     * @throws IOException
+     */
+    public long writeChunk(long uploadId, long offset, int length, ReadableByteChannel source) throws IOException {
+
+        Upload upload = uploadTable.get(uploadId);
+        //transferFrom does not write beyond the end of the file
+        if (upload == null || offset < 0 || length < 0 || offset + length > upload.size || offset > upload.channel.size()) {
+            return -1;
+        }
+        upload.lastActive = System.currentTimeMillis();
+        long written = 0;
+        while (written < length) {
+            long count = upload.channel.transferFrom(source, offset + written, length - written);
+            if (count <= 0) {
+                throw new IOException("Upload " + uploadId + " ended early");
+            }
+            written += count;
+        }
+        return written;
+    }
+
+    /**
+     * Get the chatroom and uploader of an upload
+     * @param uploadId
+     * @return chatroom name and client name, null if unknown
+     */
+    public String[] getUploader(long uploadId) {
+
+        Upload upload = uploadTable.get(uploadId);
+        return upload == null ? null : new String[]{upload.chatroomName, upload.clientName};
+    }
+
+    /**
+     * Finish an upload, storing the file under its hash
+     * @param uploadId
+     * @return reference, null if the upload is unknown or incomplete
+     * @throws IOException
+     */
+    public AttachmentRef finishUpload(long uploadId) throws IOException {
+
+        Upload upload = uploadTable.get(uploadId);
+        if (upload == null || upload.channel.size() != upload.size) {
+            return null;
+        }
+        uploadTable.remove(uploadId);
+        String hash;
+        try {
+            hash = hash(upload.channel);
+        } finally {
+            upload.channel.close();
+        }
+        File target = new File(dir, hash);
+        synchronized (sharedTable) {
+            ArrayList<String> rooms = sharedTable.get(hash);
+            if (rooms != null) {
+                //same content stored before
+                Files.delete(upload.file.toPath());
+                if (!target.setLastModified(System.currentTimeMillis())) {
+                    Logger.getLogger(AttachmentStore.class.getName()).log(Level.FINE, "Cannot touch " + target);
+                }
+            } else {
+                makeRoom(upload.size);
+                Files.move(upload.file.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                rooms = new ArrayList<>();
+                sharedTable.put(hash, rooms);
+                totalSize += upload.size;
+            }
+            if (!rooms.contains(upload.chatroomName)) {
+                rooms.add(upload.chatroomName);
+            }
+        }
+        return new AttachmentRef(hash, upload.fileName, upload.size);
+    }
+
+    /**
+     * Delete the least recently shared files until size more bytes fit in the store
+     * Called holding sharedTable.
+     * @param size
+     */
+    private void makeRoom(long size) {
+
+        while (totalSize + size > maxTotalSize && !sharedTable.isEmpty()) {
+            String oldest = null;
+            long oldestModified = Long.MAX_VALUE;
+            for (String hash : sharedTable.keySet()) {
+                long modified = new File(dir, hash).lastModified();
+                if (modified < oldestModified) {
+                    oldest = hash;
+                    oldestModified = modified;
+                }
+            }
+            deleteContent(oldest);
+        }
+    }
+
+    /**
+     * Delete the files not shared within the expiry time
+     */
+    private void expireContent() {
+
+        if (expiryMillis <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (sharedTable) {
+            ArrayList<String> hashes = new ArrayList<>(sharedTable.keySet());
+            for (int i = 0; i < hashes.size(); i++) {
+                if (now - new File(dir, hashes.get(i)).lastModified() > expiryMillis) {
+                    deleteContent(hashes.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete stored content, downloads running on it fail
+     * Called holding sharedTable.
+     * @param hash
+     */
+    private void deleteContent(String hash) {
+
+        sharedTable.remove(hash);
+        File file = new File(dir, hash);
+        totalSize -= file.length();
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException ex) {
+            Logger.getLogger(AttachmentStore.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+
+    /**
+     * Get bytes of stored content
+     * @return bytes
+     */
+    public long getTotalSize() {
+
+        synchronized (sharedTable) {
+            return totalSize;
+        }
+    }
+
+    /**
+     * Issue a ticket for downloading content shared in a chatroom
+     * The caller checks that the client is a participant of the chatroom.
+     * @param chatroomName
+     * @param hash
+     * @return ticket, -1 if the content was not shared in chatroomName or is gone
+     */
+    public long issueTicket(String chatroomName, String hash) {
+
+        expireTickets();
+        synchronized (sharedTable) {
+            ArrayList<String> rooms = sharedTable.get(hash);
+            if (rooms == null || !rooms.contains(chatroomName)) {
+                return -1;
+            }
+        }
+        long ticket;
+        synchronized (ticketTable) {
+            do {
+                ticket = random.nextLong() & Long.MAX_VALUE;
+            } while (ticketTable.containsKey(ticket));
+            ticketTable.put(ticket, new Ticket(hash, chatroomName));
+        }
+        return ticket;
+    }
+
+    /**
+     * Get the content a ticket grants
+     * @param ticket
+     * @return hash, null if the ticket is unknown or expired
+     */
+    public String getTicketHash(long ticket) {
+
+        Ticket entry = ticketTable.get(ticket);
+        if (entry == null) {
+            return null;
+        }
+        entry.lastActive = System.currentTimeMillis();
+        return entry.hash;
+    }
+
+    /**
+     * Drop the tickets issued for a chatroom, e.g. when it is destroyed
+     * @param chatroomName
+     */
+    public void revokeTickets(String chatroomName) {
+
+        synchronized (ticketTable) {
+            ArrayList<Long> revoked = new ArrayList<>();
+            for (Long ticket : ticketTable.keySet()) {
+                if (ticketTable.get(ticket).chatroomName.equals(chatroomName)) {
+                    revoked.add(ticket);
+                }
+            }
+            for (int i = 0; i < revoked.size(); i++) {
+                ticketTable.remove(revoked.get(i));
+            }
+        }
+    }
+
+    /**
+     * Drop the tickets unused for longer than TICKET_TIMEOUT_MILLIS
+     */
+    private void expireTickets() {
+
+        long now = System.currentTimeMillis();
+        synchronized (ticketTable) {
+            ArrayList<Long> expired = new ArrayList<>();
+            for (Long ticket : ticketTable.keySet()) {
+                if (now - ticketTable.get(ticket).lastActive > TICKET_TIMEOUT_MILLIS) {
+                    expired.add(ticket);
+                }
+            }
+            for (int i = 0; i < expired.size(); i++) {
+                ticketTable.remove(expired.get(i));
+            }
+        }
+    }
+
+    /**
+     * Get the length of a chunk of stored content
+     * @param hash
+     * @param offset
+     * @param length requested length
+     * @return bytes available up to length, -1 if the content is unknown
+     */
+    public long getChunkLength(String hash, long offset, int length) {
+
+        File file = contentFile(hash);
+        if (file == null) {
+            return -1;
+        }
+        return Math.max(0, Math.min(length, file.length() - offset));
+    }
+
+    /**
+     * Send count bytes of stored content from offset to target with FileChannel.transferTo
+     * @param hash
+     * @param offset
+     * @param count as returned by getChunkLength
+     * @param target
+     * @throws IOException
+     */
+    public void transferChunk(String hash, long offset, long count, WritableByteChannel target) throws IOException {
+
+        File file = contentFile(hash);
+        if (file == null) {
+            throw new IOException("Attachment " + hash + " deleted");
+        }
+        try (FileChannel channel = new RandomAccessFile(file, "r").getChannel()) {
+            long sent = 0;
+            while (sent < count) {
+                long n = channel.transferTo(offset + sent, count - sent, target);
+                if (n <= 0) {
+                    throw new IOException("Attachment " + hash + " truncated");
+                }
+                sent += n;
+            }
+        }
+    }
+
+    /**
+     * Get the file of stored content
+     * @param hash
+     * @return file, null if unknown or hash malformed
+     */
+    private File contentFile(String hash) {
+
+        if (!hash.matches("[0-9a-f]{64}")) {
+            return null;
+        }
+        File file = new File(dir, hash);
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * Drop the uploads idle for longer than UPLOAD_TIMEOUT_MILLIS
+     */
+    private void expireUploads() {
+
+        long now = System.currentTimeMillis();
+        ArrayList<Long> expired = new ArrayList<>();
+        synchronized (uploadTable) {
+            for (Long uploadId : uploadTable.keySet()) {
+                if (now - uploadTable.get(uploadId).lastActive > UPLOAD_TIMEOUT_MILLIS) {
+                    expired.add(uploadId);
+                }
+            }
+        }
+        for (int i = 0; i < expired.size(); i++) {
+            Upload upload = uploadTable.remove(expired.get(i));
+            if (upload == null) {
+                continue;
+            }
+            try {
+                upload.channel.close();
+                Files.deleteIfExists(upload.file.toPath());
+            } catch (IOException ex) {
+                Logger.getLogger(AttachmentStore.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+    }
+
+    /**
+     * Get SHA-256 of the content of channel
+     * @param channel
+     * @return hash lowercase hex
+     * @throws IOException
+     */
+    private static String hash(FileChannel channel) throws IOException {
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        long position = 0;
+        while (true) {
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                break;
+            }
+            position += n;
+            buffer.flip();
+            digest.update(buffer);
+        }
+        return AttachmentRef.toHex(digest.digest());
+    }
+
+}
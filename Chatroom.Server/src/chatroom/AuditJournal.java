@@ -0,0 +1,348 @@
+package chatroom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * AuditJournal class
+ * Binary journal of the chatroom lifecycle events.
+ * Recording only puts the event on a lock-free queue, so the server lock
+ * never waits for the disk. A writer thread drains the queue and commits
+ * the events as one batch per write, fsyncs at most once per sync interval
+ * and starts a new file when the current one reaches the rotation size,
+ * deleting the oldest journal files beyond the number kept.
+ * A batch is a header of magic, payload length, record count and CRC32 of
+ * the payload, followed by the records; a record is the event type, the
+ * time in milliseconds and the length-prefixed UTF-8 chatroom and client
+ * names. Files are read back with AuditReader.
+ * @author Zhao Zhengyang
+ */
+public class AuditJournal {
+
+    /**Chatroom created*/
+    public static final byte CREATE = 1;
+    /**Chatroom destroyed*/
+    public static final byte DESTROY = 2;
+    /**Client entered a chatroom*/
+    public static final byte ENTER = 3;
+    /**Client left a chatroom*/
+    public static final byte EXIT = 4;
+    /**Client quit*/
+    public static final byte QUIT = 5;
+    /**Names of the event types, by type*/
+    public static final String[] TYPE_NAMES = {"", "create", "destroy", "enter", "exit", "quit"};
+
+    /**Magic number starting every batch, "AUD1"*/
+    public static final int BATCH_MAGIC = 0x41554431;
+    /**Size of a batch header*/
+    public static final int BATCH_HEADER_SIZE = 16;
+    /**Suffix of journal files*/
+    public static final String FILE_SUFFIX = ".journal";
+    /**Charset of the names*/
+    public static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**Size of the batch buffer, the largest batch*/
+    private static final int BATCH_SIZE = 256 * 1024;
+    /**Longest name kept, longer names are cut*/
+    private static final int MAX_NAME_BYTES = 1024;
+    /**Most events waiting for the writer, more are dropped and counted*/
+    private static final int MAX_PENDING = 1 << 20;
+
+    /**
+     * A recorded event
+     */
+    private static class Event {
+
+        private byte type;
+        private long time;
+        private String chatroomName;
+        private String clientName;
+
+        /**Constructor, create Event object*/
+        public Event(byte type, long time, String chatroomName, String clientName) {
+
+            super();
+            this.type = type;
+            this.time = time;
+            this.chatroomName = chatroomName;
+            this.clientName = clientName;
+        }
+    }
+
+    /**Directory of the journal files*/
+    private File dir;
+    /**Interval between two fsyncs*/
+    private long syncMillis;
+    /**Size at which a new file is started*/
+    private long rotateBytes;
+    /**Number of journal files kept in dir, 0 to keep all*/
+    private int keepFiles;
+    /**Events waiting for the writer*/
+    private ConcurrentLinkedQueue<Event> queue = new ConcurrentLinkedQueue<>();
+    /**Number of events in queue*/
+    private AtomicInteger pending = new AtomicInteger();
+    /**Number of events dropped because the writer fell behind*/
+    private AtomicLong dropped = new AtomicLong();
+    /**Writer thread*/
+    private Thread writer;
+    /**Whether the writer is parked waiting for events*/
+    private volatile boolean waiting;
+    /**Whether the journal is being closed*/
+    private volatile boolean closing;
+    /**Current file*/
+    private FileChannel channel;
+    /**Number of files started by this journal*/
+    private int fileCount;
+
+    /**
+     * Constructor, create AuditJournal object and start the writer
+     * @param dir directory of the journal files, created if missing
+     * @param syncMillis interval between two fsyncs, 0 to fsync every batch
+     * @param rotateBytes size at which a new file is started
+     * @param keepFiles number of journal files kept, the oldest are deleted; 0 to keep all
+     * @throws IOException
+     */
+    public AuditJournal(File dir, long syncMillis, long rotateBytes, int keepFiles) throws IOException {
+
+        super();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        this.dir = dir;
+        this.syncMillis = syncMillis;
+        this.rotateBytes = rotateBytes;
+        this.keepFiles = keepFiles;
+        openFile();
+        writer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                write();
+            }
+        }, "audit-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Record an event, never blocks
+     * @param type CREATE, DESTROY, ENTER, EXIT or QUIT
+     * @param chatroomName empty if none
+     * @param clientName empty if none
+     */
+    public void record(byte type, String chatroomName, String clientName) {
+
+        if (closing || pending.incrementAndGet() > MAX_PENDING) {
+            pending.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        queue.offer(new Event(type, System.currentTimeMillis(), chatroomName == null ? "" : chatroomName,
+                clientName == null ? "" : clientName));
+        if (waiting) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Get number of events dropped because the writer fell behind
+     * @return count
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Write the queued events, fsync and stop the writer
+     * @param timeoutMillis
+     * @throws InterruptedException
+     */
+    public void close(long timeoutMillis) throws InterruptedException {
+
+        closing = true;
+        LockSupport.unpark(writer);
+        writer.join(timeoutMillis);
+    }
+
+    /**
+     * Writer loop, one batch per write
+     */
+    private void write() {
+
+        ByteBuffer batch = ByteBuffer.allocate(BATCH_SIZE);
+        CRC32 crc = new CRC32();
+        long lastSync = System.currentTimeMillis();
+        boolean unsynced = false;
+        Event carry = null;
+        while (true) {
+            Event event = carry != null ? carry : queue.poll();
+            carry = null;
+            if (event == null) {
+                if (closing) {
+                    break;
+                }
+                if (unsynced && System.currentTimeMillis() - lastSync >= syncMillis) {
+                    unsynced = !sync();
+                    lastSync = System.currentTimeMillis();
+                }
+                waiting = true;
+                if (queue.isEmpty() && !closing) {
+                    //wake up in time for the pending fsync
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(unsynced ? Math.max(1, syncMillis) : 1000));
+                }
+                waiting = false;
+                continue;
+            }
+            batch.clear();
+            batch.position(BATCH_HEADER_SIZE);
+            int count = 0;
+            while (event != null) {
+                if (!encode(event, batch)) {
+                    carry = event;
+                    break;
+                }
+                count++;
+                pending.decrementAndGet();
+                event = queue.poll();
+            }
+            int payloadLength = batch.position() - BATCH_HEADER_SIZE;
+            batch.flip();
+            crc.reset();
+            crc.update(batch.array(), BATCH_HEADER_SIZE, payloadLength);
+            batch.putInt(0, BATCH_MAGIC);
+            batch.putInt(4, payloadLength);
+            batch.putInt(8, count);
+            batch.putInt(12, (int) crc.getValue());
+            try {
+                while (batch.hasRemaining()) {
+                    channel.write(batch);
+                }
+                unsynced = true;
+                if (System.currentTimeMillis() - lastSync >= syncMillis) {
+                    unsynced = !sync();
+                    lastSync = System.currentTimeMillis();
+                }
+                if (channel.size() >= rotateBytes) {
+                    sync();
+                    channel.close();
+                    openFile();
+                    unsynced = false;
+                }
+            } catch (IOException ex) {
+                Logger.getLogger(AuditJournal.class.getName()).log(Level.SEVERE, "Audit batch of " + count + " events lost", ex);
+                dropped.addAndGet(count);
+            }
+        }
+        sync();
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            Logger.getLogger(AuditJournal.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+
+    /**
+     * Encode an event at the position of batch
+     * @param event
+     * @param batch
+     * @return false if the event does not fit
+     */
+    private static boolean encode(Event event, ByteBuffer batch) {
+
+        byte[] chatroom = truncate(event.chatroomName.getBytes(UTF_8));
+        byte[] client = truncate(event.clientName.getBytes(UTF_8));
+        if (batch.remaining() < 1 + 8 + 2 + chatroom.length + 2 + client.length) {
+            return false;
+        }
+        batch.put(event.type);
+        batch.putLong(event.time);
+        batch.putShort((short) chatroom.length);
+        batch.put(chatroom);
+        batch.putShort((short) client.length);
+        batch.put(client);
+        return true;
+    }
+
+    /**
+     * Cut a name to MAX_NAME_BYTES
+     * @param bytes
+     * @return bytes
+     */
+    private static byte[] truncate(byte[] bytes) {
+
+        if (bytes.length <= MAX_NAME_BYTES) {
+            return bytes;
+        }
+        byte[] cut = new byte[MAX_NAME_BYTES];
+        System.arraycopy(bytes, 0, cut, 0, MAX_NAME_BYTES);
+        return cut;
+    }
+
+    /**
+     * Fsync the current file
+     * @return true on success
+     */
+    private boolean sync() {
+
+        try {
+            channel.force(false);
+            return true;
+        } catch (IOException ex) {
+            Logger.getLogger(AuditJournal.class.getName()).log(Level.WARNING, "Audit fsync failed", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Start a new journal file, named by its start time
+     * @throws IOException
+     */
+    private void openFile() throws IOException {
+
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + String.format("-%04d", fileCount++);
+        channel = new RandomAccessFile(new File(dir, "audit-" + name + FILE_SUFFIX), "rw").getChannel();
+        channel.position(channel.size());
+        deleteOldFiles();
+    }
+
+    /**
+     * Delete the oldest journal files beyond keepFiles, the current one included in the count
+     */
+    private void deleteOldFiles() {
+
+        File[] files = dir.listFiles();
+        if (keepFiles <= 0 || files == null) {
+            return;
+        }
+        ArrayList<String> names = new ArrayList<>();
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].isFile() && files[i].getName().startsWith("audit-") && files[i].getName().endsWith(FILE_SUFFIX)) {
+                names.add(files[i].getName());
+            }
+        }
+        //names start with the time the file was started
+        Collections.sort(names);
+        for (int i = 0; i < names.size() - keepFiles; i++) {
+            if (!new File(dir, names.get(i)).delete()) {
+                Logger.getLogger(AuditJournal.class.getName()).log(Level.WARNING, "Cannot delete audit file " + names.get(i));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+package chatroom;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.zip.CRC32;
+
+/**
+ * AuditReader class
+ * Offline query of the files written by AuditJournal, e.g.
+ * java -cp Chatroom.Server.jar chatroom.AuditReader /tmp/chatroom-audit -room lobby -from 2026-10-19T08:00:00
+ * Prints the matching events in journal order. A file is read up to its
+ * first torn or corrupted batch, which can only be the tail of a file the
+ * server was writing when it stopped.
+ * @author Zhao Zhengyang
+ */
+public class AuditReader {
+
+    /**Format of the times printed and accepted by -from and -to*/
+    private static final String TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss";
+
+    /**Only events of this client, null for all*/
+    private String clientName;
+    /**Only events of this chatroom, null for all*/
+    private String chatroomName;
+    /**Only events at or after this time*/
+    private long from;
+    /**Only events before this time*/
+    private long to;
+    /**Number of events printed*/
+    private long matched;
+
+    /**Constructor, create AuditReader object*/
+    public AuditReader(String clientName, String chatroomName, long from, long to) {
+
+        super();
+        this.clientName = clientName;
+        this.chatroomName = chatroomName;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Get number of events printed
+     * @return count
+     */
+    public long getMatched() {
+        return matched;
+    }
+
+    /**
+     * Print the matching events of a journal file
+     * @param file
+     * @throws IOException
+     */
+    public void read(File file) throws IOException {
+
+        SimpleDateFormat format = new SimpleDateFormat(TIME_FORMAT);
+        CRC32 crc = new CRC32();
+        byte[] header = new byte[AuditJournal.BATCH_HEADER_SIZE];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            long offset = 0;
+            while (true) {
+                try {
+                    in.readFully(header, 0, 1);
+                } catch (EOFException ex) {
+                    return;
+                }
+                byte[] payload;
+                DataInputStream batch;
+                int count;
+                try {
+                    in.readFully(header, 1, header.length - 1);
+                    DataInputStream headerIn = new DataInputStream(new ByteArrayInputStream(header));
+                    int magic = headerIn.readInt();
+                    int length = headerIn.readInt();
+                    count = headerIn.readInt();
+                    int checksum = headerIn.readInt();
+                    if (magic != AuditJournal.BATCH_MAGIC || length < 0 || count < 0) {
+                        System.err.println(file + ": corrupted batch at " + offset);
+                        return;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    crc.reset();
+                    crc.update(payload, 0, length);
+                    if ((int) crc.getValue() != checksum) {
+                        System.err.println(file + ": corrupted batch at " + offset);
+                        return;
+                    }
+                    offset += header.length + length;
+                    batch = new DataInputStream(new ByteArrayInputStream(payload));
+                } catch (EOFException ex) {
+                    System.err.println(file + ": torn batch at " + offset);
+                    return;
+                }
+                for (int i = 0; i < count; i++) {
+                    byte type = batch.readByte();
+                    long time = batch.readLong();
+                    String chatroom = readName(batch);
+                    String client = readName(batch);
+                    if (time < from || time >= to
+                            || (clientName != null && !clientName.equals(client))
+                            || (chatroomName != null && !chatroomName.equals(chatroom))) {
+                        continue;
+                    }
+                    matched++;
+                    String typeName = type > 0 && type < AuditJournal.TYPE_NAMES.length ? AuditJournal.TYPE_NAMES[type] : "type" + type;
+                    System.out.println(format.format(new Date(time)) + " " + typeName + " room=" + chatroom + " client=" + client);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a length-prefixed UTF-8 name
+     * @param in
+     * @return name
+     * @throws IOException
+     */
+    private static String readName(DataInputStream in) throws IOException {
+
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, AuditJournal.UTF_8);
+    }
+
+    /**
+     * Parse a time given as TIME_FORMAT or epoch milliseconds
+     * @param value
+     * @return milliseconds
+     */
+    private static long parseTime(String value) {
+
+        try {
+            return new SimpleDateFormat(TIME_FORMAT).parse(value).getTime();
+        } catch (ParseException ex) {
+            return Long.parseLong(value);
+        }
+    }
+
+    /**
+     * @param args journal directory or file, then any of -client name, -room name, -from time, -to time
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length == 0 || args.length % 2 == 0) {
+            System.err.println("usage: AuditReader <dir|file> [-client name] [-room name] [-from time] [-to time]");
+            System.err.println("time: " + TIME_FORMAT + " or epoch milliseconds");
+            System.exit(2);
+        }
+        String clientName = null;
+        String chatroomName = null;
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        for (int i = 1; i < args.length; i += 2) {
+            switch (args[i]) {
+                case "-client":
+                    clientName = args[i + 1];
+                    break;
+                case "-room":
+                    chatroomName = args[i + 1];
+                    break;
+                case "-from":
+                    from = parseTime(args[i + 1]);
+                    break;
+                case "-to":
+                    to = parseTime(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        File path = new File(args[0]);
+        File[] files = path.isDirectory() ? path.listFiles() : new File[]{path};
+        if (files == null) {
+            throw new IOException("Cannot read " + path);
+        }
+        //file names start with their creation time
+        Arrays.sort(files);
+        AuditReader reader = new AuditReader(clientName, chatroomName, from, to);
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].isFile() && files[i].getName().endsWith(AuditJournal.FILE_SUFFIX)) {
+                reader.read(files[i]);
+            }
+        }
+        System.err.println(reader.getMatched() + " events");
+    }
+
+}
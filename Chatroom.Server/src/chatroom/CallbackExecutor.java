@@ -0,0 +1,109 @@
+package chatroom;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * CallbackExecutor class
+ * Runs outbound ClientInterface callbacks off the request threads.
+ * In platform mode callbacks share a fixed pool of platform threads,
+ * in virtual mode every callback gets its own virtual thread so a blocking
+ * callback only parks a virtual thread instead of holding a platform thread.
+ * @author Zhao Zhengyang
+ */
+public class CallbackExecutor {
+
+    /**Platform thread mode*/
+    public static final String MODE_PLATFORM = "platform";
+    /**Virtual thread mode*/
+    public static final String MODE_VIRTUAL = "virtual";
+
+    /**Execution mode in effect*/
+    private String mode;
+    /**Executor running the callbacks*/
+    private ExecutorService executorService;
+
+    /**
+     * Constructor, create CallbackExecutor object
+     * Falls back to platform mode if the JVM has no virtual threads.
+     * @param mode requested execution mode
+     * @param threads platform pool size
+     * @param carriers virtual thread carrier pool size, 0 for the JVM default
+     */
+    public CallbackExecutor(String mode, int threads, int carriers) {
+
+        super();
+        if (MODE_VIRTUAL.equalsIgnoreCase(mode)) {
+            if (carriers > 0) {
+                //read once by the JVM when the first virtual thread starts
+                System.setProperty("jdk.virtualThreadScheduler.parallelism", String.valueOf(carriers));
+                System.setProperty("jdk.virtualThreadScheduler.maxPoolSize", String.valueOf(Math.max(carriers, 256)));
+            }
+            executorService = newVirtualThreadExecutor();
+            if (executorService != null) {
+                this.mode = MODE_VIRTUAL;
+                return;
+            }
+            Logger.getLogger(CallbackExecutor.class.getName()).log(Level.WARNING, "Virtual threads not supported by this JVM, using platform threads");
+        }
+        this.mode = MODE_PLATFORM;
+        executorService = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            private AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "callback-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Get execution mode in effect
+     * @return mode
+     */
+    public String getMode() {
+        return mode;
+    }
+
+    /**
+     * Run task asynchronously
+     * @param task 
+     */
+    public void execute(Runnable task) {
+        executorService.execute(task);
+    }
+
+    /**
+     * Stop accepting tasks and wait for running ones
+     * @param timeoutMillis
+     * @throws InterruptedException 
+     */
+    public void shutdown(long timeoutMillis) throws InterruptedException {
+        executorService.shutdown();
+        executorService.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create a virtual-thread-per-task executor, looked up reflectively
+     * so the server still builds and runs on JVMs without virtual threads.
+     * @return executorService, null if not supported
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+}
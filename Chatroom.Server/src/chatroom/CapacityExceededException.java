@@ -0,0 +1,39 @@
+package chatroom;
+
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+
+/**
+ * CapacityExceededException class
+ * Thrown by the server when a call would exceed a capacity cap, e.g. the
+ * number of chatrooms a client may create. Unlike ServerBusyException,
+ * retrying does not help until the client frees capacity itself.
+ * RMI delivers it to the client wrapped in a ServerException, see from.
+ * @author Zhao Zhengyang
+ */
+public class CapacityExceededException extends RemoteException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor, create CapacityExceededException object
+     * @param msg
+     */
+    public CapacityExceededException(String msg) {
+        super(msg);
+    }
+
+    /**
+     * Get the CapacityExceededException a remote call failed with
+     * @param ex failure of the call, as thrown locally or by RMI
+     * @return the CapacityExceededException, null if the call failed otherwise
+     */
+    public static CapacityExceededException from(Throwable ex) {
+
+        if (ex instanceof ServerException) {
+            ex = ((ServerException) ex).detail;
+        }
+        return ex instanceof CapacityExceededException ? (CapacityExceededException) ex : null;
+    }
+
+}
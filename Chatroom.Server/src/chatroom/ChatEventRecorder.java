@@ -0,0 +1,59 @@
+package chatroom;
+
+/**
+ * ChatEventRecorder interface
+ * Records chat events for ChatEvents. The JFR implementation lives in the
+ * src-jfr source root, which needs JDK 11 to compile, and is loaded by name
+ * so the server itself builds at its own source level.
+ * @author Zhao Zhengyang
+ */
+interface ChatEventRecorder {
+
+    /**
+     * Begin a room operation
+     * @return event to pass to roomOperation, null if not recorded
+     */
+    Object beginRoomOperation();
+
+    /**
+     * A room operation completed
+     * @param event value of beginRoomOperation()
+     * @param operation
+     * @param chatroom
+     * @param client
+     * @param participantCount
+     */
+    void roomOperation(Object event, String operation, String chatroom, String client, int participantCount);
+
+    /**
+     * Begin a fanout
+     * @return event to pass to fanout, null if not recorded
+     */
+    Object beginFanout();
+
+    /**
+     * A fanout completed
+     * @param event value of beginFanout()
+     * @param chatroom
+     * @param seq
+     * @param participantCount
+     */
+    void fanout(Object event, String chatroom, long seq, int participantCount);
+
+    /**
+     * Begin a callback to a client
+     * @return event to pass to callbackFailure, null if not recorded
+     */
+    Object beginCallback();
+
+    /**
+     * A callback to a client failed
+     * @param event value of beginCallback()
+     * @param chatroom
+     * @param client
+     * @param callback
+     * @param ex
+     */
+    void callbackFailure(Object event, String chatroom, String client, String callback, Throwable ex);
+
+}
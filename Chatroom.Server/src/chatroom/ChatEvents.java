@@ -0,0 +1,105 @@
+package chatroom;
+
+/**
+ * ChatEvents class
+ * Emits JDK Flight Recorder events for chat operations, see JfrChatEvents.
+ * An operation begins its event before it runs and ends it afterwards, so
+ * the event gets JFR's own start time and duration and recording thresholds
+ * apply. On JVMs without JFR, or when the event type is not enabled in a
+ * running recording, begin returns null without reading the clock or
+ * creating an event, and the end methods return at once. JfrChatEvents is
+ * built from the src-jfr source root on JDK 11 or later and loaded by name,
+ * the server itself does not depend on jdk.jfr.
+ * @author Zhao Zhengyang
+ */
+public final class ChatEvents {
+
+    /**Recorder, null if the JVM or the build has no JFR*/
+    private static final ChatEventRecorder RECORDER = loadRecorder();
+
+    /**Constructor, not used*/
+    private ChatEvents() {
+
+        super();
+    }
+
+    /**
+     * Load JfrChatEvents if jdk.jfr can be used
+     * @return recorder, null if unavailable
+     */
+    private static ChatEventRecorder loadRecorder() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (ChatEventRecorder) Class.forName("chatroom.JfrChatEvents").getConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | ClassCastException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Begin a room operation
+     * @return event to pass to roomOperation, null if not recorded
+     */
+    public static Object beginRoomOperation() {
+        return RECORDER != null ? RECORDER.beginRoomOperation() : null;
+    }
+
+    /**
+     * A room operation completed
+     * @param event value of beginRoomOperation()
+     * @param operation e.g. "enterChatroom"
+     * @param chatroom
+     * @param client
+     * @param participantCount participants after the operation
+     */
+    public static void roomOperation(Object event, String operation, String chatroom, String client, int participantCount) {
+        if (event != null) {
+            RECORDER.roomOperation(event, operation, chatroom, client, participantCount);
+        }
+    }
+
+    /**
+     * Begin a fanout of the messages appended to a chatroom
+     * @return event to pass to fanout, null if not recorded
+     */
+    public static Object beginFanout() {
+        return RECORDER != null ? RECORDER.beginFanout() : null;
+    }
+
+    /**
+     * The delivery workers of all participants were started and the new
+     * messages multicast
+     * @param event value of beginFanout()
+     * @param chatroom
+     * @param seq last sequence number fanned out
+     * @param participantCount
+     */
+    public static void fanout(Object event, String chatroom, long seq, int participantCount) {
+        if (event != null) {
+            RECORDER.fanout(event, chatroom, seq, participantCount);
+        }
+    }
+
+    /**
+     * Begin a callback to a client
+     * @return event to pass to callbackFailure, null if not recorded
+     */
+    public static Object beginCallback() {
+        return RECORDER != null ? RECORDER.beginCallback() : null;
+    }
+
+    /**
+     * A callback to a client failed
+     * @param event value of beginCallback()
+     * @param chatroom chatroom of the callback, empty if none
+     * @param client client name, empty if unknown
+     * @param callback ClientInterface method name
+     * @param ex
+     */
+    public static void callbackFailure(Object event, String chatroom, String client, String callback, Throwable ex) {
+        if (event != null) {
+            RECORDER.callbackFailure(event, chatroom, client, callback, ex);
+        }
+    }
+
+}
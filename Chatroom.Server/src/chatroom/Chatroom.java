@@ -3,11 +3,20 @@ package chatroom;
 import java.io.Serializable;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Chatroom class 
  * Perform chatroom service
+ * Only posted messages run on the chatroom's event loop, see execute. Entering,
+ * leaving, their notices, resuming, acknowledgements, polls and the delivery
+ * workers run on the calling threads and are serialized by the chatroom
+ * monitor, which the event loop takes too while it dispatches. The event loop
+ * keeps posts from taking the server lock and orders them, it does not make
+ * the chatroom lock-free.
  * @author Zhao Zhengyang
  */
 public class Chatroom implements Serializable {
@@ -18,20 +27,95 @@ public class Chatroom implements Serializable {
     private String name;
     /**Chatroom creator*/
     private String creator;
+    /**
+     * State of one participant
+     */
+    private static class Participant implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        /**Symbol id of the participant name*/
+        private int id;
+        /**Participant name*/
+        private String name;
+        /**ClientInterface object, null for a participant in pull mode*/
+        private transient ClientInterface clientInterface;
+        /**Highest sequence number known to have reached the participant, its reader cursor*/
+        private long delivered;
+        /**Whether a delivery is running on the callback executor*/
+        private boolean inFlight;
+        /**Whether the participant receives the chatroom messages on its multicast group*/
+        private boolean multicast;
+        /**Whether the participant has left, checked by parked polls*/
+        private volatile boolean removed;
+
+        /**Constructor, create Participant object*/
+        public Participant(int id, String name, ClientInterface clientInterface, long delivered) {
+
+            super();
+            this.id = id;
+            this.name = name;
+            this.clientInterface = clientInterface;
+            this.delivered = delivered;
+        }
+    }
+
     /**A list of chatroom participants*/
     private ArrayList<String> participantList = new ArrayList<String>();
+    /**Participants in the order of participantList*/
+    private ArrayList<Participant> participantOrder = new ArrayList<>();
     /**
-     * A table of chatroom participants' names and their ClientInterface objects
-     * key: participant name, value: participant clientInterface
+     * A table of chatroom participants
+     * key: symbol id of participant name, value: participant state
      */
-    private Hashtable<String, ClientInterface> participantTable = new Hashtable<>();
+    private IntHashtable<Participant> participantTable = new IntHashtable<>();
+    /**Recent sequenced messages of the chatroom for retransmission*/
+    private RetransmitBuffer retransmitBuffer;
+    /**Ids of client names*/
+    private transient SymbolTable symbolTable;
+    /**Monitor long polls park on until a message is appended*/
+    private final transient Object pollMonitor = new Object();
+    /**Number of parked or parking long polls*/
+    private final transient AtomicInteger pollWaiters = new AtomicInteger();
+    /**Whether a fanout of appended messages to the participants is pending*/
+    private final transient AtomicBoolean fanoutPending = new AtomicBoolean();
+    /**Whether the chatroom has been removed from the server*/
+    private volatile boolean closed;
+    /**Mailbox on the chatroom's event loop, null to run tasks on the calling thread*/
+    private transient RoomEventLoops.Mailbox mailbox;
+    /**Executor running the callbacks to participants*/
+    private transient CallbackExecutor callbackExecutor;
+    /**Recorder of message traces*/
+    private transient TraceRecorder traceRecorder;
+    /**Sequence number of the latest traced message, 0 if none, batches below it are not looked at*/
+    private volatile long lastTracedSeq;
+    /**Accountant of the bytes queued per client, null if not accounted*/
+    private transient MemoryAccountant memoryAccountant;
+    /**Publisher of the messages to the multicast group, null if multicast is off*/
+    private transient MulticastPublisher multicastPublisher;
+    /**Number of participants receiving on the multicast group*/
+    private int multicastCount;
+    /**Sequence number of the latest message multicast, guarded by multicastLock*/
+    private long multicastSeq;
+    /**Lock serializing the multicast of appended messages*/
+    private final transient Object multicastLock = new Object();
     
     /**Constructor, create Chatroom object*/
-    public Chatroom(String name, String creator) {
+    public Chatroom(String name, String creator, CallbackExecutor callbackExecutor, TraceRecorder traceRecorder) {
+        this(name, creator, callbackExecutor, traceRecorder, null, new SymbolTable());
+    }
+
+    /**Constructor, create Chatroom object retaining its history in historyStore and sharing symbolTable*/
+    public Chatroom(String name, String creator, CallbackExecutor callbackExecutor, TraceRecorder traceRecorder,
+            HistoryStore historyStore, SymbolTable symbolTable) {
         
         super();
         this.name = name;
         this.creator = creator;
+        this.callbackExecutor = callbackExecutor;
+        this.traceRecorder = traceRecorder;
+        this.symbolTable = symbolTable;
+        this.retransmitBuffer = new RetransmitBuffer(RetransmitBuffer.DEFAULT_CAPACITY, historyStore);
     }
     
     /**
@@ -59,21 +143,141 @@ public class Chatroom implements Serializable {
     }
     
     /**
-     * Get chatroom participant table
-     * @return participantTable
+     * Get symbol ids of the chatroom participants
+     * @return ids in the order of participantList
+     */
+    public synchronized int[] getParticipantIds() {
+
+        int[] ids = new int[participantOrder.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = participantOrder.get(i).id;
+        }
+        return ids;
+    }
+
+    /**
+     * Get the ClientInterface object of a participant
+     * @param clientName
+     * @return clientInterface, null if not a participant or in pull mode
+     */
+    public synchronized ClientInterface getClientInterface(String clientName) {
+
+        Participant participant = getParticipant(clientName);
+        return participant == null ? null : participant.clientInterface;
+    }
+
+    /**
+     * Whether clientName is a participant
+     * @param clientName
+     * @return true if participant
+     */
+    public boolean isParticipant(String clientName) {
+        return getParticipant(clientName) != null;
+    }
+
+    /**
+     * Get the state of a participant
+     * @param clientName
+     * @return participant, null if not a participant
+     */
+    private Participant getParticipant(String clientName) {
+
+        int id = symbolTable.lookup(clientName);
+        return id == SymbolTable.NO_SYMBOL ? null : participantTable.get(id);
+    }
+
+    /**
+     * Set the mailbox on the chatroom's event loop
+     * @param mailbox 
+     */
+    public void setMailbox(RoomEventLoops.Mailbox mailbox) {
+        this.mailbox = mailbox;
+    }
+
+    /**
+     * Get the mailbox on the chatroom's event loop
+     * @return mailbox, null if none
+     */
+    public RoomEventLoops.Mailbox getMailbox() {
+        return mailbox;
+    }
+
+    /**
+     * Set the accountant charged with the private messages queued per receiver
+     * @param memoryAccountant 
+     */
+    public void setMemoryAccountant(MemoryAccountant memoryAccountant) {
+        this.memoryAccountant = memoryAccountant;
+    }
+
+    /**
+     * Set the publisher of the messages to the multicast group
+     * @param multicastPublisher 
+     */
+    public void setMulticastPublisher(MulticastPublisher multicastPublisher) {
+        this.multicastPublisher = multicastPublisher;
+    }
+
+    /**
+     * Estimate the heap footprint of the chatroom, its participants and kept messages
+     * Participant names are shared with the symbol table and not counted.
+     * @return bytes
+     */
+    public synchronized long estimateFootprint() {
+
+        long bytes = MemoryAccountant.ROOM_BYTES + retransmitBuffer.estimateFootprint();
+        for (int i = 0; i < participantOrder.size(); i++) {
+            bytes += MemoryAccountant.PARTICIPANT_BYTES;
+            if (participantOrder.get(i).clientInterface != null) {
+                bytes += MemoryAccountant.STUB_BYTES;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Run task on the chatroom's event loop after the tasks submitted before it
+     * @param task 
+     * @return false if the chatroom is gone and task is dropped
+     */
+    public boolean execute(Runnable task) {
+
+        if (mailbox == null) {
+            task.run();
+            return true;
+        }
+        return mailbox.execute(task);
+    }
+
+    /**
+     * Get chatroom retransmit buffer
+     * @return retransmitBuffer
      */
-    public Hashtable<String, ClientInterface> getParticipantTable() {
-        return participantTable;
+    public RetransmitBuffer getRetransmitBuffer() {
+        return retransmitBuffer;
     }
     
     /**
      * Add participant to the chatroom
-     * @param clientName
-     * @param clientInterface 
+     * @param clientName interned in the symbol table, ignored if not
+     * @param clientInterface null for a participant in pull mode
      */
     public synchronized void addParticipant(String clientName, ClientInterface clientInterface) {
-        this.participantList.add(clientName);
-        this.participantTable.put(clientName, clientInterface);
+
+        int id = symbolTable.lookup(clientName);
+        if (id == SymbolTable.NO_SYMBOL) {
+            return;
+        }
+        //a new participant only receives messages sent after entering
+        Participant participant = new Participant(id, symbolTable.getName(id), clientInterface, retransmitBuffer.getLastSeq());
+        Participant old = this.participantTable.put(id, participant);
+        if (old != null) {
+            old.removed = true;
+            setMulticast(old, false);
+            removeFromOrder(id);
+        }
+        this.participantList.add(participant.name);
+        this.participantOrder.add(participant);
     }
     
     /**
@@ -81,39 +285,489 @@ public class Chatroom implements Serializable {
      * @param clientName 
      */
     public synchronized void deleteParticipant(String clientName) {
-        this.participantList.remove(clientName);
-        this.participantTable.remove(clientName);
+
+        int id = symbolTable.lookup(clientName);
+        Participant participant = id == SymbolTable.NO_SYMBOL ? null : this.participantTable.remove(id);
+        if (participant == null) {
+            return;
+        }
+        removeFromOrder(id);
+        participant.removed = true;
+        setMulticast(participant, false);
+        if (participant.clientInterface == null) {
+            wakePolls();
+        }
+    }
+
+    /**
+     * Remove a participant from participantList and participantOrder
+     * Compares symbol ids instead of names.
+     * @param id 
+     */
+    private void removeFromOrder(int id) {
+
+        for (int i = 0; i < participantOrder.size(); i++) {
+            if (participantOrder.get(i).id == id) {
+                participantOrder.remove(i);
+                participantList.remove(i);
+                return;
+            }
+        }
     }
     
     /**
      * Send msg to all participants in the chatroom
+     * msg gets the next sequence number of the chatroom. Every participant
+     * receives all messages it has missed up to msg in one batch, so a failed
+     * callback is repaired by the next delivery instead of being lost.
+     * The message is appended to the chatroom's ring and a single fanout task
+     * starts the participants' delivery workers, so posting does not depend on
+     * the number of participants. Each worker reads the ring from its own
+     * cursor, at most one callback per participant at a time; messages
+     * arriving meanwhile go out with the next batch. Participants on the
+     * multicast group are not called back, the fanout sends the messages
+     * to the group once.
      * @param msg
      * @throws RemoteException 
      */
     public synchronized void sendToAll(String msg) throws RemoteException {
-        
-        for (int i = 0; i < participantList.size(); i++) {
-            participantTable.get(participantList.get(i)).displayMsg(msg);
+        sendToAll(msg, 0);
+    }
+
+    /**
+     * Send a traced msg to all participants in the chatroom
+     * @param msg
+     * @param traceId 0 if untraced
+     * @throws RemoteException 
+     */
+    public synchronized void sendToAll(String msg, long traceId) throws RemoteException {
+
+        if (traceId != 0) {
+            //raised before the message is visible, so no delivery of it skips the trace
+            lastTracedSeq = retransmitBuffer.getLastSeq() + 1;
+        }
+        long seq = retransmitBuffer.append(msg, traceId);
+        if (fanoutPending.compareAndSet(false, true)) {
+            callbackExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    Object event = ChatEvents.beginFanout();
+                    int participantCount = fanout();
+                    publish();
+                    ChatEvents.fanout(event, name, retransmitBuffer.getLastSeq(), participantCount);
+                }
+            });
+        }
+        wakePolls();
+        if (traceId != 0) {
+            traceRecorder.record(traceId, TraceRecorder.STAGE_ENQUEUED, name + " seq " + seq + " to " + participantList.size() + " participants");
+        }
+    }
+
+    /**
+     * Start the delivery workers of the participants not running yet
+     * Appends during the fanout are covered by the workers started here
+     * or by the next fanout.
+     * @return number of participants
+     */
+    private synchronized int fanout() {
+
+        fanoutPending.set(false);
+        for (int i = 0; i < participantOrder.size(); i++) {
+            scheduleDelivery(participantOrder.get(i));
+        }
+        return participantOrder.size();
+    }
+
+    /**
+     * Multicast the messages appended since the last publish
+     * Nothing is sent while no participant receives on the group.
+     */
+    private void publish() {
+
+        synchronized (multicastLock) {
+            long lastSeq = retransmitBuffer.getLastSeq();
+            if (multicastPublisher == null || lastSeq <= multicastSeq) {
+                return;
+            }
+            boolean listened;
+            synchronized (this) {
+                listened = multicastCount > 0;
+            }
+            if (listened) {
+                MessageBatch batch = retransmitBuffer.getRange(name, multicastSeq + 1);
+                multicastPublisher.publish(batch);
+                lastSeq = Math.max(multicastSeq, batch.getLastSeq());
+            }
+            multicastSeq = lastSeq;
         }
     }
+
+    /**
+     * Announce the latest multicast sequence number to the group, so receivers notice a lost tail
+     */
+    public void publishHeartbeat() {
+
+        synchronized (multicastLock) {
+            boolean listened;
+            synchronized (this) {
+                listened = multicastCount > 0;
+            }
+            if (multicastPublisher != null && listened && !closed) {
+                multicastPublisher.publishHeartbeat(name, multicastSeq);
+            }
+        }
+    }
+
+    /**
+     * Move a participant from callbacks to the multicast group
+     * @param clientName
+     * @return group the participant receives on, null if multicast is off or not a participant
+     */
+    public synchronized MulticastGroup joinMulticast(String clientName) {
+
+        Participant participant = getParticipant(clientName);
+        if (multicastPublisher == null || participant == null) {
+            return null;
+        }
+        setMulticast(participant, true);
+        return new MulticastGroup(name, multicastPublisher.getGroup(name).getHostAddress(), multicastPublisher.getPort(),
+                participant.delivered);
+    }
+
+    /**
+     * Move a participant back to callbacks, they resume after its last acknowledgement
+     * @param clientName
+     */
+    public synchronized void leaveMulticast(String clientName) {
+
+        Participant participant = getParticipant(clientName);
+        if (participant != null) {
+            setMulticast(participant, false);
+        }
+    }
+
+    /**
+     * Set whether a participant receives on the multicast group
+     * @param participant
+     * @param multicast 
+     */
+    private void setMulticast(Participant participant, boolean multicast) {
+
+        if (participant.multicast == multicast) {
+            return;
+        }
+        participant.multicast = multicast;
+        multicastCount += multicast ? 1 : -1;
+        if (!multicast && !participant.removed) {
+            //back to callbacks from its cursor
+            scheduleDelivery(participant);
+        }
+    }
+
+    /**
+     * Get how far a participant lags behind the chatroom
+     * @param clientName
+     * @return number of messages not delivered yet, -1 if not a participant
+     */
+    public synchronized long getLag(String clientName) {
+
+        Participant participant = getParticipant(clientName);
+        return participant == null ? -1 : retransmitBuffer.getLag(participant.delivered);
+    }
+
+    /**
+     * Get the participants lagging at least minLag messages behind the chatroom
+     * @param minLag
+     * @return names of slow participants
+     */
+    public synchronized ArrayList<String> getLaggingParticipants(long minLag) {
+
+        ArrayList<String> list = new ArrayList<>();
+        for (int i = 0; i < participantOrder.size(); i++) {
+            if (retransmitBuffer.getLag(participantOrder.get(i).delivered) >= minLag) {
+                list.add(participantOrder.get(i).name);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Record the outcome of a callback for the traced messages of batch
+     * A batch after the latest traced message returns at once.
+     * @param batch
+     * @param clientName
+     * @param stage 
+     */
+    private void traceDelivery(MessageBatch batch, String clientName, byte stage) {
+
+        long last = Math.min(batch.getLastSeq(), lastTracedSeq);
+        for (long seq = batch.getFirstSeq(); seq <= last; seq++) {
+            long traceId = retransmitBuffer.getTraceId(seq);
+            if (traceId != 0) {
+                traceRecorder.record(traceId, stage, clientName + " batch " + batch.getFirstSeq() + ".." + batch.getLastSeq());
+            }
+        }
+    }
+
+    /**
+     * Start a delivery to the participant unless one is already running
+     * @param participant 
+     */
+    private void scheduleDelivery(final Participant participant) {
+
+        if (participant.inFlight || participant.clientInterface == null || participant.multicast) {
+            return;
+        }
+        participant.inFlight = true;
+        callbackExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                deliver(participant);
+            }
+        });
+    }
+
+    /**
+     * Delivery worker of a participant, delivers the messages after its cursor
+     * (delivered sequence number) until it has caught up with the chatroom.
+     * Runs outside the chatroom lock while reading the ring and calling back.
+     * @param participant 
+     */
+    private void deliver(Participant participant) {
+
+        String clientName = participant.name;
+        while (true) {
+            long cursor;
+            ClientInterface clientInterface;
+            synchronized (this) {
+                if (participant.removed || participant.multicast || participant.delivered >= retransmitBuffer.getLastSeq()) {
+                    participant.inFlight = false;
+                    return;
+                }
+                cursor = participant.delivered;
+                clientInterface = participant.clientInterface;
+            }
+            //the ring is read without the chatroom lock
+            MessageBatch batch = retransmitBuffer.getRange(name, cursor + 1);
+            if (batch.getFirstSeq() > cursor + 1) {
+                Logger.getLogger(Chatroom.class.getName()).log(Level.WARNING, "Slow participant " + clientName + " in " + name
+                        + " overrun, " + (batch.getFirstSeq() - cursor - 1) + " messages lost");
+            }
+            Object event = ChatEvents.beginCallback();
+            try {
+                clientInterface.deliverMsg(batch);
+            } catch (RemoteException ex) {
+                ChatEvents.callbackFailure(event, name, clientName, "deliverMsg", ex);
+                //keep delivered sequence number, the missed range is resent with the next message
+                Logger.getLogger(Chatroom.class.getName()).log(Level.WARNING, "Delivery to " + clientName + " failed", ex);
+                traceDelivery(batch, clientName, TraceRecorder.STAGE_FAILED);
+                synchronized (this) {
+                    //a participant re-attached meanwhile is served by this worker
+                    if (participant.removed || participant.clientInterface == null
+                            || participant.clientInterface.equals(clientInterface)) {
+                        participant.inFlight = false;
+                        return;
+                    }
+                }
+                continue;
+            }
+            traceDelivery(batch, clientName, TraceRecorder.STAGE_DELIVERED);
+            synchronized (this) {
+                if (participant.delivered < batch.getLastSeq()) {
+                    participant.delivered = batch.getLastSeq();
+                }
+            }
+        }
+    }
+
+    /**
+     * Long poll of a participant in pull mode.
+     * Returns the messages after afterSeq at once if there are any, otherwise
+     * parks until a message is appended, the participant leaves or the timeout
+     * expires. Parked polls share one monitor per chatroom and are woken by
+     * the append. A parked poll blocks the calling thread, over RMI one
+     * connection thread per pending poll, so the caller bounds how many park.
+     * @param clientName
+     * @param afterSeq last sequence number the participant received, -1 for the messages since entering
+     * @param maxMsgs maximum number of messages returned
+     * @param timeoutMillis maximum parking time
+     * @return batch messages after afterSeq, empty on timeout, null if not a participant or the chatroom is closed
+     * @throws InterruptedException 
+     */
+    public MessageBatch poll(String clientName, long afterSeq, int maxMsgs, long timeoutMillis) throws InterruptedException {
+
+        Participant participant;
+        synchronized (this) {
+            participant = getParticipant(clientName);
+            if (participant == null) {
+                return null;
+            }
+            if (afterSeq < 0) {
+                afterSeq = participant.delivered;
+            }
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        //register as waiter before checking, so an append after the check always notifies
+        pollWaiters.incrementAndGet();
+        try {
+            synchronized (pollMonitor) {
+                long remaining = timeoutMillis;
+                while (retransmitBuffer.getLastSeq() <= afterSeq && remaining > 0
+                        && !closed && !participant.removed) {
+                    pollMonitor.wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            }
+        } finally {
+            pollWaiters.decrementAndGet();
+        }
+        synchronized (this) {
+            if (participant.removed || closed) {
+                return null;
+            }
+            MessageBatch batch = retransmitBuffer.getRange(name, afterSeq + 1, maxMsgs);
+            //a poll acknowledges afterSeq
+            if (batch.getLastSeq() > participant.delivered) {
+                participant.delivered = batch.getLastSeq();
+            }
+            return batch;
+        }
+    }
+
+    /**
+     * Mark the chatroom removed from the server and end the parked long polls
+     */
+    public void close() {
+        closed = true;
+        wakePolls();
+    }
+
+    /**
+     * Wake the parked long polls
+     */
+    private void wakePolls() {
+
+        if (pollWaiters.get() > 0) {
+            synchronized (pollMonitor) {
+                pollMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Re-attach a resumed participant with its new ClientInterface object
+     * @param clientName
+     * @param clientInterface null to switch the participant to pull mode
+     * @param seq last sequence number the participant received, -1 if unknown
+     * @return batch messages the participant missed, null if not a participant
+     */
+    public synchronized MessageBatch reattachParticipant(String clientName, ClientInterface clientInterface, long seq) {
+
+        Participant participant = getParticipant(clientName);
+        if (participant == null) {
+            return null;
+        }
+        participant.clientInterface = clientInterface;
+        //a resumed participant rejoins the group itself
+        setMulticast(participant, false);
+        long from = seq >= 0 ? seq + 1 : participant.delivered + 1;
+        participant.delivered = retransmitBuffer.getLastSeq();
+        return retransmitBuffer.getRange(name, from);
+    }
+
+    /**
+     * Handle cumulative acknowledgement of a participant
+     * @param clientName
+     * @param seq highest sequence number the participant received without gap
+     * @return batch messages after seq the participant has not received
+     */
+    public synchronized MessageBatch acknowledge(String clientName, long seq) {
+
+        Participant participant = getParticipant(clientName);
+        if (participant == null) {
+            return new MessageBatch(name, seq + 1, new ArrayList<String>());
+        }
+        //acknowledgement is the receiver's view, a lower value means a delivery was lost
+        participant.delivered = retransmitBuffer.getLastSeq();
+        return retransmitBuffer.getRange(name, seq + 1);
+    }
     
     /**
      * Send msg to spesific participant in the chatroom
+     * The message is charged to the receiver until its callback has run; a
+     * receiver over its queued bytes cap does not get it and the sender is told.
      * @param msg
      * @param sender
      * @param receiver
      * @throws RemoteException 
      */
-    public synchronized void sendToSingle(String msg, String sender, String receiver) throws RemoteException {
-        
-        if (participantList.contains(receiver)) {
-            participantTable.get(sender).displayMsg(msg);
-            participantTable.get(receiver).displayMsg(msg);
-        }
-        else {
-            ClientInterface ci = participantTable.get(sender);
-            String str = "participant not exist!";
-            ci.showMsg(str);
+    public synchronized void sendToSingle(String msg, String sender, final String receiver) throws RemoteException {
+
+        final String str = msg;
+        Participant senderParticipant = getParticipant(sender);
+        Participant receiverParticipant = getParticipant(receiver);
+        final ClientInterface senderInterface = senderParticipant == null ? null : senderParticipant.clientInterface;
+        if (receiverParticipant != null) {
+            //participants in pull mode only receive chatroom messages
+            final ClientInterface receiverInterface = receiverParticipant.clientInterface;
+            final int receiverId = receiverParticipant.id;
+            final long bytes = memoryAccountant == null ? 0 : MemoryAccountant.stringBytes(str);
+            if (memoryAccountant != null && !memoryAccountant.reserveQueued(receiverId, bytes)) {
+                Logger.getLogger(Chatroom.class.getName()).log(Level.WARNING, "Private message to slow participant " + receiver
+                        + " in " + name + " dropped");
+                if (senderInterface != null) {
+                    callbackExecutor.execute(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            try {
+                                senderInterface.showMsg(receiver + " is not keeping up, message not delivered!");
+                            } catch (RemoteException ex) {
+                                Logger.getLogger(Chatroom.class.getName()).log(Level.WARNING, null, ex);
+                            }
+                        }
+                    });
+                }
+                return;
+            }
+            callbackExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    Object event = ChatEvents.beginCallback();
+                    try {
+                        if (senderInterface != null) {
+                            senderInterface.displayMsg(str);
+                        }
+                        if (receiverInterface != null) {
+                            receiverInterface.displayMsg(str);
+                        }
+                    } catch (RemoteException ex) {
+                        ChatEvents.callbackFailure(event, name, receiver, "displayMsg", ex);
+                        Logger.getLogger(Chatroom.class.getName()).log(Level.WARNING, null, ex);
+                    } finally {
+                        if (memoryAccountant != null) {
+                            memoryAccountant.releaseQueued(receiverId, bytes);
+                        }
+                    }
+                }
+            });
+        }
+        else if (senderInterface != null) {
+            callbackExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        senderInterface.showMsg("participant not exist!");
+                    } catch (RemoteException ex) {
+                        Logger.getLogger(Chatroom.class.getName()).log(Level.WARNING, null, ex);
+                    }
+                }
+            });
         }
     }
 
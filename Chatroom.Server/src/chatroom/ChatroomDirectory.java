@@ -0,0 +1,206 @@
+package chatroom;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * ChatroomDirectory class
+ * Concurrent sorted index of the chatrooms by participant count, name and creator.
+ * Entries are immutable and replaced on every change, so an update costs
+ * O(log n) and readers walk the sorted sets without locks. Pages are
+ * keyset-based: a page starts after the last row of the previous page.
+ * @author Zhao Zhengyang
+ */
+public class ChatroomDirectory {
+
+    /**Order by participant count, largest first*/
+    public static final String ORDER_SIZE = "size";
+    /**Order by chatroom name*/
+    public static final String ORDER_NAME = "name";
+    /**Order by creator, then chatroom name*/
+    public static final String ORDER_CREATOR = "creator";
+
+    /**
+     * Immutable directory entry of one chatroom
+     */
+    private static class Entry {
+
+        private String name;
+        private String creator;
+        private int participantCount;
+
+        /**Constructor, create Entry object*/
+        public Entry(String name, String creator, int participantCount) {
+
+            super();
+            this.name = name;
+            this.creator = creator;
+            this.participantCount = participantCount;
+        }
+
+        /**
+         * Get the row sent to clients
+         * @return row chatroom name, creator and participant count
+         */
+        public String[] toRow() {
+            return new String[]{name, creator, String.valueOf(participantCount)};
+        }
+    }
+
+    /**Participant count descending, then name*/
+    private static final Comparator<Entry> SIZE_ORDER = new Comparator<Entry>() {
+
+        @Override
+        public int compare(Entry a, Entry b) {
+            if (a.participantCount != b.participantCount) {
+                return a.participantCount > b.participantCount ? -1 : 1;
+            }
+            return a.name.compareTo(b.name);
+        }
+    };
+
+    /**Name*/
+    private static final Comparator<Entry> NAME_ORDER = new Comparator<Entry>() {
+
+        @Override
+        public int compare(Entry a, Entry b) {
+            return a.name.compareTo(b.name);
+        }
+    };
+
+    /**Creator, then name*/
+    private static final Comparator<Entry> CREATOR_ORDER = new Comparator<Entry>() {
+
+        @Override
+        public int compare(Entry a, Entry b) {
+            int result = a.creator.compareTo(b.creator);
+            return result != 0 ? result : a.name.compareTo(b.name);
+        }
+    };
+
+    /**
+     * Current entries
+     * key: chatroom name, value: entry
+     */
+    private ConcurrentHashMap<String, Entry> entryTable = new ConcurrentHashMap<>();
+    /**Entries by participant count*/
+    private ConcurrentSkipListSet<Entry> sizeIndex = new ConcurrentSkipListSet<>(SIZE_ORDER);
+    /**Entries by name*/
+    private ConcurrentSkipListSet<Entry> nameIndex = new ConcurrentSkipListSet<>(NAME_ORDER);
+    /**Entries by creator*/
+    private ConcurrentSkipListSet<Entry> creatorIndex = new ConcurrentSkipListSet<>(CREATOR_ORDER);
+
+    /**Constructor, create ChatroomDirectory object*/
+    public ChatroomDirectory() {
+
+        super();
+    }
+
+    /**
+     * Add a created chatroom
+     * @param chatroomName
+     * @param creator 
+     */
+    public synchronized void add(String chatroomName, String creator) {
+        replace(entryTable.get(chatroomName), new Entry(chatroomName, creator, 0));
+    }
+
+    /**
+     * Remove a destroyed chatroom
+     * @param chatroomName 
+     */
+    public synchronized void remove(String chatroomName) {
+        replace(entryTable.get(chatroomName), null);
+    }
+
+    /**
+     * Update the participant count of a chatroom
+     * @param chatroomName
+     * @param participantCount 
+     */
+    public synchronized void setParticipantCount(String chatroomName, int participantCount) {
+
+        Entry old = entryTable.get(chatroomName);
+        if (old != null && old.participantCount != participantCount) {
+            replace(old, new Entry(chatroomName, old.creator, participantCount));
+        }
+    }
+
+    /**
+     * Replace an entry in all indexes
+     * @param old null to add
+     * @param entry null to remove
+     */
+    private void replace(Entry old, Entry entry) {
+
+        if (old != null) {
+            sizeIndex.remove(old);
+            nameIndex.remove(old);
+            creatorIndex.remove(old);
+            entryTable.remove(old.name);
+        }
+        if (entry != null) {
+            entryTable.put(entry.name, entry);
+            sizeIndex.add(entry);
+            nameIndex.add(entry);
+            creatorIndex.add(entry);
+        }
+    }
+
+    /**
+     * Get number of chatrooms
+     * @return size
+     */
+    public int size() {
+        return entryTable.size();
+    }
+
+    /**
+     * Get the n chatrooms with the most participants
+     * @param n
+     * @return rows chatroom name, creator and participant count
+     */
+    public ArrayList<String[]> getTop(int n) {
+        return getPage(ORDER_SIZE, null, n);
+    }
+
+    /**
+     * Get a sorted page of chatrooms
+     * @param order ORDER_SIZE, ORDER_NAME or ORDER_CREATOR
+     * @param after last row of the previous page, null for the first page
+     * @param limit maximum number of rows
+     * @return rows chatroom name, creator and participant count
+     */
+    public ArrayList<String[]> getPage(String order, String[] after, int limit) {
+
+        NavigableSet<Entry> index;
+        if (ORDER_SIZE.equals(order)) {
+            index = sizeIndex;
+        } else if (ORDER_CREATOR.equals(order)) {
+            index = creatorIndex;
+        } else {
+            index = nameIndex;
+        }
+        if (after != null && after.length >= 3) {
+            int count;
+            try {
+                count = Integer.parseInt(after[2]);
+            } catch (NumberFormatException ex) {
+                count = 0;
+            }
+            index = index.tailSet(new Entry(after[0], after[1], count), false);
+        }
+
+        ArrayList<String[]> rows = new ArrayList<>();
+        Iterator<Entry> it = index.iterator();
+        while (it.hasNext() && rows.size() < limit) {
+            rows.add(it.next().toRow());
+        }
+        return rows;
+    }
+
+}
@@ -1,15 +1,22 @@
 package chatroom;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
 import java.net.MalformedURLException;
+import java.net.NetworkInterface;
 import java.rmi.Naming;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.server.UnicastRemoteObject;
-import java.text.DateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.Hashtable;
-import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * Server object performs all server functionalities and implements ServerInterface
@@ -19,8 +26,21 @@ public class ChatroomServer extends UnicastRemoteObject implements ServerInterfa
     
     private static final long serialVersionUID = 1L;
 
+    /**Executor running the callbacks to clients*/
+    private CallbackExecutor callbackExecutor = new CallbackExecutor(ServerConfig.getExecutorMode(),
+            ServerConfig.getExecutorThreads(), ServerConfig.getExecutorCarriers());
+
+    /**Number of participants informed by one elimination task*/
+    private static final int ELIMINATION_BATCH_SIZE = 64;
+
+    /**Bytes charged to the sender for an attachment reference message, charged before its text is known*/
+    private static final long REF_MSG_BYTES = 512;
+
+    /**Recorder of sampled message traces*/
+    private TraceRecorder traceRecorder = new TraceRecorder(ServerConfig.getTraceCapacity(), ServerConfig.getTraceSampleRate());
+
     /**An instance of RegistrationCenter*/
-    private RegistrationCenter registrationCenter = new RegistrationCenter();
+    private RegistrationCenter registrationCenter = new RegistrationCenter(callbackExecutor);
     
     /**
      * A table of current chatroom names and Chatroom objects
@@ -28,34 +48,257 @@ public class ChatroomServer extends UnicastRemoteObject implements ServerInterfa
      */
     private Hashtable<String, Chatroom> chatroomTable = new Hashtable<>();
     
+    /**Ids of client names, shared by the chatrooms*/
+    private SymbolTable symbolTable = new SymbolTable();
+
     /**
      * A table records every client's position
-     * key: client name, value: chatroom client is visiting
+     * key: symbol id of client name, value: chatroom client is visiting
      */
-    private Hashtable<String, String> clientPositionTable = new Hashtable<>();
+    private IntHashtable<String> clientPositionTable = new IntHashtable<>();
+
+    /**Sorted index of the chatrooms*/
+    private ChatroomDirectory chatroomDirectory = new ChatroomDirectory();
+
+    /**An instance of PresenceManager*/
+    private PresenceManager presenceManager = new PresenceManager(chatroomTable);
+
+    /**Inbound message pipeline, runs before the server lock is taken*/
+    private MessagePipeline messagePipeline = new MessagePipeline();
+
+    /**An instance of SessionManager*/
+    private SessionManager sessionManager = new SessionManager();
+
+    /**Event loops running the chatrooms' message posting*/
+    private RoomEventLoops roomEventLoops = new RoomEventLoops(ServerConfig.getLoopCount());
+
+    /**Off-heap history of all chatrooms, null if not retained*/
+    private HistoryStore historyStore = HistoryStore.create();
+
+    /**Admission control of the remote calls*/
+    private AdmissionController admissionController = new AdmissionController(ServerConfig.isAdmissionEnabled(),
+            ServerConfig.getAdmissionLimit(), ServerConfig.getAdmissionMinLimit(), ServerConfig.getAdmissionMaxLimit());
+
+    /**Footprint estimation and capacity caps*/
+    private MemoryAccountant memoryAccountant = new MemoryAccountant(chatroomTable, clientPositionTable, symbolTable,
+            ServerConfig.getMaxParticipants(), ServerConfig.getMaxRoomsPerCreator(), ServerConfig.getMaxQueuedKiB() * 1024L);
+
+    /**Store of the shared files, null if attachments are off*/
+    private AttachmentStore attachmentStore;
+
+    /**Endpoint moving the attachment chunks, null if attachments are off*/
+    private AttachmentServer attachmentServer;
+
+    /**Journal of the chatroom lifecycle events, null if not audited*/
+    private AuditJournal auditJournal;
+
+    /**Publisher of the chatroom messages to multicast groups, null if multicast is off*/
+    private MulticastPublisher multicastPublisher;
+
+    /**Maximum waiting time of a long poll*/
+    private long pollTimeoutMillis = ServerConfig.getPollTimeoutMillis();
+
+    /**Maximum number of messages returned by a poll*/
+    private int pollMaxMsgs = ServerConfig.getPollMaxMsgs();
+
+    /**Maximum number of parked long polls, each holds an RMI connection thread*/
+    private int pollMaxParked = ServerConfig.getPollMaxParked();
+
+    /**Number of long polls in progress*/
+    private final AtomicInteger parkedPolls = new AtomicInteger();
 
     /**Constructor, create an instance of ChatroomServer*/
     public ChatroomServer() throws RemoteException, MalformedURLException {
 
-        super();
+        super(ServerConfig.getExportPort(), ServerConfig.getSocketFactory(), ServerConfig.getSocketFactory());
 
+        int registryPort = ServerConfig.getRegistryPort();
         try {
-            LocateRegistry.getRegistry(1099).list();
+            LocateRegistry.getRegistry(registryPort).list();
         } catch (RemoteException e) {
-            LocateRegistry.createRegistry(1099);
+            //lookups come with default sockets, only the server end is tuned
+            LocateRegistry.createRegistry(registryPort, null, ServerConfig.getSocketFactory());
         }
-        //set rmi address *****************************************************
-        Naming.rebind("rmi://localhost:1099/chatroom", this);
+        Naming.rebind(ServerConfig.getServiceUrl(), exportCapture());
+        presenceManager.start(PresenceManager.DEFAULT_TICK_MILLIS, ServerConfig.getPresenceThreads(), ServerConfig.getPresenceQueue());
+        roomEventLoops.startRebalancing(ServerConfig.getLoopRebalanceMillis());
 
-        System.out.println("ChatroomServer is ready!");
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(traceRecorder, new ObjectName("chatroom:type=TraceRecorder"));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new SocketStats(), new ObjectName("chatroom:type=SocketStats"));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(admissionController, new ObjectName("chatroom:type=AdmissionController"));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(memoryAccountant, new ObjectName("chatroom:type=MemoryAccountant"));
+        } catch (JMException ex) {
+            Logger.getLogger(ChatroomServer.class.getName()).log(Level.WARNING, "Cannot register MBeans", ex);
+        }
+
+        String rules = ServerConfig.getModerationRules();
+        if (rules != null) {
+            ModerationFilter moderationFilter = new ModerationFilter(new File(rules), ServerConfig.getModerationAction());
+            moderationFilter.startWatching(ServerConfig.getModerationReloadMillis());
+            messagePipeline.addFilter(moderationFilter);
+        }
+
+        if (ServerConfig.getAttachmentPort() >= 0) {
+            try {
+                attachmentStore = new AttachmentStore(new File(ServerConfig.getAttachmentDir()), ServerConfig.getAttachmentMaxMiB() * 1024L * 1024L,
+                        ServerConfig.getAttachmentTotalMiB() * 1024L * 1024L, ServerConfig.getAttachmentExpiryHours() * 3600L * 1000L);
+                attachmentServer = new AttachmentServer(attachmentStore, ServerConfig.getBindAddress(), ServerConfig.getAttachmentPort(),
+                        ServerConfig.getAttachmentConnections());
+            } catch (IOException ex) {
+                Logger.getLogger(ChatroomServer.class.getName()).log(Level.WARNING, "Attachments unavailable", ex);
+                attachmentStore = null;
+            }
+        }
+
+        if (ServerConfig.isAuditEnabled()) {
+            try {
+                auditJournal = new AuditJournal(new File(ServerConfig.getAuditDir()), ServerConfig.getAuditSyncMillis(),
+                        ServerConfig.getAuditRotateMiB() * 1024L * 1024L, ServerConfig.getAuditKeepFiles());
+                final AuditJournal journal = auditJournal;
+                Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            journal.close(5000);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }, "audit-journal-close"));
+            } catch (IOException ex) {
+                Logger.getLogger(ChatroomServer.class.getName()).log(Level.WARNING, "Audit journal unavailable", ex);
+            }
+        }
+
+        if (ServerConfig.isMulticastEnabled()) {
+            try {
+                String interfaceName = ServerConfig.getMulticastInterface();
+                NetworkInterface networkInterface = interfaceName == null ? null : NetworkInterface.getByName(interfaceName);
+                if (interfaceName != null && networkInterface == null) {
+                    throw new IOException("Unknown interface " + interfaceName);
+                }
+                multicastPublisher = new MulticastPublisher(chatroomTable, InetAddress.getByName(ServerConfig.getMulticastGroup()),
+                        ServerConfig.getMulticastGroupCount(), ServerConfig.getMulticastPort(), ServerConfig.getMulticastTtl(),
+                        networkInterface, ServerConfig.getMulticastPayload());
+                multicastPublisher.start(ServerConfig.getMulticastHeartbeatMillis());
+                ManagementFactory.getPlatformMBeanServer().registerMBean(multicastPublisher, new ObjectName("chatroom:type=MulticastPublisher"));
+            } catch (IOException ex) {
+                Logger.getLogger(ChatroomServer.class.getName()).log(Level.WARNING, "Multicast unavailable", ex);
+                multicastPublisher = null;
+            } catch (JMException ex) {
+                Logger.getLogger(ChatroomServer.class.getName()).log(Level.WARNING, "Cannot register MBeans", ex);
+            }
+        }
+
+        System.out.println("ChatroomServer is ready! (" + callbackExecutor.getMode() + " callbacks)");
+    }
+
+    /**
+     * Export the capturing proxy if the client calls are captured
+     * @return object to bind, this if not captured
+     * @throws RemoteException 
+     */
+    private ServerInterface exportCapture() throws RemoteException {
+
+        String file = ServerConfig.getCaptureFile();
+        if (file == null) {
+            return this;
+        }
+        final TrafficCapture capture;
+        try {
+            capture = new TrafficCapture(this, new File(file));
+        } catch (IOException ex) {
+            Logger.getLogger(ChatroomServer.class.getName()).log(Level.WARNING, "Traffic capture unavailable", ex);
+            return this;
+        }
+        ServerInterface proxy = capture.getProxy();
+        UnicastRemoteObject.exportObject(proxy, ServerConfig.getExportPort(), ServerConfig.getSocketFactory(), ServerConfig.getSocketFactory());
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                capture.close();
+            }
+        }, "traffic-capture-close"));
+        System.out.println("Capturing client calls to " + file);
+        return proxy;
     }
 
     /**
      * Add clientName to clientPositionTable
      * @param clientName 
+     * @return token session token for resuming after reconnect
+     */
+    public String clientStart(String clientName) {
+
+        long admission = admissionController.acquireControl();
+        try {
+            int clientId = symbolTable.intern(clientName);
+            clientPositionTable.put(clientId, "");
+            memoryAccountant.addClient(clientId);
+            return sessionManager.openSession(clientName);
+        } finally {
+            admissionController.release(admission);
+        }
+    }
+
+    /**
+     * Resume the session of a reconnecting client
+     * The client's chatroom membership and subscription are re-attached to
+     * clientInterface and only the messages after seq are returned, without
+     * broadcasting an enter notice or taking the server lock.
+     * @param token session token returned by clientStart
+     * @param clientInterface
+     * @param seq last sequence number the client received, -1 if unknown
+     * @return state resumed session state, null if token unknown
+     */
+    public SessionState resumeSession(String token, ClientInterface clientInterface, long seq) {
+
+        long admission = admissionController.acquireControl();
+        try {
+            String clientName = sessionManager.getClientName(token);
+            if (clientName == null) {
+                return null;
+            }
+            //a null clientInterface resumes a client in pull mode, its callback is kept
+            ClientInterface oldInterface = clientInterface == null ? null : sessionManager.replaceCallback(clientName, clientInterface);
+            if (oldInterface != null && !oldInterface.equals(clientInterface)) {
+                replaceSubscriber(oldInterface, clientInterface);
+            }
+
+            int clientId = symbolTable.lookup(clientName);
+            if (clientId == SymbolTable.NO_SYMBOL) {
+                return null;
+            }
+            String chatroomName = clientPositionTable.get(clientId);
+            if (chatroomName == null) {
+                chatroomName = "";
+                clientPositionTable.put(clientId, chatroomName);
+            }
+            Chatroom chatroom = chatroomName.length() > 0 ? chatroomTable.get(chatroomName) : null;
+            if (chatroom != null) {
+                MessageBatch batch = chatroom.reattachParticipant(clientName, clientInterface, seq);
+                if (batch != null) {
+                    ArrayList<String> list = new ArrayList<>(chatroom.getParticipantList());
+                    return new SessionState(clientName, chatroomName, list, batch);
+                }
+            }
+            clientPositionTable.put(clientId, "");
+            return new SessionState(clientName, "", new ArrayList<String>(), null);
+        } finally {
+            admissionController.release(admission);
+        }
+    }
+
+    /**
+     * Replace the ClientInterface object of a resumed subscriber
+     * @param oldInterface
+     * @param newInterface 
      */
-    public void clientStart(String clientName) {
-        clientPositionTable.put(clientName, "");
+    private synchronized void replaceSubscriber(ClientInterface oldInterface, ClientInterface newInterface) {
+        registrationCenter.replaceSubscriber(oldInterface, newInterface);
     }
 
     /**
@@ -67,76 +310,228 @@ public class ChatroomServer extends UnicastRemoteObject implements ServerInterfa
      */
     public void clientQuit(String clientName, ClientInterface clientInterface) throws RemoteException {
 
-        //before quit, exit the visiting chatroom first.
-        if (clientPositionTable.get(clientName).length() > 0) {
-            String chatroom = clientPositionTable.get(clientName);
-            exitChatroom(chatroom, clientName);
-        }
-        clientPositionTable.remove(clientName);
-        //get the list of rooms created by the quit client and delete the rooms from chatroomTable
-        ArrayList<String> list = registrationCenter.processQuitClient(clientName, clientInterface);
-        if (list.size() > 0) {
-            for (int i = 0; i < list.size(); i++) {
-                //inform every participant of the chatroom about the chatroom elimination
-                Hashtable<String, ClientInterface> participantTable = chatroomTable.get(list.get(i)).getParticipantTable();
-                Iterator it = participantTable.keySet().iterator();
-                while (it.hasNext()) {
-                    String participantName = (String) it.next();
-                    clientPositionTable.put(participantName, "");
-                    participantTable.get(participantName).handleChatroomElimination();
+        long admission = admissionController.acquireControl();
+        try {
+            //before quit, exit the visiting chatroom first.
+            int clientId = symbolTable.lookup(clientName);
+            if (clientId == SymbolTable.NO_SYMBOL) {
+                return;
+            }
+            if (clientPositionTable.get(clientId).length() > 0) {
+                String chatroom = clientPositionTable.get(clientId);
+                //already admitted, exit without a second admission
+                leaveChatroom(chatroom, clientName);
+            }
+            clientPositionTable.remove(clientId);
+            sessionManager.closeSession(clientName);
+            //the id is given again once no bytes are queued for it
+            memoryAccountant.removeClient(clientId);
+            audit(AuditJournal.QUIT, "", clientName);
+            //get the list of rooms created by the quit client and delete the rooms from chatroomTable,
+            //under the lock registerChatroom changes the creator lists with
+            synchronized (this) {
+                ArrayList<String> list = registrationCenter.processQuitClient(clientName, clientInterface);
+                if (list.size() > 0) {
+                    teardownChatrooms(list);
                 }
+            }
+        } finally {
+            admissionController.release(admission);
+        }
+    }
+
+    /**
+     * Record a lifecycle event in the audit journal, only queues it
+     * @param type
+     * @param chatroomName
+     * @param clientName
+     */
+    private void audit(byte type, String chatroomName, String clientName) {
+
+        if (auditJournal != null) {
+            auditJournal.record(type, chatroomName, clientName);
+        }
+    }
 
-                chatroomTable.remove(list.get(i));
+    /**
+     * Get the inbound message pipeline, e.g. to add stages
+     * @return messagePipeline
+     */
+    public MessagePipeline getMessagePipeline() {
+        return messagePipeline;
+    }
+
+    /**
+     * Remove chatrooms and inform their participants about the elimination.
+     * The participants of all chatrooms are collected first and informed on the
+     * callback executor in batches of ELIMINATION_BATCH_SIZE, one task per batch.
+     * @param chatroomNames 
+     */
+    private synchronized void teardownChatrooms(ArrayList<String> chatroomNames) {
+
+        ArrayList<ClientInterface> notifyList = new ArrayList<>();
+        //chatroom and name of each client in notifyList
+        ArrayList<String> notifyChatrooms = new ArrayList<>();
+        ArrayList<String> notifyClients = new ArrayList<>();
+        for (int i = 0; i < chatroomNames.size(); i++) {
+            Chatroom chatroom = chatroomTable.remove(chatroomNames.get(i));
+            chatroomDirectory.remove(chatroomNames.get(i));
+            if (chatroom == null) {
+                continue;
+            }
+            audit(AuditJournal.DESTROY, chatroomNames.get(i), chatroom.getCreator());
+            if (attachmentStore != null) {
+                attachmentStore.revokeTickets(chatroomNames.get(i));
+            }
+            if (chatroom.getMailbox() != null) {
+                roomEventLoops.unregister(chatroom.getMailbox());
+            }
+            synchronized (chatroom) {
+                chatroom.close();
+                ArrayList<String> participantList = chatroom.getParticipantList();
+                for (int j = 0; j < participantList.size(); j++) {
+                    clientPositionTable.put(symbolTable.lookup(participantList.get(j)), "");
+                    ClientInterface clientInterface = chatroom.getClientInterface(participantList.get(j));
+                    //participants in pull mode find out by their next poll
+                    if (clientInterface != null) {
+                        notifyList.add(clientInterface);
+                        notifyChatrooms.add(chatroomNames.get(i));
+                        notifyClients.add(participantList.get(j));
+                    }
+                }
             }
         }
+        for (int from = 0; from < notifyList.size(); from += ELIMINATION_BATCH_SIZE) {
+            int to = Math.min(from + ELIMINATION_BATCH_SIZE, notifyList.size());
+            final ArrayList<ClientInterface> batch = new ArrayList<>(notifyList.subList(from, to));
+            final ArrayList<String> batchChatrooms = new ArrayList<>(notifyChatrooms.subList(from, to));
+            final ArrayList<String> batchClients = new ArrayList<>(notifyClients.subList(from, to));
+            callbackExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < batch.size(); i++) {
+                        Object event = ChatEvents.beginCallback();
+                        try {
+                            batch.get(i).handleChatroomElimination();
+                        } catch (RemoteException ex) {
+                            ChatEvents.callbackFailure(event, batchChatrooms.get(i), batchClients.get(i), "handleChatroomElimination", ex);
+                            Logger.getLogger(ChatroomServer.class.getName()).log(Level.WARNING, null, ex);
+                        }
+                    }
+                }
+            });
+        }
     }
 
     /**
      * Client invokes this method to get current existing chatrooms
-     * @return chatroomList chatroom names and creators
+     * Served from the directory index in name order without the server lock.
+     * @return chatroomList chatroom names, creators and participant counts
+     */
+    public ArrayList<String[]> getChatroomList() throws ServerBusyException {
+
+        long admission = admissionController.acquire(AdmissionController.DIRECTORY);
+        try {
+            return chatroomDirectory.getPage(ChatroomDirectory.ORDER_NAME, null, Integer.MAX_VALUE);
+        } finally {
+            admissionController.release(admission);
+        }
+    }
+
+    /**
+     * Get the chatrooms with the most participants
+     * @param n
+     * @return chatroomList chatroom names, creators and participant counts
      */
-    public synchronized ArrayList<String[]> getChatroomList() {
+    public ArrayList<String[]> getTopChatrooms(int n) throws ServerBusyException {
 
-        ArrayList<String[]> chatroomList = new ArrayList<>();
-        Iterator it = chatroomTable.keySet().iterator();
+        long admission = admissionController.acquire(AdmissionController.DIRECTORY);
+        try {
+            return chatroomDirectory.getTop(n);
+        } finally {
+            admissionController.release(admission);
+        }
+    }
+
+    /**
+     * Get a sorted page of chatrooms
+     * @param order "size", "name" or "creator"
+     * @param after last row of the previous page, null for the first page
+     * @param limit maximum number of rows
+     * @return chatroomList chatroom names, creators and participant counts
+     */
+    public ArrayList<String[]> getChatroomPage(String order, String[] after, int limit) throws ServerBusyException {
 
-        while (it.hasNext()) {
-            String[] chatroomItem = new String[2];
-            chatroomItem[0] = (String) it.next();
-            chatroomItem[1] = chatroomTable.get(chatroomItem[0]).getCreator();
-            chatroomList.add(chatroomItem);
+        long admission = admissionController.acquire(AdmissionController.DIRECTORY);
+        try {
+            return chatroomDirectory.getPage(order, after, limit);
+        } finally {
+            admissionController.release(admission);
         }
-        return chatroomList;
     }
 
     /**
      * Client subscribes to the registration center
      * @param clientInterface 
      */
-    public synchronized void subscribe(ClientInterface clientInterface) {
-        registrationCenter.subscribe(clientInterface);
+    public void subscribe(ClientInterface clientInterface) throws ServerBusyException {
+
+        long admission = admissionController.acquire(AdmissionController.DIRECTORY);
+        try {
+            synchronized (this) {
+                registrationCenter.subscribe(clientInterface);
+            }
+        } finally {
+            admissionController.release(admission);
+        }
     }
 
     /**
      * Client unsubscribes to the registration center
      * @param clientInterface 
      */
-    public synchronized void unsubscribe(ClientInterface clientInterface) {
-        registrationCenter.unsubscribe(clientInterface);
+    public void unsubscribe(ClientInterface clientInterface) {
+
+        long admission = admissionController.acquireControl();
+        try {
+            synchronized (this) {
+                registrationCenter.unsubscribe(clientInterface);
+            }
+        } finally {
+            admissionController.release(admission);
+        }
     }
 
     /**
      * Create a new chatroom
      * @param chatroomName
      * @param clientName
-     * @throws RemoteException 
+     * @throws RemoteException CapacityExceededException if clientName has created the most chatrooms allowed
      */
-    public synchronized void createChatroom(String chatroomName, String clientName) throws RemoteException {
-
-        Chatroom chatroom = new Chatroom(chatroomName, clientName);
-        chatroomTable.put(chatroomName, chatroom);
-        registrationCenter.registerChatroom(chatroomName, clientName);
+    public void createChatroom(String chatroomName, String clientName) throws RemoteException {
 
+        long admission = admissionController.acquireControl();
+        try {
+            synchronized (this) {
+                Object event = ChatEvents.beginRoomOperation();
+                if (!memoryAccountant.admitRoom(registrationCenter.getCreatedCount(clientName))) {
+                    throw new CapacityExceededException(clientName + " has created " + memoryAccountant.getMaxRoomsPerCreator()
+                            + " chatrooms, destroy one first");
+                }
+                Chatroom chatroom = new Chatroom(chatroomName, clientName, callbackExecutor, traceRecorder, historyStore, symbolTable);
+                chatroom.setMailbox(roomEventLoops.register(chatroomName));
+                chatroom.setMemoryAccountant(memoryAccountant);
+                chatroom.setMulticastPublisher(multicastPublisher);
+                chatroomTable.put(chatroomName, chatroom);
+                chatroomDirectory.add(chatroomName, clientName);
+                registrationCenter.registerChatroom(chatroomName, clientName);
+                audit(AuditJournal.CREATE, chatroomName, clientName);
+                ChatEvents.roomOperation(event, "createChatroom", chatroomName, clientName, 0);
+            }
+        } finally {
+            admissionController.release(admission);
+        }
     }
 
     /**
@@ -144,18 +539,23 @@ public class ChatroomServer extends UnicastRemoteObject implements ServerInterfa
      * @param chatroomName
      * @throws RemoteException 
      */
-    public synchronized void destroyChatroom(String chatroomName) throws RemoteException {
+    public void destroyChatroom(String chatroomName) throws RemoteException {
 
-        Hashtable<String, ClientInterface> participantTable = chatroomTable.get(chatroomName).getParticipantTable();
-        Iterator it = participantTable.keySet().iterator();
-        while (it.hasNext()) {
-            String participantName = (String) it.next();
-            clientPositionTable.put(participantName, "");
-            participantTable.get(participantName).handleChatroomElimination();
+        long admission = admissionController.acquireControl();
+        try {
+            synchronized (this) {
+                Object event = ChatEvents.beginRoomOperation();
+                Chatroom chatroom = chatroomTable.get(chatroomName);
+                int participantCount = chatroom == null ? 0 : chatroom.getParticipantList().size();
+                ArrayList<String> list = new ArrayList<>();
+                list.add(chatroomName);
+                teardownChatrooms(list);
+                registrationCenter.unregisterChatroom(chatroomName);
+                ChatEvents.roomOperation(event, "destroyChatroom", chatroomName, chatroom == null ? "" : chatroom.getCreator(), participantCount);
+            }
+        } finally {
+            admissionController.release(admission);
         }
-
-        chatroomTable.remove(chatroomName);
-        registrationCenter.unregisterChatroom(chatroomName);
     }
 
     /**
@@ -163,30 +563,45 @@ public class ChatroomServer extends UnicastRemoteObject implements ServerInterfa
      * @param chatroomName
      * @param clientName
      * @param clientInterface
-     * @return list participant list of the chatroom
+     * @return list participant list of the chatroom, a single "not exist" or "full" if not entered,
+     * "not exist" also if clientName has not started
      * @throws RemoteException 
      */
-    public synchronized ArrayList<String> enterChatroom(String chatroomName, String clientName, ClientInterface clientInterface) throws RemoteException {
+    public ArrayList<String> enterChatroom(String chatroomName, String clientName, ClientInterface clientInterface) throws RemoteException {
 
-        ArrayList<String> list = new ArrayList<>();
-        
-        if (chatroomTable.containsKey(chatroomName)) {
-            DateFormat df = DateFormat.getDateTimeInstance();
-            String time = df.format(new Date());
-            String msg = time + "  " + clientName + " enters the room.";
-            chatroomTable.get(chatroomName).sendToAll(msg);
+        long admission = admissionController.acquireControl();
+        try {
+            synchronized (this) {
+                Object event = ChatEvents.beginRoomOperation();
+                ArrayList<String> list = new ArrayList<>();
+                int clientId = symbolTable.lookup(clientName);
 
-            chatroomTable.get(chatroomName).addParticipant(clientName, clientInterface);
-            list = chatroomTable.get(chatroomName).getParticipantList();
+                if (clientId != SymbolTable.NO_SYMBOL && chatroomTable.containsKey(chatroomName) && !memoryAccountant.admitParticipant(chatroomTable.get(chatroomName), clientName)) {
+                    list.add("full");
+                }
+                else if (clientId != SymbolTable.NO_SYMBOL && chatroomTable.containsKey(chatroomName)) {
+                    String msg = TimestampCache.now() + "  " + clientName + " enters the room.";
+                    chatroomTable.get(chatroomName).sendToAll(msg);
 
-            clientPositionTable.put(clientName, chatroomName);
-        }
-        //if chatroom not exist, return ArrayList with a single str "not exist".
-        else {
-            String str = "not exist";
-            list.add(str);
+                    chatroomTable.get(chatroomName).addParticipant(clientName, clientInterface);
+                    sessionManager.setCallback(clientName, clientInterface);
+                    list = chatroomTable.get(chatroomName).getParticipantList();
+                    chatroomDirectory.setParticipantCount(chatroomName, list.size());
+
+                    clientPositionTable.put(clientId, chatroomName);
+                    audit(AuditJournal.ENTER, chatroomName, clientName);
+                    ChatEvents.roomOperation(event, "enterChatroom", chatroomName, clientName, list.size());
+                }
+                //if chatroom or client not exist, return ArrayList with a single str "not exist".
+                else {
+                    String str = "not exist";
+                    list.add(str);
+                }
+                return list;
+            }
+        } finally {
+            admissionController.release(admission);
         }
-        return list;
     }
 
     /**
@@ -195,15 +610,36 @@ public class ChatroomServer extends UnicastRemoteObject implements ServerInterfa
      * @param clientName
      * @throws RemoteException 
      */
-    public synchronized void exitChatroom(String chatroomName, String clientName) throws RemoteException {
+    public void exitChatroom(String chatroomName, String clientName) throws RemoteException {
+
+        long admission = admissionController.acquireControl();
+        try {
+            leaveChatroom(chatroomName, clientName);
+        } finally {
+            admissionController.release(admission);
+        }
+    }
+
+    /**
+     * Remove a client from a chatroom and tell the participants, for an admitted call
+     * @param chatroomName
+     * @param clientName
+     * @throws RemoteException 
+     */
+    private synchronized void leaveChatroom(String chatroomName, String clientName) throws RemoteException {
 
+        Object event = ChatEvents.beginRoomOperation();
         chatroomTable.get(chatroomName).deleteParticipant(clientName);
-        clientPositionTable.put(clientName, "");
+        chatroomDirectory.setParticipantCount(chatroomName, chatroomTable.get(chatroomName).getParticipantList().size());
+        int clientId = symbolTable.lookup(clientName);
+        if (clientId != SymbolTable.NO_SYMBOL) {
+            clientPositionTable.put(clientId, "");
+        }
+        audit(AuditJournal.EXIT, chatroomName, clientName);
 
-        DateFormat df = DateFormat.getDateTimeInstance();
-        String time = df.format(new Date());
-        String msg = time + "  " + clientName + " leaves the room.";
+        String msg = TimestampCache.now() + "  " + clientName + " leaves the room.";
         chatroomTable.get(chatroomName).sendToAll(msg);
+        ChatEvents.roomOperation(event, "exitChatroom", chatroomName, clientName, chatroomTable.get(chatroomName).getParticipantList().size());
     }
 
     /**
@@ -211,51 +647,544 @@ public class ChatroomServer extends UnicastRemoteObject implements ServerInterfa
      * @param chatroomName
      * @return list participants list of the chatroom
      */
-    public synchronized ArrayList<String> refreshParticipantsList(String chatroomName) {
+    public ArrayList<String> refreshParticipantsList(String chatroomName) throws ServerBusyException {
 
-        ArrayList<String> list = chatroomTable.get(chatroomName).getParticipantList();
-        return list;
+        long admission = admissionController.acquire(AdmissionController.DIRECTORY);
+        try {
+            synchronized (this) {
+                ArrayList<String> list = chatroomTable.get(chatroomName).getParticipantList();
+                return list;
+            }
+        } finally {
+            admissionController.release(admission);
+        }
     }
 
     /**
      * Client invokes this method to send message
+     * The message passes the inbound pipeline before the server lock is taken.
      * @param chatroomName name of the chatroom client is participating
      * @param sender
      * @param receiver
      * @param msg
      * @throws RemoteException 
      */
-    public synchronized void sendMsg(String chatroomName, String sender, String receiver, String msg) throws RemoteException {
+    public void sendMsg(String chatroomName, String sender, String receiver, String msg) throws RemoteException {
+
+        //the message stays admitted and charged to the sender until the chatroom's event loop has dispatched it
+        long admission = admissionController.acquire(AdmissionController.CHAT);
+        long queuedBytes = MemoryAccountant.stringBytes(msg);
+        int senderId = reserveQueued(chatroomName, sender, queuedBytes, admission);
+        if (senderId != SymbolTable.NO_SYMBOL) {
+            submitMsg(chatroomName, sender, senderId, receiver, msg, admission, queuedBytes);
+        }
+    }
+
+    /**
+     * Charge the bytes of posted messages to the sender until they are dispatched
+     * Messages of a sender that is not a participant of the chatroom are dropped
+     * here, the sender's id is looked up and never given.
+     * @param chatroomName
+     * @param sender
+     * @param queuedBytes
+     * @param admission admission time of the call, released if rejected
+     * @return symbol id of the sender, NO_SYMBOL if dropped
+     * @throws ServerBusyException if the sender has too many bytes queued
+     */
+    private int reserveQueued(String chatroomName, String sender, long queuedBytes, long admission) throws ServerBusyException {
+
+        int senderId = symbolTable.lookup(sender);
+        Chatroom chatroom = chatroomTable.get(chatroomName);
+        if (senderId == SymbolTable.NO_SYMBOL || chatroom == null || !chatroom.isParticipant(sender)) {
+            admissionController.releaseUnsampled();
+            return SymbolTable.NO_SYMBOL;
+        }
+        if (!memoryAccountant.reserveQueued(senderId, queuedBytes)) {
+            admissionController.releaseUnsampled();
+            throw new ServerBusyException("Too many messages of " + sender + " queued", admissionController.getRetryAfterMillis());
+        }
+        return senderId;
+    }
+
+    /**
+     * Release the admission and queued bytes of posted messages once dispatched or dropped
+     * @param senderId symbol id the bytes were charged to
+     * @param queuedBytes
+     * @param admission
+     */
+    private void releaseMsg(int senderId, long queuedBytes, long admission) {
+
+        admissionController.release(admission);
+        memoryAccountant.releaseQueued(senderId, queuedBytes);
+    }
+
+    /**
+     * Trace, filter and post an admitted message
+     * @param chatroomName
+     * @param sender
+     * @param senderId symbol id the bytes are charged to
+     * @param receiver
+     * @param msg
+     * @param admission admission time of the call, released once dispatched or dropped
+     * @param queuedBytes bytes charged to the sender, released with the admission
+     */
+    private void submitMsg(String chatroomName, String sender, int senderId, String receiver, String msg, long admission, long queuedBytes) {
+
+        boolean posted = false;
+        try {
+            long traceId = traceRecorder.begin(chatroomName, sender);
+            String filtered = filterMsg(chatroomName, sender, receiver, msg);
+            if (filtered != null) {
+                posted = postMsg(chatroomName, sender, senderId, receiver, filtered, traceId, admission, queuedBytes);
+            }
+        } finally {
+            if (!posted) {
+                releaseMsg(senderId, queuedBytes, admission);
+            }
+        }
+    }
+
+    /**
+     * Client invokes this method to send several messages in one call, in order
+     * @param chatroomName name of the chatroom client is participating
+     * @param sender
+     * @param msgList messages, each an array of receiver and message
+     * @throws RemoteException 
+     */
+    public void sendMsgBatch(String chatroomName, String sender, ArrayList<String[]> msgList) throws RemoteException {
 
-        DateFormat df = DateFormat.getDateTimeInstance();
-        String time = df.format(new Date());
+        long admission = admissionController.acquire(AdmissionController.CHAT);
+        long queuedBytes = 0;
+        for (int i = 0; i < msgList.size(); i++) {
+            queuedBytes += MemoryAccountant.stringBytes(msgList.get(i)[1]);
+        }
+        int senderId = reserveQueued(chatroomName, sender, queuedBytes, admission);
+        if (senderId == SymbolTable.NO_SYMBOL) {
+            return;
+        }
+        boolean posted = false;
+        try {
+            ArrayList<String[]> filteredList = new ArrayList<>();
+            ArrayList<Long> traceIdList = new ArrayList<>();
+            for (int i = 0; i < msgList.size(); i++) {
+                long traceId = traceRecorder.begin(chatroomName, sender);
+                String filtered = filterMsg(chatroomName, sender, msgList.get(i)[0], msgList.get(i)[1]);
+                if (filtered != null) {
+                    filteredList.add(new String[]{msgList.get(i)[0], filtered});
+                    traceIdList.add(traceId);
+                }
+            }
+            posted = postMsgBatch(chatroomName, sender, senderId, filteredList, traceIdList, admission, queuedBytes);
+        } finally {
+            if (!posted) {
+                releaseMsg(senderId, queuedBytes, admission);
+            }
+        }
+    }
 
+    /**
+     * Run a message through the inbound pipeline, tell the sender if it is dropped
+     * @param chatroomName
+     * @param sender
+     * @param receiver
+     * @param msg
+     * @return msg to post, null if dropped
+     */
+    private String filterMsg(String chatroomName, String sender, String receiver, String msg) {
+
+        String filtered = messagePipeline.process(chatroomName, sender, receiver, msg);
+        if (filtered == null) {
+            Chatroom chatroom = chatroomTable.get(chatroomName);
+            final ClientInterface clientInterface = chatroom == null ? null : chatroom.getClientInterface(sender);
+            if (clientInterface != null) {
+                callbackExecutor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            clientInterface.showMsg("Message blocked by moderation!");
+                        } catch (RemoteException ex) {
+                            Logger.getLogger(ChatroomServer.class.getName()).log(Level.WARNING, null, ex);
+                        }
+                    }
+                });
+            }
+        }
+        return filtered;
+    }
+
+    /**
+     * Post filtered messages to the chatroom, in order
+     * Queued on the chatroom's event loop in one task, the server lock is not taken.
+     * @param chatroomName
+     * @param sender
+     * @param senderId symbol id the bytes are charged to
+     * @param msgList messages, each an array of receiver and message
+     * @param traceIdList trace ids of the messages
+     * @param admission admission time of the call, released once dispatched
+     * @param queuedBytes bytes charged to the sender, released once dispatched
+     * @return true if queued, false if there is nothing to dispatch
+     */
+    private boolean postMsgBatch(final String chatroomName, final String sender, final int senderId, final ArrayList<String[]> msgList,
+            final ArrayList<Long> traceIdList, final long admission, final long queuedBytes) {
+
+        final Chatroom chatroom = chatroomTable.get(chatroomName);
+        if (chatroom == null || msgList.isEmpty()) {
+            return false;
+        }
+        return chatroom.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < msgList.size(); i++) {
+                        dispatchMsg(chatroom, sender, msgList.get(i)[0], msgList.get(i)[1], traceIdList.get(i));
+                    }
+                } finally {
+                    releaseMsg(senderId, queuedBytes, admission);
+                }
+            }
+        });
+    }
+
+    /**
+     * Post a filtered message to the chatroom
+     * Queued on the chatroom's event loop, the server lock is not taken.
+     * @param chatroomName
+     * @param sender
+     * @param senderId symbol id the bytes are charged to
+     * @param receiver
+     * @param msg
+     * @param traceId 0 if untraced
+     * @param admission admission time of the call, released once dispatched
+     * @param queuedBytes bytes charged to the sender, released once dispatched
+     * @return true if queued, false if the chatroom is gone
+     */
+    private boolean postMsg(String chatroomName, final String sender, final int senderId, final String receiver, final String msg,
+            final long traceId, final long admission, final long queuedBytes) {
+
+        final Chatroom chatroom = chatroomTable.get(chatroomName);
+        if (chatroom == null) {
+            return false;
+        }
+        return chatroom.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    dispatchMsg(chatroom, sender, receiver, msg, traceId);
+                } finally {
+                    releaseMsg(senderId, queuedBytes, admission);
+                }
+            }
+        });
+    }
+
+    /**
+     * Send a posted message to the chatroom participants, runs on the chatroom's event loop
+     * @param chatroom
+     * @param sender
+     * @param receiver
+     * @param msg
+     * @param traceId 0 if untraced
+     */
+    private void dispatchMsg(Chatroom chatroom, String sender, String receiver, String msg, long traceId) {
+
+        traceRecorder.record(traceId, TraceRecorder.STAGE_DISPATCHED, Thread.currentThread().getName());
+        String time = TimestampCache.now();
+
+        //a sent message ends the sender's typing state
+        presenceManager.update(chatroom.getName(), sender, PresenceUpdate.IDLE);
+        //one exactly sized copy per message
+        StringBuilder sb = new StringBuilder(time.length() + sender.length() + receiver.length() + msg.length() + 12);
+        sb.append(time).append('\n').append(sender);
+        try {
+            if (receiver.length() == 0) {
+                chatroom.sendToAll(sb.append(" to all: ").append(msg).toString(), traceId);
+            } 
+            else {
+                chatroom.sendToSingle(sb.append(" to ").append(receiver).append(": ").append(msg).toString(), sender, receiver);
+                if (traceId != 0) {
+                    traceRecorder.record(traceId, TraceRecorder.STAGE_ENQUEUED, chatroom.getName() + " to " + receiver);
+                }
+            }
+        } catch (RemoteException ex) {
+            Logger.getLogger(ChatroomServer.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+
+    /**
+     * Client acknowledges the chatroom messages it has received without gap
+     * Only the chatroom is locked, acknowledgements do not wait for the server lock.
+     * @param chatroomName
+     * @param clientName
+     * @param seq highest sequence number received without gap
+     * @return batch messages after seq, empty if the client is up to date
+     */
+    public MessageBatch ackMsg(String chatroomName, String clientName, long seq) throws ServerBusyException {
+
+        long admission = admissionController.acquire(AdmissionController.CHAT);
+        try {
+            Chatroom chatroom = chatroomTable.get(chatroomName);
+            if (chatroom == null) {
+                return new MessageBatch(chatroomName, seq + 1, new ArrayList<String>());
+            }
+            return chatroom.acknowledge(clientName, seq);
+        } finally {
+            admissionController.release(admission);
+        }
+    }
+
+    /**
+     * Switch a participant to receiving the chatroom messages on the multicast group
+     * @param chatroomName
+     * @param clientName
+     * @return group, null if multicast is off or not a participant
+     */
+    public MulticastGroup joinMulticast(String chatroomName, String clientName) throws ServerBusyException {
+
+        long admission = admissionController.acquire(AdmissionController.CHAT);
+        try {
+            Chatroom chatroom = chatroomTable.get(chatroomName);
+            return chatroom == null ? null : chatroom.joinMulticast(clientName);
+        } finally {
+            admissionController.release(admission);
+        }
+    }
+
+    /**
+     * Switch a participant on the multicast group back to callbacks
+     * @param chatroomName
+     * @param clientName
+     */
+    public void leaveMulticast(String chatroomName, String clientName) throws ServerBusyException {
+
+        long admission = admissionController.acquire(AdmissionController.CHAT);
+        try {
+            Chatroom chatroom = chatroomTable.get(chatroomName);
+            if (chatroom != null) {
+                chatroom.leaveMulticast(clientName);
+            }
+        } finally {
+            admissionController.release(admission);
+        }
+    }
+
+    /**
+     * Long poll for chatroom messages of a client in pull mode
+     * Not synchronized, the poll parks on the chatroom without holding the server lock.
+     * A parked poll holds its RMI connection thread, so at most pollMaxParked
+     * polls park; beyond that a poll only returns the messages already there
+     * and is rejected as busy if there are none.
+     * @param chatroomName
+     * @param clientName
+     * @param afterSeq
+     * @param maxMsgs
+     * @param timeoutMillis
+     * @return batch messages after afterSeq, empty on timeout, null if not a participant
+     */
+    public MessageBatch pollMsgs(String chatroomName, String clientName, long afterSeq, int maxMsgs, long timeoutMillis) throws ServerBusyException {
+
+        //a waiting poll does not load the server, it only has to get in
+        admissionController.check(AdmissionController.CHAT);
         Chatroom chatroom = chatroomTable.get(chatroomName);
-        String str = time + "\n";
-        if (receiver.length() == 0) {
-            str = str + sender + " to all: " + msg;
-            chatroom.sendToAll(str);
-        } 
-        else {
-            str = str + sender + " to " + receiver + ": " + msg;
-            chatroom.sendToSingle(str, sender, receiver);
+        if (chatroom == null) {
+            return null;
+        }
+        long timeout = Math.max(0, Math.min(timeoutMillis, pollTimeoutMillis));
+        int max = Math.max(1, Math.min(maxMsgs, pollMaxMsgs));
+        boolean park = parkedPolls.incrementAndGet() <= pollMaxParked;
+        try {
+            MessageBatch batch = chatroom.poll(clientName, afterSeq, max, park ? timeout : 0);
+            if (!park && timeout > 0 && batch != null && batch.getMsgList().isEmpty()) {
+                throw new ServerBusyException("Too many long polls parked", admissionController.getRetryAfterMillis());
+            }
+            return batch;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return new MessageBatch(chatroomName, afterSeq + 1, new ArrayList<String>());
+        } finally {
+            parkedPolls.decrementAndGet();
+        }
+    }
+
+    /**
+     * Client reports its presence state in a chatroom
+     * Only records the latest state, the presence tick sends it.
+     * @param chatroomName
+     * @param clientName
+     * @param state 
+     */
+    public void updatePresence(String chatroomName, String clientName, byte state) throws ServerBusyException {
+
+        long admission = admissionController.acquire(AdmissionController.CHAT);
+        try {
+            if (chatroomTable.containsKey(chatroomName)) {
+                presenceManager.update(chatroomName, clientName, state);
+            }
+        } finally {
+            admissionController.release(admission);
+        }
+    }
+
+    /**
+     * Get the ids of client names, so that later calls can send ids instead of names
+     * @param names
+     * @return ids, -1 for unknown names
+     */
+    public int[] getSymbols(String[] names) throws ServerBusyException {
+
+        long admission = admissionController.acquire(AdmissionController.DIRECTORY);
+        try {
+            return symbolTable.lookup(names);
+        } finally {
+            admissionController.release(admission);
+        }
+    }
+
+    /**
+     * Get the client names of ids
+     * @param ids
+     * @return names, null for unknown ids
+     */
+    public String[] getNames(int[] ids) throws ServerBusyException {
+
+        long admission = admissionController.acquire(AdmissionController.DIRECTORY);
+        try {
+            return symbolTable.getNames(ids);
+        } finally {
+            admissionController.release(admission);
+        }
+    }
+
+    /**
+     * Get the participant ids of a chatroom, names are resolved with getNames and cached
+     * @param chatroomName
+     * @return ids, null if the chatroom does not exist
+     */
+    public int[] refreshParticipantIds(String chatroomName) throws ServerBusyException {
+
+        long admission = admissionController.acquire(AdmissionController.DIRECTORY);
+        try {
+            Chatroom chatroom = chatroomTable.get(chatroomName);
+            return chatroom == null ? null : chatroom.getParticipantIds();
+        } finally {
+            admissionController.release(admission);
+        }
+    }
+
+    /**
+     * Start uploading a file to share in a chatroom
+     * Only participants of the chatroom can share files in it.
+     * @param chatroomName
+     * @param clientName
+     * @param fileName
+     * @param size bytes
+     * @return upload id, -1 if refused
+     * @throws RemoteException 
+     */
+    public long beginUpload(String chatroomName, String clientName, String fileName, long size) throws RemoteException {
+
+        long admission = admissionController.acquire(AdmissionController.CHAT);
+        try {
+            Chatroom chatroom = chatroomTable.get(chatroomName);
+            if (attachmentStore == null || chatroom == null || !chatroom.isParticipant(clientName)) {
+                return -1;
+            }
+            return attachmentStore.beginUpload(chatroomName, clientName, fileName, size);
+        } catch (IOException ex) {
+            throw new RemoteException("Upload failed", ex);
+        } finally {
+            admissionController.release(admission);
+        }
+    }
+
+    /**
+     * Finish an upload and send its reference to the chatroom like a message
+     * @param uploadId
+     * @return reference, null if the upload is unknown or incomplete or the uploader has left the chatroom
+     * @throws RemoteException 
+     */
+    public AttachmentRef finishUpload(long uploadId) throws RemoteException {
+
+        if (attachmentStore == null) {
+            return null;
+        }
+        //admitted and charged before the upload is consumed, a shed call can be retried
+        long admission = admissionController.acquire(AdmissionController.CHAT);
+        String[] uploader = attachmentStore.getUploader(uploadId);
+        if (uploader == null) {
+            admissionController.release(admission);
+            return null;
+        }
+        int senderId = reserveQueued(uploader[0], uploader[1], REF_MSG_BYTES, admission);
+        if (senderId == SymbolTable.NO_SYMBOL) {
+            return null;
+        }
+        AttachmentRef ref = null;
+        try {
+            ref = attachmentStore.finishUpload(uploadId);
+        } catch (IOException ex) {
+            throw new RemoteException("Upload failed", ex);
+        } finally {
+            if (ref == null) {
+                releaseMsg(senderId, REF_MSG_BYTES, admission);
+            }
+        }
+        if (ref == null) {
+            return null;
+        }
+        //only the reference takes the message path
+        submitMsg(uploader[0], uploader[1], senderId, "", ref.toMessage(), admission, REF_MSG_BYTES);
+        return ref;
+    }
+
+    /**
+     * Issue a ticket for downloading a file shared in a chatroom
+     * @param chatroomName
+     * @param clientName participant of the chatroom
+     * @param hash content hash of the reference
+     * @return ticket, -1 if refused
+     */
+    public long requestDownload(String chatroomName, String clientName, String hash) throws ServerBusyException {
+
+        long admission = admissionController.acquire(AdmissionController.CHAT);
+        try {
+            Chatroom chatroom = chatroomTable.get(chatroomName);
+            if (attachmentStore == null || chatroom == null || !chatroom.isParticipant(clientName)) {
+                return -1;
+            }
+            return attachmentStore.issueTicket(chatroomName, hash);
+        } finally {
+            admissionController.release(admission);
         }
     }
 
+    /**
+     * Get the port of the attachment endpoint
+     * @return port, -1 if attachments are off
+     */
+    public int getAttachmentPort() {
+        return attachmentServer == null ? -1 : attachmentServer.getPort();
+    }
+
     /**
      * Search a user's current position
      * @param name
      * @return result chatroom the user under searching is visiting
      */
-    public String SearchPerson(String name) {
-        String result;
-        if (clientPositionTable.containsKey(name)) {
-            result = clientPositionTable.get(name);
-        }
-        else {
-            result = "not exist";
+    public String SearchPerson(String name) throws ServerBusyException {
+
+        long admission = admissionController.acquire(AdmissionController.DIRECTORY);
+        try {
+            String result = clientPositionTable.get(symbolTable.lookup(name));
+            if (result == null) {
+                result = "not exist";
+            }
+            return result;
+        } finally {
+            admissionController.release(admission);
         }
-        return result;
     }
 
     /**
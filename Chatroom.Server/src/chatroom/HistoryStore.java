@@ -0,0 +1,428 @@
+package chatroom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * HistoryStore class
+ * Server-wide off-heap store of the retained chatroom messages.
+ * Memory is split into fixed-size slabs of direct or memory-mapped buffers,
+ * allocated on demand; each chatroom's Writer claims an extent of the current
+ * slab under the store lock and bump-allocates its records in it without
+ * locking, so the lock is taken once per extent rather than once per message.
+ * The oldest slab is recycled as a whole when the store is full. A record keeps
+ * the handle of the chatroom's previous record, so the heap only holds the
+ * newest handle per chatroom and history can grow without growing the heap.
+ * Messages are stored UTF-8 encoded and decoded only when read.
+ * A handle read after its slab was recycled is detected by the slab generation;
+ * a writer pins the slab while writing a record, so a slab is never recycled
+ * under a writer still holding an extent of it.
+ * @author Zhao Zhengyang
+ */
+public class HistoryStore {
+
+    /**Handle of no record*/
+    public static final long NO_HANDLE = -1;
+
+    /**Record header: length, chatroom id, sequence number, previous handle*/
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+    /**Size of the extent a writer claims at a time*/
+    private static final int EXTENT_SIZE = 16 * 1024;
+    /**Charset of the stored messages*/
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**Size of a slab in bytes*/
+    private final int slabSize;
+    /**Slabs, allocated on demand*/
+    private final AtomicReferenceArray<ByteBuffer> slabs;
+    /**Generation of each slab, incremented when the slab is recycled*/
+    private final AtomicIntegerArray generations;
+    /**Number of writers writing a record into each slab*/
+    private final AtomicIntegerArray pins;
+    /**Channel of the mapped file, null for direct buffers*/
+    private FileChannel channel;
+    /**Slab being filled*/
+    private int currentSlab = -1;
+    /**Next free offset in the current slab*/
+    private int writeOffset;
+    /**Number of slabs allocated so far*/
+    private int allocatedSlabs;
+    /**Number of slabs in use, lowered when an allocation fails*/
+    private int slabLimit;
+    /**Source of chatroom ids*/
+    private final AtomicInteger nextChatroomId = new AtomicInteger();
+
+    /**
+     * Constructor, create HistoryStore object on direct buffers
+     * @param slabSize size of a slab in bytes
+     * @param slabCount maximum number of slabs
+     */
+    public HistoryStore(int slabSize, int slabCount) {
+
+        super();
+        this.slabSize = slabSize;
+        this.slabs = new AtomicReferenceArray<>(slabCount);
+        this.generations = new AtomicIntegerArray(slabCount);
+        this.pins = new AtomicIntegerArray(slabCount);
+        this.slabLimit = slabCount;
+    }
+
+    /**
+     * Constructor, create HistoryStore object on a memory-mapped file
+     * @param slabSize size of a slab in bytes
+     * @param slabCount maximum number of slabs
+     * @param file backing file, overwritten
+     * @throws IOException
+     */
+    public HistoryStore(int slabSize, int slabCount, File file) throws IOException {
+
+        this(slabSize, slabCount);
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+    }
+
+    /**
+     * Create the store configured by ServerConfig
+     * @return store, null if history retention is off
+     */
+    public static HistoryStore create() {
+
+        int slabSize = ServerConfig.getHistorySlabKiB() * 1024;
+        long bytes = ServerConfig.getHistoryMiB() * 1024L * 1024L;
+        if (bytes <= 0 || slabSize <= HEADER_SIZE) {
+            return null;
+        }
+        //the slab number takes 16 bits of a handle
+        int slabCount = (int) Math.max(1, Math.min(0xFFFF, bytes / slabSize));
+        String dir = ServerConfig.getHistoryDir();
+        if (dir != null) {
+            try {
+                return new HistoryStore(slabSize, slabCount, new File(dir, "history.slab"));
+            } catch (IOException ex) {
+                Logger.getLogger(HistoryStore.class.getName()).log(Level.WARNING, "Mapped history unavailable, using direct memory", ex);
+            }
+        }
+        return new HistoryStore(slabSize, slabCount);
+    }
+
+    /**
+     * Open the writer of a new chatroom
+     * @return writer
+     */
+    public Writer openWriter() {
+        return new Writer(nextChatroomId.incrementAndGet());
+    }
+
+    /**
+     * Claim an extent of the current slab for writer
+     * @param writer
+     * @param size size of the record to be written
+     * @return false if no slab could be allocated
+     */
+    private synchronized boolean claim(Writer writer, int size) {
+
+        if (currentSlab < 0 || writeOffset + size > slabSize) {
+            if (!nextSlab()) {
+                return false;
+            }
+        }
+        int length = Math.max(size, Math.min(EXTENT_SIZE, slabSize - writeOffset));
+        writer.extentSlab = currentSlab;
+        writer.extentGeneration = generations.get(currentSlab);
+        writer.extentOffset = writeOffset;
+        writer.extentEnd = writeOffset + length;
+        writeOffset += length;
+        return true;
+    }
+
+    /**
+     * Read the messages of a chatroom from fromSeq to toSeq, walking back from handle
+     * @param chatroomName
+     * @param chatroomId
+     * @param handle handle of the chatroom's message with the highest sequence number kept
+     * @param fromSeq
+     * @param toSeq
+     * @return batch of the oldest contiguous messages from fromSeq on, ending at toSeq unless a message was dropped
+     */
+    public MessageBatch read(String chatroomName, int chatroomId, long handle, long fromSeq, long toSeq) {
+
+        ArrayList<String> list = new ArrayList<>();
+        long expectedSeq = -1;
+        long lastSeq = toSeq;
+        while (handle != NO_HANDLE) {
+            int slab = (int) (handle >>> 48);
+            int generation = (int) ((handle >>> 32) & 0xFFFF);
+            int offset = (int) handle;
+            if (slab >= slabs.length() || offset < 0 || offset > slabSize - HEADER_SIZE) {
+                break;
+            }
+            ByteBuffer buffer = slabs.get(slab);
+            if (buffer == null || (generations.get(slab) & 0xFFFF) != generation) {
+                break;
+            }
+            int length = buffer.getInt(offset);
+            //a record being overwritten may have any length
+            if (length < 0 || length > slabSize - HEADER_SIZE - offset) {
+                break;
+            }
+            long seq = buffer.getLong(offset + 8);
+            long prevHandle = buffer.getLong(offset + 16);
+            if (buffer.getInt(offset + 4) != chatroomId || seq < fromSeq || (expectedSeq >= 0 && seq > expectedSeq)) {
+                break;
+            }
+            if (expectedSeq >= 0 && seq < expectedSeq) {
+                //a message too large for a slab was dropped, keep to the older run starting nearer fromSeq
+                list.clear();
+            }
+            String msg = null;
+            if (seq <= toSeq) {
+                byte[] bytes = new byte[length];
+                ByteBuffer view = buffer.duplicate();
+                view.position(offset + HEADER_SIZE);
+                view.get(bytes);
+                msg = new String(bytes, UTF_8);
+            }
+            //recycled while reading
+            if ((generations.get(slab) & 0xFFFF) != generation) {
+                break;
+            }
+            if (msg != null) {
+                if (list.isEmpty()) {
+                    lastSeq = seq;
+                }
+                list.add(msg);
+            }
+            expectedSeq = seq - 1;
+            handle = prevHandle;
+        }
+        //collected newest first
+        ArrayList<String> ordered = new ArrayList<>(list.size());
+        for (int i = list.size() - 1; i >= 0; i--) {
+            ordered.add(list.get(i));
+        }
+        return new MessageBatch(chatroomName, lastSeq - ordered.size() + 1, ordered);
+    }
+
+    /**
+     * Get number of bytes allocated off the heap
+     * @return bytes
+     */
+    public synchronized long getAllocatedBytes() {
+        return (long) allocatedSlabs * slabSize;
+    }
+
+    /**
+     * Move to the next slab, allocating it or recycling the oldest one
+     * @return false if no slab could be allocated
+     */
+    private boolean nextSlab() {
+
+        int next = (currentSlab + 1) % slabLimit;
+        if (slabs.get(next) == null) {
+            try {
+                slabs.set(next, allocate(next));
+                allocatedSlabs++;
+            } catch (IOException | OutOfMemoryError ex) {
+                Logger.getLogger(HistoryStore.class.getName()).log(Level.WARNING, "History slab allocation failed", ex);
+                //keep to the allocated slabs, recycling the oldest one
+                slabLimit = allocatedSlabs;
+                if (slabLimit == 0) {
+                    return false;
+                }
+                next = 0;
+            }
+        }
+        //invalidate the handles and extents into the slab before overwriting it
+        generations.incrementAndGet(next);
+        //a writer that pinned the slab before the increment finishes its record first
+        while (pins.get(next) != 0) {
+            Thread.yield();
+        }
+        currentSlab = next;
+        writeOffset = 0;
+        return true;
+    }
+
+    /**
+     * Allocate slab number index
+     * @param index
+     * @return buffer
+     * @throws IOException
+     */
+    private ByteBuffer allocate(int index) throws IOException {
+        if (channel != null) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, (long) index * slabSize, slabSize);
+        }
+        return ByteBuffer.allocateDirect(slabSize);
+    }
+
+    /**
+     * Build a handle
+     * @param slab
+     * @param generation
+     * @param offset
+     * @return handle
+     */
+    private static long handle(int slab, int generation, int offset) {
+        return ((long) slab << 48) | ((long) (generation & 0xFFFF) << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Get UTF-8 length of msg
+     * @param msg
+     * @return length in bytes
+     */
+    private static int encodedLength(String msg) {
+
+        int length = 0;
+        for (int i = 0; i < msg.length(); i++) {
+            char c = msg.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < msg.length() && Character.isLowSurrogate(msg.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Encode msg as UTF-8 into buffer at offset without allocating
+     * @param msg
+     * @param buffer
+     * @param offset
+     */
+    private static void encode(String msg, ByteBuffer buffer, int offset) {
+
+        for (int i = 0; i < msg.length(); i++) {
+            int c = msg.charAt(i);
+            if (Character.isHighSurrogate((char) c) && i + 1 < msg.length() && Character.isLowSurrogate(msg.charAt(i + 1))) {
+                c = Character.toCodePoint((char) c, msg.charAt(++i));
+            } else if (Character.isSurrogate((char) c)) {
+                //lone surrogate, encoded as '?' like String.getBytes
+                c = '?';
+            }
+            if (c < 0x80) {
+                buffer.put(offset++, (byte) c);
+            } else if (c < 0x800) {
+                buffer.put(offset++, (byte) (0xC0 | (c >> 6)));
+                buffer.put(offset++, (byte) (0x80 | (c & 0x3F)));
+            } else if (c < 0x10000) {
+                buffer.put(offset++, (byte) (0xE0 | (c >> 12)));
+                buffer.put(offset++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put(offset++, (byte) (0x80 | (c & 0x3F)));
+            } else {
+                buffer.put(offset++, (byte) (0xF0 | (c >> 18)));
+                buffer.put(offset++, (byte) (0x80 | ((c >> 12) & 0x3F)));
+                buffer.put(offset++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put(offset++, (byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Writer class
+     * Appends the messages of one chatroom, by one thread at a time.
+     * Records are written into the extent claimed last, without locking.
+     */
+    public class Writer {
+
+        /**Id of the chatroom*/
+        private final int chatroomId;
+        /**Slab of the extent*/
+        private int extentSlab;
+        /**Generation of the slab when the extent was claimed*/
+        private int extentGeneration;
+        /**Next free offset in the extent, -1 if no extent is claimed*/
+        private int extentOffset = -1;
+        /**End of the extent*/
+        private int extentEnd;
+        /**Handle of the latest message stored*/
+        private volatile long lastHandle = NO_HANDLE;
+
+        /**Constructor, create Writer object*/
+        private Writer(int chatroomId) {
+
+            super();
+            this.chatroomId = chatroomId;
+        }
+
+        /**
+         * Store a message after the previous one
+         * A message not fitting in a slab is dropped and the previous handle kept.
+         * @param seq
+         * @param msg
+         * @return false if msg was not stored
+         */
+        public boolean append(long seq, String msg) {
+
+            int length = encodedLength(msg);
+            int size = HEADER_SIZE + length;
+            if (size > slabSize) {
+                return false;
+            }
+            while (true) {
+                if (extentOffset < 0 || extentOffset + size > extentEnd) {
+                    extentOffset = -1;
+                    if (!claim(this, size)) {
+                        return false;
+                    }
+                }
+                int slab = extentSlab;
+                int offset = extentOffset;
+                pins.incrementAndGet(slab);
+                try {
+                    if (generations.get(slab) != extentGeneration) {
+                        //recycled since the extent was claimed
+                        extentOffset = -1;
+                        continue;
+                    }
+                    ByteBuffer buffer = slabs.get(slab);
+                    buffer.putInt(offset, length);
+                    buffer.putInt(offset + 4, chatroomId);
+                    buffer.putLong(offset + 8, seq);
+                    buffer.putLong(offset + 16, lastHandle);
+                    encode(msg, buffer, offset + HEADER_SIZE);
+                } finally {
+                    pins.decrementAndGet(slab);
+                }
+                extentOffset = offset + size;
+                lastHandle = handle(slab, extentGeneration, offset);
+                return true;
+            }
+        }
+
+        /**
+         * Get id of the chatroom
+         * @return chatroomId
+         */
+        public int getChatroomId() {
+            return chatroomId;
+        }
+
+        /**
+         * Get handle of the latest message stored
+         * @return lastHandle, NO_HANDLE if none
+         */
+        public long getLastHandle() {
+            return lastHandle;
+        }
+    }
+
+}
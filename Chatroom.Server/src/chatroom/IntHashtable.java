@@ -0,0 +1,221 @@
+package chatroom;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * IntHashtable class
+ * Synchronized hash table with primitive int keys, e.g. symbol ids.
+ * Open addressing with linear probing, so lookups neither box the key nor
+ * allocate entries. Keys must not be negative.
+ * @author Zhao Zhengyang
+ * @param <V> value type
+ */
+public class IntHashtable<V> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**Key of a free slot*/
+    private static final int FREE = -1;
+
+    /**Keys, FREE for free slots*/
+    private int[] keys;
+    /**Values of the keys*/
+    private Object[] values;
+    /**Number of entries*/
+    private int size;
+
+    /**Constructor, create IntHashtable object*/
+    public IntHashtable() {
+        this(16);
+    }
+
+    /**
+     * Constructor, create IntHashtable object
+     * @param capacity expected number of entries
+     */
+    public IntHashtable(int capacity) {
+
+        super();
+        int length = Integer.highestOneBit(Math.max(4, capacity * 2) - 1) << 1;
+        this.keys = new int[length];
+        this.values = new Object[length];
+        Arrays.fill(keys, FREE);
+    }
+
+    /**
+     * Get the value of key
+     * @param key
+     * @return value, null if absent
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V get(int key) {
+        int slot = find(key);
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+    /**
+     * Whether key is present
+     * @param key
+     * @return true if present
+     */
+    public synchronized boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Put key and value
+     * @param key
+     * @param value
+     * @return old value, null if absent
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V put(int key, V value) {
+
+        if (key < 0) {
+            throw new IllegalArgumentException("negative key " + key);
+        }
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key) {
+                V old = (V) values[slot];
+                values[slot] = value;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * Remove key
+     * @param key
+     * @return old value, null if absent
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V remove(int key) {
+
+        int slot = find(key);
+        if (slot < 0) {
+            return null;
+        }
+        V old = (V) values[slot];
+        //shift the following entries of the probe sequence back, no tombstones needed
+        int mask = keys.length - 1;
+        int free = slot;
+        int next = (free + 1) & mask;
+        while (keys[next] != FREE) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                keys[free] = keys[next];
+                values[free] = values[next];
+                free = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[free] = FREE;
+        values[free] = null;
+        size--;
+        return old;
+    }
+
+    /**
+     * Get number of entries
+     * @return size
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Get a snapshot of the keys
+     * @return keys
+     */
+    public synchronized int[] keys() {
+
+        int[] result = new int[size];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE) {
+                result[n++] = keys[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get a snapshot of the values
+     * @return values
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized ArrayList<V> values() {
+
+        ArrayList<V> result = new ArrayList<>(size);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE) {
+                result.add((V) values[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find the slot of key
+     * @param key
+     * @return slot, -1 if absent
+     */
+    private int find(int key) {
+
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Rehash into length slots
+     * @param length
+     */
+    private void resize(int length) {
+
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[length];
+        values = new Object[length];
+        Arrays.fill(keys, FREE);
+        int mask = length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (keys[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Spread sequential ids over the table
+     * @param key
+     * @return hash
+     */
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
@@ -0,0 +1,323 @@
+package chatroom;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MemoryAccountant class
+ * Estimates the heap footprint of the chatrooms and clients and enforces the
+ * capacity caps: participants per chatroom, chatrooms per creator and bytes
+ * of messages queued per client. The footprint is estimated from the object
+ * layout of a 64-bit JVM with compressed oops, not measured; it is meant to
+ * find the runaway chatroom, not to add up to the heap size.
+ * Queued bytes are charged when a message is queued for a client and released
+ * when it has been handed on, see reserveQueued and releaseQueued. Only clients
+ * added with addClient can be charged; the entry of a client that quit is kept
+ * until its queued bytes drain, then dropped and its symbol id released.
+ * @author Zhao Zhengyang
+ */
+public class MemoryAccountant implements MemoryAccountantMBean {
+
+    /**Chatroom object with its lists, tables, monitors and ring arrays, without participants and messages*/
+    public static final int ROOM_BYTES = 640;
+    /**Participant object with its entries in participantList, participantOrder and participantTable*/
+    public static final int PARTICIPANT_BYTES = 96;
+    /**RMI stub of a client callback: proxy, invocation handler, ref, live ref, object id and endpoint*/
+    public static final int STUB_BYTES = 480;
+    /**Client session: symbol, position entry, session state and token*/
+    public static final int CLIENT_BYTES = 256;
+    /**Bytes per ring slot: message reference, trace id and sequence number*/
+    public static final int SLOT_BYTES = 4 + 8 + 8;
+
+    /**Number of entries listed by getLargestRooms and getLargestClients*/
+    private static final int TOP_COUNT = 10;
+
+    /**
+     * Bytes queued for one client
+     */
+    private static class QueuedBytes {
+
+        /**Bytes queued*/
+        private final AtomicLong bytes = new AtomicLong();
+        /**Whether the client has quit, guarded by queuedTable*/
+        private boolean quit;
+    }
+
+    /**Current chatrooms, shared with the server*/
+    private Hashtable<String, Chatroom> chatroomTable;
+    /**Positions of the known clients, shared with the server*/
+    private IntHashtable<String> clientPositionTable;
+    /**Symbol table of the client names*/
+    private SymbolTable symbolTable;
+    /**Most participants per chatroom, 0 for unlimited*/
+    private int maxParticipants;
+    /**Most chatrooms per creator, 0 for unlimited*/
+    private int maxRoomsPerCreator;
+    /**Most bytes queued per client, 0 for unlimited*/
+    private long maxQueuedBytes;
+    /**
+     * Bytes queued per client
+     * key: client symbol id, value: bytes
+     */
+    private IntHashtable<QueuedBytes> queuedTable = new IntHashtable<>();
+    /**Bytes queued for all clients*/
+    private AtomicLong queuedBytes = new AtomicLong();
+    /**Number of enters rejected*/
+    private AtomicLong rejectedEnters = new AtomicLong();
+    /**Number of creations rejected*/
+    private AtomicLong rejectedCreates = new AtomicLong();
+    /**Number of messages rejected*/
+    private AtomicLong rejectedMsgs = new AtomicLong();
+
+    /**
+     * Constructor, create MemoryAccountant object
+     * @param chatroomTable
+     * @param clientPositionTable
+     * @param symbolTable
+     * @param maxParticipants 0 for unlimited
+     * @param maxRoomsPerCreator 0 for unlimited
+     * @param maxQueuedBytes 0 for unlimited
+     */
+    public MemoryAccountant(Hashtable<String, Chatroom> chatroomTable, IntHashtable<String> clientPositionTable,
+            SymbolTable symbolTable, int maxParticipants, int maxRoomsPerCreator, long maxQueuedBytes) {
+
+        super();
+        this.chatroomTable = chatroomTable;
+        this.clientPositionTable = clientPositionTable;
+        this.symbolTable = symbolTable;
+        this.maxParticipants = maxParticipants;
+        this.maxRoomsPerCreator = maxRoomsPerCreator;
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    /**
+     * Estimate the heap footprint of a String
+     * @param s
+     * @return bytes, as if every char took two bytes
+     */
+    public static long stringBytes(String s) {
+        return s == null ? 0 : 40 + 2L * s.length();
+    }
+
+    /**
+     * Check whether a chatroom can take another participant, counts a rejection
+     * @param chatroom
+     * @param clientName
+     * @return true if clientName may enter
+     */
+    public boolean admitParticipant(Chatroom chatroom, String clientName) {
+
+        if (maxParticipants <= 0 || chatroom.getParticipantList().size() < maxParticipants || chatroom.isParticipant(clientName)) {
+            return true;
+        }
+        rejectedEnters.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Check whether a creator can create another chatroom, counts a rejection
+     * @param createdCount chatrooms the creator has now
+     * @return true if the creator may create one more
+     */
+    public boolean admitRoom(int createdCount) {
+
+        if (maxRoomsPerCreator <= 0 || createdCount < maxRoomsPerCreator) {
+            return true;
+        }
+        rejectedCreates.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Register a started client, so that bytes can be queued for it
+     * @param clientId symbol id
+     */
+    public void addClient(int clientId) {
+
+        synchronized (queuedTable) {
+            QueuedBytes queued = queuedTable.get(clientId);
+            if (queued == null) {
+                queuedTable.put(clientId, new QueuedBytes());
+            }
+            else {
+                //started again before its messages drained
+                queued.quit = false;
+            }
+        }
+    }
+
+    /**
+     * Charge bytes queued for a client, counts a rejection
+     * @param clientId symbol id
+     * @param bytes
+     * @return true if charged, false if the client is not registered or would exceed its cap
+     */
+    public boolean reserveQueued(int clientId, long bytes) {
+
+        synchronized (queuedTable) {
+            QueuedBytes queued = queuedTable.get(clientId);
+            if (queued == null || queued.quit) {
+                return false;
+            }
+            long current = queued.bytes.get();
+            //a single message larger than the cap still passes an empty queue
+            if (maxQueuedBytes > 0 && current > 0 && current + bytes > maxQueuedBytes) {
+                rejectedMsgs.incrementAndGet();
+                return false;
+            }
+            queued.bytes.addAndGet(bytes);
+        }
+        queuedBytes.addAndGet(bytes);
+        return true;
+    }
+
+    /**
+     * Release bytes charged with reserveQueued
+     * The entry of a client that quit is dropped when it drains.
+     * @param clientId
+     * @param bytes
+     */
+    public void releaseQueued(int clientId, long bytes) {
+
+        queuedBytes.addAndGet(-bytes);
+        QueuedBytes queued = queuedTable.get(clientId);
+        if (queued == null || queued.bytes.addAndGet(-bytes) != 0) {
+            return;
+        }
+        synchronized (queuedTable) {
+            if (queued.quit && queued.bytes.get() == 0 && queuedTable.get(clientId) == queued) {
+                queuedTable.remove(clientId);
+                symbolTable.release(clientId);
+            }
+        }
+    }
+
+    /**
+     * Forget a client that quit, its symbol id is released once no bytes are queued for it
+     * @param clientId
+     */
+    public void removeClient(int clientId) {
+
+        synchronized (queuedTable) {
+            QueuedBytes queued = queuedTable.get(clientId);
+            //messages still queued release into the entry
+            if (queued != null && queued.bytes.get() != 0) {
+                queued.quit = true;
+                return;
+            }
+            queuedTable.remove(clientId);
+            symbolTable.release(clientId);
+        }
+    }
+
+    public long getEstimatedBytes() {
+
+        long bytes = (long) clientPositionTable.size() * CLIENT_BYTES + queuedBytes.get();
+        ArrayList<Chatroom> chatrooms = new ArrayList<>(chatroomTable.values());
+        for (int i = 0; i < chatrooms.size(); i++) {
+            bytes += chatrooms.get(i).estimateFootprint();
+        }
+        return bytes;
+    }
+
+    public String[] getLargestRooms() {
+
+        ArrayList<Chatroom> chatrooms = new ArrayList<>(chatroomTable.values());
+        final Hashtable<Chatroom, Long> footprints = new Hashtable<>();
+        for (int i = 0; i < chatrooms.size(); i++) {
+            footprints.put(chatrooms.get(i), chatrooms.get(i).estimateFootprint());
+        }
+        Collections.sort(chatrooms, new Comparator<Chatroom>() {
+
+            @Override
+            public int compare(Chatroom c1, Chatroom c2) {
+                return Long.compare(footprints.get(c2), footprints.get(c1));
+            }
+        });
+        String[] result = new String[Math.min(TOP_COUNT, chatrooms.size())];
+        for (int i = 0; i < result.length; i++) {
+            Chatroom chatroom = chatrooms.get(i);
+            result[i] = chatroom.getName() + " " + footprints.get(chatroom) + " " + chatroom.getParticipantList().size();
+        }
+        return result;
+    }
+
+    public String[] getLargestClients() {
+
+        final int[] ids = queuedTable.keys();
+        final long[] queued = new long[ids.length];
+        ArrayList<Integer> order = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            QueuedBytes entry = queuedTable.get(ids[i]);
+            queued[i] = entry == null ? 0 : entry.bytes.get();
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                return Long.compare(queued[i2], queued[i1]);
+            }
+        });
+        String[] result = new String[Math.min(TOP_COUNT, order.size())];
+        for (int i = 0; i < result.length; i++) {
+            String name = symbolTable.getName(ids[order.get(i)]);
+            result[i] = name + " " + getClientFootprint(name) + " " + queued[order.get(i)];
+        }
+        return result;
+    }
+
+    public long getRoomFootprint(String chatroomName) {
+
+        Chatroom chatroom = chatroomTable.get(chatroomName);
+        return chatroom == null ? 0 : chatroom.estimateFootprint();
+    }
+
+    public long getClientFootprint(String clientName) {
+
+        int id = symbolTable.lookup(clientName);
+        if (id == SymbolTable.NO_SYMBOL || !clientPositionTable.containsKey(id)) {
+            return 0;
+        }
+        long bytes = CLIENT_BYTES + stringBytes(clientName);
+        String position = clientPositionTable.get(id);
+        Chatroom chatroom = position == null || position.isEmpty() ? null : chatroomTable.get(position);
+        if (chatroom != null && chatroom.isParticipant(clientName)) {
+            bytes += PARTICIPANT_BYTES + (chatroom.getClientInterface(clientName) != null ? STUB_BYTES : 0);
+        }
+        QueuedBytes queued = queuedTable.get(id);
+        return bytes + (queued == null ? 0 : queued.bytes.get());
+    }
+
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    public int getMaxParticipants() {
+        return maxParticipants;
+    }
+
+    public int getMaxRoomsPerCreator() {
+        return maxRoomsPerCreator;
+    }
+
+    public long getMaxQueuedBytes() {
+        return maxQueuedBytes;
+    }
+
+    public long getRejectedEnters() {
+        return rejectedEnters.get();
+    }
+
+    public long getRejectedCreates() {
+        return rejectedCreates.get();
+    }
+
+    public long getRejectedMsgs() {
+        return rejectedMsgs.get();
+    }
+
+}
@@ -0,0 +1,82 @@
+package chatroom;
+
+/**
+ * Management interface of MemoryAccountant, registered as chatroom:type=MemoryAccountant
+ * @author Zhao Zhengyang
+ */
+public interface MemoryAccountantMBean {
+
+    /**
+     * Get estimated heap footprint of all chatrooms and clients
+     * @return bytes
+     */
+    long getEstimatedBytes();
+
+    /**
+     * Get the chatrooms with the largest estimated footprint
+     * @return "name bytes participants", largest first
+     */
+    String[] getLargestRooms();
+
+    /**
+     * Get the clients with the most bytes queued
+     * @return "name footprint queued", largest first
+     */
+    String[] getLargestClients();
+
+    /**
+     * Get estimated heap footprint of a chatroom
+     * @param chatroomName
+     * @return bytes, 0 if the chatroom does not exist
+     */
+    long getRoomFootprint(String chatroomName);
+
+    /**
+     * Get estimated heap footprint of a client
+     * @param clientName
+     * @return bytes, 0 if the client is unknown
+     */
+    long getClientFootprint(String clientName);
+
+    /**
+     * Get bytes of the messages queued for all clients
+     * @return bytes
+     */
+    long getQueuedBytes();
+
+    /**
+     * Get most participants per chatroom
+     * @return count, 0 for unlimited
+     */
+    int getMaxParticipants();
+
+    /**
+     * Get most chatrooms per creator
+     * @return count, 0 for unlimited
+     */
+    int getMaxRoomsPerCreator();
+
+    /**
+     * Get most bytes queued per client
+     * @return bytes, 0 for unlimited
+     */
+    long getMaxQueuedBytes();
+
+    /**
+     * Get number of enters rejected because the chatroom was full
+     * @return count
+     */
+    long getRejectedEnters();
+
+    /**
+     * Get number of chatroom creations rejected because the creator had too many
+     * @return count
+     */
+    long getRejectedCreates();
+
+    /**
+     * Get number of messages rejected because too many bytes were queued
+     * @return count
+     */
+    long getRejectedMsgs();
+}
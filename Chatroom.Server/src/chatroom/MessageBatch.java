@@ -0,0 +1,71 @@
+package chatroom;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * MessageBatch class
+ * A run of consecutive sequenced messages of one chatroom
+ * @author Zhao Zhengyang
+ */
+public class MessageBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**Chatroom name*/
+    private String chatroomName;
+    /**Sequence number of the first message in the batch*/
+    private long firstSeq;
+    /**Messages in sequence order*/
+    private ArrayList<String> msgList;
+
+    /**Constructor, create MessageBatch object*/
+    public MessageBatch(String chatroomName, long firstSeq, ArrayList<String> msgList) {
+
+        super();
+        this.chatroomName = chatroomName;
+        this.firstSeq = firstSeq;
+        this.msgList = msgList;
+    }
+
+    /**
+     * Get chatroom name
+     * @return chatroomName
+     */
+    public String getChatroomName() {
+        return chatroomName;
+    }
+
+    /**
+     * Get sequence number of the first message
+     * @return firstSeq
+     */
+    public long getFirstSeq() {
+        return firstSeq;
+    }
+
+    /**
+     * Get sequence number of the last message
+     * @return lastSeq, firstSeq - 1 if the batch is empty
+     */
+    public long getLastSeq() {
+        return firstSeq + msgList.size() - 1;
+    }
+
+    /**
+     * Get messages of the batch
+     * @return msgList
+     */
+    public ArrayList<String> getMsgList() {
+        return msgList;
+    }
+
+    /**
+     * Check whether the batch carries no message
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return msgList.isEmpty();
+    }
+
+}
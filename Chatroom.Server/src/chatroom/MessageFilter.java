@@ -0,0 +1,20 @@
+package chatroom;
+
+/**
+ * A stage of the inbound message pipeline.
+ * Stages run on the request thread before the server lock is taken,
+ * so they must be thread-safe.
+ * @author Zhao Zhengyang
+ */
+public interface MessageFilter {
+
+    /**
+     * Check or rewrite an inbound message
+     * @param chatroomName
+     * @param sender
+     * @param receiver empty for all participants
+     * @param msg
+     * @return msg to pass on, possibly rewritten, null to drop the message
+     */
+    String filter(String chatroomName, String sender, String receiver, String msg);
+}
@@ -0,0 +1,57 @@
+package chatroom;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * MessagePipeline class
+ * Runs inbound messages through the registered MessageFilter stages in order.
+ * Stages can be added and removed while messages flow.
+ * @author Zhao Zhengyang
+ */
+public class MessagePipeline {
+
+    /**Registered stages in order*/
+    private CopyOnWriteArrayList<MessageFilter> filterList = new CopyOnWriteArrayList<>();
+
+    /**Constructor, create MessagePipeline object*/
+    public MessagePipeline() {
+
+        super();
+    }
+
+    /**
+     * Append a stage
+     * @param filter 
+     */
+    public void addFilter(MessageFilter filter) {
+        filterList.add(filter);
+    }
+
+    /**
+     * Remove a stage
+     * @param filter 
+     */
+    public void removeFilter(MessageFilter filter) {
+        filterList.remove(filter);
+    }
+
+    /**
+     * Run msg through all stages
+     * @param chatroomName
+     * @param sender
+     * @param receiver
+     * @param msg
+     * @return msg after the last stage, null if a stage dropped it
+     */
+    public String process(String chatroomName, String sender, String receiver, String msg) {
+
+        for (MessageFilter filter : filterList) {
+            msg = filter.filter(chatroomName, sender, receiver, msg);
+            if (msg == null) {
+                return null;
+            }
+        }
+        return msg;
+    }
+
+}
@@ -0,0 +1,132 @@
+package chatroom;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ModerationFilter class
+ * Pipeline stage masking or rejecting messages containing banned terms or links.
+ * Rules are read from a file with one pattern per line ("#" starts a comment line)
+ * and the file is reloaded when it changes. A reload builds a new PatternMatcher
+ * aside and swaps it in, so messages are never paused.
+ * @author Zhao Zhengyang
+ */
+public class ModerationFilter implements MessageFilter {
+
+    /**Replace matches by MASK_CHAR*/
+    public static final String ACTION_MASK = "mask";
+    /**Drop messages with a match*/
+    public static final String ACTION_REJECT = "reject";
+    /**Character replacing banned text*/
+    public static final char MASK_CHAR = '*';
+
+    /**Rule file*/
+    private File ruleFile;
+    /**Action on a match, ACTION_MASK or ACTION_REJECT*/
+    private String action;
+    /**Current rule set, replaced as a whole on reload*/
+    private volatile PatternMatcher matcher = new PatternMatcher(new ArrayList<String>());
+    /**Modification time of the rule file at the last reload, read or not, written by the reload thread*/
+    private volatile long loadedModified = -1;
+    /**Timer of the reload checks*/
+    private ScheduledExecutorService timer;
+
+    /**Constructor, create ModerationFilter object and load the rules*/
+    public ModerationFilter(File ruleFile, String action) {
+
+        super();
+        this.ruleFile = ruleFile;
+        this.action = action;
+        reload();
+    }
+
+    /**
+     * Mask or reject msg if it contains a banned pattern
+     * @param chatroomName
+     * @param sender
+     * @param receiver
+     * @param msg
+     * @return msg, masked msg or null if rejected
+     */
+    public String filter(String chatroomName, String sender, String receiver, String msg) {
+
+        PatternMatcher current = matcher;
+        if (ACTION_REJECT.equalsIgnoreCase(action)) {
+            return current.matches(msg) ? null : msg;
+        }
+        return current.mask(msg, MASK_CHAR);
+    }
+
+    /**
+     * Replace the rule set
+     * @param patterns 
+     */
+    public void setPatterns(ArrayList<String> patterns) {
+        matcher = new PatternMatcher(patterns);
+    }
+
+    /**
+     * Check the rule file every intervalMillis and reload it when modified
+     * @param intervalMillis 
+     */
+    public void startWatching(long intervalMillis) {
+
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "moderation-reload");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                if (ruleFile.lastModified() != loadedModified) {
+                    reload();
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Read the rule file and swap in the new rule set
+     * The old rule set stays in effect if the file cannot be read, and the
+     * file is tried again only once its modification time changes.
+     */
+    public synchronized void reload() {
+
+        long modified = ruleFile.lastModified();
+        ArrayList<String> patterns = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(ruleFile), "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0 && !line.startsWith("#")) {
+                    patterns.add(line);
+                }
+            }
+        } catch (IOException ex) {
+            //a missing file keeps lastModified 0, warn once until it changes
+            loadedModified = modified;
+            Logger.getLogger(ModerationFilter.class.getName()).log(Level.WARNING, "Cannot read rule file " + ruleFile, ex);
+            return;
+        }
+        setPatterns(patterns);
+        loadedModified = modified;
+        Logger.getLogger(ModerationFilter.class.getName()).log(Level.INFO, "Loaded {0} moderation patterns", matcher.getPatternCount());
+    }
+
+}
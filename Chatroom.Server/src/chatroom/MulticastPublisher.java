@@ -0,0 +1,313 @@
+package chatroom;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * MulticastPublisher class
+ * Sends the sequenced chatroom messages once per chatroom to a UDP multicast
+ * group instead of calling back every participant. Each chatroom maps to one
+ * of the groups following the base group, several chatrooms may share a
+ * group and receivers filter by chatroom name. A packet carries the magic,
+ * the chatroom name, the sequence number of its first message, the message
+ * count and the messages as int-length-prefixed UTF-8; consecutive messages
+ * share a packet up to the payload size. A heartbeat is a packet without
+ * messages whose first sequence number follows the latest message, so a
+ * receiver notices a lost tail. Lost packets are repaired by the receivers
+ * with ackMsg, a message too large for a datagram is only sent that way.
+ * @author Zhao Zhengyang
+ */
+public class MulticastPublisher implements MulticastPublisherMBean {
+
+    /**Magic number starting a packet, "CRM1"*/
+    public static final int MAGIC = 0x43524d31;
+    /**Largest UDP payload over IPv4*/
+    public static final int MAX_DATAGRAM = 65507;
+
+    /**Channel the packets are sent from*/
+    private DatagramChannel channel;
+    /**First group of the range*/
+    private int baseGroup;
+    /**Number of groups the chatrooms are spread over*/
+    private int groupCount;
+    /**Destination port of the packets*/
+    private int port;
+    /**Payload size consecutive messages are packed up to*/
+    private int payloadSize;
+    /**Current chatrooms, shared with the server*/
+    private Hashtable<String, Chatroom> chatroomTable;
+    /**Packet being encoded by each thread, so chatrooms fanning out on different threads do not wait for each other*/
+    private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(MAX_DATAGRAM);
+        }
+    };
+    /**Timer of the heartbeats*/
+    private ScheduledExecutorService timer;
+    /**Number of packets sent*/
+    private AtomicLong packetsSent = new AtomicLong();
+    /**Number of payload bytes sent*/
+    private AtomicLong bytesSent = new AtomicLong();
+    /**Number of messages sent*/
+    private AtomicLong msgsSent = new AtomicLong();
+    /**Number of messages too large for a datagram*/
+    private AtomicLong msgsTooLarge = new AtomicLong();
+    /**Number of heartbeats sent*/
+    private AtomicLong heartbeatsSent = new AtomicLong();
+
+    /**
+     * Constructor, create MulticastPublisher object
+     * @param chatroomTable
+     * @param baseGroup first IPv4 multicast group
+     * @param groupCount number of groups, a power of two
+     * @param port
+     * @param ttl hops the packets may travel, 1 for the LAN
+     * @param networkInterface interface the packets leave through, null for the system default
+     * @param payloadSize
+     * @throws IOException
+     */
+    public MulticastPublisher(Hashtable<String, Chatroom> chatroomTable, InetAddress baseGroup, int groupCount, int port,
+            int ttl, NetworkInterface networkInterface, int payloadSize) throws IOException {
+
+        super();
+        if (!(baseGroup instanceof Inet4Address) || !baseGroup.isMulticastAddress()) {
+            throw new IOException(baseGroup + " is not an IPv4 multicast group");
+        }
+        this.chatroomTable = chatroomTable;
+        this.baseGroup = ByteBuffer.wrap(baseGroup.getAddress()).getInt();
+        this.groupCount = Integer.highestOneBit(Math.max(1, groupCount));
+        this.port = port;
+        this.payloadSize = Math.min(MAX_DATAGRAM, Math.max(512, payloadSize));
+        this.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, ttl);
+        //receivers on the server host get the packets too
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+        if (networkInterface != null) {
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+        }
+    }
+
+    /**
+     * Start sending heartbeats every heartbeatMillis
+     * @param heartbeatMillis
+     */
+    public void start(long heartbeatMillis) {
+
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "multicast-heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    heartbeat();
+                } catch (RuntimeException ex) {
+                    Logger.getLogger(MulticastPublisher.class.getName()).log(Level.WARNING, null, ex);
+                }
+            }
+        }, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the heartbeats and close the channel
+     */
+    public void close() {
+
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            Logger.getLogger(MulticastPublisher.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+
+    /**
+     * Get the group of a chatroom
+     * @param chatroomName
+     * @return address
+     */
+    public InetAddress getGroup(String chatroomName) {
+
+        int group = baseGroup + (chatroomName.hashCode() & (groupCount - 1));
+        try {
+            return InetAddress.getByAddress(ByteBuffer.allocate(4).putInt(group).array());
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Get destination port of the packets
+     * @return port
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Send the messages of batch, packed into as few packets as the payload size allows
+     * @param batch
+     */
+    public void publish(MessageBatch batch) {
+
+        String chatroomName = batch.getChatroomName();
+        InetSocketAddress target = new InetSocketAddress(getGroup(chatroomName), port);
+        byte[] name = chatroomName.getBytes(AuditJournal.UTF_8);
+        ArrayList<String> msgList = batch.getMsgList();
+        ByteBuffer buffer = buffers.get();
+        int count = 0;
+        for (int i = 0; i < msgList.size(); i++) {
+            byte[] msg = msgList.get(i).getBytes(AuditJournal.UTF_8);
+            int header = 4 + 2 + name.length + 8 + 4;
+            if (header + 4 + msg.length > MAX_DATAGRAM) {
+                //left to the repair of the receivers
+                msgsTooLarge.incrementAndGet();
+                send(buffer, target, count);
+                count = 0;
+                continue;
+            }
+            if (count > 0 && buffer.position() + 4 + msg.length > payloadSize) {
+                send(buffer, target, count);
+                count = 0;
+            }
+            if (count == 0) {
+                startPacket(buffer, name, batch.getFirstSeq() + i);
+            }
+            buffer.putInt(msg.length);
+            buffer.put(msg);
+            count++;
+        }
+        send(buffer, target, count);
+    }
+
+    /**
+     * Announce the latest sequence number of a chatroom
+     * @param chatroomName
+     * @param lastSeq
+     */
+    public void publishHeartbeat(String chatroomName, long lastSeq) {
+
+        InetSocketAddress target = new InetSocketAddress(getGroup(chatroomName), port);
+        ByteBuffer buffer = buffers.get();
+        startPacket(buffer, chatroomName.getBytes(AuditJournal.UTF_8), lastSeq + 1);
+        buffer.putInt(0);
+        if (sendPacket(buffer, target)) {
+            heartbeatsSent.incrementAndGet();
+        }
+    }
+
+    /**
+     * Send a heartbeat for every chatroom with multicast participants
+     */
+    private void heartbeat() {
+
+        ArrayList<Chatroom> chatrooms = new ArrayList<>(chatroomTable.values());
+        for (int i = 0; i < chatrooms.size(); i++) {
+            chatrooms.get(i).publishHeartbeat();
+        }
+    }
+
+    /**
+     * Start a packet in buffer, the count is filled in by send
+     * @param buffer
+     * @param name chatroom name in UTF-8
+     * @param firstSeq
+     */
+    private void startPacket(ByteBuffer buffer, byte[] name, long firstSeq) {
+
+        buffer.clear();
+        buffer.putInt(MAGIC);
+        buffer.putShort((short) name.length);
+        buffer.put(name);
+        buffer.putLong(firstSeq);
+        buffer.putInt(0);
+    }
+
+    /**
+     * Fill in the message count and send the packet in buffer
+     * @param buffer
+     * @param target
+     * @param count messages in the packet, nothing is sent if 0
+     */
+    private void send(ByteBuffer buffer, InetSocketAddress target, int count) {
+
+        if (count == 0) {
+            return;
+        }
+        int countOffset = 4 + 2 + (buffer.getShort(4) & 0xffff) + 8;
+        buffer.putInt(countOffset, count);
+        if (sendPacket(buffer, target)) {
+            msgsSent.addAndGet(count);
+        }
+    }
+
+    /**
+     * Send the packet in buffer
+     * @param buffer
+     * @param target
+     * @return true if sent
+     */
+    private boolean sendPacket(ByteBuffer buffer, InetSocketAddress target) {
+
+        buffer.flip();
+        int bytes = buffer.remaining();
+        try {
+            channel.send(buffer, target);
+            packetsSent.incrementAndGet();
+            bytesSent.addAndGet(bytes);
+            return true;
+        } catch (IOException ex) {
+            //a lost packet is repaired like one dropped by the network
+            Logger.getLogger(MulticastPublisher.class.getName()).log(Level.FINE, "Multicast to " + target + " failed", ex);
+            return false;
+        }
+    }
+
+    public long getPacketsSent() {
+        return packetsSent.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getMsgsSent() {
+        return msgsSent.get();
+    }
+
+    public long getMsgsTooLarge() {
+        return msgsTooLarge.get();
+    }
+
+    public long getHeartbeatsSent() {
+        return heartbeatsSent.get();
+    }
+
+}
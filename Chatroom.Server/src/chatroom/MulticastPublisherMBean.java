@@ -0,0 +1,38 @@
+package chatroom;
+
+/**
+ * Management interface of MulticastPublisher, registered as chatroom:type=MulticastPublisher
+ * @author Zhao Zhengyang
+ */
+public interface MulticastPublisherMBean {
+
+    /**
+     * Get number of packets sent, heartbeats included
+     * @return count
+     */
+    long getPacketsSent();
+
+    /**
+     * Get number of payload bytes sent
+     * @return bytes
+     */
+    long getBytesSent();
+
+    /**
+     * Get number of chatroom messages multicast
+     * @return count
+     */
+    long getMsgsSent();
+
+    /**
+     * Get number of chatroom messages too large for a datagram, left to repair
+     * @return count
+     */
+    long getMsgsTooLarge();
+
+    /**
+     * Get number of heartbeats sent
+     * @return count
+     */
+    long getHeartbeatsSent();
+}
@@ -0,0 +1,186 @@
+package chatroom;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * PatternMatcher class
+ * Case-insensitive multi-pattern matcher (Aho-Corasick automaton).
+ * A text is scanned once, left to right, against all patterns together,
+ * so the cost does not grow with the number of patterns.
+ * Instances are immutable and can be shared between threads.
+ * @author Zhao Zhengyang
+ */
+public class PatternMatcher {
+
+    /**Sorted edge characters of each node*/
+    private char[][] edgeChars;
+    /**Target nodes of the edges, same order as edgeChars*/
+    private int[][] edgeTargets;
+    /**Failure link of each node, the longest proper suffix that is also a trie node*/
+    private int[] fail;
+    /**Length of the longest pattern ending at each node, 0 if none*/
+    private int[] matchLength;
+    /**Number of patterns*/
+    private int patternCount;
+
+    /**
+     * Constructor, build the automaton of patterns
+     * @param patterns empty patterns are ignored
+     */
+    public PatternMatcher(Collection<String> patterns) {
+
+        super();
+        ArrayList<HashMap<Character, Integer>> trie = new ArrayList<>();
+        ArrayList<Integer> lengths = new ArrayList<>();
+        trie.add(new HashMap<Character, Integer>());
+        lengths.add(0);
+
+        for (String pattern : patterns) {
+            if (pattern == null || pattern.length() == 0) {
+                continue;
+            }
+            int node = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = Character.toLowerCase(pattern.charAt(i));
+                Integer next = trie.get(node).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new HashMap<Character, Integer>());
+                    lengths.add(0);
+                    trie.get(node).put(c, next);
+                }
+                node = next;
+            }
+            if (lengths.get(node) == 0) {
+                patternCount++;
+            }
+            lengths.set(node, pattern.length());
+        }
+
+        int size = trie.size();
+        edgeChars = new char[size][];
+        edgeTargets = new int[size][];
+        fail = new int[size];
+        matchLength = new int[size];
+        for (int node = 0; node < size; node++) {
+            Map<Character, Integer> edges = trie.get(node);
+            char[] chars = new char[edges.size()];
+            int n = 0;
+            for (Character c : edges.keySet()) {
+                chars[n++] = c;
+            }
+            Arrays.sort(chars);
+            int[] targets = new int[chars.length];
+            for (int i = 0; i < chars.length; i++) {
+                targets[i] = edges.get(chars[i]);
+            }
+            edgeChars[node] = chars;
+            edgeTargets[node] = targets;
+            matchLength[node] = lengths.get(node);
+        }
+
+        //breadth first, a node's failure link is resolved before its children's
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int i = 0; i < edgeTargets[0].length; i++) {
+            queue.add(edgeTargets[0][i]);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int i = 0; i < edgeChars[node].length; i++) {
+                char c = edgeChars[node][i];
+                int child = edgeTargets[node][i];
+                fail[child] = step(fail[node], c);
+                //the longest match at child may be a suffix pattern
+                matchLength[child] = Math.max(matchLength[child], matchLength[fail[child]]);
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Get number of patterns
+     * @return patternCount
+     */
+    public int getPatternCount() {
+        return patternCount;
+    }
+
+    /**
+     * Follow c from node, taking failure links when node has no edge for c
+     * @param node
+     * @param c lower case character
+     * @return next node
+     */
+    private int step(int node, char c) {
+
+        while (true) {
+            int index = Arrays.binarySearch(edgeChars[node], c);
+            if (index >= 0) {
+                return edgeTargets[node][index];
+            }
+            if (node == 0) {
+                return 0;
+            }
+            node = fail[node];
+        }
+    }
+
+    /**
+     * Check whether text contains any pattern
+     * @param text
+     * @return true if a pattern occurs
+     */
+    public boolean matches(String text) {
+
+        int node = 0;
+        for (int i = 0; i < text.length(); i++) {
+            node = step(node, Character.toLowerCase(text.charAt(i)));
+            if (matchLength[node] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replace every occurrence of every pattern in text by maskChar
+     * @param text
+     * @param maskChar
+     * @return masked text, text itself if nothing matched
+     */
+    public String mask(String text, char maskChar) {
+
+        //coverage[i] counts matches starting at i minus matches ending before i
+        int[] coverage = null;
+        int node = 0;
+        for (int i = 0; i < text.length(); i++) {
+            node = step(node, Character.toLowerCase(text.charAt(i)));
+            int length = matchLength[node];
+            if (length > 0) {
+                if (coverage == null) {
+                    coverage = new int[text.length() + 1];
+                }
+                coverage[i - length + 1]++;
+                coverage[i + 1]--;
+            }
+        }
+        if (coverage == null) {
+            return text;
+        }
+        char[] chars = text.toCharArray();
+        int depth = 0;
+        for (int i = 0; i < chars.length; i++) {
+            depth += coverage[i];
+            if (depth > 0) {
+                chars[i] = maskChar;
+            }
+        }
+        return new String(chars);
+    }
+
+}
@@ -0,0 +1,277 @@
+package chatroom;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * PresenceManager class
+ * Lossy presence and typing-indicator channel next to the chatrooms.
+ * Updates only overwrite the latest state of a participant; changed chatrooms
+ * are sent once per tick as a compact snapshot, and a participant whose
+ * previous presence callback is still running simply skips the tick.
+ * Chatrooms are looked up without a server-wide lock, and an idle update in
+ * a chatroom where nobody is typing takes no lock at all, so the message
+ * path of one chatroom never waits for another's presence.
+ * Presence callbacks run on their own small pool with a bounded queue, not
+ * on the CallbackExecutor of message delivery; when the queue is full the
+ * snapshot is dropped for that participant and sent again next tick, so
+ * message delivery is never queued behind presence traffic.
+ * @author Zhao Zhengyang
+ */
+public class PresenceManager {
+
+    /**Default tick interval in milliseconds*/
+    public static final long DEFAULT_TICK_MILLIS = 250;
+    /**Time after which a typing state without refresh falls back to idle*/
+    public static final long TYPING_EXPIRY_MILLIS = 5000;
+
+    /**
+     * Presence of one chatroom
+     */
+    private static class RoomPresence {
+
+        /**
+         * key: participant name, value: latest state
+         */
+        private Hashtable<String, Byte> stateTable = new Hashtable<>();
+        /**
+         * key: participant name, value: time of the latest update
+         */
+        private Hashtable<String, Long> updatedTable = new Hashtable<>();
+        /**Number of participants in stateTable, read without the lock*/
+        private volatile int active;
+        /**Whether the presence changed since the last tick*/
+        private boolean dirty;
+        /**Snapshot version*/
+        private long version;
+    }
+
+    /**Chatrooms of the server, key: chatroom name, value: chatroom object*/
+    private Hashtable<String, Chatroom> chatroomTable;
+    /**Executor running the presence callbacks, apart from message delivery*/
+    private ThreadPoolExecutor presenceExecutor;
+    /**
+     * A table of chatroom names and their presence
+     * key: chatroom name, value: presence of the chatroom
+     */
+    private ConcurrentHashMap<String, RoomPresence> presenceTable = new ConcurrentHashMap<>();
+    /**
+     * Participants with a presence callback running
+     * key: chatroom name + "/" + participant name, value: true while sending
+     */
+    private Hashtable<String, Boolean> inFlightTable = new Hashtable<>();
+    /**Timer of the ticks*/
+    private ScheduledExecutorService timer;
+
+    /**Constructor, create PresenceManager object*/
+    public PresenceManager(Hashtable<String, Chatroom> chatroomTable) {
+
+        super();
+        this.chatroomTable = chatroomTable;
+    }
+
+    /**
+     * Start sending presence snapshots every tickMillis
+     * @param tickMillis 
+     * @param threads number of threads running presence callbacks
+     * @param queueCapacity number of presence callbacks queued before further ones are dropped
+     */
+    public void start(long tickMillis, int threads, int queueCapacity) {
+
+        final AtomicInteger count = new AtomicInteger();
+        presenceExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueCapacity)), new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "presence-callback-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "presence-tick");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    tick();
+                } catch (RuntimeException ex) {
+                    Logger.getLogger(PresenceManager.class.getName()).log(Level.WARNING, null, ex);
+                }
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Record the latest state of a participant, latest value wins
+     * @param chatroomName
+     * @param clientName
+     * @param state 
+     */
+    public void update(String chatroomName, String clientName, byte state) {
+
+        RoomPresence presence = presenceTable.get(chatroomName);
+        if (state == PresenceUpdate.IDLE && (presence == null || presence.active == 0)) {
+            //nobody is shown, idle changes nothing
+            return;
+        }
+        if (presence == null) {
+            RoomPresence created = new RoomPresence();
+            presence = presenceTable.putIfAbsent(chatroomName, created);
+            if (presence == null) {
+                presence = created;
+            }
+        }
+        synchronized (presence) {
+            Byte old = state == PresenceUpdate.IDLE ? presence.stateTable.remove(clientName) : presence.stateTable.put(clientName, state);
+            if (state == PresenceUpdate.IDLE) {
+                presence.updatedTable.remove(clientName);
+            } else {
+                presence.updatedTable.put(clientName, System.currentTimeMillis());
+            }
+            presence.active = presence.stateTable.size();
+            if (old == null ? state != PresenceUpdate.IDLE : old != state) {
+                presence.dirty = true;
+                presence.version++;
+            }
+        }
+    }
+
+    /**
+     * Send the snapshots of all changed chatrooms
+     */
+    private void tick() {
+
+        ArrayList<String> names = new ArrayList<>(presenceTable.keySet());
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < names.size(); i++) {
+            String chatroomName = names.get(i);
+            Chatroom chatroom = chatroomTable.get(chatroomName);
+            if (chatroom == null) {
+                presenceTable.remove(chatroomName);
+                continue;
+            }
+            RoomPresence presence = presenceTable.get(chatroomName);
+            if (presence == null) {
+                continue;
+            }
+            PresenceUpdate update = snapshot(chatroomName, chatroom, presence, now);
+            if (update != null && !sendToParticipants(chatroom, update)) {
+                //a participant missed the snapshot, send it again next tick
+                synchronized (presence) {
+                    presence.dirty = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the snapshot of a changed chatroom
+     * @param chatroomName
+     * @param chatroom
+     * @param presence
+     * @param now
+     * @return update, null if nothing changed
+     */
+    private PresenceUpdate snapshot(String chatroomName, Chatroom chatroom, RoomPresence presence, long now) {
+
+        synchronized (presence) {
+            Iterator<String> it = presence.updatedTable.keySet().iterator();
+            while (it.hasNext()) {
+                String clientName = it.next();
+                //participants in pull mode have no callback interface but are still there
+                if (now - presence.updatedTable.get(clientName) > TYPING_EXPIRY_MILLIS
+                        || !chatroom.isParticipant(clientName)) {
+                    it.remove();
+                    presence.stateTable.remove(clientName);
+                    presence.dirty = true;
+                    presence.version++;
+                }
+            }
+            presence.active = presence.stateTable.size();
+            if (!presence.dirty) {
+                return null;
+            }
+            presence.dirty = false;
+
+            String[] clientNames = new String[presence.stateTable.size()];
+            byte[] states = new byte[clientNames.length];
+            int n = 0;
+            Iterator<String> stateIt = presence.stateTable.keySet().iterator();
+            while (stateIt.hasNext() && n < clientNames.length) {
+                clientNames[n] = stateIt.next();
+                states[n] = presence.stateTable.get(clientNames[n]);
+                n++;
+            }
+            return new PresenceUpdate(chatroomName, presence.version, clientNames, states);
+        }
+    }
+
+    /**
+     * Send update to every participant without a presence callback in progress
+     * @param chatroom
+     * @param update 
+     * @return true if no participant was skipped
+     */
+    private boolean sendToParticipants(Chatroom chatroom, final PresenceUpdate update) {
+
+        boolean complete = true;
+        ArrayList<String> participants;
+        synchronized (chatroom) {
+            participants = new ArrayList<>(chatroom.getParticipantList());
+        }
+        for (int i = 0; i < participants.size(); i++) {
+            final String key = update.getChatroomName() + "/" + participants.get(i);
+            final ClientInterface clientInterface = chatroom.getClientInterface(participants.get(i));
+            if (clientInterface == null || inFlightTable.put(key, Boolean.TRUE) != null) {
+                //dropped, the next snapshot replaces it
+                complete = clientInterface == null && complete;
+                continue;
+            }
+            try {
+                presenceExecutor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            clientInterface.updatePresence(update);
+                        } catch (RemoteException ex) {
+                            Logger.getLogger(PresenceManager.class.getName()).log(Level.FINE, null, ex);
+                        } finally {
+                            inFlightTable.remove(key);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                //queue full, dropped like a skipped participant
+                inFlightTable.remove(key);
+                complete = false;
+            }
+        }
+        return complete;
+    }
+
+}
@@ -0,0 +1,74 @@
+package chatroom;
+
+import java.io.Serializable;
+
+/**
+ * PresenceUpdate class
+ * Compact snapshot of the non-idle participants of a chatroom.
+ * Every update replaces the previous one, so a dropped update is
+ * healed by the next.
+ * @author Zhao Zhengyang
+ */
+public class PresenceUpdate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**Participant is present and idle*/
+    public static final byte IDLE = 0;
+    /**Participant is typing*/
+    public static final byte TYPING = 1;
+    /**Participant is away*/
+    public static final byte AWAY = 2;
+
+    /**Chatroom name*/
+    private String chatroomName;
+    /**Version of the snapshot, increases with every change of the chatroom presence*/
+    private long version;
+    /**Names of the non-idle participants*/
+    private String[] clientNames;
+    /**States of the non-idle participants, same order as clientNames*/
+    private byte[] states;
+
+    /**Constructor, create PresenceUpdate object*/
+    public PresenceUpdate(String chatroomName, long version, String[] clientNames, byte[] states) {
+
+        super();
+        this.chatroomName = chatroomName;
+        this.version = version;
+        this.clientNames = clientNames;
+        this.states = states;
+    }
+
+    /**
+     * Get chatroom name
+     * @return chatroomName
+     */
+    public String getChatroomName() {
+        return chatroomName;
+    }
+
+    /**
+     * Get snapshot version
+     * @return version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Get names of the non-idle participants
+     * @return clientNames
+     */
+    public String[] getClientNames() {
+        return clientNames;
+    }
+
+    /**
+     * Get states of the non-idle participants
+     * @return states
+     */
+    public byte[] getStates() {
+        return states;
+    }
+
+}
@@ -3,7 +3,9 @@ package chatroom;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.Hashtable;
-import java.util.Iterator;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * RegistrationCenter class to provide registration ceter service
@@ -16,13 +18,21 @@ public class RegistrationCenter {
      * key: chatroom name, value: chatroom creator
      */
     private Hashtable<String, String> chatroomListForUser = new Hashtable<>();
+    /**
+     * Chatrooms of each creator, so a quitting creator's chatrooms are found without a scan
+     * key: lower case creator name, value: names of the chatrooms created
+     */
+    private Hashtable<String, ArrayList<String>> creatorTable = new Hashtable<>();
     /**A list of subscribed users' ClientInterface objects*/
     private ArrayList<ClientInterface> subscribedUsersList = new ArrayList<>();
+    /**Executor running the notifications to subscribers*/
+    private CallbackExecutor callbackExecutor;
 
     /**Creator, create RegistrationCenter object*/
-    public RegistrationCenter() {
+    public RegistrationCenter(CallbackExecutor callbackExecutor) {
 
         super();
+        this.callbackExecutor = callbackExecutor;
     }
 
     /**
@@ -41,11 +51,19 @@ public class RegistrationCenter {
      */
     public void registerChatroom(String chatroomName, String creator) throws RemoteException {
 
-        this.chatroomListForUser.put(chatroomName, creator);
-        String msg = "A new room is created, please refresh chatroom table.";
-        for (int i = 0; i < subscribedUsersList.size(); i++) {
-            subscribedUsersList.get(i).showMsg(msg);
+        String oldCreator = this.chatroomListForUser.put(chatroomName, creator);
+        if (oldCreator != null) {
+            removeFromCreator(oldCreator, chatroomName);
         }
+        String key = creator.toLowerCase(Locale.ROOT);
+        ArrayList<String> list = creatorTable.get(key);
+        if (list == null) {
+            list = new ArrayList<>();
+            creatorTable.put(key, list);
+        }
+        list.add(chatroomName);
+        String msg = "A new room is created, please refresh chatroom table.";
+        notifySubscribers(msg);
     }
 
     /**
@@ -55,10 +73,63 @@ public class RegistrationCenter {
      */
     public void unregisterChatroom(String chatroomName) throws RemoteException {
 
-        this.chatroomListForUser.remove(chatroomName);
+        String creator = this.chatroomListForUser.remove(chatroomName);
+        if (creator != null) {
+            removeFromCreator(creator, chatroomName);
+        }
         String msg = "A room has been destroyed, please refresh chatroom table.";
+        notifySubscribers(msg);
+    }
+
+    /**
+     * Remove a chatroom from the chatrooms of its creator
+     * @param creator
+     * @param chatroomName 
+     */
+    private void removeFromCreator(String creator, String chatroomName) {
+
+        String key = creator.toLowerCase(Locale.ROOT);
+        ArrayList<String> list = creatorTable.get(key);
+        if (list != null) {
+            list.remove(chatroomName);
+            if (list.isEmpty()) {
+                creatorTable.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Get number of chatrooms created by a client
+     * @param creator
+     * @return count
+     */
+    public int getCreatedCount(String creator) {
+
+        ArrayList<String> list = creatorTable.get(creator.toLowerCase(Locale.ROOT));
+        return list == null ? 0 : list.size();
+    }
+
+    /**
+     * Show msg to every subscribed client on the callback executor
+     * @param msg 
+     */
+    private void notifySubscribers(final String msg) {
+
         for (int i = 0; i < subscribedUsersList.size(); i++) {
-            subscribedUsersList.get(i).showMsg(msg);
+            final ClientInterface clientInterface = subscribedUsersList.get(i);
+            callbackExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    Object event = ChatEvents.beginCallback();
+                    try {
+                        clientInterface.showMsg(msg);
+                    } catch (RemoteException ex) {
+                        ChatEvents.callbackFailure(event, "", "", "showMsg", ex);
+                        Logger.getLogger(RegistrationCenter.class.getName()).log(Level.WARNING, null, ex);
+                    }
+                }
+            });
         }
     }
 
@@ -78,6 +149,18 @@ public class RegistrationCenter {
         this.subscribedUsersList.remove(clientInterface);
     }
 
+    /**
+     * Replace the ClientInterface object of a resumed subscriber
+     * @param oldInterface
+     * @param newInterface 
+     */
+    public void replaceSubscriber(ClientInterface oldInterface, ClientInterface newInterface) {
+        int index = this.subscribedUsersList.indexOf(oldInterface);
+        if (index >= 0) {
+            this.subscribedUsersList.set(index, newInterface);
+        }
+    }
+
     /**
      * When a client quits the system, delete the chatrooms 
      * created by the quit client and return the list of chatrooms 
@@ -89,13 +172,9 @@ public class RegistrationCenter {
      */
     public ArrayList<String> processQuitClient(String clientName, ClientInterface clientInterface) throws RemoteException {
 
-        ArrayList<String> list = new ArrayList<>();
-        Iterator it = chatroomListForUser.keySet().iterator();
-        while (it.hasNext()) {
-            String chatroomName = (String) it.next();
-            if (chatroomListForUser.get(chatroomName).equalsIgnoreCase(clientName)) {
-                list.add(chatroomName);
-            }
+        ArrayList<String> list = creatorTable.remove(clientName.toLowerCase(Locale.ROOT));
+        if (list == null) {
+            list = new ArrayList<>();
         }
 
         if (list.size() > 0) {
@@ -103,9 +182,7 @@ public class RegistrationCenter {
                 chatroomListForUser.remove(list.get(i));
             }
             String msg = "A room creator goes off line, please refresh chatroom table!";
-            for (int i = 0; i < subscribedUsersList.size(); i++) {
-                subscribedUsersList.get(i).showMsg(msg);
-            }
+            notifySubscribers(msg);
         }
         
         if (subscribedUsersList.contains(clientInterface)) {
@@ -0,0 +1,231 @@
+package chatroom;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * RetransmitBuffer class
+ * Preallocated single-writer ring of the most recent sequenced messages of a chatroom.
+ * Appends are made by one thread at a time (the chatroom lock holder) and are
+ * lock-free and allocation-free; readers keep their own cursor (last sequence
+ * number read) and read without locking, a slot overwritten during the read is
+ * detected by its sequence number. A reader lagging more than the capacity
+ * behind the writer has been overrun and sees the gap in the batch returned,
+ * unless the messages are still retained in the off-heap HistoryStore.
+ * @author Zhao Zhengyang
+ */
+public class RetransmitBuffer implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**Default number of messages kept per chatroom*/
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**Number of slots*/
+    private final int capacity;
+    /**Message slots, slot of seq is seq % capacity*/
+    private final AtomicReferenceArray<String> slots;
+    /**Trace ids of the messages in slots, 0 for untraced messages*/
+    private final AtomicLongArray traceIds;
+    /**Sequence number of the message in each slot, 0 while the slot is being written*/
+    private final AtomicLongArray slotSeqs;
+    /**Sequence number of the next appended message, sequences start from 1*/
+    private volatile long nextSeq = 1;
+    /**Off-heap store of the messages evicted from the ring, null if not retained*/
+    private transient HistoryStore historyStore;
+    /**Writer of the chatroom in historyStore*/
+    private transient HistoryStore.Writer historyWriter;
+
+    /**Constructor, create RetransmitBuffer object*/
+    public RetransmitBuffer(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * Constructor, create RetransmitBuffer object retaining older messages in historyStore
+     * @param capacity
+     * @param historyStore null if older messages are not retained
+     */
+    public RetransmitBuffer(int capacity, HistoryStore historyStore) {
+
+        super();
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.traceIds = new AtomicLongArray(capacity);
+        this.slotSeqs = new AtomicLongArray(capacity);
+        this.historyStore = historyStore;
+        if (historyStore != null) {
+            this.historyWriter = historyStore.openWriter();
+        }
+    }
+
+    /**
+     * Append msg and give it the next sequence number
+     * Must not be called by two threads at the same time.
+     * @param msg
+     * @return seq sequence number of msg
+     */
+    public long append(String msg) {
+        return append(msg, 0);
+    }
+
+    /**
+     * Append a traced msg and give it the next sequence number
+     * Must not be called by two threads at the same time.
+     * @param msg
+     * @param traceId 0 if untraced
+     * @return seq sequence number of msg
+     */
+    public long append(String msg, long traceId) {
+
+        long seq = nextSeq;
+        int slot = (int) (seq % capacity);
+        if (historyWriter != null && seq > capacity) {
+            //spill the evicted message before its slot is reused, rooms within their ring never touch the store
+            historyWriter.append(seq - capacity, slots.get(slot));
+        }
+        //invalidate the slot first, so readers of the evicted message notice the overwrite
+        slotSeqs.set(slot, 0);
+        slots.set(slot, msg);
+        traceIds.set(slot, traceId);
+        slotSeqs.set(slot, seq);
+        nextSeq = seq + 1;
+        return seq;
+    }
+
+    /**
+     * Get trace id of a kept message
+     * @param seq
+     * @return traceId, 0 if untraced or no longer kept
+     */
+    public long getTraceId(long seq) {
+
+        if (seq < 1 || seq >= nextSeq) {
+            return 0;
+        }
+        int slot = (int) (seq % capacity);
+        long traceId = traceIds.get(slot);
+        return slotSeqs.get(slot) == seq ? traceId : 0;
+    }
+
+    /**
+     * Get number of slots
+     * @return capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Estimate the heap footprint of the ring and the messages in it
+     * @return bytes
+     */
+    public long estimateFootprint() {
+
+        long bytes = (long) capacity * MemoryAccountant.SLOT_BYTES;
+        for (int i = 0; i < capacity; i++) {
+            bytes += MemoryAccountant.stringBytes(slots.get(i));
+        }
+        return bytes;
+    }
+
+    /**
+     * Get sequence number of the oldest message still kept
+     * @return firstSeq
+     */
+    public long getFirstSeq() {
+        return Math.max(1, nextSeq - capacity);
+    }
+
+    /**
+     * Get sequence number of the latest message, 0 if nothing was appended
+     * @return lastSeq
+     */
+    public long getLastSeq() {
+        return nextSeq - 1;
+    }
+
+    /**
+     * Get how far a reader lags behind the writer
+     * @param cursor last sequence number the reader has read
+     * @return number of messages not read yet, above capacity if the reader was overrun
+     */
+    public long getLag(long cursor) {
+        return Math.max(0, getLastSeq() - cursor);
+    }
+
+    /**
+     * Get the kept messages from fromSeq up to the latest one.
+     * If fromSeq is already evicted, the batch starts at the oldest kept message
+     * and the receiver sees the gap from the batch's first sequence number.
+     * @param chatroomName
+     * @param fromSeq
+     * @return batch
+     */
+    public MessageBatch getRange(String chatroomName, long fromSeq) {
+        return getRange(chatroomName, fromSeq, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get at most maxMsgs kept messages from fromSeq on
+     * Messages evicted from the ring are read from the history store.
+     * @param chatroomName
+     * @param fromSeq
+     * @param maxMsgs
+     * @return batch
+     */
+    public MessageBatch getRange(String chatroomName, long fromSeq, int maxMsgs) {
+
+        MessageBatch recent = getRecent(chatroomName, fromSeq, maxMsgs);
+        if (historyStore == null || fromSeq >= recent.getFirstSeq() || maxMsgs <= 0) {
+            return recent;
+        }
+        long toSeq = Math.min(recent.getFirstSeq() - 1, fromSeq + maxMsgs - 1);
+        MessageBatch history = historyStore.read(chatroomName, historyWriter.getChatroomId(), historyWriter.getLastHandle(), fromSeq, toSeq);
+        ArrayList<String> older = history.getMsgList();
+        if (older.isEmpty()) {
+            return recent;
+        }
+        //a message too large for the store leaves a gap, the batch then ends before it
+        if (history.getLastSeq() == recent.getFirstSeq() - 1) {
+            ArrayList<String> newer = recent.getMsgList();
+            for (int i = 0; i < newer.size() && older.size() < maxMsgs; i++) {
+                older.add(newer.get(i));
+            }
+        }
+        return history;
+    }
+
+    /**
+     * Get at most maxMsgs messages of the ring from fromSeq on
+     * A reader overrun while reading gets a batch starting after the overwritten messages.
+     * @param chatroomName
+     * @param fromSeq
+     * @param maxMsgs
+     * @return batch
+     */
+    private MessageBatch getRecent(String chatroomName, long fromSeq, int maxMsgs) {
+
+        long last = getLastSeq();
+        long first = Math.max(fromSeq, Math.max(1, last + 1 - capacity));
+        long end = Math.min(last + 1, first + Math.max(0, maxMsgs));
+        ArrayList<String> list = new ArrayList<>();
+        for (long seq = first; seq < end; seq++) {
+            int slot = (int) (seq % capacity);
+            String msg = slots.get(slot);
+            if (slotSeqs.get(slot) != seq) {
+                //overwritten by the writer, skip it at the front or end the batch before it
+                if (!list.isEmpty()) {
+                    break;
+                }
+                first = seq + 1;
+                continue;
+            }
+            list.add(msg);
+        }
+        return new MessageBatch(chatroomName, first, list);
+    }
+
+}
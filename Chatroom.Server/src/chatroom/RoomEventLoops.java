@@ -0,0 +1,291 @@
+package chatroom;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * RoomEventLoops class
+ * A fixed set of single-threaded event loops, by default one per core.
+ * Every chatroom has a mailbox assigned to one loop; tasks of a chatroom run
+ * one at a time in submission order on that loop, so posting to a chatroom
+ * stays on one thread and never contends with other chatrooms. Only message
+ * posts are tasks, the other chatroom operations still take the chatroom
+ * monitor on the calling thread and can contend with the loop. The JVM cannot pin
+ * threads to cores, one loop thread per core keeps the scheduler from moving
+ * them needlessly. Hot mailboxes are moved from the busiest loop to the least
+ * busy one by rebalance; a mailbox only changes loop between two drains.
+ * @author Zhao Zhengyang
+ */
+public class RoomEventLoops {
+
+    /**Maximum number of tasks a mailbox runs before yielding its loop*/
+    public static final int DRAIN_BATCH = 64;
+    /**Busiest loop must have this many times the tasks of the least busy one to rebalance*/
+    public static final double IMBALANCE_RATIO = 1.5;
+
+    /**
+     * Tasks of one chatroom
+     */
+    public class Mailbox {
+
+        /**Chatroom name*/
+        private String name;
+        /**Index of the loop the mailbox runs on*/
+        private volatile int loop;
+        /**Pending tasks*/
+        private ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+        /**Whether a drain is queued or running on the loop*/
+        private AtomicBoolean scheduled = new AtomicBoolean();
+        /**Number of tasks run since the last rebalance*/
+        private AtomicLong recentTasks = new AtomicLong();
+        /**Whether the chatroom is gone*/
+        private volatile boolean closed;
+
+        /**Constructor, create Mailbox object*/
+        private Mailbox(String name, int loop) {
+
+            super();
+            this.name = name;
+            this.loop = loop;
+        }
+
+        /**
+         * Run task on the chatroom's loop after the tasks submitted before it
+         * @param task
+         * @return false if the chatroom is gone and task is dropped
+         */
+        public boolean execute(Runnable task) {
+
+            if (closed) {
+                return false;
+            }
+            queue.add(task);
+            schedule();
+            return true;
+        }
+
+        /**
+         * Get index of the loop the mailbox runs on
+         * @return loop
+         */
+        public int getLoop() {
+            return loop;
+        }
+
+        /**
+         * Queue a drain on the loop unless one is queued or running
+         */
+        private void schedule() {
+
+            if (scheduled.compareAndSet(false, true)) {
+                loops[loop].execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        drain();
+                    }
+                });
+            }
+        }
+
+        /**
+         * Run a batch of pending tasks, then yield the loop to other mailboxes
+         */
+        private void drain() {
+
+            int count = 0;
+            Runnable task;
+            while (count < DRAIN_BATCH && (task = queue.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException ex) {
+                    Logger.getLogger(RoomEventLoops.class.getName()).log(Level.WARNING, "Task of " + name + " failed", ex);
+                }
+                count++;
+            }
+            recentTasks.addAndGet(count);
+            loopTasks[loop].addAndGet(count);
+            scheduled.set(false);
+            //tasks added after the last poll or left by the batch limit
+            if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    /**The loops*/
+    private ExecutorService[] loops;
+    /**Number of tasks each loop ran since the last rebalance*/
+    private AtomicLong[] loopTasks;
+    /**Mailboxes of the open chatrooms*/
+    private ArrayList<Mailbox> mailboxes = new ArrayList<>();
+    /**Next loop for round-robin assignment among equally loaded loops*/
+    private AtomicInteger nextLoop = new AtomicInteger();
+    /**Timer running rebalance*/
+    private ScheduledExecutorService timer;
+
+    /**
+     * Constructor, create RoomEventLoops object
+     * @param count number of loops
+     */
+    public RoomEventLoops(int count) {
+
+        super();
+        loops = new ExecutorService[Math.max(1, count)];
+        loopTasks = new AtomicLong[loops.length];
+        for (int i = 0; i < loops.length; i++) {
+            final String threadName = "room-loop-" + i;
+            loops[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, threadName);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            loopTasks[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * Get number of loops
+     * @return count
+     */
+    public int getLoopCount() {
+        return loops.length;
+    }
+
+    /**
+     * Create the mailbox of a chatroom on the loop with the fewest chatrooms
+     * @param chatroomName
+     * @return mailbox
+     */
+    public synchronized Mailbox register(String chatroomName) {
+
+        int[] rooms = new int[loops.length];
+        for (int i = 0; i < mailboxes.size(); i++) {
+            rooms[mailboxes.get(i).loop]++;
+        }
+        int start = Math.abs(nextLoop.getAndIncrement() % loops.length);
+        int best = start;
+        for (int i = 0; i < loops.length; i++) {
+            int candidate = (start + i) % loops.length;
+            if (rooms[candidate] < rooms[best]) {
+                best = candidate;
+            }
+        }
+        Mailbox mailbox = new Mailbox(chatroomName, best);
+        mailboxes.add(mailbox);
+        return mailbox;
+    }
+
+    /**
+     * Drop the mailbox of a removed chatroom, pending tasks still run
+     * @param mailbox
+     */
+    public synchronized void unregister(Mailbox mailbox) {
+        mailbox.closed = true;
+        mailboxes.remove(mailbox);
+    }
+
+    /**
+     * Start rebalancing periodically
+     * @param periodMillis
+     */
+    public synchronized void startRebalancing(long periodMillis) {
+
+        if (timer != null || periodMillis <= 0) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "room-loop-rebalance");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                rebalance();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Move the hottest mailbox of the busiest loop to the least busy loop
+     * if the loads since the last rebalance are uneven enough and the move
+     * evens them out
+     * @return true if a mailbox was moved
+     */
+    public synchronized boolean rebalance() {
+
+        long[] load = new long[loops.length];
+        for (int i = 0; i < loops.length; i++) {
+            load[i] = loopTasks[i].getAndSet(0);
+        }
+        int busiest = 0;
+        int idlest = 0;
+        for (int i = 1; i < loops.length; i++) {
+            if (load[i] > load[busiest]) {
+                busiest = i;
+            }
+            if (load[i] < load[idlest]) {
+                idlest = i;
+            }
+        }
+        Mailbox hottest = null;
+        long hottestTasks = 0;
+        for (int i = 0; i < mailboxes.size(); i++) {
+            Mailbox mailbox = mailboxes.get(i);
+            long tasks = mailbox.recentTasks.getAndSet(0);
+            if (mailbox.loop == busiest && tasks > hottestTasks) {
+                hottest = mailbox;
+                hottestTasks = tasks;
+            }
+        }
+        if (busiest == idlest || hottest == null || load[busiest] < load[idlest] * IMBALANCE_RATIO
+                || load[idlest] + hottestTasks >= load[busiest]) {
+            //moving the hottest room would only move the hot spot
+            return false;
+        }
+        //takes effect at the mailbox's next drain, its tasks never run on two loops at once
+        hottest.loop = idlest;
+        Logger.getLogger(RoomEventLoops.class.getName()).log(Level.INFO, "Moved chatroom " + hottest.name
+                + " from loop " + busiest + " to loop " + idlest);
+        return true;
+    }
+
+    /**
+     * Stop the loops after the queued tasks
+     * @param timeoutMillis
+     * @throws InterruptedException
+     */
+    public void shutdown(long timeoutMillis) throws InterruptedException {
+
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        for (int i = 0; i < loops.length; i++) {
+            loops[i].shutdown();
+        }
+        for (int i = 0; i < loops.length; i++) {
+            loops[i].awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+}
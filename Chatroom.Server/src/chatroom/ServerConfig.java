@@ -0,0 +1,455 @@
+package chatroom;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ServerConfig class
+ * Reads server settings from system properties, e.g. -Dchatroom.executor=virtual
+ * @author Zhao Zhengyang
+ */
+public class ServerConfig {
+
+    /**Constructor, not used*/
+    private ServerConfig() {
+
+        super();
+    }
+
+    /**
+     * Get execution mode of outbound callbacks
+     * @return mode "platform" or "virtual"
+     */
+    public static String getExecutorMode() {
+        return System.getProperty("chatroom.executor", CallbackExecutor.MODE_PLATFORM);
+    }
+
+    /**
+     * Get number of platform threads running callbacks in platform mode
+     * @return threads
+     */
+    public static int getExecutorThreads() {
+        return getInt("chatroom.executor.threads", 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Get number of carrier threads of virtual threads in virtual mode
+     * @return carriers, 0 for the JVM default
+     */
+    public static int getExecutorCarriers() {
+        return getInt("chatroom.executor.carriers", 0);
+    }
+
+    /**
+     * Get number of threads running presence callbacks, apart from message delivery
+     * @return threads
+     */
+    public static int getPresenceThreads() {
+        return getInt("chatroom.presence.threads", 2);
+    }
+
+    /**
+     * Get number of presence callbacks queued before further ones are dropped
+     * @return queue capacity
+     */
+    public static int getPresenceQueue() {
+        return getInt("chatroom.presence.queue", 1024);
+    }
+
+    /**
+     * Get moderation rule file
+     * @return path, null if moderation is off
+     */
+    public static String getModerationRules() {
+        return System.getProperty("chatroom.moderation.rules");
+    }
+
+    /**
+     * Get action on messages matching a moderation rule
+     * @return action "mask" or "reject"
+     */
+    public static String getModerationAction() {
+        return System.getProperty("chatroom.moderation.action", ModerationFilter.ACTION_MASK);
+    }
+
+    /**
+     * Get interval of moderation rule file checks
+     * @return milliseconds
+     */
+    public static long getModerationReloadMillis() {
+        return getInt("chatroom.moderation.reload", 5000);
+    }
+
+    /**
+     * Get message trace sampling rate
+     * @return one in n messages is traced, 0 if tracing is off
+     */
+    public static int getTraceSampleRate() {
+        return getInt("chatroom.trace.sample", 0);
+    }
+
+    /**
+     * Get number of trace events kept
+     * @return capacity
+     */
+    public static int getTraceCapacity() {
+        return getInt("chatroom.trace.capacity", 65536);
+    }
+
+    /**
+     * Get maximum waiting time of a long poll
+     * @return milliseconds
+     */
+    public static long getPollTimeoutMillis() {
+        return getInt("chatroom.poll.timeout", 60000);
+    }
+
+    /**
+     * Get maximum number of messages returned by a poll
+     * @return count
+     */
+    public static int getPollMaxMsgs() {
+        return getInt("chatroom.poll.max", RetransmitBuffer.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Get maximum number of parked long polls, each holds an RMI connection thread
+     * @return count
+     */
+    public static int getPollMaxParked() {
+        return getInt("chatroom.poll.parked", 1000);
+    }
+
+    /**
+     * Get size of the off-heap message history shared by all chatrooms
+     * @return MiB, 0 (the default) if history beyond the retransmit buffer is not kept
+     */
+    public static int getHistoryMiB() {
+        return getInt("chatroom.history.size", 0);
+    }
+
+    /**
+     * Get size of a history slab
+     * @return KiB
+     */
+    public static int getHistorySlabKiB() {
+        return getInt("chatroom.history.slab", 1024);
+    }
+
+    /**
+     * Get directory of the memory-mapped history file
+     * @return directory, null to keep history in direct memory
+     */
+    public static String getHistoryDir() {
+        return System.getProperty("chatroom.history.dir");
+    }
+
+    /**
+     * Get directory of the attachment store
+     * @return directory, chatroom-attachments in the temporary directory by default
+     */
+    public static String getAttachmentDir() {
+        return System.getProperty("chatroom.attachments.dir",
+                new File(System.getProperty("java.io.tmpdir"), "chatroom-attachments").getPath());
+    }
+
+    /**
+     * Get port of the attachment endpoint
+     * @return port, 0 for an anonymous port, -1 by default to keep attachments off
+     */
+    public static int getAttachmentPort() {
+        return getInt("chatroom.attachments.port", -1);
+    }
+
+    /**
+     * Get size of the largest attachment
+     * @return MiB
+     */
+    public static int getAttachmentMaxMiB() {
+        return getInt("chatroom.attachments.max", 64);
+    }
+
+    /**
+     * Get most bytes of attachments stored, the oldest are deleted beyond
+     * @return MiB
+     */
+    public static int getAttachmentTotalMiB() {
+        return getInt("chatroom.attachments.total", 1024);
+    }
+
+    /**
+     * Get time after its last share an attachment is deleted
+     * @return hours, 0 for never
+     */
+    public static int getAttachmentExpiryHours() {
+        return getInt("chatroom.attachments.expiry", 24);
+    }
+
+    /**
+     * Get most attachment connections served at a time, more are refused
+     * @return count
+     */
+    public static int getAttachmentConnections() {
+        return getInt("chatroom.attachments.connections", 16);
+    }
+
+    /**
+     * Get file the client calls are captured to for TrafficReplayer
+     * @return path, null if not captured
+     */
+    public static String getCaptureFile() {
+        return System.getProperty("chatroom.capture");
+    }
+
+    /**
+     * Get most participants per chatroom
+     * @return count, 0 for unlimited
+     */
+    public static int getMaxParticipants() {
+        return getInt("chatroom.caps.participants", 10000);
+    }
+
+    /**
+     * Get most chatrooms a client may create
+     * @return count, 0 for unlimited
+     */
+    public static int getMaxRoomsPerCreator() {
+        return getInt("chatroom.caps.rooms", 100);
+    }
+
+    /**
+     * Get most bytes of messages queued per client
+     * @return KiB, 0 for unlimited
+     */
+    public static int getMaxQueuedKiB() {
+        return getInt("chatroom.caps.queued", 1024);
+    }
+
+    /**
+     * Whether the chatroom lifecycle events are journaled
+     * @return false by default
+     */
+    public static boolean isAuditEnabled() {
+        return Boolean.parseBoolean(System.getProperty("chatroom.audit", "false"));
+    }
+
+    /**
+     * Get directory of the audit journal
+     * @return path
+     */
+    public static String getAuditDir() {
+        return System.getProperty("chatroom.audit.dir",
+                new File(System.getProperty("java.io.tmpdir"), "chatroom-audit").getPath());
+    }
+
+    /**
+     * Get interval between two fsyncs of the audit journal
+     * @return milliseconds, 0 for every batch
+     */
+    public static long getAuditSyncMillis() {
+        return getInt("chatroom.audit.sync", 1000);
+    }
+
+    /**
+     * Get size at which the audit journal starts a new file
+     * @return MiB
+     */
+    public static int getAuditRotateMiB() {
+        return getInt("chatroom.audit.rotate", 64);
+    }
+
+    /**
+     * Get number of audit journal files kept, the oldest are deleted
+     * @return count, 0 to keep all
+     */
+    public static int getAuditKeepFiles() {
+        return getInt("chatroom.audit.keep", 16);
+    }
+
+    /**
+     * Whether the chatroom messages can be received on multicast groups
+     * @return false by default
+     */
+    public static boolean isMulticastEnabled() {
+        return Boolean.parseBoolean(System.getProperty("chatroom.multicast", "false"));
+    }
+
+    /**
+     * Get first multicast group of the chatrooms
+     * @return IPv4 group address
+     */
+    public static String getMulticastGroup() {
+        return System.getProperty("chatroom.multicast.group", "239.255.77.0");
+    }
+
+    /**
+     * Get number of multicast groups the chatrooms are spread over
+     * @return count, rounded down to a power of two
+     */
+    public static int getMulticastGroupCount() {
+        return getInt("chatroom.multicast.groups", 256);
+    }
+
+    /**
+     * Get port of the multicast packets
+     * @return port
+     */
+    public static int getMulticastPort() {
+        return getInt("chatroom.multicast.port", 47700);
+    }
+
+    /**
+     * Get hops the multicast packets may travel
+     * @return ttl, 1 to stay on the LAN
+     */
+    public static int getMulticastTtl() {
+        return getInt("chatroom.multicast.ttl", 1);
+    }
+
+    /**
+     * Get interface the multicast packets leave through, e.g. lo for tests on one host
+     * @return interface name, null for the system default
+     */
+    public static String getMulticastInterface() {
+        return System.getProperty("chatroom.multicast.interface");
+    }
+
+    /**
+     * Get payload size consecutive messages are packed up to
+     * @return bytes, below the MTU by default to avoid fragmentation
+     */
+    public static int getMulticastPayload() {
+        return getInt("chatroom.multicast.payload", 1400);
+    }
+
+    /**
+     * Get interval between two heartbeats of a chatroom's multicast group
+     * @return milliseconds
+     */
+    public static long getMulticastHeartbeatMillis() {
+        return getInt("chatroom.multicast.heartbeat", 500);
+    }
+
+    /**
+     * Get number of chatroom event loops
+     * @return count, one per core by default
+     */
+    public static int getLoopCount() {
+        return getInt("chatroom.loops", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Get interval of moving hot chatrooms between event loops
+     * @return milliseconds, 0 for never
+     */
+    public static long getLoopRebalanceMillis() {
+        return getInt("chatroom.loops.rebalance", 5000);
+    }
+
+    /**
+     * Whether directory and chat calls are shed when the server is overloaded
+     * @return true by default
+     */
+    public static boolean isAdmissionEnabled() {
+        return Boolean.parseBoolean(System.getProperty("chatroom.admission", "true"));
+    }
+
+    /**
+     * Get initial concurrency limit of the admitted calls
+     * @return limit
+     */
+    public static int getAdmissionLimit() {
+        return getInt("chatroom.admission.limit", 64);
+    }
+
+    /**
+     * Get lowest concurrency limit of the admitted calls
+     * @return limit
+     */
+    public static int getAdmissionMinLimit() {
+        return getInt("chatroom.admission.min", 8);
+    }
+
+    /**
+     * Get highest concurrency limit of the admitted calls
+     * @return limit
+     */
+    public static int getAdmissionMaxLimit() {
+        return getInt("chatroom.admission.max", 1024);
+    }
+
+    /**
+     * Get port of the rmi registry
+     * @return port
+     */
+    public static int getRegistryPort() {
+        return getInt("chatroom.registry.port", 1099);
+    }
+
+    /**
+     * Get rmi address the server is bound to in the registry
+     * @return url
+     */
+    public static String getServiceUrl() {
+        return System.getProperty("chatroom.url", "rmi://localhost:" + getRegistryPort() + "/chatroom");
+    }
+
+    /**
+     * Get port the server object is exported on
+     * @return port, 0 for an anonymous port
+     */
+    public static int getExportPort() {
+        return getInt("chatroom.export.port", 0);
+    }
+
+    /**
+     * Get local address the server sockets bind to
+     * @return address, null for all addresses
+     */
+    public static InetAddress getBindAddress() {
+
+        String host = System.getProperty("chatroom.bind");
+        if (host == null) {
+            return null;
+        }
+        try {
+            return InetAddress.getByName(host);
+        } catch (UnknownHostException ex) {
+            Logger.getLogger(ServerConfig.class.getName()).log(Level.WARNING, "Unknown bind address " + host + ", binding to all", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Get the socket factory of the registry, the server object and its clients
+     * TCP_NODELAY is on and both buffers are 64 KiB unless configured.
+     * @return factory
+     */
+    public static TunedSocketFactory getSocketFactory() {
+        return new TunedSocketFactory(Boolean.parseBoolean(System.getProperty("chatroom.socket.nodelay", "true")),
+                getInt("chatroom.socket.sndbuf", 64 * 1024), getInt("chatroom.socket.rcvbuf", 64 * 1024),
+                getInt("chatroom.socket.backlog", 128), getBindAddress());
+    }
+
+    /**
+     * Get an int system property
+     * @param key
+     * @param defaultValue
+     * @return value
+     */
+    public static int getInt(String key, int defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+package chatroom;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Hashtable;
+
+/**
+ * SessionManager class
+ * Issues session tokens at client start and maps them back to clients on resume
+ * @author Zhao Zhengyang
+ */
+public class SessionManager {
+
+    /**Random source of session tokens*/
+    private SecureRandom random = new SecureRandom();
+    /**
+     * A table of session tokens and client names
+     * key: session token, value: client name
+     */
+    private Hashtable<String, String> sessionTable = new Hashtable<>();
+    /**
+     * A table of client names and their session tokens
+     * key: client name, value: session token
+     */
+    private Hashtable<String, String> tokenTable = new Hashtable<>();
+    /**
+     * A table of client names and their last known ClientInterface objects
+     * key: client name, value: clientInterface
+     */
+    private Hashtable<String, ClientInterface> callbackTable = new Hashtable<>();
+
+    /**Constructor, create SessionManager object*/
+    public SessionManager() {
+
+        super();
+    }
+
+    /**
+     * Issue a new session token for the client, replacing an older one
+     * @param clientName
+     * @return token
+     */
+    public synchronized String openSession(String clientName) {
+
+        closeSession(clientName);
+        String token = new BigInteger(130, random).toString(32);
+        sessionTable.put(token, clientName);
+        tokenTable.put(clientName, token);
+        return token;
+    }
+
+    /**
+     * Remove the session of the client
+     * @param clientName 
+     */
+    public synchronized void closeSession(String clientName) {
+
+        String token = tokenTable.remove(clientName);
+        if (token != null) {
+            sessionTable.remove(token);
+        }
+        callbackTable.remove(clientName);
+    }
+
+    /**
+     * Get client name of the session token
+     * @param token
+     * @return clientName, null if token unknown
+     */
+    public synchronized String getClientName(String token) {
+        return sessionTable.get(token);
+    }
+
+    /**
+     * Record the ClientInterface object the client currently uses
+     * @param clientName
+     * @param clientInterface 
+     */
+    public synchronized void setCallback(String clientName, ClientInterface clientInterface) {
+        if (tokenTable.containsKey(clientName) && clientInterface != null) {
+            callbackTable.put(clientName, clientInterface);
+        }
+    }
+
+    /**
+     * Replace the recorded ClientInterface object of the client
+     * @param clientName
+     * @param clientInterface
+     * @return old clientInterface, null if none recorded
+     */
+    public synchronized ClientInterface replaceCallback(String clientName, ClientInterface clientInterface) {
+        return callbackTable.put(clientName, clientInterface);
+    }
+
+}
@@ -0,0 +1,66 @@
+package chatroom;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * SessionState class
+ * State returned to a client resuming its session after reconnect
+ * @author Zhao Zhengyang
+ */
+public class SessionState implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**Name of the resumed client*/
+    private String clientName;
+    /**Chatroom the client is visiting, empty if in no room*/
+    private String chatroomName;
+    /**Participant list of the chatroom*/
+    private ArrayList<String> participantList;
+    /**Messages the client missed while disconnected*/
+    private MessageBatch missedBatch;
+
+    /**Constructor, create SessionState object*/
+    public SessionState(String clientName, String chatroomName, ArrayList<String> participantList, MessageBatch missedBatch) {
+
+        super();
+        this.clientName = clientName;
+        this.chatroomName = chatroomName;
+        this.participantList = participantList;
+        this.missedBatch = missedBatch;
+    }
+
+    /**
+     * Get client name
+     * @return clientName
+     */
+    public String getClientName() {
+        return clientName;
+    }
+
+    /**
+     * Get visiting chatroom name
+     * @return chatroomName
+     */
+    public String getChatroomName() {
+        return chatroomName;
+    }
+
+    /**
+     * Get participant list of the visiting chatroom
+     * @return participantList
+     */
+    public ArrayList<String> getParticipantList() {
+        return participantList;
+    }
+
+    /**
+     * Get messages missed while disconnected
+     * @return missedBatch, null if in no room
+     */
+    public MessageBatch getMissedBatch() {
+        return missedBatch;
+    }
+
+}
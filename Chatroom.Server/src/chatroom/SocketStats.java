@@ -0,0 +1,29 @@
+package chatroom;
+
+/**
+ * SocketStats class
+ * Exposes the connection counts of TunedSocketFactory over JMX.
+ * RMI reuses idle connections, so few sockets for many calls mean good reuse.
+ * @author Zhao Zhengyang
+ */
+public class SocketStats implements SocketStatsMBean {
+
+    /**Constructor, create SocketStats object*/
+    public SocketStats() {
+
+        super();
+    }
+
+    public long getCreatedSockets() {
+        return TunedSocketFactory.getCreatedSockets();
+    }
+
+    public long getAcceptedSockets() {
+        return TunedSocketFactory.getAcceptedSockets();
+    }
+
+    public long getOpenSockets() {
+        return TunedSocketFactory.getOpenSockets();
+    }
+
+}
@@ -0,0 +1,26 @@
+package chatroom;
+
+/**
+ * Management interface of SocketStats, registered as chatroom:type=SocketStats
+ * @author Zhao Zhengyang
+ */
+public interface SocketStatsMBean {
+
+    /**
+     * Get number of connections the server opened, e.g. for callbacks
+     * @return count
+     */
+    long getCreatedSockets();
+
+    /**
+     * Get number of connections the server accepted
+     * @return count
+     */
+    long getAcceptedSockets();
+
+    /**
+     * Get number of connections open now
+     * @return count
+     */
+    long getOpenSockets();
+}
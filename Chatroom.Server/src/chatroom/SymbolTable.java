@@ -0,0 +1,167 @@
+package chatroom;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+
+/**
+ * SymbolTable class
+ * Server-wide table giving every client name a compact int id, so that it can
+ * key IntHashtables and be sent to clients instead of the name. The interned
+ * name is the same String object for every lookup. Names are interned when a
+ * client starts and released when it quits; released ids are given again, so
+ * the table is as large as the most clients started at once.
+ * @author Zhao Zhengyang
+ */
+public class SymbolTable {
+
+    /**Id of an unknown name*/
+    public static final int NO_SYMBOL = -1;
+
+    /**
+     * A table of names and their ids
+     * key: name, value: id
+     */
+    private Hashtable<String, Integer> idTable = new Hashtable<>();
+    /**Names by id, replaced when growing*/
+    private volatile String[] names = new String[64];
+    /**Number of ids given*/
+    private volatile int size;
+    /**Released ids to give again, guarded by this*/
+    private int[] freeIds = new int[16];
+    /**Number of released ids*/
+    private int freeCount;
+
+    /**Constructor, create SymbolTable object*/
+    public SymbolTable() {
+
+        super();
+    }
+
+    /**
+     * Get the id of name, giving it one if it has none
+     * @param name
+     * @return id
+     */
+    public int intern(String name) {
+
+        Integer id = idTable.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = idTable.get(name);
+            if (id != null) {
+                return id;
+            }
+            String[] table = names;
+            if (freeCount > 0) {
+                id = freeIds[--freeCount];
+            }
+            else {
+                if (size == table.length) {
+                    String[] grown = new String[table.length * 2];
+                    System.arraycopy(table, 0, grown, 0, size);
+                    table = grown;
+                }
+                id = size;
+            }
+            table[id] = name;
+            //publish the name before the id is visible
+            names = table;
+            if (id == size) {
+                size = id + 1;
+            }
+            idTable.put(name, id);
+            return id;
+        }
+    }
+
+    /**
+     * Release the id of a name, to be given again by intern
+     * The caller must have removed the id from every table keyed by it.
+     * @param id
+     */
+    public synchronized void release(int id) {
+
+        String name = getName(id);
+        if (name == null) {
+            return;
+        }
+        idTable.remove(name);
+        names[id] = null;
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+        freeIds[freeCount++] = id;
+    }
+
+    /**
+     * Get the number of names with an id
+     * @return count
+     */
+    public int getCount() {
+        return idTable.size();
+    }
+
+    /**
+     * Get the id of name without giving it one
+     * @param name
+     * @return id, NO_SYMBOL if unknown
+     */
+    public int lookup(String name) {
+
+        Integer id = name == null ? null : idTable.get(name);
+        return id == null ? NO_SYMBOL : id;
+    }
+
+    /**
+     * Get the name of id
+     * @param id
+     * @return name, null if unknown
+     */
+    public String getName(int id) {
+
+        //size is written after names, read it first
+        int count = size;
+        String[] table = names;
+        return id < 0 || id >= count ? null : table[id];
+    }
+
+    /**
+     * Get the ids of names without giving new ones
+     * @param names
+     * @return ids, NO_SYMBOL for unknown names
+     */
+    public int[] lookup(String[] names) {
+
+        int[] ids = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            ids[i] = lookup(names[i]);
+        }
+        return ids;
+    }
+
+    /**
+     * Get the names of ids
+     * @param ids
+     * @return names, null for unknown ids
+     */
+    public String[] getNames(int[] ids) {
+
+        String[] result = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            result[i] = getName(ids[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Get the interned name equal to name
+     * @param name
+     * @return interned name
+     */
+    public String internName(String name) {
+        return getName(intern(name));
+    }
+
+}
@@ -0,0 +1,56 @@
+package chatroom;
+
+import java.text.DateFormat;
+import java.util.Date;
+
+/**
+ * TimestampCache class
+ * The current time as formatted by DateFormat.getDateTimeInstance, which
+ * shows whole seconds. Each thread keeps its own format and the text of the
+ * current second, so a message only allocates when the second changes
+ * instead of cloning a DateFormat every time.
+ * @author Zhao Zhengyang
+ */
+public class TimestampCache {
+
+    /**
+     * Format and last text of a thread
+     */
+    private static class Entry {
+
+        private DateFormat format = DateFormat.getDateTimeInstance();
+        private long second = -1;
+        private String text;
+    }
+
+    /**Entries by thread*/
+    private static final ThreadLocal<Entry> entries = new ThreadLocal<Entry>() {
+
+        @Override
+        protected Entry initialValue() {
+            return new Entry();
+        }
+    };
+
+    /**Constructor, not used*/
+    private TimestampCache() {
+
+        super();
+    }
+
+    /**
+     * Get the current time formatted
+     * @return text
+     */
+    public static String now() {
+
+        Entry entry = entries.get();
+        long now = System.currentTimeMillis();
+        if (now / 1000 != entry.second) {
+            entry.second = now / 1000;
+            entry.text = entry.format.format(new Date(now));
+        }
+        return entry.text;
+    }
+
+}
@@ -0,0 +1,163 @@
+package chatroom;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * TraceRecorder class
+ * Records the stages of sampled messages through the delivery pipeline:
+ * arrival in sendMsg, pickup by the chatroom's event loop, enqueue to the participants
+ * and completion of every callback. Events go into a fixed-size lock-free
+ * ring buffer, the oldest events are overwritten. Messages not sampled cost
+ * one counter increment.
+ * @author Zhao Zhengyang
+ */
+public class TraceRecorder implements TraceRecorderMBean {
+
+    /**Message arrived in sendMsg*/
+    public static final byte STAGE_ARRIVAL = 0;
+    /**Message picked up by the chatroom's event loop*/
+    public static final byte STAGE_DISPATCHED = 1;
+    /**Message sequenced and queued for all participants*/
+    public static final byte STAGE_ENQUEUED = 2;
+    /**Callback to a participant completed*/
+    public static final byte STAGE_DELIVERED = 3;
+    /**Callback to a participant failed*/
+    public static final byte STAGE_FAILED = 4;
+
+    /**Stage names*/
+    private static final String[] STAGE_NAMES = {"arrival", "dispatched", "enqueued", "delivered", "failed"};
+
+    /**
+     * One recorded event
+     */
+    private static class TraceEvent {
+
+        private long traceId;
+        private byte stage;
+        private long nanos;
+        private String detail;
+
+        /**Constructor, create TraceEvent object*/
+        public TraceEvent(long traceId, byte stage, long nanos, String detail) {
+
+            super();
+            this.traceId = traceId;
+            this.stage = stage;
+            this.nanos = nanos;
+            this.detail = detail;
+        }
+    }
+
+    /**Event slots, slot of event n is n & mask*/
+    private AtomicReferenceArray<TraceEvent> slots;
+    /**Capacity - 1, capacity is a power of two*/
+    private int mask;
+    /**Number of events ever recorded*/
+    private AtomicLong writeIndex = new AtomicLong();
+    /**Number of messages ever seen, for sampling*/
+    private AtomicLong messageCount = new AtomicLong();
+    /**One in sampleRate messages is traced, 0 if off*/
+    private volatile int sampleRate;
+
+    /**
+     * Constructor, create TraceRecorder object
+     * @param capacity number of events kept, rounded up to a power of two
+     * @param sampleRate one in sampleRate messages is traced, 0 if off
+     */
+    public TraceRecorder(int capacity, int sampleRate) {
+
+        super();
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.sampleRate = sampleRate;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Decide whether a newly arrived message is traced and record its arrival
+     * @param chatroomName
+     * @param sender
+     * @return traceId, 0 if the message is not traced
+     */
+    public long begin(String chatroomName, String sender) {
+
+        int rate = sampleRate;
+        if (rate <= 0) {
+            return 0;
+        }
+        long n = messageCount.incrementAndGet();
+        if (n % rate != 0) {
+            return 0;
+        }
+        record(n, STAGE_ARRIVAL, chatroomName + " from " + sender + " on " + Thread.currentThread().getName());
+        return n;
+    }
+
+    /**
+     * Record a stage of a traced message
+     * @param traceId 0 for an untraced message, nothing is recorded
+     * @param stage
+     * @param detail 
+     */
+    public void record(long traceId, byte stage, String detail) {
+
+        if (traceId == 0) {
+            return;
+        }
+        TraceEvent event = new TraceEvent(traceId, stage, System.nanoTime(), detail);
+        slots.set((int) (writeIndex.getAndIncrement() & mask), event);
+    }
+
+    /**
+     * Dump the recorded trace events, grouped by message, with the time of
+     * every stage relative to the arrival of the message
+     * @return text dump
+     */
+    public String dumpTraces() {
+
+        ArrayList<TraceEvent> events = new ArrayList<>();
+        for (int i = 0; i < slots.length(); i++) {
+            TraceEvent event = slots.get(i);
+            if (event != null) {
+                events.add(event);
+            }
+        }
+        Collections.sort(events, new Comparator<TraceEvent>() {
+
+            @Override
+            public int compare(TraceEvent a, TraceEvent b) {
+                if (a.traceId != b.traceId) {
+                    return a.traceId < b.traceId ? -1 : 1;
+                }
+                return a.nanos < b.nanos ? -1 : (a.nanos == b.nanos ? 0 : 1);
+            }
+        });
+
+        StringBuilder sb = new StringBuilder();
+        long currentId = 0;
+        long start = 0;
+        for (int i = 0; i < events.size(); i++) {
+            TraceEvent event = events.get(i);
+            if (event.traceId != currentId) {
+                currentId = event.traceId;
+                start = event.nanos;
+                sb.append("trace ").append(currentId).append('\n');
+            }
+            sb.append(String.format("  +%10.3f ms  %-9s %s%n", (event.nanos - start) / 1e6, STAGE_NAMES[event.stage], event.detail));
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,26 @@
+package chatroom;
+
+/**
+ * Management interface of TraceRecorder, registered as chatroom:type=TraceRecorder
+ * @author Zhao Zhengyang
+ */
+public interface TraceRecorderMBean {
+
+    /**
+     * Get sampling rate
+     * @return one in sampleRate messages is traced, 0 if tracing is off
+     */
+    int getSampleRate();
+
+    /**
+     * Set sampling rate
+     * @param sampleRate one in sampleRate messages is traced, 0 to turn tracing off
+     */
+    void setSampleRate(int sampleRate);
+
+    /**
+     * Dump the recorded trace events, grouped by message
+     * @return text dump
+     */
+    String dumpTraces();
+}
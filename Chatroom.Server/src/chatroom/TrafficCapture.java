@@ -0,0 +1,396 @@
+package chatroom;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * TrafficCapture class
+ * Records every ServerInterface call of the clients into a binary trace for
+ * TrafficReplayer. The server is exported behind a proxy that times each
+ * call and encodes its arguments, outcome and, for clientStart and
+ * beginUpload, the token or upload id returned, so the replay can map them.
+ * Callback stubs are recorded as client handles, numbered in order of
+ * appearance. The trace starts with the magic and the method names, then
+ * one length-prefixed record per call in completion order: start offset and
+ * duration in nanoseconds, method index, outcome and the tagged arguments.
+ * Attachment content moves outside RMI and is not captured.
+ * @author Zhao Zhengyang
+ */
+public class TrafficCapture implements InvocationHandler {
+
+    /**Magic number starting a trace, "CRT1"*/
+    public static final int MAGIC = 0x43525431;
+
+    /**Outcome of a call that returned*/
+    public static final byte OK = 0;
+    /**Outcome of a call shed with ServerBusyException*/
+    public static final byte BUSY = 1;
+    /**Outcome of a call that failed otherwise*/
+    public static final byte FAILED = 2;
+
+    /**Tags of the encoded values*/
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_INT = 2;
+    private static final byte TAG_LONG = 3;
+    private static final byte TAG_BYTE = 4;
+    private static final byte TAG_STRINGS = 5;
+    private static final byte TAG_INTS = 6;
+    private static final byte TAG_STRING_ARRAYS = 7;
+    private static final byte TAG_CLIENT = 8;
+
+    /**
+     * A callback stub as recorded in the trace
+     */
+    public static class ClientHandle {
+
+        /**Number of the client in order of appearance*/
+        private int id;
+
+        /**Constructor, create ClientHandle object*/
+        public ClientHandle(int id) {
+
+            super();
+            this.id = id;
+        }
+
+        /**
+         * Get number of the client
+         * @return id
+         */
+        public int getId() {
+            return id;
+        }
+    }
+
+    /**Server the calls are passed to*/
+    private ServerInterface server;
+    /**Trace file*/
+    private DataOutputStream out;
+    /**ServerInterface methods in trace order*/
+    private Method[] methods;
+    /**
+     * Index of the methods
+     * key: method, value: index in methods
+     */
+    private Hashtable<Method, Integer> methodTable = new Hashtable<>();
+    /**
+     * Handles of the callback stubs seen, stubs of one client are equal
+     * key: stub, value: handle
+     */
+    private Hashtable<ClientInterface, Integer> clientTable = new Hashtable<>();
+    /**Time the capture started*/
+    private long startNanos = System.nanoTime();
+    /**Number of calls recorded*/
+    private AtomicLong recorded = new AtomicLong();
+    /**Whether the trace is closed*/
+    private volatile boolean closed;
+
+    /**
+     * Constructor, create TrafficCapture object writing file
+     * @param server
+     * @param file overwritten
+     * @throws IOException
+     */
+    public TrafficCapture(ServerInterface server, File file) throws IOException {
+
+        super();
+        this.server = server;
+        this.methods = getMethods();
+        for (int i = 0; i < methods.length; i++) {
+            methodTable.put(methods[i], i);
+        }
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeInt(methods.length);
+        for (int i = 0; i < methods.length; i++) {
+            out.writeUTF(methods[i].getName());
+        }
+    }
+
+    /**
+     * Get the ServerInterface methods in trace order
+     * @return methods sorted by name
+     */
+    public static Method[] getMethods() {
+
+        Method[] methods = ServerInterface.class.getMethods();
+        Arrays.sort(methods, new Comparator<Method>() {
+
+            @Override
+            public int compare(Method m1, Method m2) {
+                return m1.getName().compareTo(m2.getName());
+            }
+        });
+        return methods;
+    }
+
+    /**
+     * Get a ServerInterface recording the calls passed to server
+     * @return proxy, to be exported instead of server
+     */
+    public ServerInterface getProxy() {
+        return (ServerInterface) Proxy.newProxyInstance(ServerInterface.class.getClassLoader(), new Class<?>[]{ServerInterface.class}, this);
+    }
+
+    /**
+     * Get number of calls recorded
+     * @return count
+     */
+    public long getRecorded() {
+        return recorded.get();
+    }
+
+    /**
+     * Write the buffered records and close the trace
+     */
+    public void close() {
+
+        synchronized (out) {
+            closed = true;
+            try {
+                out.close();
+            } catch (IOException ex) {
+                Logger.getLogger(TrafficCapture.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+        if (method.getDeclaringClass() == Object.class) {
+            return method.invoke(this, args);
+        }
+        long start = System.nanoTime();
+        Object result = null;
+        byte outcome = FAILED;
+        try {
+            result = method.invoke(server, args);
+            outcome = OK;
+            return result;
+        } catch (InvocationTargetException ex) {
+            if (ServerBusyException.from(ex.getCause()) != null) {
+                outcome = BUSY;
+            }
+            throw ex.getCause();
+        } finally {
+            record(method, args, result, outcome, start, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Append a call to the trace
+     * @param method
+     * @param args
+     * @param result
+     * @param outcome
+     * @param start
+     * @param duration
+     */
+    private void record(Method method, Object[] args, Object result, byte outcome, long start, long duration) {
+
+        if (closed) {
+            return;
+        }
+        try {
+            //encoded outside the lock, only the copy is serialized
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream record = new DataOutputStream(bytes);
+            record.writeLong(start - startNanos);
+            record.writeLong(duration);
+            record.writeShort(methodTable.get(method));
+            record.writeByte(outcome);
+            int argCount = args == null ? 0 : args.length;
+            record.writeByte(argCount);
+            for (int i = 0; i < argCount; i++) {
+                writeValue(record, args[i]);
+            }
+            writeValue(record, result instanceof String || result instanceof Long ? result : null);
+            synchronized (out) {
+                if (!closed) {
+                    out.writeInt(bytes.size());
+                    bytes.writeTo(out);
+                }
+            }
+            recorded.incrementAndGet();
+        } catch (IOException ex) {
+            Logger.getLogger(TrafficCapture.class.getName()).log(Level.WARNING, "Capture stopped", ex);
+            close();
+        }
+    }
+
+    /**
+     * Encode a value
+     * @param out
+     * @param value
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    private void writeValue(DataOutputStream out, Object value) throws IOException {
+
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(TAG_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TAG_INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TAG_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(TAG_BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof String[]) {
+            String[] strings = (String[]) value;
+            out.writeByte(TAG_STRINGS);
+            writeStrings(out, strings);
+        } else if (value instanceof int[]) {
+            int[] ints = (int[]) value;
+            out.writeByte(TAG_INTS);
+            out.writeInt(ints.length);
+            for (int i = 0; i < ints.length; i++) {
+                out.writeInt(ints[i]);
+            }
+        } else if (value instanceof ArrayList) {
+            ArrayList<String[]> list = (ArrayList<String[]>) value;
+            out.writeByte(TAG_STRING_ARRAYS);
+            out.writeInt(list.size());
+            for (int i = 0; i < list.size(); i++) {
+                writeStrings(out, list.get(i));
+            }
+        } else if (value instanceof ClientInterface) {
+            Integer handle;
+            synchronized (clientTable) {
+                handle = clientTable.get((ClientInterface) value);
+                if (handle == null) {
+                    handle = clientTable.size();
+                    clientTable.put((ClientInterface) value, handle);
+                }
+            }
+            out.writeByte(TAG_CLIENT);
+            out.writeInt(handle);
+        } else {
+            throw new IOException("Cannot capture " + value.getClass());
+        }
+    }
+
+    /**
+     * Encode a String array, elements may be null
+     * @param out
+     * @param strings
+     * @throws IOException
+     */
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+
+        out.writeInt(strings.length);
+        for (int i = 0; i < strings.length; i++) {
+            out.writeBoolean(strings[i] != null);
+            if (strings[i] != null) {
+                writeString(out, strings[i]);
+            }
+        }
+    }
+
+    /**
+     * Encode a String of any length as UTF-8
+     * @param out
+     * @param s
+     * @throws IOException
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+
+        byte[] bytes = s.getBytes(AuditJournal.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Decode a String written by writeString
+     * @param in
+     * @return s
+     * @throws IOException
+     */
+    private static String readString(DataInputStream in) throws IOException {
+
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, AuditJournal.UTF_8);
+    }
+
+    /**
+     * Decode a value written by writeValue
+     * @param in
+     * @return value, a ClientHandle for a callback stub
+     * @throws IOException
+     */
+    public static Object readValue(DataInputStream in) throws IOException {
+
+        byte tag = in.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_STRING:
+                return readString(in);
+            case TAG_INT:
+                return in.readInt();
+            case TAG_LONG:
+                return in.readLong();
+            case TAG_BYTE:
+                return in.readByte();
+            case TAG_STRINGS:
+                return readStrings(in);
+            case TAG_INTS:
+                int[] ints = new int[in.readInt()];
+                for (int i = 0; i < ints.length; i++) {
+                    ints[i] = in.readInt();
+                }
+                return ints;
+            case TAG_STRING_ARRAYS:
+                int size = in.readInt();
+                ArrayList<String[]> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readStrings(in));
+                }
+                return list;
+            case TAG_CLIENT:
+                return new ClientHandle(in.readInt());
+            default:
+                throw new IOException("Unknown tag " + tag);
+        }
+    }
+
+    /**
+     * Decode a String array
+     * @param in
+     * @return strings
+     * @throws IOException
+     */
+    private static String[] readStrings(DataInputStream in) throws IOException {
+
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readBoolean() ? readString(in) : null;
+        }
+        return strings;
+    }
+
+}
@@ -0,0 +1,542 @@
+package chatroom;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TrafficReplayer class
+ * Drives a server with a trace written by TrafficCapture, e.g.
+ * java -cp Chatroom.Server.jar chatroom.TrafficReplayer calls.trace -speed 10 -out build2.properties -baseline build1.properties
+ * Without -url a fresh server is started in this JVM. Calls keep their
+ * recorded start offsets divided by the speed, or go as fast as possible
+ * with -speed max; a call waits for every call that had finished before it
+ * started, so the order the server saw is kept at any speed. Callback stubs
+ * are replaced with simulated clients counting their callbacks; tokens and
+ * upload ids returned by the server are mapped from the recorded ones.
+ * Reports per method the captured (server side) and replayed (client side)
+ * latency, and compares with the report of an earlier replay.
+ * @author Zhao Zhengyang
+ */
+public class TrafficReplayer {
+
+    /**
+     * A recorded call
+     */
+    private static class Call {
+
+        private long start;
+        private long duration;
+        private int method;
+        private byte outcome;
+        private Object[] args;
+        private Object result;
+    }
+
+    /**
+     * Simulated client receiving the callbacks of a recorded client
+     */
+    private static class SimulatedClient extends UnicastRemoteObject implements ClientInterface {
+
+        private static final long serialVersionUID = 1L;
+
+        /**Callbacks received by all simulated clients*/
+        private static final AtomicLong callbacks = new AtomicLong();
+        /**Messages delivered to all simulated clients*/
+        private static final AtomicLong delivered = new AtomicLong();
+
+        /**Constructor, create SimulatedClient object*/
+        public SimulatedClient() throws RemoteException {
+
+            super();
+        }
+
+        public void showMsg(String msg) {
+            callbacks.incrementAndGet();
+        }
+
+        public void handleChatroomElimination() {
+            callbacks.incrementAndGet();
+        }
+
+        public void displayMsg(String msg) {
+            callbacks.incrementAndGet();
+            delivered.incrementAndGet();
+        }
+
+        public void updatePresence(PresenceUpdate update) {
+            callbacks.incrementAndGet();
+        }
+
+        public void deliverMsg(MessageBatch batch) {
+            callbacks.incrementAndGet();
+            delivered.addAndGet(batch.getMsgList().size());
+        }
+    }
+
+    /**
+     * Latencies of the calls of one method
+     */
+    private static class Stats {
+
+        private long[] captured = new long[16];
+        private long[] replayed = new long[16];
+        private int count;
+        private int busy;
+        private int failed;
+        private int changed;
+
+        /**Add a call*/
+        public synchronized void add(long capturedNanos, long replayedNanos, byte outcome, byte recordedOutcome) {
+
+            if (count == captured.length) {
+                captured = Arrays.copyOf(captured, count * 2);
+                replayed = Arrays.copyOf(replayed, count * 2);
+            }
+            captured[count] = capturedNanos;
+            replayed[count] = replayedNanos;
+            count++;
+            if (outcome == TrafficCapture.BUSY) {
+                busy++;
+            } else if (outcome == TrafficCapture.FAILED) {
+                failed++;
+            }
+            if (outcome != recordedOutcome) {
+                changed++;
+            }
+        }
+    }
+
+    /**Methods by index in the trace*/
+    private Method[] methods;
+    /**Recorded calls in start order*/
+    private ArrayList<Call> calls = new ArrayList<>();
+    /**Server driven*/
+    private ServerInterface server;
+    /**Replay speed, 0 for as fast as possible*/
+    private double speed;
+    /**Threads making the calls*/
+    private ExecutorService executorService;
+    /**
+     * Simulated clients
+     * key: handle, value: client
+     */
+    private Hashtable<Integer, SimulatedClient> clientTable = new Hashtable<>();
+    /**
+     * Session tokens and upload ids
+     * key: recorded value, value: value of the replay
+     */
+    private Hashtable<Object, Object> resultTable = new Hashtable<>();
+    /**Statistics by method name*/
+    private Hashtable<String, Stats> statsTable = new Hashtable<>();
+    /**Span of the captured calls*/
+    private long capturedNanos;
+    /**Span of the replay*/
+    private long replayedNanos;
+
+    /**
+     * Constructor, create TrafficReplayer object
+     * @param server
+     * @param speed 0 for as fast as possible
+     * @param threads most calls in flight
+     */
+    public TrafficReplayer(ServerInterface server, double speed, int threads) {
+
+        super();
+        this.server = server;
+        this.speed = speed;
+        final AtomicInteger count = new AtomicInteger();
+        this.executorService = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "replay-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Load a trace, a torn last record is ignored
+     * @param file
+     * @throws IOException
+     */
+    public void load(File file) throws IOException {
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != TrafficCapture.MAGIC) {
+                throw new IOException(file + " is not a trace");
+            }
+            Method[] current = TrafficCapture.getMethods();
+            methods = new Method[in.readInt()];
+            for (int i = 0; i < methods.length; i++) {
+                String name = in.readUTF();
+                for (int j = 0; j < current.length; j++) {
+                    if (current[j].getName().equals(name)) {
+                        methods[i] = current[j];
+                    }
+                }
+            }
+            while (true) {
+                byte[] bytes;
+                try {
+                    bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                } catch (EOFException ex) {
+                    break;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+                Call call = new Call();
+                call.start = record.readLong();
+                call.duration = record.readLong();
+                call.method = record.readShort();
+                call.outcome = record.readByte();
+                call.args = new Object[record.readByte()];
+                for (int i = 0; i < call.args.length; i++) {
+                    call.args[i] = TrafficCapture.readValue(record);
+                }
+                call.result = TrafficCapture.readValue(record);
+                calls.add(call);
+            }
+        }
+        //records are written in completion order
+        Collections.sort(calls, new Comparator<Call>() {
+
+            @Override
+            public int compare(Call c1, Call c2) {
+                return Long.compare(c1.start, c2.start);
+            }
+        });
+        if (!calls.isEmpty()) {
+            long origin = calls.get(0).start;
+            for (int i = 0; i < calls.size(); i++) {
+                capturedNanos = Math.max(capturedNanos, calls.get(i).start + calls.get(i).duration - origin);
+            }
+        }
+    }
+
+    /**
+     * Replay the loaded calls
+     * @throws InterruptedException
+     */
+    public void replay() throws InterruptedException {
+
+        //calls started but not known to be finished, by recorded end
+        ArrayList<Call> pendingCalls = new ArrayList<>();
+        ArrayList<Future<?>> pendingFutures = new ArrayList<>();
+        long origin = calls.isEmpty() ? 0 : calls.get(0).start;
+        long replayStart = System.nanoTime();
+        for (int i = 0; i < calls.size(); i++) {
+            final Call call = calls.get(i);
+            if (methods[call.method] == null) {
+                continue;
+            }
+            for (int j = pendingCalls.size() - 1; j >= 0; j--) {
+                Call pending = pendingCalls.get(j);
+                if (pending.start + pending.duration <= call.start) {
+                    try {
+                        pendingFutures.get(j).get();
+                    } catch (ExecutionException ex) {
+                        //counted by the call
+                    }
+                    pendingCalls.remove(j);
+                    pendingFutures.remove(j);
+                }
+            }
+            if (speed > 0) {
+                long due = replayStart + (long) ((call.start - origin) / speed);
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            }
+            pendingCalls.add(call);
+            pendingFutures.add(executorService.submit(new Callable<Void>() {
+
+                @Override
+                public Void call() throws Exception {
+                    invoke(call);
+                    return null;
+                }
+            }));
+        }
+        for (int j = 0; j < pendingFutures.size(); j++) {
+            try {
+                pendingFutures.get(j).get();
+            } catch (ExecutionException ex) {
+                //counted by the call
+            }
+        }
+        replayedNanos = System.nanoTime() - replayStart;
+        executorService.shutdown();
+    }
+
+    /**
+     * Wait until the simulated clients stop receiving callbacks
+     * @param quietMillis time without callbacks
+     * @throws InterruptedException
+     */
+    public void awaitCallbacks(long quietMillis) throws InterruptedException {
+
+        long last = -1;
+        while (SimulatedClient.callbacks.get() != last) {
+            last = SimulatedClient.callbacks.get();
+            Thread.sleep(quietMillis);
+        }
+    }
+
+    /**
+     * Make a recorded call and count it
+     * @param call
+     * @throws RemoteException if a simulated client cannot be exported
+     */
+    private void invoke(Call call) throws RemoteException {
+
+        Method method = methods[call.method];
+        Object[] args = new Object[call.args.length];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = translate(call.args[i]);
+        }
+        if (method.getName().equals("resumeSession") || method.getName().equals("finishUpload")) {
+            //the server gave the replay its own token or upload id
+            Object mapped = resultTable.get(call.args[0]);
+            args[0] = mapped != null ? mapped : args[0];
+        }
+        byte outcome = TrafficCapture.FAILED;
+        Object result = null;
+        long start = System.nanoTime();
+        try {
+            result = method.invoke(server, args);
+            outcome = TrafficCapture.OK;
+        } catch (InvocationTargetException ex) {
+            if (ServerBusyException.from(ex.getCause()) != null) {
+                outcome = TrafficCapture.BUSY;
+            }
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+        long duration = System.nanoTime() - start;
+        if (call.result != null && result != null) {
+            resultTable.put(call.result, result);
+        }
+        Stats stats;
+        synchronized (statsTable) {
+            stats = statsTable.get(method.getName());
+            if (stats == null) {
+                stats = new Stats();
+                statsTable.put(method.getName(), stats);
+            }
+        }
+        stats.add(call.duration, duration, outcome, call.outcome);
+    }
+
+    /**
+     * Replace a recorded client handle with its simulated client
+     * @param value recorded argument
+     * @return argument of the replay
+     * @throws RemoteException
+     */
+    private Object translate(Object value) throws RemoteException {
+
+        if (!(value instanceof TrafficCapture.ClientHandle)) {
+            return value;
+        }
+        int id = ((TrafficCapture.ClientHandle) value).getId();
+        synchronized (clientTable) {
+            SimulatedClient client = clientTable.get(id);
+            if (client == null) {
+                client = new SimulatedClient();
+                clientTable.put(id, client);
+            }
+            return client;
+        }
+    }
+
+    /**
+     * Get the report of the replay
+     * @return method.count, method.mean, method.p99 in microseconds, throughput in calls per second
+     */
+    public Properties getReport() {
+
+        Properties report = new Properties();
+        long total = 0;
+        ArrayList<String> names = new ArrayList<>(statsTable.keySet());
+        for (int i = 0; i < names.size(); i++) {
+            Stats stats = statsTable.get(names.get(i));
+            long[] replayed = Arrays.copyOf(stats.replayed, stats.count);
+            report.setProperty(names.get(i) + ".count", Integer.toString(stats.count));
+            report.setProperty(names.get(i) + ".mean", Long.toString(mean(replayed) / 1000));
+            report.setProperty(names.get(i) + ".p99", Long.toString(percentile(replayed, 0.99) / 1000));
+            total += stats.count;
+        }
+        report.setProperty("throughput", Long.toString(replayedNanos == 0 ? 0 : (long) (total * 1e9 / replayedNanos)));
+        return report;
+    }
+
+    /**
+     * Print the captured and replayed latencies per method
+     * @param baseline report of an earlier replay, null if none
+     */
+    public void printReport(Properties baseline) {
+
+        ArrayList<String> names = new ArrayList<>(statsTable.keySet());
+        Collections.sort(names);
+        System.out.printf("%-24s %8s %12s %12s %12s %12s %6s %6s %7s%s%n", "method", "calls", "capt mean", "capt p99",
+                "mean us", "p99 us", "busy", "failed", "changed", baseline == null ? "" : "   vs baseline mean/p99");
+        long total = 0;
+        for (int i = 0; i < names.size(); i++) {
+            Stats stats = statsTable.get(names.get(i));
+            long[] captured = Arrays.copyOf(stats.captured, stats.count);
+            long[] replayed = Arrays.copyOf(stats.replayed, stats.count);
+            long mean = mean(replayed) / 1000;
+            long p99 = percentile(replayed, 0.99) / 1000;
+            String delta = "";
+            if (baseline != null && baseline.getProperty(names.get(i) + ".mean") != null) {
+                delta = "   " + change(mean, Long.parseLong(baseline.getProperty(names.get(i) + ".mean")))
+                        + " / " + change(p99, Long.parseLong(baseline.getProperty(names.get(i) + ".p99")));
+            }
+            System.out.printf("%-24s %8d %12d %12d %12d %12d %6d %6d %7d%s%n", names.get(i), stats.count,
+                    mean(captured) / 1000, percentile(captured, 0.99) / 1000, mean, p99,
+                    stats.busy, stats.failed, stats.changed, delta);
+            total += stats.count;
+        }
+        long throughput = replayedNanos == 0 ? 0 : (long) (total * 1e9 / replayedNanos);
+        System.out.printf("captured %d calls in %.3f s, replayed in %.3f s: %d calls/s%s%n", total, capturedNanos / 1e9,
+                replayedNanos / 1e9, throughput, baseline == null || baseline.getProperty("throughput") == null ? ""
+                : " (" + change(throughput, Long.parseLong(baseline.getProperty("throughput"))) + " vs baseline)");
+        System.out.printf("%d simulated clients, %d callbacks, %d messages delivered%n", clientTable.size(),
+                SimulatedClient.callbacks.get(), SimulatedClient.delivered.get());
+    }
+
+    /**
+     * Format the change of a value from its baseline
+     * @param value
+     * @param base
+     * @return e.g. +12%
+     */
+    private static String change(long value, long base) {
+        return base == 0 ? "n/a" : String.format("%+d%%", Math.round((value - base) * 100.0 / base));
+    }
+
+    /**
+     * Get the mean of values
+     * @param values
+     * @return mean, 0 if empty
+     */
+    private static long mean(long[] values) {
+
+        long sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            sum += values[i];
+        }
+        return values.length == 0 ? 0 : sum / values.length;
+    }
+
+    /**
+     * Get a percentile of values, sorts them
+     * @param values
+     * @param p 0..1
+     * @return percentile, 0 if empty
+     */
+    private static long percentile(long[] values, double p) {
+
+        if (values.length == 0) {
+            return 0;
+        }
+        Arrays.sort(values);
+        return values[Math.min(values.length - 1, (int) Math.ceil(values.length * p) - 1)];
+    }
+
+    /**
+     * @param args trace file, then any of -speed 1|N|max, -threads n, -url url, -out file, -baseline file
+     */
+    public static void main(String[] args) throws Exception {
+
+        if (args.length == 0 || args.length % 2 == 0) {
+            System.err.println("usage: TrafficReplayer <trace> [-speed 1|N|max] [-threads n] [-url url] [-out file] [-baseline file]");
+            System.exit(2);
+        }
+        double speed = 1;
+        int threads = 64;
+        String url = null;
+        String out = null;
+        String baselineFile = null;
+        for (int i = 1; i < args.length; i += 2) {
+            switch (args[i]) {
+                case "-speed":
+                    speed = args[i + 1].equals("max") ? 0 : Double.parseDouble(args[i + 1]);
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-url":
+                    url = args[i + 1];
+                    break;
+                case "-out":
+                    out = args[i + 1];
+                    break;
+                case "-baseline":
+                    baselineFile = args[i + 1];
+                    break;
+                default:
+                    System.err.println("unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        if (url == null) {
+            //a fresh server of this build, the trace is not captured again
+            System.clearProperty("chatroom.capture");
+            new ChatroomServer();
+            url = ServerConfig.getServiceUrl();
+        }
+        TrafficReplayer replayer = new TrafficReplayer((ServerInterface) Naming.lookup(url), speed, threads);
+        replayer.load(new File(args[0]));
+        replayer.replay();
+        replayer.awaitCallbacks(500);
+
+        Properties baseline = null;
+        if (baselineFile != null) {
+            baseline = new Properties();
+            try (InputStream in = new FileInputStream(baselineFile)) {
+                baseline.load(in);
+            }
+        }
+        replayer.printReport(baseline);
+        if (out != null) {
+            try (OutputStream os = new FileOutputStream(out)) {
+                replayer.getReport().store(os, "TrafficReplayer " + args[0]);
+            }
+        }
+        System.exit(0);
+    }
+
+}
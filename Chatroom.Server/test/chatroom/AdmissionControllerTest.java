@@ -0,0 +1,133 @@
+package chatroom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * AdmissionControllerTest class
+ * Shedding by priority share of the limit.
+ * @author Zhao Zhengyang
+ */
+public class AdmissionControllerTest {
+
+    /**
+     * Acquire calls of priority until one is rejected
+     * @param controller
+     * @param priority
+     * @return number admitted
+     */
+    private static int fill(AdmissionController controller, int priority) {
+
+        int admitted = 0;
+        while (true) {
+            try {
+                controller.acquire(priority);
+                admitted++;
+            } catch (ServerBusyException ex) {
+                assertTrue(ex.getRetryAfterMillis() >= AdmissionController.MIN_RETRY_MILLIS);
+                assertTrue(ex.getRetryAfterMillis() <= AdmissionController.MAX_RETRY_MILLIS);
+                return admitted;
+            }
+            if (admitted > 1000) {
+                fail("never rejected");
+            }
+        }
+    }
+
+    /**Chat calls are shed first, then directory calls, control calls never*/
+    @Test
+    public void testPriorities() throws ServerBusyException {
+
+        AdmissionController controller = new AdmissionController(true, 10, 10, 10);
+        assertEquals(7, fill(controller, AdmissionController.CHAT));
+        assertEquals(2, fill(controller, AdmissionController.DIRECTORY));
+        assertEquals(9, controller.getInFlight());
+        long admission = controller.acquireControl();
+        controller.acquireControl();
+        assertEquals(11, controller.getInFlight());
+        assertEquals(1, controller.getChatRejected());
+        assertEquals(1, controller.getDirectoryRejected());
+
+        //released calls make room again
+        controller.release(admission);
+        controller.releaseUnsampled();
+        controller.releaseUnsampled();
+        controller.releaseUnsampled();
+        controller.releaseUnsampled();
+        assertEquals(6, controller.getInFlight());
+        controller.acquire(AdmissionController.CHAT);
+        assertEquals(7, controller.getInFlight());
+    }
+
+    /**A check admits and releases at once*/
+    @Test
+    public void testCheck() throws ServerBusyException {
+
+        AdmissionController controller = new AdmissionController(true, 10, 10, 10);
+        for (int i = 0; i < 100; i++) {
+            controller.check(AdmissionController.CHAT);
+        }
+        assertEquals(0, controller.getInFlight());
+        assertEquals(100, controller.getAdmitted());
+    }
+
+    /**A disabled controller only measures*/
+    @Test
+    public void testDisabled() throws ServerBusyException {
+
+        AdmissionController controller = new AdmissionController(false, 1, 1, 1);
+        for (int i = 0; i < 100; i++) {
+            controller.acquire(AdmissionController.CHAT);
+        }
+        assertEquals(100, controller.getInFlight());
+        assertEquals(0, controller.getChatRejected());
+    }
+
+    /**The limit stays within its bounds under any latency*/
+    @Test
+    public void testLimitBounds() throws ServerBusyException, InterruptedException {
+
+        AdmissionController controller = new AdmissionController(true, 20, 5, 40);
+        for (int i = 0; i < 20 * AdmissionController.WINDOW_SAMPLES; i++) {
+            long admission = controller.acquire(AdmissionController.CONTROL);
+            if (i > 5 * AdmissionController.WINDOW_SAMPLES && i % 10 == 0) {
+                //slow calls
+                Thread.sleep(1);
+            }
+            controller.release(admission);
+            assertTrue(controller.getLimit() >= 5);
+            assertTrue(controller.getLimit() <= 40);
+        }
+    }
+
+    /**Releases from many threads close every window once and keep the counts exact*/
+    @Test
+    public void testConcurrentRelease() throws InterruptedException {
+
+        final AdmissionController controller = new AdmissionController(true, 20, 5, 40);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10 * AdmissionController.WINDOW_SAMPLES; j++) {
+                        controller.release(controller.acquireControl());
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        assertEquals(0, controller.getInFlight());
+        assertEquals(80 * AdmissionController.WINDOW_SAMPLES, controller.getAdmitted());
+        assertTrue(controller.getBaselineLatencyMicros() >= 0);
+        assertTrue(controller.getLimit() >= 5);
+        assertTrue(controller.getLimit() <= 40);
+    }
+
+}
@@ -0,0 +1,308 @@
+package chatroom;
+
+import java.lang.management.ManagementFactory;
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AllocationBudget class
+ * Measures the bytes allocated per operation on the hot server paths and
+ * fails when one goes over its budget, e.g.
+ * java -cp build/classes:build/test/classes chatroom.AllocationBudget
+ * run by the check-allocation target of the build, it is not part of the jar. Allocation is read from
+ * the per-thread counters of the JVM and summed over all threads, so the
+ * work done on the event loops and callback threads is included. Callbacks
+ * go to in-process clients, RMI marshalling is not part of the figures.
+ * Exits with 1 if any operation is over budget.
+ * @author Zhao Zhengyang
+ */
+public class AllocationBudget {
+
+    /**Room sizes measured*/
+    private static final int[] ROOM_SIZES = {1, 10, 100};
+    /**Operations measured*/
+    private static final String[] OPERATIONS = {"sendMsg", "sendToAll", "enterChatroom", "getChatroomList"};
+    /**
+     * Budgets in bytes per operation
+     * rows: OPERATIONS, columns: ROOM_SIZES
+     */
+    private static final long[][] BUDGETS = {
+        {1280, 3328, 24576},
+        {512, 2560, 24576},
+        {3072, 6144, 28672},
+        {1024, 2560, 14848}
+    };
+    /**Operations run before measuring*/
+    private static final int WARMUP = 2000;
+    /**Operations measured*/
+    private static final int ITERATIONS = 1000;
+
+    /**
+     * In-process client counting the messages it receives
+     */
+    private static class CountingClient implements ClientInterface {
+
+        /**Messages received by all clients*/
+        private AtomicLong received;
+
+        /**Constructor, create CountingClient object*/
+        public CountingClient(AtomicLong received) {
+
+            super();
+            this.received = received;
+        }
+
+        public void showMsg(String msg) {
+        }
+
+        public void handleChatroomElimination() {
+        }
+
+        public void displayMsg(String msg) {
+            received.incrementAndGet();
+        }
+
+        public void updatePresence(PresenceUpdate update) {
+        }
+
+        public void deliverMsg(MessageBatch batch) {
+            received.addAndGet(batch.getMsgList().size());
+        }
+    }
+
+    /**
+     * An operation measured
+     */
+    private interface Operation {
+
+        /**
+         * Run the operation once
+         * @param i iteration
+         * @throws Exception
+         */
+        void run(int i) throws Exception;
+    }
+
+    /**Per-thread allocation counters*/
+    private com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    /**Messages received by the clients*/
+    private AtomicLong received = new AtomicLong();
+    /**Server measured, called in-process*/
+    private ChatroomServer server;
+    /**Bytes allocated by the measurement itself*/
+    private long overhead;
+
+    /**Constructor, create AllocationBudget object*/
+    public AllocationBudget(ChatroomServer server) {
+
+        super();
+        this.server = server;
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /**
+     * Get bytes allocated by all live threads
+     * @return allocated bytes by thread id
+     */
+    private Hashtable<Long, Long> snapshot() {
+
+        long[] ids = threadBean.getAllThreadIds();
+        long[] bytes = threadBean.getThreadAllocatedBytes(ids);
+        Hashtable<Long, Long> table = new Hashtable<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0) {
+                table.put(ids[i], bytes[i]);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Get bytes allocated between two snapshots
+     * @param before
+     * @param after
+     * @return bytes, threads started meanwhile count in full
+     */
+    private static long allocated(Hashtable<Long, Long> before, Hashtable<Long, Long> after) {
+
+        long bytes = 0;
+        for (Long id : after.keySet()) {
+            Long old = before.get(id);
+            bytes += after.get(id) - (old == null ? 0 : old);
+        }
+        return bytes;
+    }
+
+    /**
+     * Wait until the clients have received count messages
+     * @param count
+     * @throws InterruptedException
+     */
+    private void awaitReceived(long count) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 60000;
+        while (received.get() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Only " + received.get() + " of " + count + " messages received");
+            }
+            Thread.sleep(0, 100000);
+        }
+    }
+
+    /**
+     * Measure an operation
+     * @param operation
+     * @param expected messages the clients receive per operation
+     * @return bytes allocated per operation
+     * @throws Exception
+     */
+    private long measure(Operation operation, long expected) throws Exception {
+
+        for (int i = 0; i < WARMUP; i++) {
+            long target = received.get() + expected;
+            operation.run(i);
+            awaitReceived(target);
+        }
+        Hashtable<Long, Long> before = snapshot();
+        for (int i = 0; i < ITERATIONS; i++) {
+            long target = received.get() + expected;
+            operation.run(WARMUP + i);
+            awaitReceived(target);
+        }
+        Hashtable<Long, Long> after = snapshot();
+        return Math.max(0, allocated(before, after) - overhead) / ITERATIONS;
+    }
+
+    /**
+     * Measure the allocation of the snapshots themselves
+     * @throws Exception
+     */
+    private void calibrate() throws Exception {
+
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            Hashtable<Long, Long> before = snapshot();
+            Hashtable<Long, Long> after = snapshot();
+            min = Math.min(min, allocated(before, after));
+        }
+        overhead = min;
+    }
+
+    /**
+     * Fill a chatroom of the server with clients
+     * @param chatroomName
+     * @param size
+     * @throws Exception
+     */
+    private void fill(String chatroomName, int size) throws Exception {
+
+        server.clientStart(chatroomName + "-creator");
+        server.createChatroom(chatroomName, chatroomName + "-creator");
+        for (int i = 0; i < size; i++) {
+            String clientName = chatroomName + "-" + i;
+            server.clientStart(clientName);
+            server.enterChatroom(chatroomName, clientName, new CountingClient(received));
+        }
+        //the enter notices
+        Thread.sleep(200);
+    }
+
+    /**
+     * Measure one operation at one room size
+     * @param operation index in OPERATIONS
+     * @param size
+     * @return bytes per operation
+     * @throws Exception
+     */
+    private long measure(int operation, final int size) throws Exception {
+
+        final String chatroomName = OPERATIONS[operation] + size;
+        switch (OPERATIONS[operation]) {
+            case "sendMsg": {
+                fill(chatroomName, size);
+                return measure(new Operation() {
+
+                    @Override
+                    public void run(int i) throws Exception {
+                        server.sendMsg(chatroomName, chatroomName + "-0", "", "hello");
+                    }
+                }, size);
+            }
+            case "sendToAll": {
+                CallbackExecutor executor = new CallbackExecutor(CallbackExecutor.MODE_PLATFORM, 4, 0);
+                SymbolTable symbolTable = new SymbolTable();
+                final Chatroom chatroom = new Chatroom(chatroomName, "bench", executor, new TraceRecorder(2, 0), null, symbolTable);
+                for (int i = 0; i < size; i++) {
+                    symbolTable.intern(chatroomName + "-" + i);
+                    chatroom.addParticipant(chatroomName + "-" + i, new CountingClient(received));
+                }
+                long bytes = measure(new Operation() {
+
+                    @Override
+                    public void run(int i) throws Exception {
+                        chatroom.sendToAll("hello");
+                    }
+                }, size);
+                executor.shutdown(1000);
+                return bytes;
+            }
+            case "enterChatroom": {
+                fill(chatroomName, size);
+                final CountingClient guest = new CountingClient(new AtomicLong());
+                server.clientStart(chatroomName + "-guest");
+                //an enter followed by an exit, so the room keeps its size
+                return measure(new Operation() {
+
+                    @Override
+                    public void run(int i) throws Exception {
+                        server.enterChatroom(chatroomName, chatroomName + "-guest", guest);
+                        server.exitChatroom(chatroomName, chatroomName + "-guest");
+                    }
+                }, 2L * size);
+            }
+            default: {
+                for (int i = 0; i < size; i++) {
+                    server.clientStart(chatroomName + "-creator" + i);
+                    server.createChatroom(chatroomName + "-" + i, chatroomName + "-creator" + i);
+                }
+                long bytes = measure(new Operation() {
+
+                    @Override
+                    public void run(int i) throws Exception {
+                        server.getChatroomList();
+                    }
+                }, 0);
+                for (int i = 0; i < size; i++) {
+                    server.destroyChatroom(chatroomName + "-" + i);
+                }
+                return bytes;
+            }
+        }
+    }
+
+    /**
+     * @param args none
+     */
+    public static void main(String[] args) throws Exception {
+
+        //measure the message path only
+        System.setProperty("chatroom.audit", "false");
+        System.clearProperty("chatroom.capture");
+        System.setProperty("chatroom.attachments.port", "-1");
+        AllocationBudget budget = new AllocationBudget(new ChatroomServer());
+        budget.calibrate();
+
+        boolean over = false;
+        System.out.printf("%-16s %6s %12s %12s%n", "operation", "size", "bytes/op", "budget");
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            for (int j = 0; j < ROOM_SIZES.length; j++) {
+                long bytes = budget.measure(i, ROOM_SIZES[j]);
+                boolean ok = bytes <= BUDGETS[i][j];
+                over |= !ok;
+                System.out.printf("%-16s %6d %12d %12d%s%n", OPERATIONS[i], ROOM_SIZES[j], bytes, BUDGETS[i][j], ok ? "" : "  OVER BUDGET");
+            }
+        }
+        System.exit(over ? 1 : 0);
+    }
+
+}
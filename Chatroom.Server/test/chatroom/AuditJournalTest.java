@@ -0,0 +1,102 @@
+package chatroom;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * AuditJournalTest class
+ * Events written by AuditJournal are read back by AuditReader.
+ * @author Zhao Zhengyang
+ */
+public class AuditJournalTest {
+
+    /**Journal directory of a test*/
+    private File dir;
+
+    @Before
+    public void setUp() {
+        dir = new File(System.getProperty("java.io.tmpdir"), "chatroom-audit-test-" + System.nanoTime());
+    }
+
+    @After
+    public void tearDown() {
+
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (int i = 0; i < files.length; i++) {
+                files[i].delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * Count the events of the journal files in dir matching the filters
+     * @param clientName null for all
+     * @param chatroomName null for all
+     * @return count
+     * @throws IOException
+     */
+    private long count(String clientName, String chatroomName) throws IOException {
+
+        AuditReader reader = new AuditReader(clientName, chatroomName, 0, Long.MAX_VALUE);
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            reader.read(files[i]);
+        }
+        return reader.getMatched();
+    }
+
+    /**Every recorded event is read back and filtered by client and chatroom*/
+    @Test
+    public void testRoundTrip() throws IOException, InterruptedException {
+
+        AuditJournal journal = new AuditJournal(dir, 0, 64 * 1024 * 1024, 0);
+        for (int i = 0; i < 1000; i++) {
+            journal.record((byte) (1 + i % 5), "room" + (i % 10), "client" + (i % 4));
+        }
+        journal.close(10000);
+        assertEquals(0, journal.getDropped());
+        assertEquals(1000, count(null, null));
+        assertEquals(100, count(null, "room3"));
+        assertEquals(250, count("client1", null));
+        assertEquals(50, count("client1", "room1"));
+    }
+
+    /**A torn tail is skipped, the batches before it are still read*/
+    @Test
+    public void testTornTail() throws IOException, InterruptedException {
+
+        AuditJournal journal = new AuditJournal(dir, 0, 64 * 1024 * 1024, 0);
+        journal.record(AuditJournal.CREATE, "lobby", "alice");
+        journal.close(10000);
+        File[] files = dir.listFiles();
+        assertEquals(1, files.length);
+        try (FileOutputStream out = new FileOutputStream(files[0], true)) {
+            out.write(new byte[]{0x41, 0x55, 0x44, 0x31, 0, 0});
+        }
+        assertEquals(1, count(null, null));
+    }
+
+    /**Rotated files beyond the number kept are deleted*/
+    @Test
+    public void testRetention() throws IOException, InterruptedException {
+
+        AuditJournal journal = new AuditJournal(dir, 0, 1, 2);
+        for (int i = 0; i < 5; i++) {
+            journal.record(AuditJournal.ENTER, "lobby", "client" + i);
+            //let the writer commit each event as a batch of its own, rotating after it
+            Thread.sleep(100);
+        }
+        journal.close(10000);
+        assertTrue(dir.listFiles().length <= 2);
+        assertTrue(count(null, "lobby") < 5);
+    }
+
+}
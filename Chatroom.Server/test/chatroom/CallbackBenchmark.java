@@ -0,0 +1,119 @@
+package chatroom;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CallbackBenchmark class
+ * Compares platform and virtual callback execution with simulated clients
+ * whose callbacks block, e.g.
+ * java -cp build/classes:build/test/classes chatroom.CallbackBenchmark 100 100 10 20
+ * It is not part of the jar.
+ * @author Zhao Zhengyang
+ */
+public class CallbackBenchmark {
+
+    /**
+     * Simulated client whose callbacks block like a slow network peer
+     */
+    private static class BlockingClient implements ClientInterface {
+
+        /**Blocking time of each callback in milliseconds*/
+        private long blockMillis;
+        /**Counts down once per delivered message*/
+        private CountDownLatch latch;
+
+        /**Constructor, create BlockingClient object*/
+        public BlockingClient(long blockMillis, CountDownLatch latch) {
+
+            super();
+            this.blockMillis = blockMillis;
+            this.latch = latch;
+        }
+
+        public void showMsg(String msg) {
+        }
+
+        public void handleChatroomElimination() {
+        }
+
+        public void displayMsg(String msg) {
+        }
+
+        public void updatePresence(PresenceUpdate update) {
+        }
+
+        public void deliverMsg(MessageBatch batch) throws RemoteException {
+            try {
+                Thread.sleep(blockMillis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            for (int i = 0; i < batch.getMsgList().size(); i++) {
+                latch.countDown();
+            }
+        }
+    }
+
+    /**Constructor, not used*/
+    private CallbackBenchmark() {
+
+        super();
+    }
+
+    /**
+     * Run one benchmark round
+     * @param mode execution mode
+     * @param rooms number of chatrooms
+     * @param participants participants per chatroom
+     * @param msgs messages per chatroom
+     * @param blockMillis blocking time of each callback
+     * @throws RemoteException
+     * @throws InterruptedException 
+     */
+    private static void run(String mode, int rooms, int participants, int msgs, long blockMillis) throws RemoteException, InterruptedException {
+
+        CallbackExecutor executor = new CallbackExecutor(mode, ServerConfig.getExecutorThreads(), ServerConfig.getExecutorCarriers());
+        CountDownLatch latch = new CountDownLatch(rooms * participants * msgs);
+        Chatroom[] chatrooms = new Chatroom[rooms];
+        SymbolTable symbolTable = new SymbolTable();
+        for (int i = 0; i < rooms; i++) {
+            chatrooms[i] = new Chatroom("room" + i, "bench", executor, new TraceRecorder(2, 0), null, symbolTable);
+            for (int j = 0; j < participants; j++) {
+                symbolTable.intern("client" + i + "-" + j);
+                chatrooms[i].addParticipant("client" + i + "-" + j, new BlockingClient(blockMillis, latch));
+            }
+        }
+
+        long start = System.nanoTime();
+        for (int k = 0; k < msgs; k++) {
+            for (int i = 0; i < rooms; i++) {
+                chatrooms[i].sendToAll("msg " + k);
+            }
+        }
+        boolean done = latch.await(10, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown(1000);
+
+        double seconds = elapsed / 1e9;
+        System.out.printf("%-8s rooms=%d participants=%d msgs=%d block=%dms: %.3f s, %.0f deliveries/s%s%n",
+                executor.getMode(), rooms, participants, msgs, blockMillis, seconds,
+                (rooms * participants * msgs - latch.getCount()) / seconds, done ? "" : " (timed out)");
+    }
+
+    /**
+     * @param args rooms, participants per room, messages per room, callback blocking millis
+     */
+    public static void main(String[] args) throws RemoteException, InterruptedException {
+
+        int rooms = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int participants = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int msgs = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        long blockMillis = args.length > 3 ? Long.parseLong(args[3]) : 20;
+
+        run(CallbackExecutor.MODE_PLATFORM, rooms, participants, msgs, blockMillis);
+        run(CallbackExecutor.MODE_VIRTUAL, rooms, participants, msgs, blockMillis);
+    }
+
+}
@@ -0,0 +1,155 @@
+package chatroom;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * HistoryStoreTest class
+ * Record chains, slab recycling and concurrent writers of the off-heap history.
+ * @author Zhao Zhengyang
+ */
+public class HistoryStoreTest {
+
+    /**
+     * Read the messages of writer from fromSeq to toSeq
+     * @param store
+     * @param writer
+     * @param fromSeq
+     * @param toSeq
+     * @return batch
+     */
+    private static MessageBatch read(HistoryStore store, HistoryStore.Writer writer, long fromSeq, long toSeq) {
+        return store.read("r", writer.getChatroomId(), writer.getLastHandle(), fromSeq, toSeq);
+    }
+
+    /**
+     * Check that batch holds prefix + seq for every seq from firstSeq to lastSeq
+     * @param batch
+     * @param prefix
+     * @param firstSeq
+     * @param lastSeq
+     */
+    private static void assertBatch(MessageBatch batch, String prefix, long firstSeq, long lastSeq) {
+
+        assertEquals(firstSeq, batch.getFirstSeq());
+        assertEquals(lastSeq, batch.getLastSeq());
+        ArrayList<String> msgList = batch.getMsgList();
+        for (int i = 0; i < msgList.size(); i++) {
+            assertEquals(prefix + (firstSeq + i), msgList.get(i));
+        }
+    }
+
+    /**History is off unless its size is configured*/
+    @Test
+    public void testOffByDefault() {
+        assertNull(HistoryStore.create());
+    }
+
+    /**Chains of two chatrooms writing into the same slabs stay apart*/
+    @Test
+    public void testInterleavedChatrooms() {
+
+        HistoryStore store = new HistoryStore(64 * 1024, 4);
+        HistoryStore.Writer a = store.openWriter();
+        HistoryStore.Writer b = store.openWriter();
+        for (int i = 1; i <= 200; i++) {
+            assertTrue(a.append(i, "a" + i));
+            assertTrue(b.append(i, "b" + i));
+        }
+        assertBatch(read(store, a, 1, 200), "a", 1, 200);
+        assertBatch(read(store, b, 1, 200), "b", 1, 200);
+        assertBatch(read(store, a, 20, 30), "a", 20, 30);
+        assertBatch(read(store, b, 150, 1000), "b", 150, 200);
+    }
+
+    /**Messages are stored as UTF-8, a lone surrogate as '?' like String.getBytes*/
+    @Test
+    public void testEncoding() {
+
+        HistoryStore store = new HistoryStore(4096, 1);
+        HistoryStore.Writer writer = store.openWriter();
+        writer.append(1, "\u00fcn\u00ef \u20ac \ud83d\ude00");
+        writer.append(2, "\ud800x");
+        ArrayList<String> msgList = read(store, writer, 1, 2).getMsgList();
+        assertEquals("\u00fcn\u00ef \u20ac \ud83d\ude00", msgList.get(0));
+        assertEquals("?x", msgList.get(1));
+    }
+
+    /**A recycled slab ends the chain, the newer messages are still read correctly*/
+    @Test
+    public void testRecycling() {
+
+        HistoryStore store = new HistoryStore(256, 2);
+        HistoryStore.Writer writer = store.openWriter();
+        for (int i = 1; i <= 100; i++) {
+            assertTrue(writer.append(i, "m" + i));
+        }
+        assertEquals(512, store.getAllocatedBytes());
+        MessageBatch batch = read(store, writer, 1, 100);
+        assertTrue(batch.getFirstSeq() > 1);
+        assertBatch(batch, "m", batch.getFirstSeq(), 100);
+    }
+
+    /**A message too large for a slab is dropped without cutting off the older ones*/
+    @Test
+    public void testTooLarge() {
+
+        HistoryStore store = new HistoryStore(256, 4);
+        HistoryStore.Writer writer = store.openWriter();
+        char[] large = new char[300];
+        for (int i = 1; i <= 9; i++) {
+            if (i == 5) {
+                long handle = writer.getLastHandle();
+                assertFalse(writer.append(i, new String(large)));
+                assertEquals(handle, writer.getLastHandle());
+            } else {
+                assertTrue(writer.append(i, "m" + i));
+            }
+        }
+        assertBatch(read(store, writer, 1, 9), "m", 1, 4);
+        assertBatch(read(store, writer, 6, 9), "m", 6, 9);
+    }
+
+    /**Writers of different chatrooms append at the same time while slabs are recycled*/
+    @Test
+    public void testConcurrentWriters() throws InterruptedException {
+
+        final HistoryStore store = new HistoryStore(2048, 4);
+        final AtomicReference<String> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final String prefix = "room" + t + " message ";
+            threads[t] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    HistoryStore.Writer writer = store.openWriter();
+                    for (int i = 1; i <= 20000; i++) {
+                        writer.append(i, prefix + i);
+                        if (i % 500 == 0) {
+                            //the slabs of this writer may be recycled by the others at any time
+                            MessageBatch batch = read(store, writer, 1, i);
+                            ArrayList<String> msgList = batch.getMsgList();
+                            for (int k = 0; k < msgList.size(); k++) {
+                                if (!msgList.get(k).equals(prefix + (batch.getFirstSeq() + k))) {
+                                    failure.set("read " + msgList.get(k) + " as " + prefix + (batch.getFirstSeq() + k));
+                                }
+                            }
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+        assertNull(failure.get());
+    }
+
+}
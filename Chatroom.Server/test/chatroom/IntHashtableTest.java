@@ -0,0 +1,85 @@
+package chatroom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * IntHashtableTest class
+ * Random operations give the same result as on a HashMap, also across
+ * removals that shift probe sequences back.
+ * @author Zhao Zhengyang
+ */
+public class IntHashtableTest {
+
+    /**Puts and removes over a small key range, so probe sequences collide often*/
+    @Test
+    public void testAgainstHashMap() {
+
+        Random random = new Random(11);
+        IntHashtable<String> table = new IntHashtable<>(2);
+        HashMap<Integer, String> model = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            int key = random.nextInt(i < 50000 ? 200 : 5000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(model.remove(key), table.remove(key));
+            } else {
+                String value = "v" + i;
+                assertEquals(model.put(key, value), table.put(key, value));
+            }
+            assertEquals(model.size(), table.size());
+            int probe = random.nextInt(5000);
+            assertEquals(model.get(probe), table.get(probe));
+            assertEquals(model.containsKey(probe), table.containsKey(probe));
+        }
+        for (Integer key : model.keySet()) {
+            assertEquals(model.get(key), table.get(key));
+        }
+    }
+
+    /**Snapshots hold every entry once*/
+    @Test
+    public void testSnapshots() {
+
+        IntHashtable<String> table = new IntHashtable<>();
+        for (int key = 0; key < 100; key++) {
+            table.put(key * 7, "v" + key);
+        }
+        table.remove(0);
+        int[] keys = table.keys();
+        Arrays.sort(keys);
+        int[] expected = new int[99];
+        for (int key = 1; key < 100; key++) {
+            expected[key - 1] = key * 7;
+        }
+        assertArrayEquals(expected, keys);
+        ArrayList<String> values = table.values();
+        assertEquals(99, values.size());
+        assertFalse(values.contains("v0"));
+        assertTrue(values.contains("v99"));
+    }
+
+    /**Negative keys are rejected, looking them up finds nothing*/
+    @Test
+    public void testNegativeKey() {
+
+        IntHashtable<String> table = new IntHashtable<>();
+        try {
+            table.put(-1, "x");
+            fail("negative key accepted");
+        } catch (IllegalArgumentException ex) {
+            assertEquals(0, table.size());
+        }
+        assertNull(table.get(-1));
+        assertNull(table.remove(-1));
+    }
+
+}
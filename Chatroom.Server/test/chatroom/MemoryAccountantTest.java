@@ -0,0 +1,100 @@
+package chatroom;
+
+import java.util.Hashtable;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * MemoryAccountantTest class
+ * Queued bytes are charged to registered clients only, and the entry of a
+ * client that quit lives until its bytes drain.
+ * @author Zhao Zhengyang
+ */
+public class MemoryAccountantTest {
+
+    /**Symbol table of the accountant*/
+    private SymbolTable symbolTable = new SymbolTable();
+    /**Accountant under test, 100 bytes per client*/
+    private MemoryAccountant accountant = new MemoryAccountant(new Hashtable<String, Chatroom>(), new IntHashtable<String>(),
+            symbolTable, 0, 0, 100);
+
+    /**Unregistered ids are never charged and get no entry*/
+    @Test
+    public void testUnregistered() {
+
+        for (int id = 0; id < 1000; id++) {
+            assertFalse(accountant.reserveQueued(id, 10));
+        }
+        assertEquals(0, accountant.getLargestClients().length);
+        assertEquals(0, accountant.getQueuedBytes());
+        assertEquals(0, accountant.getRejectedMsgs());
+    }
+
+    /**Charges stop at the cap and are released*/
+    @Test
+    public void testCap() {
+
+        int id = symbolTable.intern("a");
+        accountant.addClient(id);
+        assertTrue(accountant.reserveQueued(id, 60));
+        assertFalse(accountant.reserveQueued(id, 60));
+        assertTrue(accountant.reserveQueued(id, 40));
+        assertEquals(100, accountant.getQueuedBytes());
+        assertEquals(1, accountant.getRejectedMsgs());
+        accountant.releaseQueued(id, 60);
+        accountant.releaseQueued(id, 40);
+        assertEquals(0, accountant.getQueuedBytes());
+        assertEquals(1, accountant.getLargestClients().length);
+    }
+
+    /**A client quitting with bytes queued keeps its entry and id until they drain*/
+    @Test
+    public void testQuitWhileQueued() {
+
+        int id = symbolTable.intern("a");
+        accountant.addClient(id);
+        assertTrue(accountant.reserveQueued(id, 30));
+        assertTrue(accountant.reserveQueued(id, 30));
+        accountant.removeClient(id);
+        assertFalse(accountant.reserveQueued(id, 10));
+        assertEquals(1, accountant.getLargestClients().length);
+        assertEquals(id, symbolTable.lookup("a"));
+
+        accountant.releaseQueued(id, 30);
+        assertEquals(1, accountant.getLargestClients().length);
+        accountant.releaseQueued(id, 30);
+        assertEquals(0, accountant.getLargestClients().length);
+        assertEquals(SymbolTable.NO_SYMBOL, symbolTable.lookup("a"));
+        assertEquals(0, accountant.getQueuedBytes());
+    }
+
+    /**A client quitting with nothing queued is forgotten at once*/
+    @Test
+    public void testQuitIdle() {
+
+        int id = symbolTable.intern("a");
+        accountant.addClient(id);
+        accountant.removeClient(id);
+        assertEquals(0, accountant.getLargestClients().length);
+        assertEquals(SymbolTable.NO_SYMBOL, symbolTable.lookup("a"));
+    }
+
+    /**A client started again before its bytes drained keeps its entry*/
+    @Test
+    public void testRestartWhileQueued() {
+
+        int id = symbolTable.intern("a");
+        accountant.addClient(id);
+        assertTrue(accountant.reserveQueued(id, 30));
+        accountant.removeClient(id);
+        assertEquals(id, symbolTable.intern("a"));
+        accountant.addClient(id);
+        accountant.releaseQueued(id, 30);
+        assertEquals(1, accountant.getLargestClients().length);
+        assertEquals(id, symbolTable.lookup("a"));
+        assertTrue(accountant.reserveQueued(id, 30));
+    }
+
+}
@@ -0,0 +1,97 @@
+package chatroom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * PatternMatcherTest class
+ * Matching and masking of the Aho-Corasick automaton, checked against a naive search.
+ * @author Zhao Zhengyang
+ */
+public class PatternMatcherTest {
+
+    /**Overlapping and nested patterns are all found, ignoring case*/
+    @Test
+    public void testOverlapping() {
+
+        PatternMatcher matcher = new PatternMatcher(Arrays.asList("he", "she", "his", "hers", "http://", "bad"));
+        assertEquals(6, matcher.getPatternCount());
+        assertEquals("U***** visit *******x and ***ly ***", matcher.mask("Ushers visit HTTP://x and BADly his", '*'));
+        assertTrue(matcher.matches("sHe"));
+        assertFalse(matcher.matches("nothing"));
+    }
+
+    /**A text without matches is returned as is*/
+    @Test
+    public void testNoMatch() {
+
+        PatternMatcher matcher = new PatternMatcher(Arrays.asList("", null, "spam"));
+        assertEquals(1, matcher.getPatternCount());
+        String text = "clean text";
+        assertSame(text, matcher.mask(text, '*'));
+        assertFalse(new PatternMatcher(Collections.<String>emptyList()).matches(text));
+    }
+
+    /**Random patterns and texts over a small alphabet give the same result as a naive search*/
+    @Test
+    public void testAgainstNaiveSearch() {
+
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            ArrayList<String> patterns = new ArrayList<>();
+            for (int i = 0; i < 1 + random.nextInt(8); i++) {
+                patterns.add(randomText(random, 1 + random.nextInt(4)));
+            }
+            PatternMatcher matcher = new PatternMatcher(patterns);
+            for (int k = 0; k < 20; k++) {
+                String text = randomText(random, random.nextInt(30));
+                String expected = naiveMask(patterns, text);
+                assertEquals(patterns + " in " + text, expected, matcher.mask(text, '*'));
+                assertEquals(patterns + " in " + text, !expected.equals(text), matcher.matches(text));
+            }
+        }
+    }
+
+    /**
+     * Random text over "abAB"
+     * @param random
+     * @param length
+     * @return text
+     */
+    private static String randomText(Random random, int length) {
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append("abAB".charAt(random.nextInt(4)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Mask every occurrence of every pattern by trying each pattern at each position
+     * @param patterns
+     * @param text
+     * @return masked text
+     */
+    private static String naiveMask(ArrayList<String> patterns, String text) {
+
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < text.length(); i++) {
+            for (int p = 0; p < patterns.size(); p++) {
+                String pattern = patterns.get(p);
+                if (text.regionMatches(true, i, pattern, 0, pattern.length())) {
+                    Arrays.fill(chars, i, i + pattern.length(), '*');
+                }
+            }
+        }
+        return new String(chars);
+    }
+
+}
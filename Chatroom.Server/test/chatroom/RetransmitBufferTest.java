@@ -0,0 +1,124 @@
+package chatroom;
+
+import java.util.ArrayList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * RetransmitBufferTest class
+ * Sequencing, reader cursors and overrun of the ring, and the history
+ * behind it.
+ * @author Zhao Zhengyang
+ */
+public class RetransmitBufferTest {
+
+    /**
+     * Fill buffer with messages "m1" to "m" + count
+     * @param buffer
+     * @param count
+     */
+    private static void fill(RetransmitBuffer buffer, int count) {
+
+        for (int i = 1; i <= count; i++) {
+            assertEquals(i, buffer.append("m" + i));
+        }
+    }
+
+    /**
+     * Check that batch holds the messages from firstSeq to lastSeq
+     * @param batch
+     * @param firstSeq
+     * @param lastSeq
+     */
+    private static void assertBatch(MessageBatch batch, long firstSeq, long lastSeq) {
+
+        assertEquals(firstSeq, batch.getFirstSeq());
+        assertEquals(lastSeq, batch.getLastSeq());
+        ArrayList<String> msgList = batch.getMsgList();
+        for (int i = 0; i < msgList.size(); i++) {
+            assertEquals("m" + (firstSeq + i), msgList.get(i));
+        }
+    }
+
+    /**Sequence numbers start from 1 and nothing is kept before the first append*/
+    @Test
+    public void testEmpty() {
+
+        RetransmitBuffer buffer = new RetransmitBuffer(8);
+        assertEquals(0, buffer.getLastSeq());
+        assertEquals(1, buffer.getFirstSeq());
+        assertBatch(buffer.getRange("r", 1), 1, 0);
+    }
+
+    /**A reader gets the messages after its cursor*/
+    @Test
+    public void testRangeFromCursor() {
+
+        RetransmitBuffer buffer = new RetransmitBuffer(8);
+        fill(buffer, 5);
+        assertBatch(buffer.getRange("r", 1), 1, 5);
+        assertBatch(buffer.getRange("r", 4), 4, 5);
+        assertBatch(buffer.getRange("r", 6), 6, 5);
+        assertBatch(buffer.getRange("r", 2, 2), 2, 3);
+        assertEquals(2, buffer.getLag(3));
+        assertEquals(0, buffer.getLag(5));
+    }
+
+    /**A reader lagging more than the capacity sees the gap in the batch*/
+    @Test
+    public void testOverrun() {
+
+        RetransmitBuffer buffer = new RetransmitBuffer(4);
+        fill(buffer, 10);
+        assertEquals(7, buffer.getFirstSeq());
+        assertBatch(buffer.getRange("r", 1), 7, 10);
+        assertTrue(buffer.getLag(0) > buffer.getCapacity());
+    }
+
+    /**Trace ids are kept with their message until the slot is reused*/
+    @Test
+    public void testTraceIds() {
+
+        RetransmitBuffer buffer = new RetransmitBuffer(4);
+        long seq = buffer.append("traced", 42);
+        buffer.append("untraced");
+        assertEquals(42, buffer.getTraceId(seq));
+        assertEquals(0, buffer.getTraceId(seq + 1));
+        assertEquals(0, buffer.getTraceId(seq + 2));
+        for (int i = 0; i < 4; i++) {
+            buffer.append("later");
+        }
+        assertEquals(0, buffer.getTraceId(seq));
+    }
+
+    /**Messages evicted from the ring are read back from the history store*/
+    @Test
+    public void testHistory() {
+
+        HistoryStore store = new HistoryStore(4096, 8);
+        RetransmitBuffer buffer = new RetransmitBuffer(4, store);
+        RetransmitBuffer other = new RetransmitBuffer(4, store);
+        for (int i = 1; i <= 50; i++) {
+            buffer.append("m" + i);
+            other.append("other" + i);
+        }
+        assertBatch(buffer.getRange("r", 1), 1, 50);
+        assertBatch(buffer.getRange("r", 10, 5), 10, 14);
+        assertBatch(buffer.getRange("r", 45, 3), 45, 47);
+        assertBatch(buffer.getRange("r", 44, 100), 44, 50);
+    }
+
+    /**Rooms within their ring do not use the store*/
+    @Test
+    public void testNoSpillWithinRing() {
+
+        HistoryStore store = new HistoryStore(4096, 8);
+        RetransmitBuffer buffer = new RetransmitBuffer(16, store);
+        fill(buffer, 16);
+        assertEquals(0, store.getAllocatedBytes());
+        buffer.append("m17");
+        assertEquals(4096, store.getAllocatedBytes());
+    }
+
+}
@@ -0,0 +1,194 @@
+package chatroom;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * RoomEventLoopsTest class
+ * Tasks of a mailbox run one at a time in submission order, also while
+ * mailboxes are moved between loops.
+ * @author Zhao Zhengyang
+ */
+public class RoomEventLoopsTest {
+
+    /**Number of tasks submitted per mailbox*/
+    private static final int TASKS = 20000;
+
+    /**Loops under test*/
+    private RoomEventLoops loops;
+
+    @Before
+    public void setUp() {
+        loops = new RoomEventLoops(3);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        loops.shutdown(5000);
+    }
+
+    /**
+     * Task checking that it runs alone and after the task submitted before it
+     */
+    private static class OrderedTask implements Runnable {
+
+        /**Index of the task in its mailbox*/
+        private final int index;
+        /**Index of the next task expected in the mailbox*/
+        private final int[] next;
+        /**Whether a task of the mailbox is running*/
+        private final AtomicBoolean running;
+        /**First violation seen*/
+        private final AtomicReference<String> failure;
+        /**Counted down by every task*/
+        private final CountDownLatch done;
+
+        /**Constructor, create OrderedTask object*/
+        OrderedTask(int index, int[] next, AtomicBoolean running, AtomicReference<String> failure, CountDownLatch done) {
+
+            super();
+            this.index = index;
+            this.next = next;
+            this.running = running;
+            this.failure = failure;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+
+            if (!running.compareAndSet(false, true)) {
+                failure.set("task " + index + " ran concurrently");
+            }
+            //next is only touched by the tasks of one mailbox, made visible by the mailbox queue
+            if (next[0] != index) {
+                failure.set("task " + index + " ran when " + next[0] + " was expected");
+            }
+            next[0] = index + 1;
+            running.set(false);
+            done.countDown();
+        }
+    }
+
+    /**
+     * Submit TASKS ordered tasks to each mailbox from its own thread
+     * @param mailboxes
+     * @param failure
+     * @param done
+     * @return submitting threads
+     */
+    private static Thread[] submit(RoomEventLoops.Mailbox[] mailboxes, final AtomicReference<String> failure, final CountDownLatch done) {
+
+        Thread[] threads = new Thread[mailboxes.length];
+        for (int m = 0; m < mailboxes.length; m++) {
+            final RoomEventLoops.Mailbox mailbox = mailboxes[m];
+            threads[m] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    int[] next = new int[1];
+                    AtomicBoolean running = new AtomicBoolean();
+                    for (int i = 0; i < TASKS; i++) {
+                        if (!mailbox.execute(new OrderedTask(i, next, running, failure, done))) {
+                            failure.set("task " + i + " dropped");
+                        }
+                    }
+                }
+            });
+            threads[m].start();
+        }
+        return threads;
+    }
+
+    /**Each mailbox runs its tasks in order while sharing the loops with others*/
+    @Test
+    public void testOrder() throws InterruptedException {
+
+        RoomEventLoops.Mailbox[] mailboxes = new RoomEventLoops.Mailbox[8];
+        for (int m = 0; m < mailboxes.length; m++) {
+            mailboxes[m] = loops.register("room" + m);
+        }
+        AtomicReference<String> failure = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(mailboxes.length * TASKS);
+        submit(mailboxes, failure, done);
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertNull(failure.get());
+    }
+
+    /**
+     * Register mailboxes until two share a loop
+     * @param loops
+     * @return the two mailboxes
+     */
+    private static RoomEventLoops.Mailbox[] registerSharing(RoomEventLoops loops) {
+
+        RoomEventLoops.Mailbox[] byLoop = new RoomEventLoops.Mailbox[loops.getLoopCount()];
+        for (int i = 0;; i++) {
+            RoomEventLoops.Mailbox mailbox = loops.register("room" + i);
+            if (byLoop[mailbox.getLoop()] != null) {
+                return new RoomEventLoops.Mailbox[]{byLoop[mailbox.getLoop()], mailbox};
+            }
+            byLoop[mailbox.getLoop()] = mailbox;
+        }
+    }
+
+    /**Mailboxes moved to another loop keep their order and never run on two loops at once*/
+    @Test
+    public void testOrderWhileRebalancing() throws InterruptedException {
+
+        RoomEventLoops.Mailbox[] mailboxes = registerSharing(loops);
+        AtomicReference<String> failure = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(mailboxes.length * TASKS);
+        submit(mailboxes, failure, done);
+        while (!done.await(1, TimeUnit.MILLISECONDS)) {
+            loops.rebalance();
+        }
+        assertNull(failure.get());
+    }
+
+    /**The hottest of two busy mailboxes on one loop is moved to an idle loop*/
+    @Test
+    public void testRebalance() throws InterruptedException {
+
+        RoomEventLoops.Mailbox[] mailboxes = registerSharing(loops);
+        int shared = mailboxes[0].getLoop();
+        AtomicReference<String> failure = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(mailboxes.length * TASKS);
+        Thread[] threads = submit(mailboxes, failure, done);
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertTrue(loops.rebalance());
+        assertTrue(mailboxes[0].getLoop() != shared || mailboxes[1].getLoop() != shared);
+        //the loads were reset by the move
+        assertFalse(loops.rebalance());
+    }
+
+    /**Mailboxes are spread over the loops and a closed one drops its tasks*/
+    @Test
+    public void testRegistration() {
+
+        RoomEventLoops.Mailbox first = loops.register("a");
+        RoomEventLoops.Mailbox second = loops.register("b");
+        assertEquals(3, loops.getLoopCount());
+        assertFalse(first.getLoop() == second.getLoop());
+        loops.unregister(first);
+        assertFalse(first.execute(new Runnable() {
+
+            @Override
+            public void run() {
+            }
+        }));
+    }
+
+}
@@ -0,0 +1,83 @@
+package chatroom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * SymbolTableTest class
+ * Ids are dense, stable until released and map back to the interned names.
+ * @author Zhao Zhengyang
+ */
+public class SymbolTableTest {
+
+    /**Ids are given from 0 in order and interning again gives the same id*/
+    @Test
+    public void testIntern() {
+
+        SymbolTable table = new SymbolTable();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, table.intern("name" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, table.intern("name" + i));
+            assertEquals(i, table.lookup("name" + i));
+            assertEquals("name" + i, table.getName(i));
+        }
+        assertEquals(SymbolTable.NO_SYMBOL, table.lookup("unknown"));
+        assertEquals(SymbolTable.NO_SYMBOL, table.lookup((String) null));
+        assertNull(table.getName(1000));
+        assertNull(table.getName(SymbolTable.NO_SYMBOL));
+    }
+
+    /**Equal names are replaced by the first one interned*/
+    @Test
+    public void testInternName() {
+
+        SymbolTable table = new SymbolTable();
+        String first = new String("lobby");
+        assertSame(first, table.internName(first));
+        assertSame(first, table.internName(new String("lobby")));
+    }
+
+    /**Arrays map element by element and never give new ids*/
+    @Test
+    public void testArrays() {
+
+        SymbolTable table = new SymbolTable();
+        table.intern("a");
+        table.intern("b");
+        assertArrayEquals(new int[]{1, SymbolTable.NO_SYMBOL, 0}, table.lookup(new String[]{"b", "c", "a"}));
+        assertEquals(SymbolTable.NO_SYMBOL, table.lookup("c"));
+        assertArrayEquals(new String[]{"a", null, "b"}, table.getNames(new int[]{0, 5, 1}));
+    }
+
+    /**Released ids are forgotten and given again, the table does not grow with churn*/
+    @Test
+    public void testRelease() {
+
+        SymbolTable table = new SymbolTable();
+        for (int i = 0; i < 100; i++) {
+            table.intern("name" + i);
+        }
+        table.release(7);
+        table.release(42);
+        table.release(42);
+        assertEquals(SymbolTable.NO_SYMBOL, table.lookup("name7"));
+        assertNull(table.getName(42));
+        assertEquals(98, table.getCount());
+        assertEquals(42, table.intern("new1"));
+        assertEquals(7, table.intern("new2"));
+        assertEquals(100, table.intern("new3"));
+        assertEquals("new2", table.getName(7));
+        assertEquals(41, table.lookup("name41"));
+        for (int i = 0; i < 10000; i++) {
+            table.release(table.intern("churn" + i));
+        }
+        assertEquals(101, table.getCount());
+        assertEquals(101, table.intern("last"));
+    }
+
+}